@@ -0,0 +1,622 @@
+package place.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Observer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import place.PlaceBoard;
+import place.PlaceBoardObservable;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.NetworkServer;
+import place.network.PlaceCodec;
+import place.network.PlaceConnection;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+/**
+ * The baseline every optimization of the hot paths is judged against: the board, the wire formats, the fan-out of
+ * tiles to every user and the notification of a client's observers, as JMH benchmarks.
+ *
+ * Run them with the build, using the following:
+ *     <pre>$ gradle jmh [-PjmhInclude=REGEX]</pre>
+ * Every benchmark whose name matches the expression is run (all of them if none is given), such as "board" or
+ * "fanOut". Each one is printed as the time a single operation takes; a fan-out operation is one tile placed and
+ * written to every user.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class HotPathBenchmark
+{
+    /**
+     * The square dimension of the boards tiles are set on and read from.
+     */
+    private static final int DIM = 1024;
+
+    /**
+     * The square dimension of the boards that are printed or sent whole.
+     */
+    private static final int SMALL_DIM = 64;
+
+    /**
+     * The number of random tiles cycled through (a power of two, so the next one is a mask away).
+     */
+    private static final int TILES = 1 << 16;
+
+    /**
+     * The number of tiles in a batch of TILE_CHANGES.
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * The number of tiles placed by one call of the fan-out benchmark, before waiting for every user to be sent the
+     * last of them (waiting after every tile would measure the tick instead).
+     */
+    private static final int FAN_OUT_TILES = 4096;
+
+    /**
+     * The most users the fan-out is measured with (the largest of FanOut's users).
+     */
+    private static final int MOST_USERS = 256;
+
+    // THE BOARD ================================
+
+    /**
+     * Sets a tile on a board.
+     *
+     * @param board The board.
+     * @param tiles The tiles to set.
+     */
+    @Benchmark
+    public void boardSetTile(Board board, Tiles tiles)
+    {
+        board.board.setTile(tiles.next());
+    }
+
+    /**
+     * Builds a tile out of a board.
+     *
+     * @param board The board.
+     * @param tiles The tiles to read the positions of.
+     *
+     * @return The tile.
+     */
+    @Benchmark
+    public PlaceTile boardGetTile(Board board, Tiles tiles)
+    {
+        PlaceTile at = tiles.next();
+        return board.board.getTile(at.getRow(), at.getCol());
+    }
+
+    /**
+     * Prints a small board with every tile set.
+     *
+     * @param board The board.
+     *
+     * @return The board as text.
+     */
+    @Benchmark
+    public String boardToString(Board board)
+    {
+        return board.small.toString();
+    }
+
+    // THE WIRE FORMATS ================================
+
+    /**
+     * Encodes a request with the binary codec and decodes it again.
+     *
+     * @param requests The request and the codecs.
+     *
+     * @return The request as it was decoded.
+     *
+     * @throws ProtocolException If the request can't be decoded.
+     */
+    @Benchmark
+    public PlaceRequest<?> binaryRoundTrip(Requests requests) throws ProtocolException
+    {
+        ByteBuffer frame = requests.encoder.encode(requests.request);
+        int type = frame.get(frame.position());
+        frame.position(frame.position() + PlaceCodec.HEADER_SIZE);
+        return requests.decoder.decode(type, frame);
+    }
+
+    /**
+     * Serializes a request and reads it back, the way a serialization client and server would.
+     *
+     * @param requests The request and the streams.
+     *
+     * @return The request as it was read back.
+     *
+     * @throws IOException If the request can't be serialized.
+     * @throws ClassNotFoundException If a class of the request can't be found.
+     */
+    @Benchmark
+    public PlaceRequest<?> serializedRoundTrip(Requests requests) throws IOException, ClassNotFoundException
+    {
+        return requests.loopback.roundTrip(requests.request);
+    }
+
+    // THE FAN-OUT ================================
+
+    /**
+     * Places tiles with a NetworkServer that has a number of users logged in, each one a connection that encodes
+     * everything it is sent into memory, and waits until every user has been sent the last of them. An operation is
+     * one tile, committed and written to every user. The server ticks often, so the wait for the last tick is short.
+     *
+     * @param fanOut The server and its users.
+     * @param tiles The tiles to place.
+     *
+     * @return The number of bytes encoded for every user so far.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FAN_OUT_TILES)
+    @Fork(value = 1, jvmArgsAppend = { "-Dplace.tickRate=1000", "-Dplace.outboundCapacity=16777216",
+            "-Dplace.maxConnections=" + MOST_USERS, "-Dplace.maxHostConnections=" + MOST_USERS })
+    public long fanOut(FanOut fanOut, Tiles tiles)
+    {
+        long last = 0;
+        for(int i = 0; i < FAN_OUT_TILES; ++i)
+        {
+            PlaceTile at = tiles.next();
+            last = ++fanOut.stamp;
+            fanOut.server.tileChangeRequest("user0", new PlaceTile(at.getRow(), at.getCol(), "user0", at.getColor(),
+                    last));
+        }
+        long bytes = 0;
+        for(MemoryConnection connection : fanOut.connections)
+            bytes += connection.awaitStamp(last);
+        return bytes;
+    }
+
+    // THE CLIENT'S OBSERVERS ================================
+
+    /**
+     * Notifies a client's observers of a changed tile.
+     *
+     * @param observers The model and its observers.
+     * @param tiles The tiles that change.
+     */
+    @Benchmark
+    public void observableTileChanged(Observers observers, Tiles tiles)
+    {
+        observers.model.tileChanged(tiles.next());
+    }
+
+    /**
+     * Random tiles all over a board, the same ones on every run, cycled through one at a time.
+     */
+    @State(Scope.Thread)
+    public static class Tiles
+    {
+        /**
+         * The tiles.
+         */
+        private PlaceTile[] tiles;
+
+        /**
+         * The number of tiles handed out so far.
+         */
+        private int next;
+
+        /**
+         * Makes the tiles.
+         */
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            Random random = new Random(42);
+            PlaceColor[] colors = PlaceColor.values();
+            this.tiles = new PlaceTile[TILES];
+            for(int i = 0; i < TILES; ++i)
+                this.tiles[i] = new PlaceTile(random.nextInt(DIM), random.nextInt(DIM), "user" + random.nextInt(64),
+                        colors[random.nextInt(colors.length)], i);
+        }
+
+        /**
+         * Gets the next tile.
+         *
+         * @return The tile.
+         */
+        PlaceTile next()
+        {
+            return this.tiles[this.next++ & (TILES - 1)];
+        }
+    }
+
+    /**
+     * A board to set and read tiles on, and a small one with every tile set to something other than white.
+     */
+    @State(Scope.Thread)
+    public static class Board
+    {
+        /**
+         * The board tiles are set on and read from.
+         */
+        private PlaceBoard board;
+
+        /**
+         * The board that is printed.
+         */
+        private PlaceBoard small;
+
+        /**
+         * Makes the boards.
+         */
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            this.board = new PlaceBoard(DIM);
+            this.small = new PlaceBoard(SMALL_DIM);
+            PlaceColor[] colors = PlaceColor.values();
+            for(int row = 0; row < SMALL_DIM; ++row)
+                for(int col = 0; col < SMALL_DIM; ++col)
+                    this.small.setTile(row, col, colors[(row + col) % colors.length], "user" + (row % 8),
+                            row * SMALL_DIM + col);
+        }
+    }
+
+    /**
+     * A request of each kind that matters, with the codecs and streams it is sent through.
+     */
+    @State(Scope.Thread)
+    public static class Requests
+    {
+        /**
+         * The kind of request: a single tile, a batch of BATCH tiles or a board of SMALL_DIM.
+         */
+        @Param({ "CHANGE_TILE", "TILE_CHANGES", "BOARD" })
+        public RequestType type;
+
+        /**
+         * The request.
+         */
+        private PlaceRequest<?> request;
+
+        /**
+         * The codec requests are encoded with.
+         */
+        private final PlaceCodec encoder = new PlaceCodec();
+
+        /**
+         * The codec requests are decoded with.
+         */
+        private final PlaceCodec decoder = new PlaceCodec();
+
+        /**
+         * The streams requests are serialized through.
+         */
+        private Loopback loopback;
+
+        /**
+         * Makes the request and opens the streams.
+         *
+         * @param tiles The tiles the request is made out of.
+         * @param board The board sent whole.
+         *
+         * @throws IOException If the streams can't be opened.
+         */
+        @Setup(Level.Trial)
+        public void setUp(Tiles tiles, Board board) throws IOException
+        {
+            switch(this.type)
+            {
+                case CHANGE_TILE:
+                    this.request = new PlaceRequest<>(RequestType.CHANGE_TILE, tiles.next(), 1);
+                    break;
+                case TILE_CHANGES:
+                    PlaceTile[] batch = new PlaceTile[BATCH];
+                    for(int i = 0; i < BATCH; ++i)
+                        batch[i] = tiles.next();
+                    this.request = new PlaceRequest<>(RequestType.TILE_CHANGES, batch);
+                    break;
+                default:
+                    this.request = new PlaceRequest<>(RequestType.BOARD, board.small);
+            }
+            this.loopback = new Loopback();
+        }
+    }
+
+    /**
+     * A NetworkServer with a number of users logged in.
+     */
+    @State(Scope.Benchmark)
+    public static class FanOut
+    {
+        /**
+         * The number of users.
+         */
+        @Param({ "1", "16", "" + MOST_USERS })
+        public int users;
+
+        /**
+         * The server.
+         */
+        private NetworkServer server;
+
+        /**
+         * The connection of every user.
+         */
+        private final List<MemoryConnection> connections = new ArrayList<>();
+
+        /**
+         * The stamp of the last tile placed; every tile is stamped with the number it was placed as, so a user has
+         * them all once it has the last one.
+         */
+        private long stamp;
+
+        /**
+         * Starts the server and logs every user in.
+         */
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            // the server logs every user who joins; only the results are printed
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            try
+            {
+                this.server = new NetworkServer(DIM, new PrintWriter(OutputStream.nullOutputStream(), true));
+                InetAddress local = InetAddress.getLoopbackAddress();
+                for(int i = 0; i < this.users; ++i)
+                {
+                    MemoryConnection connection = new MemoryConnection();
+                    if(!this.server.login("user" + i, local, connection))
+                        throw new IllegalStateException("user" + i + " couldn't log in.");
+                    this.connections.add(connection);
+                }
+            }
+            finally
+            {
+                System.setOut(out);
+            }
+        }
+
+        /**
+         * Stops the server.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            this.server.close();
+        }
+    }
+
+    /**
+     * A client's model of the board with a number of observers.
+     */
+    @State(Scope.Thread)
+    public static class Observers
+    {
+        /**
+         * The number of observers.
+         */
+        @Param({ "0", "1", "8" })
+        public int observers;
+
+        /**
+         * The model.
+         */
+        private PlaceBoardObservable model;
+
+        /**
+         * What the observers add up, so they do something with every tile.
+         */
+        private final long[] seen = new long[1];
+
+        /**
+         * Makes the model and adds the observers.
+         */
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            this.model = new PlaceBoardObservable();
+            this.model.initializeBoard(new PlaceBoard(DIM));
+            for(int i = 0; i < this.observers; ++i)
+            {
+                Observer observer = (observable, tile) -> this.seen[0] += ((PlaceTile) tile).getRow();
+                this.model.addObserver(observer);
+            }
+        }
+    }
+
+    /**
+     * A user's connection that encodes everything it is sent into memory, the way a binary connection would before
+     * writing it to the socket, and keeps track of the newest tile it has been sent.
+     */
+    static class MemoryConnection implements PlaceConnection
+    {
+        /**
+         * The codec of the connection.
+         */
+        private final PlaceCodec codec = new PlaceCodec();
+
+        /**
+         * The number of bytes encoded.
+         */
+        private long bytes;
+
+        /**
+         * The newest stamp of every tile sent so far.
+         */
+        private volatile long stamp;
+
+        @Override
+        public boolean isBlocking()
+        {
+            return false;
+        }
+
+        @Override
+        public synchronized void write(PlaceRequest<?> request)
+        {
+            this.bytes += this.codec.encode(request).remaining();
+            if(request.getType() == RequestType.TILE_CHANGES)
+            {
+                long newest = this.stamp;
+                for(PlaceTile tile : (PlaceTile[]) request.getData())
+                    newest = Math.max(newest, tile.getTime());
+                this.stamp = newest;
+            }
+        }
+
+        @Override
+        public int getVersion()
+        {
+            return PlaceCodec.VERSION;
+        }
+
+        /**
+         * Waits until the connection has been sent a tile.
+         *
+         * @param stamp The stamp of the tile.
+         *
+         * @return The number of bytes encoded so far.
+         */
+        long awaitStamp(long stamp)
+        {
+            while(this.stamp < stamp)
+                LockSupport.parkNanos(10_000);
+            synchronized(this)
+            {
+                return this.bytes;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            // there is nothing to close
+        }
+    }
+
+    /**
+     * An object stream that writes to itself, so a request can be serialized and read back the way a serialization
+     * client and server would, over streams that are kept open.
+     */
+    static class Loopback
+    {
+        /**
+         * Where the serialized requests are written.
+         */
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        /**
+         * The bytes that were written, as they are read back.
+         */
+        private final InputStream reader = new InputStream()
+        {
+            /**
+             * The bytes being read.
+             */
+            private byte[] bytes = new byte[0];
+
+            /**
+             * The next byte to read.
+             */
+            private int position;
+
+            @Override
+            public int read()
+            {
+                byte[] one = new byte[1];
+                return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] into, int offset, int length)
+            {
+                if(this.position == this.bytes.length)
+                {
+                    this.bytes = written.toByteArray();
+                    this.position = 0;
+                    written.reset();
+                    if(this.bytes.length == 0)
+                        return -1;
+                }
+                int count = Math.min(length, this.bytes.length - this.position);
+                System.arraycopy(this.bytes, this.position, into, offset, count);
+                this.position += count;
+                return count;
+            }
+        };
+
+        /**
+         * The stream requests are serialized with.
+         */
+        private final ObjectOutputStream out;
+
+        /**
+         * The stream requests are read back with (opened once the header has been written).
+         */
+        private ObjectInputStream in;
+
+        /**
+         * Opens the streams.
+         *
+         * @throws IOException If the stream header can't be written.
+         */
+        Loopback() throws IOException
+        {
+            this.out = new ObjectOutputStream(this.written);
+            this.out.flush();
+        }
+
+        /**
+         * Serializes a request and reads it back.
+         *
+         * @param request The request.
+         *
+         * @return The request as it was read back.
+         *
+         * @throws IOException If the request can't be serialized.
+         * @throws ClassNotFoundException If a class of the request can't be found.
+         */
+        PlaceRequest<?> roundTrip(PlaceRequest<?> request) throws IOException, ClassNotFoundException
+        {
+            // written and read the way the serialization exchange does it, but forgetting every object after, or the
+            // same request would go out as a back reference from the second time on
+            this.out.writeUnshared(request);
+            this.out.reset();
+            this.out.flush();
+            if(this.in == null)
+                this.in = new ObjectInputStream(this.reader);
+            return (PlaceRequest<?>) this.in.readUnshared();
+        }
+    }
+}
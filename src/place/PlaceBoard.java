@@ -1,47 +1,183 @@
 package place;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The board is the place that holds the colored tiles.  The place.server creates
  * the initial Board and then transmits it only once to each place.client that
  * successfully logs in to the place.server.
  *
+ * The tiles are not stored as PlaceTile objects.  Each cell is packed into three
+ * primitive arrays (a 4 bit color number, an interned owner id and a timestamp) and
+ * PlaceTile views are only built when somebody asks for one.
+ *
+ * Tiles may be set from several threads at once as long as no two of them set
+ * the same tile at the same time (the place.server locks regions of the board).
+ *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceBoard implements Serializable {
+    /** Every color, indexed by its color number */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+    /** Atomic access to the color bytes, which are shared by two neighbouring tiles */
+    private static final VarHandle COLOR_BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    /** The largest square dimension a board may have (the most whose tile count fits in an int) */
+    public static final int MAX_DIM = 46340;
+
     /** The square dimension of the board */
     public final int DIM;
-    /** The grid of tiles */
-    private PlaceTile[][] board;
+    /** The color number of every tile, two tiles per byte (even cells in the low nibble) */
+    private byte[] colors;
+    /** The owner id of every tile, an index into ownerNames */
+    private int[] owners;
+    /** The time every tile was last changed */
+    private long[] times;
+    /**
+     * Every owner that has been seen on this board, indexed by owner id.  The array is never
+     * changed once it is published; intern replaces it with a longer copy, so readers need no lock
+     */
+    private volatile String[] ownerNames;
+    /**
+     * The owner id of every owner in ownerNames (rebuilt after deserialization); an owner
+     * is only put in once its name is in ownerNames, so a lookup needs no lock
+     */
+    private transient ConcurrentHashMap<String, Integer> ownerIds;
 
     /**
      * Create a new board of all white tiles.
      *
      * @param DIM the square dimension of the board
+     * @throws IllegalArgumentException if DIM is negative or bigger than MAX_DIM
      */
     public PlaceBoard(int DIM) {
+        if (DIM < 0 || DIM > MAX_DIM) {
+            throw new IllegalArgumentException("Bad board dimension " + DIM);
+        }
         this.DIM = DIM;
-        this.board = new PlaceTile[DIM][DIM];
-        for (int row=0; row<DIM; ++row) {
-            for (int col=0; col<DIM; ++col) {
-                this.board[row][col] =
-                        new PlaceTile(row, col, "", PlaceColor.WHITE);
-            }
+        int cells = DIM * DIM;
+        this.colors = new byte[(cells + 1) / 2];
+        this.owners = new int[cells];
+        this.times = new long[cells];
+        // every tile starts out white, in both nibbles of every byte
+        int white = PlaceColor.WHITE.getNumber();
+        Arrays.fill(this.colors, (byte) (white << 4 | white));
+
+        this.ownerNames = new String[0];
+        this.ownerIds = new ConcurrentHashMap<>();
+        intern("");
+    }
+
+    /**
+     * Create a copy of another board, which stays as it is while the original changes.
+     *
+     * @param other the board to copy
+     */
+    public PlaceBoard(PlaceBoard other) {
+        this.DIM = other.DIM;
+        this.colors = other.colors.clone();
+        this.owners = other.owners.clone();
+        this.times = other.times.clone();
+        // the other board may be interning an owner right now
+        synchronized (other) {
+            this.ownerNames = other.ownerNames;
+            this.ownerIds = new ConcurrentHashMap<>(other.ownerIds);
+        }
+    }
+
+    /**
+     * Create a board out of its packed layout (as written by writePacked), such as a
+     * memory mapped snapshot of a board.  The arrays are filled in bulk, not tile by tile.
+     *
+     * @param DIM the square dimension of the board
+     * @param packed the packed layout, read from its position on
+     * @param ownerNames every owner of the board, indexed by owner id
+     * @rit.pre packed holds at least packedSize(DIM) bytes
+     */
+    public PlaceBoard(int DIM, ByteBuffer packed, List<String> ownerNames) {
+        this.DIM = DIM;
+        int cells = DIM * DIM;
+        this.colors = new byte[(cells + 1) / 2];
+        this.owners = new int[cells];
+        this.times = new long[cells];
+
+        ByteBuffer in = packed.duplicate();
+        in.get(this.colors);
+        in.asIntBuffer().get(this.owners);
+        in.position(in.position() + cells * Integer.BYTES);
+        in.asLongBuffer().get(this.times);
+
+        this.ownerNames = ownerNames.toArray(new String[0]);
+        this.ownerIds = new ConcurrentHashMap<>();
+        for (int id=0; id<this.ownerNames.length; ++id) {
+            this.ownerIds.put(this.ownerNames[id], id);
         }
     }
 
     /**
-     * Get the entire board.
+     * Get the number of bytes the packed layout of a board takes: the color numbers (two
+     * per byte), then the owner id (an int) of every tile, then the time (a long) of every tile.
+     *
+     * @param DIM the square dimension of the board
+     * @return the size in bytes
+     */
+    public static long packedSize(int DIM) {
+        long cells = (long) DIM * DIM;
+        return (cells + 1) / 2 + cells * Integer.BYTES + cells * Long.BYTES;
+    }
+
+    /**
+     * Write the packed layout of the board (see packedSize) in bulk.  The owner names
+     * that go with the owner ids are not part of it.
+     *
+     * @param out where the layout is written, from its position on (which is moved past it)
+     * @rit.pre out has at least packedSize(DIM) bytes remaining
+     */
+    public void writePacked(ByteBuffer out) {
+        out.put(this.colors);
+        out.asIntBuffer().put(this.owners);
+        out.position(out.position() + this.owners.length * Integer.BYTES);
+        out.asLongBuffer().put(this.times);
+        out.position(out.position() + this.times.length * Long.BYTES);
+    }
+
+    /**
+     * Get every owner seen on the board, indexed by the owner ids of the packed layout.
+     *
+     * @return a copy of the owner names
+     */
+    public List<String> getOwnerNames() {
+        return new ArrayList<>(Arrays.asList(this.ownerNames));
+    }
+
+    /**
+     * Get the entire board.  The grid is built from the packed storage on every call, so
+     * prefer getTile for anything but a one-off copy.
      *
      * @return the board
      */
     public PlaceTile[][] getBoard() {
-        return this.board;
+        PlaceTile[][] grid = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                grid[row][col] = getTile(row, col);
+            }
+        }
+        return grid;
     }
 
     /**
-     * Get a tile on the board
+     * Get a tile on the board.  The tile is a new view of the cell; changing it does not
+     * change the board.
      *
      * @param row row
      * @param col column
@@ -49,7 +185,81 @@ public class PlaceBoard implements Serializable {
      * @return the tile
      */
     public PlaceTile getTile(int row, int col){
-        return this.board[row][col];
+        int cell = row * this.DIM + col;
+        return new PlaceTile(row, col, this.ownerNames[this.owners[cell]],
+                COLORS[colorAt(cell)], this.times[cell]);
+    }
+
+    /**
+     * Get the color of a tile on the board without building the tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return COLORS[colorAt(row * this.DIM + col)];
+    }
+
+    /**
+     * Copy the color numbers of a whole row of the board, one per byte, without
+     * building a tile or a color for any of them.
+     *
+     * @param row row
+     * @param into where the color numbers go, from index 0
+     * @rit.pre row is on the board and into has room for DIM color numbers
+     */
+    public void getColors(int row, byte[] into) {
+        int cell = row * this.DIM;
+        for (int col=0; col<this.DIM; ++col, ++cell) {
+            into[col] = (byte) colorAt(cell);
+        }
+    }
+
+    /**
+     * Get the owner id of a tile on the board.  Owner ids are only meaningful to
+     * this board; use getOwnerName to turn one back into a username.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the owner id
+     */
+    public int getOwnerId(int row, int col) {
+        return this.owners[row * this.DIM + col];
+    }
+
+    /**
+     * Get the username behind an owner id.
+     *
+     * @param ownerId the owner id
+     * @rit.pre 0 &lt;= ownerId &lt; getOwnerCount()
+     * @return the username
+     */
+    public String getOwnerName(int ownerId) {
+        return this.ownerNames[ownerId];
+    }
+
+    /**
+     * Get the number of owners that have been seen on this board.
+     *
+     * @return the number of owner ids in use
+     */
+    public int getOwnerCount() {
+        return this.ownerNames.length;
+    }
+
+    /**
+     * Get the time a tile on the board was last changed without building the tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the time
+     */
+    public long getTime(int row, int col) {
+        return this.times[row * this.DIM + col];
     }
 
     /**
@@ -59,7 +269,52 @@ public class PlaceBoard implements Serializable {
      * @rit.pre row and column consitute a valid board coordinate
      */
     public void setTile(PlaceTile tile) {
-        this.board[tile.getRow()][tile.getCol()] = tile;
+        setTile(tile.getRow(), tile.getCol(), tile.getColor(), tile.getOwner(), tile.getTime());
+    }
+
+    /**
+     * Change a tile in the board without building a tile first.
+     *
+     * @param row row
+     * @param col column
+     * @param color the new color
+     * @param owner the new owner
+     * @param time the time of the change
+     * @rit.pre row and column consitute a valid board coordinate
+     */
+    public void setTile(int row, int col, PlaceColor color, String owner, long time) {
+        int cell = row * this.DIM + col;
+        int shift = (cell & 1) << 2;
+        // the neighbour sharing our byte may be set at the same time, so the byte is swapped in atomically
+        byte packed;
+        do {
+            packed = (byte) COLOR_BYTES.getVolatile(this.colors, cell >> 1);
+        } while (!COLOR_BYTES.compareAndSet(this.colors, cell >> 1, packed,
+                (byte) (packed & ~(0xF << shift) | color.getNumber() << shift)));
+        this.owners[cell] = intern(owner);
+        this.times[cell] = time;
+    }
+
+    /**
+     * Copy a rectangle of another board onto this one.  Owners are carried over by name,
+     * so the two boards need not share owner ids.
+     *
+     * @param other the board to copy from
+     * @param top the first row
+     * @param left the first column
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @rit.pre other has the same DIM, the rectangle is on the board and nobody changes it on other
+     */
+    public void copyTiles(PlaceBoard other, int top, int left, int rows, int cols) {
+        String[] names = other.ownerNames;
+        for (int row=top; row<top+rows; ++row) {
+            for (int col=left; col<left+cols; ++col) {
+                int cell = row * this.DIM + col;
+                setTile(row, col, COLORS[other.colorAt(cell)], names[other.owners[cell]],
+                        other.times[cell]);
+            }
+        }
     }
 
     /**
@@ -74,6 +329,62 @@ public class PlaceBoard implements Serializable {
                 tile.getCol() < this.DIM;
     }
 
+    /**
+     * Gets the color number (0-F) of a cell out of the packed color array.
+     *
+     * @param cell the row-major cell index
+     * @return the color number
+     */
+    private int colorAt(int cell) {
+        return this.colors[cell >> 1] >> ((cell & 1) << 2) & 0xF;
+    }
+
+    /**
+     * Gets the owner id for a username, giving it the next id if it has never been seen.
+     * Only a new owner takes the board's lock.
+     *
+     * @param owner the username
+     * @return the owner id
+     */
+    private int intern(String owner) {
+        Integer id = this.ownerIds.get(owner);
+        return (id != null) ? id : addOwner(owner);
+    }
+
+    /**
+     * Gives a username the next owner id, unless another thread got there first.
+     *
+     * @param owner the username
+     * @return the owner id
+     */
+    private synchronized int addOwner(String owner) {
+        Integer id = this.ownerIds.get(owner);
+        if (id == null) {
+            id = this.ownerNames.length;
+            // the longer copy is filled in before it is published, so no reader sees it half done
+            String[] names = Arrays.copyOf(this.ownerNames, id + 1);
+            names[id] = owner;
+            this.ownerNames = names;
+            this.ownerIds.put(owner, id);
+        }
+        return id;
+    }
+
+    /**
+     * Rebuilds the owner lookup once a board has been read off the wire.
+     *
+     * @param in the stream the board is read from
+     * @throws IOException if the stream can't be read
+     * @throws ClassNotFoundException if a class of the board can't be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.ownerIds = new ConcurrentHashMap<>();
+        for (int id=0; id<this.ownerNames.length; ++id) {
+            this.ownerIds.put(this.ownerNames[id], id);
+        }
+    }
+
     /**
      * Return a string representation of the board.  It displays the tile color as
      * a single character hex value in the range 0-F.
@@ -82,11 +393,11 @@ public class PlaceBoard implements Serializable {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder("");
+        StringBuilder builder = new StringBuilder(DIM * (DIM + 1));
         for (int row=0; row<DIM; ++row) {
             builder.append("\n");
             for (int col=0; col<DIM; ++col) {
-                builder.append(this.board[row][col].getColor());
+                builder.append(Character.toUpperCase(Character.forDigit(colorAt(row * DIM + col), 16)));
             }
         }
         return builder.toString();
@@ -0,0 +1,450 @@
+package place;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the colors of a PlaceBoard out as a file, a row at a time, straight to an OutputStream or a channel.
+ *
+ * Nothing the size of the board is ever built: a row of color numbers is read off the board, encoded into an output
+ * buffer of a fixed size, and the buffer is written out whenever it fills. An exporter keeps its buffers (and its
+ * Deflater) from one export to the next, so writing frame after frame of a timelapse costs no allocation beyond the
+ * first. The same memory goes for a board of 64 tiles across or of 8192.
+ *
+ * The board should be one that doesn't change while it is written (such as a snapshot); the changes made to it since it
+ * was taken can be laid over it as it is written, so nobody has to copy the board or hold it still for the export.
+ *
+ * An exporter is used by one thread at a time.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class PlaceBoardExporter
+{
+    /**
+     * The formats a board can be exported in.
+     */
+    public enum Format
+    {
+        /**
+         * Text: the color number of every tile as a hex digit (as PlaceBoard.toString has them), a line per row.
+         */
+        HEX("text/plain; charset=us-ascii"),
+
+        /**
+         * Raw 24 bit color: the red, green and blue bytes of every tile, row by row, with no header (what a video
+         * encoder takes as rgb24 frames of DIM x DIM).
+         */
+        RGB("application/octet-stream"),
+
+        /**
+         * A PNG image with one pixel per tile, in 4 bit indexed color (the palette is the 16 PlaceColors).
+         */
+        PNG("image/png");
+
+        /**
+         * The MIME type of the format.
+         */
+        private final String contentType;
+
+        /**
+         * Creates a format.
+         *
+         * @param contentType The MIME type of the format.
+         */
+        Format(String contentType)
+        {
+            this.contentType = contentType;
+        }
+
+        /**
+         * Gets the MIME type of the format.
+         *
+         * @return The MIME type.
+         */
+        public String getContentType()
+        {
+            return this.contentType;
+        }
+    }
+
+    /**
+     * The size of the output buffer, the most memory an export takes apart from a row of the board.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The most compressed bytes in a single IDAT chunk of a PNG (small enough that a chunk and its header fit in the
+     * output buffer).
+     */
+    private static final int MAX_IDAT = 32 * 1024;
+
+    /**
+     * The hex digit of every color number.
+     */
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The eight bytes every PNG starts with.
+     */
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    /**
+     * The types of the PNG chunks that are written.
+     */
+    private static final byte[] IHDR = ascii("IHDR"), PLTE = ascii("PLTE"), IDAT = ascii("IDAT"), IEND = ascii("IEND");
+
+    /**
+     * The red, green and blue of every color, by color number (the PNG palette as well as the RGB lookup).
+     */
+    private static final byte[] PALETTE = palette();
+
+    /**
+     * The format this exporter writes.
+     */
+    private final Format format;
+
+    /**
+     * The output buffer; everything written goes through it.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The compressed bytes of the next IDAT chunk (PNG only).
+     */
+    private final byte[] idat;
+
+    /**
+     * Compresses the rows of a PNG (PNG only, reset for every export).
+     */
+    private final Deflater deflater;
+
+    /**
+     * The data of the header chunk of a PNG.
+     */
+    private final ByteBuffer header = ByteBuffer.allocate(13);
+
+    /**
+     * The checksum of every PNG chunk.
+     */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * The color numbers of the row being written (grown the first time a bigger board is exported).
+     */
+    private byte[] row = new byte[0];
+
+    /**
+     * A row as it is encoded for the PNG filter (its filter byte, then two tiles a byte).
+     */
+    private byte[] packed = new byte[0];
+
+    /**
+     * The tiles changed since the board was taken, in the order they are written: each one's cell in the high half
+     * and its index in the changes in the low half, so sorting them keeps the latest of a cell last (grown the first
+     * time there are more changes).
+     */
+    private long[] overlay = new long[0];
+
+    /**
+     * The number of compressed bytes in idat.
+     */
+    private int idatLength;
+
+    /**
+     * The stream being written to (null when writing to a channel).
+     */
+    private OutputStream stream;
+
+    /**
+     * The channel being written to (null when writing to a stream).
+     */
+    private WritableByteChannel channel;
+
+    /**
+     * Creates an exporter.
+     *
+     * @param format The format it writes.
+     */
+    public PlaceBoardExporter(Format format)
+    {
+        this.format = format;
+        this.idat = (format == Format.PNG) ? new byte[MAX_IDAT] : null;
+        this.deflater = (format == Format.PNG) ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    /**
+     * Gets the format this exporter writes.
+     *
+     * @return The format.
+     */
+    public Format getFormat()
+    {
+        return this.format;
+    }
+
+    /**
+     * Writes a board to a stream. The stream is flushed but not closed.
+     *
+     * @param board The board, which mustn't change while it is written.
+     * @param newer The tiles changed since the board was taken, oldest first, which are written in place of what the
+     *              board has (empty for none).
+     * @param out The stream.
+     *
+     * @throws IOException If the stream can't be written to.
+     */
+    public void export(PlaceBoard board, PlaceTile[] newer, OutputStream out) throws IOException
+    {
+        this.stream = out;
+        try
+        {
+            export(board, newer);
+            out.flush();
+        }
+        finally
+        {
+            this.stream = null;
+        }
+    }
+
+    /**
+     * Writes a board to a channel. The channel is not closed.
+     *
+     * @param board The board, which mustn't change while it is written.
+     * @param newer The tiles changed since the board was taken, oldest first, which are written in place of what the
+     *              board has (empty for none).
+     * @param out The channel.
+     *
+     * @throws IOException If the channel can't be written to.
+     */
+    public void export(PlaceBoard board, PlaceTile[] newer, WritableByteChannel out) throws IOException
+    {
+        this.channel = out;
+        try
+        {
+            export(board, newer);
+        }
+        finally
+        {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Writes a board to whichever of the stream or the channel is set.
+     *
+     * @param board The board.
+     * @param newer The tiles changed since the board was taken, oldest first.
+     *
+     * @throws IOException If the board can't be written.
+     */
+    private void export(PlaceBoard board, PlaceTile[] newer) throws IOException
+    {
+        if(this.row.length < board.DIM)
+        {
+            this.row = new byte[board.DIM];
+            this.packed = new byte[1 + (board.DIM + 1) / 2];
+        }
+        // in the order they are written, sorted as plain numbers so nothing is allocated
+        if(this.overlay.length < newer.length)
+            this.overlay = new long[newer.length];
+        for(int i = 0; i < newer.length; ++i)
+            this.overlay[i] = (long) (newer[i].getRow() * board.DIM + newer[i].getCol()) << 32 | i;
+        Arrays.sort(this.overlay, 0, newer.length);
+        this.buffer.clear();
+
+        if(this.format == Format.PNG)
+            startPng(board.DIM);
+        int next = 0;
+        for(int row = 0; row < board.DIM; ++row)
+        {
+            board.getColors(row, this.row);
+            for(; next < newer.length && (int) (this.overlay[next] >>> 32) / board.DIM == row; ++next)
+            {
+                PlaceTile tile = newer[(int) this.overlay[next]];
+                this.row[tile.getCol()] = (byte) tile.getColor().getNumber();
+            }
+            writeRow(board.DIM);
+        }
+        if(this.format == Format.PNG)
+            endPng();
+
+        flush();
+    }
+
+    /**
+     * Writes the row of color numbers in the format of the exporter.
+     *
+     * @param dim The number of tiles in the row.
+     *
+     * @throws IOException If the buffer can't be written out.
+     */
+    private void writeRow(int dim) throws IOException
+    {
+        switch(this.format)
+        {
+            case HEX:
+                for(int col = 0; col < dim; ++col)
+                {
+                    room(1);
+                    this.buffer.put(HEX_DIGITS[this.row[col]]);
+                }
+                room(1);
+                this.buffer.put((byte) '\n');
+                break;
+            case RGB:
+                for(int col = 0; col < dim; ++col)
+                {
+                    room(3);
+                    this.buffer.put(PALETTE, this.row[col] * 3, 3);
+                }
+                break;
+            case PNG:
+                // filter type 0 (none): the rows of a board are runs of a few colors, which deflate does well on
+                this.packed[0] = 0;
+                for(int col = 0; col < dim; col += 2)
+                {
+                    int right = (col + 1 < dim) ? this.row[col + 1] : 0;
+                    this.packed[1 + col / 2] = (byte) (this.row[col] << 4 | right);
+                }
+                this.deflater.setInput(this.packed, 0, 1 + (dim + 1) / 2);
+                while(!this.deflater.needsInput())
+                    deflate();
+                break;
+        }
+    }
+
+    /**
+     * Writes the start of a PNG: the signature, the header and the palette.
+     *
+     * @param dim The square dimension of the board.
+     *
+     * @throws IOException If the buffer can't be written out.
+     */
+    private void startPng(int dim) throws IOException
+    {
+        this.deflater.reset();
+        this.idatLength = 0;
+        room(PNG_SIGNATURE.length);
+        this.buffer.put(PNG_SIGNATURE);
+
+        // width, height, 4 bits a pixel, indexed color, deflate, no filter method beyond the standard, no interlace
+        this.header.clear();
+        this.header.putInt(dim).putInt(dim).put((byte) 4).put((byte) 3);
+        chunk(IHDR, this.header.array(), this.header.capacity());
+        chunk(PLTE, PALETTE, PALETTE.length);
+    }
+
+    /**
+     * Writes the end of a PNG: whatever deflate still has, and the end chunk.
+     *
+     * @throws IOException If the buffer can't be written out.
+     */
+    private void endPng() throws IOException
+    {
+        this.deflater.finish();
+        while(!this.deflater.finished())
+            deflate();
+        if(this.idatLength > 0)
+            chunk(IDAT, this.idat, this.idatLength);
+        chunk(IEND, this.idat, 0);
+    }
+
+    /**
+     * Takes whatever deflate has to give into idat, writing out an IDAT chunk whenever idat fills.
+     *
+     * @throws IOException If the buffer can't be written out.
+     */
+    private void deflate() throws IOException
+    {
+        this.idatLength += this.deflater.deflate(this.idat, this.idatLength, MAX_IDAT - this.idatLength);
+        if(this.idatLength == MAX_IDAT)
+        {
+            chunk(IDAT, this.idat, this.idatLength);
+            this.idatLength = 0;
+        }
+    }
+
+    /**
+     * Writes a PNG chunk: its length, its type, its data and the checksum of the type and data.
+     *
+     * @param type The type of the chunk.
+     * @param data The data of the chunk, from index 0.
+     * @param length The length of the data.
+     *
+     * @throws IOException If the buffer can't be written out.
+     */
+    private void chunk(byte[] type, byte[] data, int length) throws IOException
+    {
+        room(12 + length);
+        this.crc.reset();
+        this.crc.update(type);
+        this.crc.update(data, 0, length);
+        this.buffer.putInt(length).put(type).put(data, 0, length).putInt((int) this.crc.getValue());
+    }
+
+    /**
+     * Makes room in the buffer, writing out what it has if it doesn't have room.
+     *
+     * @param bytes The number of bytes that have to fit (at most BUFFER_SIZE).
+     *
+     * @throws IOException If the buffer can't be written out.
+     */
+    private void room(int bytes) throws IOException
+    {
+        if(this.buffer.remaining() < bytes)
+            flush();
+    }
+
+    /**
+     * Writes out everything in the buffer and empties it.
+     *
+     * @throws IOException If the stream or the channel can't be written to.
+     */
+    private void flush() throws IOException
+    {
+        this.buffer.flip();
+        if(this.stream != null)
+            this.stream.write(this.buffer.array(), 0, this.buffer.limit());
+        else
+        {
+            while(this.buffer.hasRemaining())
+                this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Makes the palette: the red, green and blue of every color, by color number.
+     *
+     * @return The palette.
+     */
+    private static byte[] palette()
+    {
+        byte[] palette = new byte[PlaceColor.TOTAL_COLORS * 3];
+        for(PlaceColor color : PlaceColor.values())
+        {
+            palette[color.getNumber() * 3] = (byte) color.getRed();
+            palette[color.getNumber() * 3 + 1] = (byte) color.getGreen();
+            palette[color.getNumber() * 3 + 2] = (byte) color.getBlue();
+        }
+        return palette;
+    }
+
+    /**
+     * Gets the bytes of text that is only ASCII.
+     *
+     * @param text The text.
+     *
+     * @return Its bytes.
+     */
+    private static byte[] ascii(String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -69,6 +69,47 @@ public class PlaceBoardObservable extends Observable
         return this.board;
     }
 
+    /**
+     * When the server sends a tick's worth of changed tiles this method applies all of them before observers are
+     * told, so they can update their view in one go.
+     *
+     * @param tiles The tiles that were changed. They get sent along with notifyObservers as the array (comes in as the
+     *              Object in update(Observable, Object)).
+     */
+    public void tilesChanged(PlaceTile[] tiles)
+    {
+        // SETTING PHASE ==============================
+        // sets every new tile
+        for(PlaceTile tile : tiles)
+            this.board.setTile(tile);
+
+        // NOTIFICATION PHASE ==============================
+        // set changed
+        super.setChanged();
+        // notify the observers once for THE WHOLE BATCH
+        super.notifyObservers(tiles);
+    }
+
+    /**
+     * When the server sends a fresh board (because we fell too far behind for it to send every change) this method
+     * replaces ours with it so that observers can redraw their view.
+     *
+     * @param board The PlaceBoard the server sent. It gets sent along with notifyObservers instead of a tile, so
+     *              observers know to redraw everything.
+     */
+    public void resync(PlaceBoard board)
+    {
+        // SETTING PHASE ==============================
+        // replaces our board (the DIM never changes)
+        this.board = board;
+
+        // NOTIFICATION PHASE ==============================
+        // set changed
+        super.setChanged();
+        // notify the observers that the WHOLE BOARD has changed
+        super.notifyObservers(board);
+    }
+
     /**
      * When a PlaceTile gets changed this method is invoked so that observers can update their view. (The "model" aspect
      * of Place).
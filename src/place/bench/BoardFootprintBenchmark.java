@@ -0,0 +1,126 @@
+package place.bench;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+/**
+ * Compares the heap used by the packed PlaceBoard against the old one-PlaceTile-per-cell grid.
+ *
+ * Run on the command line using the following:
+ *     <pre>$ java -Xmx4g place.bench.BoardFootprintBenchmark [dim ...]</pre>
+ * The default dimensions are 256, 1024 and 4096. The object grid for 4096 needs a few gigabytes of heap; if it
+ * doesn't fit it is reported as out of memory instead.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class BoardFootprintBenchmark
+{
+    /**
+     * The board dimensions measured when none are given.
+     */
+    private static final int[] DEFAULT_DIMS = {256, 1024, 4096};
+
+    /**
+     * The number of bytes in a mebibyte.
+     */
+    private static final double MB = 1024 * 1024;
+
+    /**
+     * Keeps the measured board reachable until its heap usage has been read.
+     */
+    private static Object retained;
+
+    /**
+     * Measures the packed board and the object grid for each dimension and prints a table of the results.
+     *
+     * @param args The board dimensions to measure (optional).
+     */
+    public static void main(String[] args)
+    {
+        int[] dims = DEFAULT_DIMS;
+        if(args.length > 0)
+        {
+            dims = new int[args.length];
+            for(int i = 0; i < args.length; ++i)
+                dims[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf("%8s %16s %16s %10s%n", "DIM", "PlaceTile[][]", "PlaceBoard", "ratio");
+        for(int dim : dims)
+        {
+            double grid = measure(() -> buildGrid(dim));
+            double packed = measure(() -> new PlaceBoard(dim));
+            System.out.printf("%8d %16s %16s %10s%n", dim, format(grid), format(packed),
+                    (grid > 0 && packed > 0) ? String.format("%.1fx", grid / packed) : "-");
+        }
+    }
+
+    /**
+     * Builds a board laid out the way PlaceBoard used to store it: one PlaceTile per cell.
+     *
+     * @param dim The square dimension of the board.
+     *
+     * @return The grid of tiles.
+     */
+    private static PlaceTile[][] buildGrid(int dim)
+    {
+        PlaceTile[][] grid = new PlaceTile[dim][dim];
+        for(int row = 0; row < dim; ++row)
+            for(int col = 0; col < dim; ++col)
+                grid[row][col] = new PlaceTile(row, col, "", PlaceColor.WHITE);
+        return grid;
+    }
+
+    /**
+     * Measures how much heap a board holds on to once it has been built.
+     *
+     * @param builder Builds the board being measured.
+     *
+     * @return The number of bytes retained by the board, or -1 if it doesn't fit in the heap.
+     */
+    private static double measure(java.util.function.Supplier<Object> builder)
+    {
+        long before = usedHeap();
+        try
+        {
+            retained = builder.get();
+        }
+        catch(OutOfMemoryError e)
+        {
+            retained = null;
+            return -1;
+        }
+        long after = usedHeap();
+        retained = null;
+        return after - before;
+    }
+
+    /**
+     * Gets the heap in use after asking the collector to settle.
+     *
+     * @return The number of bytes of heap in use.
+     */
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 4; ++i)
+        {
+            System.gc();
+            try { Thread.sleep(50); } catch(InterruptedException e) { /* do nothing */ }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Formats a number of bytes as mebibytes.
+     *
+     * @param bytes The number of bytes (or -1 if it didn't fit).
+     *
+     * @return The formatted size.
+     */
+    private static String format(double bytes)
+    {
+        return (bytes < 0) ? "out of memory" : String.format("%.2f MB", bytes / MB);
+    }
+}
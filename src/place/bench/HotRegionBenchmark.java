@@ -0,0 +1,285 @@
+package place.bench;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.BoardChunk;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+
+/**
+ * Starts a PlaceServer in this JVM and has a crowd of bots hammer a small region of the board while a few observers
+ * count what the server sends them.
+ *
+ * Run on the command line using the following:
+ *     <pre>$ java [-Dplace.tickRate=N] place.bench.HotRegionBenchmark [placers] [observers] [seconds]</pre>
+ * The default is 200 placers on a 4x4 region, 4 observers and 10 seconds. Before tick batching every accepted tile
+ * was one frame (and one write) to every user, so the "unbatched" columns are simply the placed tiles.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class HotRegionBenchmark
+{
+    /**
+     * The square dimension of the board the server is started with.
+     */
+    private static final int DIM = 64;
+
+    /**
+     * The square dimension of the region the placers fight over.
+     */
+    private static final int REGION = 4;
+
+    /**
+     * How long a placer waits between tiles (over the server's cool down, with room for scheduling jitter).
+     */
+    private static final int PLACE_INTERVAL = 600;
+
+    /**
+     * The size of a TILE_CHANGED frame in the binary format (header, row, col, owner, time).
+     */
+    private static final int TILE_CHANGED_BYTES = 5 + 1 + 1 + 2 + 6;
+
+    /**
+     * Runs the benchmark and prints the results.
+     *
+     * @param args The number of placers, observers and seconds (all optional).
+     *
+     * @throws Exception If the server can't be started or a client fails.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int placers = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int observers = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+
+        // a single host is about to open every connection, so the limits have to make room
+        System.setProperty("place.maxConnections", Integer.toString(placers + observers));
+        System.setProperty("place.maxHostConnections", Integer.toString(placers + observers));
+
+        // every run starts from a blank board, whatever an earlier run left behind
+        System.setProperty("place.journal", "false");
+
+        int port;
+        try(ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        startServer(port);
+
+        LongAdder sent = new LongAdder();
+        LongAdder frames = new LongAdder();
+        LongAdder tiles = new LongAdder();
+        LongAdder bytes = new LongAdder();
+
+        // observers only read, counting every frame, tile and byte
+        for(int i = 0; i < observers; ++i)
+        {
+            PlaceExchange exchange = login(new CountingSocket("localhost", port, bytes), "observer" + i);
+            daemon(() -> {
+                while(true)
+                {
+                    PlaceRequest<?> request = exchange.read();
+                    frames.increment();
+                    if(request.getType() == PlaceRequest.RequestType.TILE_CHANGES)
+                        tiles.add(((PlaceTile[]) request.getData()).length);
+                    else if(request.getType() == PlaceRequest.RequestType.TILE_CHANGED)
+                        tiles.increment();
+                }
+            });
+        }
+
+        // placers read (and throw away) everything so they never fall behind, and place a tile every interval
+        List<PlaceExchange> placing = new ArrayList<>(placers);
+        for(int i = 0; i < placers; ++i)
+        {
+            PlaceExchange exchange = login(new Socket("localhost", port), "placer" + i);
+            daemon(() -> {
+                while(true)
+                    exchange.read();
+            });
+            placing.add(exchange);
+        }
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        PlaceColor[] colors = PlaceColor.values();
+        for(int i = 0; i < placers; ++i)
+        {
+            PlaceExchange exchange = placing.get(i);
+            String name = "placer" + i;
+            int offset = i;
+            daemon(() -> {
+                for(int n = offset; System.currentTimeMillis() < end; ++n)
+                {
+                    exchange.write(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, new PlaceTile(
+                            n % REGION, n / REGION % REGION, name, colors[n % colors.length])));
+                    sent.increment();
+                    Thread.sleep(PLACE_INTERVAL);
+                }
+            });
+        }
+
+        Thread.sleep(seconds * 1000L + 500);
+
+        double perObserver = Math.max(1, observers) * (double) seconds;
+        System.out.printf("%d placers on a %dx%d region, %d observers, %ds%n", placers, REGION, REGION, observers,
+                seconds);
+        System.out.printf("placed tiles        %10.0f /s%n", sent.sum() / (double) seconds);
+        System.out.printf("per observer        %10.0f frames/s  %10.0f tiles/s  %10.0f bytes/s%n",
+                frames.sum() / perObserver, tiles.sum() / perObserver, bytes.sum() / perObserver);
+        System.out.printf("unbatched estimate  %10.0f frames/s  %10.0f tiles/s  %10.0f bytes/s%n",
+                sent.sum() / (double) seconds, sent.sum() / (double) seconds,
+                sent.sum() * (double) TILE_CHANGED_BYTES / seconds);
+        System.exit(0);
+    }
+
+    /**
+     * Connects a binary client and logs it in.
+     *
+     * @param socket The connection to the server.
+     * @param username The username to log in as.
+     *
+     * @return The exchange, with the login replies already read.
+     *
+     * @throws Exception If the login fails.
+     */
+    private static PlaceExchange login(Socket socket, String username) throws Exception
+    {
+        PlaceExchange exchange = PlaceExchange.connect(socket, true);
+        exchange.write(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username));
+        if(exchange.read().getType() != PlaceRequest.RequestType.LOGIN_SUCCESS)
+            throw new IllegalStateException(username + " couldn't log in");
+        // the board comes whole or in chunks, the last of which says so
+        PlaceRequest<?> board;
+        do
+        {
+            board = exchange.read();
+        }
+        while(board.getType() == PlaceRequest.RequestType.BOARD_CHUNK && !((BoardChunk) board.getData()).isLast());
+        return exchange;
+    }
+
+    /**
+     * Something a daemon thread runs, which may throw (the thread just ends).
+     */
+    private interface Task
+    {
+        /**
+         * Runs the task.
+         *
+         * @throws Exception If anything fails.
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs a task on a daemon thread.
+     *
+     * @param task The task.
+     */
+    private static void daemon(Task task)
+    {
+        Thread thread = new Thread(() -> {
+            try
+            {
+                task.run();
+            }
+            catch(Exception e)
+            {
+                // the connection closed, we're done
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts a PlaceServer on a thread of its own.
+     *
+     * @param port The port it listens on.
+     *
+     * @throws InterruptedException If we are interrupted while waiting for it to come up.
+     */
+    private static void startServer(int port) throws InterruptedException
+    {
+        Thread server = new Thread(() -> PlaceServer.main(new String[]{Integer.toString(port), Integer.toString(DIM)}),
+                "PlaceServer");
+        server.setDaemon(true);
+        server.start();
+
+        // waits until it takes connections
+        while(true)
+        {
+            try
+            {
+                // the connection was only to see if it is taken, so it is closed straight away
+                new Socket("localhost", port).close();
+                return;
+            }
+            catch(IOException e)
+            {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * A socket which counts every byte read from it.
+     */
+    private static class CountingSocket extends Socket
+    {
+        /**
+         * Where the bytes are counted.
+         */
+        private final LongAdder bytes;
+
+        /**
+         * Connects to a server.
+         *
+         * @param host The host of the server.
+         * @param port The port of the server.
+         * @param bytes Where the bytes are counted.
+         *
+         * @throws IOException If the connection can't be made.
+         */
+        CountingSocket(String host, int port, LongAdder bytes) throws IOException
+        {
+            super(host, port);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new FilterInputStream(super.getInputStream())
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    int b = super.read();
+                    if(b >= 0)
+                        bytes.increment();
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException
+                {
+                    int read = super.read(buffer, offset, length);
+                    if(read > 0)
+                        bytes.add(read);
+                    return read;
+                }
+            };
+        }
+    }
+}
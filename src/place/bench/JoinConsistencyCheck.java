@@ -0,0 +1,266 @@
+package place.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.BoardChunk;
+import place.network.NetworkServer;
+import place.network.PlaceCodec;
+import place.network.PlaceConnection;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+/**
+ * Checks that a user who joins while tiles are being placed ends up with the same board as the server: whatever board
+ * they are sent when they log in (the cached snapshot, as a BOARD or as BOARD_CHUNKs) followed by every batch of
+ * changes they are sent after it has to come out as the board every tile was placed on, not a tile more or less.
+ *
+ * Run on the command line using the following:
+ *     <pre>$ java place.bench.JoinConsistencyCheck [placers] [joiners] [seconds]</pre>
+ * The placers each place tiles as fast as they can from threads of their own, for the given number of seconds, while
+ * the joiners log in one after the other. Half of the joiners are binary clients (sent chunks, which go through the
+ * codec like they would on the wire) and half speak Java serialization (sent the whole board). Once the placers are
+ * done every joiner's board is compared to the tiles that were placed; it exits with 1 on the first one that differs.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class JoinConsistencyCheck
+{
+    /**
+     * The square dimension of the board.
+     */
+    private static final int DIM = 256;
+
+    /**
+     * The number of threads placing tiles when none is given.
+     */
+    private static final int DEFAULT_PLACERS = 4;
+
+    /**
+     * The number of users joining while the tiles are placed when none is given.
+     */
+    private static final int DEFAULT_JOINERS = 64;
+
+    /**
+     * The number of seconds tiles are placed for when none is given.
+     */
+    private static final int DEFAULT_SECONDS = 5;
+
+    /**
+     * The number of milliseconds the joiners are given to be sent the last of the tiles.
+     */
+    private static final long SETTLE_MILLIS = 10_000;
+
+    /**
+     * Runs the check and prints the result.
+     *
+     * @param args The number of placers, joiners and seconds (all optional, in that order).
+     *
+     * @throws Exception If the check fails to run.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int placers = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PLACERS;
+        int joiners = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_JOINERS;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+
+        // every joiner logs in from the same host and must never be resynced, which would hide a missing tile
+        System.setProperty("place.maxConnections", Integer.toString(joiners + placers));
+        System.setProperty("place.maxHostConnections", Integer.toString(joiners + placers));
+        System.setProperty("place.outboundCapacity", Integer.toString(1 << 24));
+
+        // the server logs every user who joins; only the result is printed
+        PrintStream results = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        NetworkServer server = new NetworkServer(DIM, new PrintWriter(OutputStream.nullOutputStream(), true));
+        InetAddress local = InetAddress.getLoopbackAddress();
+
+        // every placer owns the rows that are its number modulo the placers, so the last tile it placed in a cell is
+        // the one the cell must end up with; every tile is stamped with a number no other tile has
+        PlaceTile[][] expected = new PlaceTile[DIM][DIM];
+        AtomicLong stamp = new AtomicLong();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for(int p = 0; p < placers; ++p)
+        {
+            int placer = p;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(placer);
+                PlaceColor[] colors = PlaceColor.values();
+                String username = "placer" + placer;
+                while(System.nanoTime() < end)
+                {
+                    int row = random.nextInt(DIM / placers) * placers + placer;
+                    PlaceTile tile = new PlaceTile(row, random.nextInt(DIM), username,
+                            colors[random.nextInt(colors.length)], stamp.incrementAndGet());
+                    server.tileChangeRequest(username, tile);
+                    expected[tile.getRow()][tile.getCol()] = tile;
+                }
+            }, "Placer-" + placer);
+            thread.start();
+            threads.add(thread);
+        }
+
+        // the joiners come in spread out over the time the tiles are placed
+        List<JoiningConnection> connections = new ArrayList<>();
+        for(int i = 0; i < joiners; ++i)
+        {
+            JoiningConnection connection = new JoiningConnection(i % 2 == 0);
+            if(!server.login("joiner" + i, local, connection))
+                throw new IllegalStateException("joiner" + i + " couldn't log in.");
+            connections.add(connection);
+            Thread.sleep(seconds * 1000L / joiners);
+        }
+        for(Thread thread : threads)
+            thread.join();
+
+        // the last batches go out on the next ticks
+        long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+        for(int i = 0; i < joiners; ++i)
+        {
+            JoiningConnection connection = connections.get(i);
+            String difference;
+            while((difference = connection.difference(expected)) != null && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            if(difference != null)
+            {
+                results.println("FAILED: joiner" + i + " (" + (connection.binary ? "binary" : "serialization") +
+                        ") " + difference);
+                System.exit(1);
+            }
+        }
+        results.printf("OK: %d joiners all match the board after %d tiles from %d placers%n", joiners, stamp.get(),
+                placers);
+        server.close();
+        System.exit(0);
+    }
+
+    /**
+     * A joining user's connection that builds the board the way a client would, out of what it is sent.
+     */
+    private static class JoiningConnection implements PlaceConnection
+    {
+        /**
+         * True if the connection speaks the binary protocol; false if it speaks Java serialization.
+         */
+        private final boolean binary;
+
+        /**
+         * The codec the server's side of the connection encodes with.
+         */
+        private final PlaceCodec encoder = new PlaceCodec();
+
+        /**
+         * The codec the client's side of the connection decodes with.
+         */
+        private final PlaceCodec decoder = new PlaceCodec();
+
+        /**
+         * The board built out of what has been sent (null until the board arrives).
+         */
+        private PlaceBoard board;
+
+        /**
+         * Creates the connection of a joining user.
+         *
+         * @param binary True for the binary protocol; false for Java serialization.
+         */
+        JoiningConnection(boolean binary)
+        {
+            this.binary = binary;
+        }
+
+        @Override
+        public boolean isBlocking()
+        {
+            return false;
+        }
+
+        @Override
+        public int getVersion()
+        {
+            return this.binary ? PlaceCodec.VERSION : 0;
+        }
+
+        @Override
+        public synchronized void write(PlaceRequest<?> request) throws ProtocolException
+        {
+            // a binary client only sees what made it through the codec
+            if(this.binary)
+            {
+                ByteBuffer frame = this.encoder.encode(request);
+                int type = frame.get(frame.position());
+                frame.position(frame.position() + PlaceCodec.HEADER_SIZE);
+                request = this.decoder.decode(type, frame);
+            }
+
+            switch(request.getType())
+            {
+                case BOARD:
+                    // the snapshot is shared by every joiner, so it is copied before it is changed
+                    this.board = new PlaceBoard((PlaceBoard) request.getData());
+                    break;
+                case BOARD_CHUNK:
+                    BoardChunk chunk = (BoardChunk) request.getData();
+                    if(this.board == null)
+                        this.board = new PlaceBoard(chunk.getDim());
+                    for(PlaceTile tile : chunk.getTiles())
+                        this.board.setTile(tile);
+                    break;
+                case TILE_CHANGED:
+                    this.board.setTile((PlaceTile) request.getData());
+                    break;
+                case TILE_CHANGES:
+                    for(PlaceTile tile : (PlaceTile[]) request.getData())
+                        this.board.setTile(tile);
+                    break;
+                default:
+                    // the login replies have nothing to do with the board
+            }
+        }
+
+        /**
+         * Compares the board built so far to the tiles that were placed.
+         *
+         * @param expected The last tile placed in every cell (null for a cell nobody placed a tile in).
+         *
+         * @return The first cell that differs, or null if none does.
+         */
+        synchronized String difference(PlaceTile[][] expected)
+        {
+            if(this.board == null)
+                return "was never sent a board";
+            for(int row = 0; row < DIM; ++row)
+            {
+                for(int col = 0; col < DIM; ++col)
+                {
+                    PlaceTile want = expected[row][col];
+                    PlaceTile got = this.board.getTile(row, col);
+                    if(want == null ? got.getTime() != 0 : want.getTime() != got.getTime() ||
+                            want.getColor() != got.getColor() || !want.getOwner().equals(got.getOwner()))
+                        return "has " + got + " at (" + row + ", " + col + ") instead of " + want;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close()
+        {
+            // there is nothing to close
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package place.bench;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import place.PlaceColor;
+import place.client.bot.BotStrategy;
+import place.client.bot.FillBot;
+import place.client.bot.ProtectionBot;
+import place.client.bot.RandomBot;
+import place.network.LatencyHistogram;
+
+/**
+ * A headless load generator for a running PlaceServer: it connects thousands of simulated clients from this one JVM,
+ * each placing tiles the way one of the Bots would, and reports how many placements the server gets through and how
+ * long each takes to be acknowledged.
+ *
+ * Run on the command line using the following:
+ *     <pre>$ java [options] place.bench.LoadGenerator host port clients seconds</pre>
+ * With the options:
+ *     <pre>-Dplace.load.arrival=ramp:S|poisson:R</pre>
+ *         how clients arrive: spread evenly over S seconds (the default is ramp:10), or R a second at random
+ *     <pre>-Dplace.load.interval=fixed:MS|exponential:MS</pre>
+ *         the time between a client's placements: always MS, or MS on average at random (the default is fixed:600,
+ *         just slower than a server's default rate limit of two tiles a second)
+ *     <pre>-Dplace.load.bots=random:W,fill:W,protect:W</pre>
+ *         how many of the clients place like each Bot, by weight (the default is random:8,fill:1,protect:1)
+ *     <pre>-Dplace.load.loops=N</pre>
+ *         the number of threads the clients are shared between (the default is one per processor)
+ *     <pre>-Dplace.load.prefix=NAME</pre>
+ *         the start of every username, which has to be new to the server (the default is "load")
+ *
+ * The clients are shared between a few LoadLoops, each a selector and a queue of timers on a thread of its own, so a
+ * client costs a socket and no thread. A server only lets a host have a few connections by default; run it with
+ * -Dplace.maxConnections and -Dplace.maxHostConnections raised above the number of clients.
+ *
+ * Every second a line of the clients connected, the placements sent and acknowledged a second, their 50th and 99th
+ * percentile latency over that second and the refusals so far is printed; at the end, the totals (along with the
+ * number of changed tiles the clients were sent, which subscriptions keep down).
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class LoadGenerator
+{
+    /**
+     * How clients arrive.
+     */
+    private static final String ARRIVAL = System.getProperty("place.load.arrival", "ramp:10");
+
+    /**
+     * The time between a client's placements.
+     */
+    private static final String INTERVAL = System.getProperty("place.load.interval", "fixed:600");
+
+    /**
+     * The weights of each Bot's strategy.
+     */
+    private static final String BOTS = System.getProperty("place.load.bots", "random:8,fill:1,protect:1");
+
+    /**
+     * The number of loops the clients are shared between.
+     */
+    private static final int LOOPS = Integer.getInteger("place.load.loops", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The start of every username.
+     */
+    private static final String PREFIX = System.getProperty("place.load.prefix", "load");
+
+    /**
+     * The names of the strategies, in the order of their weights.
+     */
+    private static final String[] STRATEGIES = { "random", "fill", "protect" };
+
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double MS = 1_000_000.0;
+
+    /**
+     * The time between a client's placements, in nanoseconds.
+     */
+    private final Distribution interval;
+
+    /**
+     * The weight of each strategy, in the order of STRATEGIES.
+     */
+    private final int[] weights;
+
+    /**
+     * The sum of the weights.
+     */
+    private final int totalWeight;
+
+    /**
+     * The latency of every acknowledged placement.
+     */
+    private final LatencyHistogram placementLatency = new LatencyHistogram();
+
+    /**
+     * The latency of the placements acknowledged since the last report line.
+     */
+    private final LatencyHistogram recentLatency = new LatencyHistogram();
+
+    /**
+     * The time from connecting to having the whole board, of every client.
+     */
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+
+    /**
+     * The number of placements sent.
+     */
+    private final LongAdder sent = new LongAdder();
+
+    /**
+     * The number of changed tiles the clients were sent.
+     */
+    private final LongAdder received = new LongAdder();
+
+    /**
+     * The number of placements refused by the server.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * The number of clients logged in and still connected.
+     */
+    private final LongAdder connected = new LongAdder();
+
+    /**
+     * The number of clients whose connection failed.
+     */
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Set once the first failure has been printed (the rest are only counted).
+     */
+    private final AtomicBoolean failurePrinted = new AtomicBoolean();
+
+    /**
+     * Creates a generator.
+     *
+     * @param interval The time between a client's placements, in nanoseconds.
+     * @param weights The weight of each strategy, in the order of STRATEGIES.
+     */
+    private LoadGenerator(Distribution interval, int[] weights)
+    {
+        this.interval = interval;
+        this.weights = weights;
+        int total = 0;
+        for(int weight : weights)
+            total += weight;
+        this.totalWeight = total;
+    }
+
+    /**
+     * Runs the load test and prints the results.
+     *
+     * @param args The host and port of the server, the number of clients and the number of seconds to run for.
+     *
+     * @throws Exception If the options are bad or a loop can't be opened.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length != 4)
+        {
+            System.err.println("Please run the load generator as:");
+            System.err.println("$ java [options] place.bench.LoadGenerator host port clients seconds");
+            return;
+        }
+        InetSocketAddress address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        int clients = Integer.parseInt(args[2]);
+        int seconds = Integer.parseInt(args[3]);
+
+        // a ramp spreads the clients evenly; poisson arrivals are a random R a second
+        Distribution arrival;
+        if(ARRIVAL.startsWith("ramp:"))
+            arrival = Distribution.fixed(Double.parseDouble(ARRIVAL.substring(5)) * 1_000_000_000L / clients);
+        else if(ARRIVAL.startsWith("poisson:"))
+            arrival = Distribution.exponential(1_000_000_000L / Double.parseDouble(ARRIVAL.substring(8)));
+        else
+            throw new IllegalArgumentException("Unknown arrival " + ARRIVAL);
+
+        LoadGenerator generator = new LoadGenerator(Distribution.parseMillis(INTERVAL), parseWeights(BOTS));
+
+        LoadLoop[] loops = new LoadLoop[Math.max(1, LOOPS)];
+        for(int i = 0; i < loops.length; ++i)
+            loops[i] = new LoadLoop("PlaceLoad-" + i);
+
+        // every client is scheduled to connect at its arrival time, on a loop in turn
+        long start = System.nanoTime();
+        long at = start;
+        for(int i = 0; i < clients; ++i)
+        {
+            LoadLoop loop = loops[i % loops.length];
+            SimulatedClient client = new SimulatedClient(generator, loop, address, PREFIX + i);
+            loop.schedule(at, client::connect);
+            at += arrival.next();
+        }
+        for(LoadLoop loop : loops)
+            loop.start();
+
+        System.out.printf("%d clients (%s) against %s, arriving %s, placing every %s ms, on %d loops%n",
+                clients, BOTS, address, ARRIVAL, INTERVAL, loops.length);
+        generator.report(start, seconds);
+
+        for(LoadLoop loop : loops)
+            loop.close();
+        generator.summarize(clients, (System.nanoTime() - start) / 1_000_000_000.0);
+        System.exit(0);
+    }
+
+    /**
+     * Prints a line of what the clients did every second, until the run is over.
+     *
+     * @param start When the run started, in System.nanoTime.
+     * @param seconds The number of seconds to run for.
+     *
+     * @throws InterruptedException If we are interrupted while waiting.
+     */
+    private void report(long start, int seconds) throws InterruptedException
+    {
+        long lastSent = 0;
+        long lastAcknowledged = 0;
+        for(int second = 1; second <= seconds; ++second)
+        {
+            long wait = start + second * 1_000_000_000L - System.nanoTime();
+            if(wait > 0)
+                Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+
+            long sent = this.sent.sum();
+            long acknowledged = this.placementLatency.getCount();
+            // a placement recorded while this is reset may be lost from the line, never from the totals
+            System.out.printf(Locale.ROOT,
+                    "%4ds  clients %6d  sent %7d/s  acked %7d/s  p50 %8.2fms  p99 %8.2fms  rejected %d  failed %d%n",
+                    second, this.connected.sum(), sent - lastSent, acknowledged - lastAcknowledged,
+                    this.recentLatency.getPercentile(50) / MS, this.recentLatency.getPercentile(99) / MS,
+                    this.rejected.sum(), this.failed.sum());
+            this.recentLatency.reset();
+            lastSent = sent;
+            lastAcknowledged = acknowledged;
+        }
+    }
+
+    /**
+     * Prints the totals of the run.
+     *
+     * @param clients The number of clients.
+     * @param elapsed The length of the run, in seconds.
+     */
+    private void summarize(int clients, double elapsed)
+    {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "clients     %d logged in, %d failed (of %d)%n",
+                this.loginLatency.getCount(), this.failed.sum(), clients);
+        System.out.printf(Locale.ROOT, "placements  %d sent, %d acknowledged, %d rejected in %.1fs (%.1f acked/s)%n",
+                this.sent.sum(), this.placementLatency.getCount(), this.rejected.sum(), elapsed,
+                this.placementLatency.getCount() / elapsed);
+        System.out.printf(Locale.ROOT, "broadcast   %d changed tiles received (%.1f a client a second)%n",
+                this.received.sum(), this.received.sum() / elapsed / Math.max(1, this.loginLatency.getCount()));
+        System.out.println("placement   " + this.placementLatency);
+        System.out.println("login       " + this.loginLatency);
+    }
+
+    /**
+     * Makes the strategy of a client that has just logged in, picked at random by weight.
+     *
+     * @param username The username of the client.
+     * @param dim The dimension of the board.
+     *
+     * @return The strategy.
+     */
+    BotStrategy newStrategy(String username, int dim)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int pick = random.nextInt(this.totalWeight);
+        if((pick -= this.weights[0]) < 0)
+            return new RandomBot.Strategy(username, dim, random);
+        if((pick -= this.weights[1]) < 0)
+            return new FillBot.Strategy(username, dim);
+        // every protector guards a spot of its own choosing
+        return new ProtectionBot.Strategy(username, random.nextInt(dim), random.nextInt(dim),
+                random.nextInt(PlaceColor.TOTAL_COLORS));
+    }
+
+    /**
+     * Gets the time until a client's next placement.
+     *
+     * @return The time, in nanoseconds.
+     */
+    long nextPlacementGap()
+    {
+        return this.interval.next();
+    }
+
+    /**
+     * Counts a client that has logged in and has the whole board.
+     *
+     * @param nanos The time it took from connecting.
+     */
+    void loggedIn(long nanos)
+    {
+        this.loginLatency.record(nanos);
+        this.connected.increment();
+    }
+
+    /**
+     * Counts a placement sent.
+     */
+    void placementSent()
+    {
+        this.sent.increment();
+    }
+
+    /**
+     * Counts changed tiles the server sent a client.
+     *
+     * @param tiles The number of tiles.
+     */
+    void tilesReceived(int tiles)
+    {
+        this.received.add(tiles);
+    }
+
+    /**
+     * Counts a placement acknowledged by the server.
+     *
+     * @param nanos The time from sending it to the acknowledgement.
+     */
+    void placementAcknowledged(long nanos)
+    {
+        this.placementLatency.record(nanos);
+        this.recentLatency.record(nanos);
+    }
+
+    /**
+     * Counts a placement refused by the server.
+     */
+    void placementRejected()
+    {
+        this.rejected.increment();
+    }
+
+    /**
+     * Counts a client whose connection failed, and prints why if it is the first.
+     *
+     * @param username The username of the client.
+     * @param e What went wrong.
+     * @param loggedIn True if it had logged in.
+     */
+    void clientFailed(String username, IOException e, boolean loggedIn)
+    {
+        this.failed.increment();
+        if(loggedIn)
+            this.connected.decrement();
+        if(this.failurePrinted.compareAndSet(false, true))
+            System.err.println(username + " failed (only the first failure is printed): " + e.getMessage());
+    }
+
+    /**
+     * Reads the weights of the strategies.
+     *
+     * @param bots The weights, as name:weight pairs separated by commas.
+     *
+     * @return The weight of each strategy, in the order of STRATEGIES.
+     */
+    private static int[] parseWeights(String bots)
+    {
+        int[] weights = new int[STRATEGIES.length];
+        for(String pair : bots.split(","))
+        {
+            String[] parts = pair.trim().split(":");
+            int strategy = List.of(STRATEGIES).indexOf(parts[0]);
+            if(parts.length != 2 || strategy < 0 || Integer.parseInt(parts[1]) < 0)
+                throw new IllegalArgumentException("Bad bot weight " + pair);
+            weights[strategy] = Integer.parseInt(parts[1]);
+        }
+        int total = 0;
+        for(int weight : weights)
+            total += weight;
+        if(total <= 0)
+            throw new IllegalArgumentException("No bots in " + bots);
+        return weights;
+    }
+
+    /**
+     * A distribution of times, such as the gaps between arrivals or placements.
+     */
+    private interface Distribution
+    {
+        /**
+         * Draws the next time.
+         *
+         * @return The time, in nanoseconds.
+         */
+        long next();
+
+        /**
+         * A distribution that is always the same.
+         *
+         * @param nanos The time.
+         *
+         * @return The distribution.
+         */
+        static Distribution fixed(double nanos)
+        {
+            return () -> (long) nanos;
+        }
+
+        /**
+         * An exponential distribution, the gaps between the events of a Poisson process.
+         *
+         * @param meanNanos The mean time.
+         *
+         * @return The distribution.
+         */
+        static Distribution exponential(double meanNanos)
+        {
+            return () -> (long) (-meanNanos * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()));
+        }
+
+        /**
+         * Reads a distribution given in milliseconds, as fixed:MS or exponential:MS.
+         *
+         * @param spec The distribution.
+         *
+         * @return The distribution.
+         */
+        static Distribution parseMillis(String spec)
+        {
+            if(spec.startsWith("fixed:"))
+                return fixed(Double.parseDouble(spec.substring(6)) * MS);
+            if(spec.startsWith("exponential:"))
+                return exponential(Double.parseDouble(spec.substring(12)) * MS);
+            throw new IllegalArgumentException("Unknown interval " + spec);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package place.bench;
+
+import java.io.IOException;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * A single thread that drives many SimulatedClients at once: it waits on a Selector for their sockets and keeps a
+ * queue of timers for everything they do on a schedule (connecting, placing their next tile). The LoadGenerator runs
+ * a small pool of these, the same way a PlaceServer runs its SelectorLoops, so a simulated client costs a socket but
+ * never a thread.
+ *
+ * Everything a loop owns is only touched on its own thread, apart from what is scheduled before it is started.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class LoadLoop
+{
+    /**
+     * The selector every client of this loop is registered with.
+     */
+    private final Selector selector;
+
+    /**
+     * Everything waiting to be run, soonest first.
+     */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+    /**
+     * The name of the loop's thread.
+     */
+    private final String name;
+
+    /**
+     * The number of timers scheduled so far, which keeps timers due at the same time in the order they were made.
+     */
+    private long scheduled;
+
+    /**
+     * The boolean which tells the loop if it should keep going.
+     */
+    private volatile boolean go;
+
+    /**
+     * Creates a new loop.
+     *
+     * @param name The name of the loop's thread.
+     *
+     * @throws IOException If the selector can't be opened.
+     */
+    LoadLoop(String name) throws IOException
+    {
+        this.name = name;
+        this.selector = Selector.open();
+        this.go = true;
+    }
+
+    /**
+     * Gets the selector the clients of this loop register with.
+     *
+     * @return The selector.
+     */
+    Selector getSelector()
+    {
+        return this.selector;
+    }
+
+    /**
+     * Starts the loop's thread.
+     */
+    void start()
+    {
+        Thread thread = new Thread(this::run, this.name);
+        // the generator decides when the run is over, not the loops
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules something to run on the loop's thread. Only called on that thread, or before the loop is started.
+     *
+     * @param at When it should run, in System.nanoTime.
+     * @param task What to run.
+     */
+    void schedule(long at, Runnable task)
+    {
+        this.timers.add(new Timer(at, this.scheduled++, task));
+    }
+
+    /**
+     * Runs the loop: waits for a socket to have something for us or the next timer to come due, then deals with
+     * whichever it was.
+     */
+    private void run()
+    {
+        while(this.go)
+        {
+            try
+            {
+                // sleeps until the next timer at most (select(0) would sleep forever)
+                Timer next = this.timers.peek();
+                long wait = (next == null) ? 0 : (next.at - System.nanoTime()) / 1_000_000L;
+                if(next != null && wait <= 0)
+                    this.selector.selectNow();
+                else
+                    this.selector.select(wait);
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while(keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((SimulatedClient) key.attachment()).ready(key);
+                }
+
+                long now = System.nanoTime();
+                while(!this.timers.isEmpty() && this.timers.peek().at <= now)
+                    this.timers.poll().task.run();
+            }
+            catch(IOException e)
+            {
+                // the selector itself has failed; nothing left to do but stop
+                this.go = false;
+            }
+        }
+
+        // the selector is only closed here, so it is never closed under a select
+        try
+        {
+            for(SelectionKey key : this.selector.keys())
+                key.channel().close();
+            this.selector.close();
+        }
+        catch(IOException e)
+        {
+            // the run is over either way
+        }
+    }
+
+    /**
+     * Stops the loop, which closes every client it drives on its way out. Safe to call from any thread.
+     */
+    void close()
+    {
+        this.go = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Something scheduled to run at a certain time.
+     */
+    private static class Timer implements Comparable<Timer>
+    {
+        /**
+         * When it should run, in System.nanoTime.
+         */
+        private final long at;
+
+        /**
+         * The order it was scheduled in.
+         */
+        private final long order;
+
+        /**
+         * What to run.
+         */
+        private final Runnable task;
+
+        /**
+         * Creates a timer.
+         *
+         * @param at When it should run, in System.nanoTime.
+         * @param order The order it was scheduled in.
+         * @param task What to run.
+         */
+        private Timer(long at, long order, Runnable task)
+        {
+            this.at = at;
+            this.order = order;
+            this.task = task;
+        }
+
+        /**
+         * Orders timers by when they run, then by when they were scheduled.
+         *
+         * @param other The timer to compare to.
+         *
+         * @return Less than zero if this one runs first, more than zero if the other does.
+         */
+        @Override
+        public int compareTo(Timer other)
+        {
+            int at = Long.compare(this.at - other.at, 0);
+            return (at != 0) ? at : Long.compare(this.order, other.order);
+        }
+    }
+}
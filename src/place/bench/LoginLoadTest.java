@@ -0,0 +1,200 @@
+package place.bench;
+
+import java.io.IOException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.BoardChunk;
+import place.network.PlaceExchange;
+import place.network.PlaceRequest;
+import place.server.PlaceServer;
+
+/**
+ * Starts a PlaceServer in this JVM, logs a crowd of clients into it and has every one of them place a tile, then
+ * prints the login latencies and how many threads the JVM needed along the way.
+ *
+ * Run on the command line using the following:
+ *     <pre>$ java [-Dplace.virtualThreads=true] place.bench.LoginLoadTest [clients] [--object]</pre>
+ * The default is 500 clients speaking the binary protocol. With --object the clients speak Java serialization, so
+ * each one is served by a PlaceClientThread; that is the mode where -Dplace.virtualThreads makes a difference.
+ * Compare the peak thread counts of a run before and after to see what the tile cool downs cost.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class LoginLoadTest
+{
+    /**
+     * The number of clients logged in when none is given.
+     */
+    private static final int DEFAULT_CLIENTS = 500;
+
+    /**
+     * The square dimension of the board the server is started with.
+     */
+    private static final int DIM = 64;
+
+    /**
+     * The number of nanoseconds in a millisecond.
+     */
+    private static final double MS = 1_000_000.0;
+
+    /**
+     * Runs the load test and prints the results.
+     *
+     * @param args The number of clients (optional) and --object to use Java serialization (optional).
+     *
+     * @throws Exception If the server can't be started or a client fails.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int clients = DEFAULT_CLIENTS;
+        boolean binary = true;
+        for(String arg : args)
+        {
+            if(arg.equals("--object"))
+                binary = false;
+            else
+                clients = Integer.parseInt(arg);
+        }
+
+        // a single host is about to open every connection, so the limits have to make room
+        System.setProperty("place.maxConnections", Integer.toString(clients + 1));
+        System.setProperty("place.maxHostConnections", Integer.toString(clients + 1));
+
+        // every run starts from a blank board, whatever an earlier run left behind
+        System.setProperty("place.journal", "false");
+
+        int port;
+        try(ServerSocket probe = new ServerSocket(0))
+        {
+            port = probe.getLocalPort();
+        }
+        startServer(port);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int idle = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        // logs every client in, one after the other, timing each until its board has arrived
+        List<PlaceExchange> exchanges = new ArrayList<>(clients);
+        long[] latencies = new long[clients];
+        for(int i = 0; i < clients; ++i)
+        {
+            long start = System.nanoTime();
+            PlaceExchange exchange = PlaceExchange.connect(new Socket("localhost", port), binary);
+            exchange.write(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "load" + i));
+            expect(exchange, PlaceRequest.RequestType.LOGIN_SUCCESS);
+            readBoard(exchange);
+            latencies[i] = System.nanoTime() - start;
+            exchanges.add(exchange);
+        }
+        int loggedIn = threads.getThreadCount();
+        int loginPeak = threads.getPeakThreadCount();
+        threads.resetPeakThreadCount();
+
+        // every client places a tile, then each reads the changes of everyone
+        PlaceColor[] colors = PlaceColor.values();
+        for(int i = 0; i < clients; ++i)
+            exchanges.get(i).write(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE,
+                    new PlaceTile(i / DIM % DIM, i % DIM, "load" + i, colors[i % colors.length])));
+        for(PlaceExchange exchange : exchanges)
+        {
+            // the changes arrive a tick's worth at a time
+            for(int seen = 0; seen < clients; )
+            {
+                PlaceRequest<?> request = exchange.read();
+                if(request.getType() != PlaceRequest.RequestType.TILE_CHANGES)
+                    throw new IllegalStateException("Expected TILE_CHANGES but got " + request.getType());
+                seen += ((PlaceTile[]) request.getData()).length;
+            }
+        }
+        int tilePeak = threads.getPeakThreadCount();
+
+        for(PlaceExchange exchange : exchanges)
+            exchange.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("%d %s clients%n", clients, binary ? "binary" : "serialization");
+        System.out.printf("login latency    p50 %.2fms  p99 %.2fms  max %.2fms%n",
+                latencies[clients / 2] / MS, latencies[Math.min(clients - 1, clients * 99 / 100)] / MS,
+                latencies[clients - 1] / MS);
+        System.out.printf("threads          idle %d  logged in %d  login peak %d  tile peak %d%n",
+                idle, loggedIn, loginPeak, tilePeak);
+        System.exit(0);
+    }
+
+    /**
+     * Starts a PlaceServer on a thread of its own.
+     *
+     * @param port The port it listens on.
+     *
+     * @throws InterruptedException If we are interrupted while waiting for it to come up.
+     */
+    private static void startServer(int port) throws InterruptedException
+    {
+        Thread server = new Thread(() -> PlaceServer.main(new String[]{Integer.toString(port), Integer.toString(DIM)}),
+                "PlaceServer");
+        server.setDaemon(true);
+        server.start();
+
+        // waits until it takes connections
+        while(true)
+        {
+            try
+            {
+                // the connection was only to see if it is taken, so it is closed straight away
+                new Socket("localhost", port).close();
+                return;
+            }
+            catch(IOException e)
+            {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Reads the board sent after a login, either a BOARD or a run of BOARD_CHUNKs.
+     *
+     * @param exchange The exchange to read from.
+     *
+     * @throws Exception If the connection fails or something else arrives.
+     */
+    private static void readBoard(PlaceExchange exchange) throws Exception
+    {
+        while(true)
+        {
+            PlaceRequest<?> request = exchange.read();
+            if(request.getType() == PlaceRequest.RequestType.BOARD ||
+                    (request.getType() == PlaceRequest.RequestType.BOARD_CHUNK &&
+                            ((BoardChunk) request.getData()).isLast()))
+                return;
+            if(request.getType() != PlaceRequest.RequestType.BOARD_CHUNK)
+                throw new IllegalStateException("Expected the board but got " + request.getType());
+        }
+    }
+
+    /**
+     * Reads the next request and makes sure it is the one we expect.
+     *
+     * @param exchange The exchange to read from.
+     * @param type The type we expect.
+     *
+     * @throws Exception If the connection fails or something else arrives.
+     */
+    private static void expect(PlaceExchange exchange, PlaceRequest.RequestType type) throws Exception
+    {
+        PlaceRequest<?> request = exchange.read();
+        if(request.getType() != type)
+            throw new IllegalStateException("Expected " + type + " but got " + request.getType() + ": " +
+                    request.getData());
+    }
+}
@@ -0,0 +1,125 @@
+package place.bench;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.NetworkServer;
+
+/**
+ * Measures how many tiles a NetworkServer commits per second when several threads place tiles at once, with no
+ * sockets in the way: every thread calls tileChangeRequest directly with random tiles all over the board.
+ *
+ * Run on the command line using the following:
+ *     <pre>$ java [-Dplace.boardStripes=N] place.bench.PlacementThroughputBenchmark [seconds] [threads...]</pre>
+ * The default is 3 seconds for each of 1, 2, 4 and 8 threads. Compare a run with -Dplace.boardStripes=1 (the whole
+ * board behind one lock) against the default to see what the striping buys on the machine's cores.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class PlacementThroughputBenchmark
+{
+    /**
+     * The square dimension of the board the tiles are placed on.
+     */
+    private static final int DIM = 256;
+
+    /**
+     * Runs the benchmark and prints the results.
+     *
+     * @param args The number of seconds for each thread count, then the thread counts (all optional).
+     *
+     * @throws InterruptedException If we are interrupted while the placers run.
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        int[] threadCounts = {1, 2, 4, 8};
+        if(args.length > 1)
+        {
+            threadCounts = new int[args.length - 1];
+            for(int i = 1; i < args.length; ++i)
+                threadCounts[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf("%d cores, %s board stripes, %dx%d board, %ds per run%n",
+                Runtime.getRuntime().availableProcessors(), System.getProperty("place.boardStripes", "64"), DIM, DIM,
+                seconds);
+
+        // the server logs every request; the log goes nowhere so only the commits are measured
+        NetworkServer server = new NetworkServer(DIM, new PrintWriter(OutputStream.nullOutputStream(), true));
+
+        // a short warm up so the first run isn't measuring the JIT
+        run(server, 1, 1);
+        for(int threads : threadCounts)
+        {
+            long committed = run(server, threads, seconds);
+            System.out.printf("%3d threads  %12.0f tiles/s%n", threads, committed / (double) seconds);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Has a number of threads place tiles for a while.
+     *
+     * @param server The server the tiles are placed on.
+     * @param threads The number of placing threads.
+     * @param seconds How long they place tiles for.
+     *
+     * @return The number of tiles committed.
+     *
+     * @throws InterruptedException If we are interrupted while the placers run.
+     */
+    private static long run(NetworkServer server, int threads, int seconds) throws InterruptedException
+    {
+        LongAdder committed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] end = new long[1];
+        PlaceColor[] colors = PlaceColor.values();
+
+        for(int i = 0; i < threads; ++i)
+        {
+            String name = "placer" + i;
+            Thread placer = new Thread(() -> {
+                try
+                {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long count = 0;
+                    while(System.nanoTime() - end[0] < 0)
+                    {
+                        // a batch between clock checks, so reading the clock doesn't dominate
+                        for(int n = 0; n < 64; ++n)
+                        {
+                            if(server.tileChangeRequest(name, new PlaceTile(random.nextInt(DIM),
+                                    random.nextInt(DIM), name, colors[random.nextInt(colors.length)])))
+                                ++count;
+                        }
+                    }
+                    committed.add(count);
+                }
+                catch(InterruptedException e)
+                {
+                    // stops early
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }, name);
+            placer.setDaemon(true);
+            placer.start();
+        }
+
+        end[0] = System.nanoTime() + seconds * 1_000_000_000L;
+        start.countDown();
+        done.await();
+        return committed.sum();
+    }
+}
@@ -0,0 +1,184 @@
+package place.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
+
+import place.network.NetworkServer;
+
+/**
+ * Checks that the rate limits of a NetworkServer hold exactly under a flood: however many threads ask for a tile at
+ * once, a user is let through exactly as many times as their bucket holds, and so is every host, and no more.
+ *
+ * Run on the command line using the following:
+ *     <pre>$ java place.bench.RateLimitCheck [threads] [attempts]</pre>
+ * The buckets are set to refill so slowly that nothing comes back while the check runs, so the number of tiles let
+ * through has to be the burst of the bucket and nothing else. First every thread floods as the same user; then every
+ * thread floods as users of their own, all on one host, whose bucket is smaller than theirs put together. It exits
+ * with 1 if either count is off.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class RateLimitCheck
+{
+    /**
+     * The number of tiles a user may place in a row.
+     */
+    private static final int USER_BURST = 100;
+
+    /**
+     * The number of tiles all of the users of one host may place in a row.
+     */
+    private static final int HOST_BURST = 1000;
+
+    /**
+     * The number of tokens a bucket refills by every second (one every thousand seconds, so none during the check).
+     */
+    private static final double RATE = 0.001;
+
+    /**
+     * The number of threads flooding when none is given.
+     */
+    private static final int DEFAULT_THREADS = 16;
+
+    /**
+     * The number of tiles every thread asks for when none is given.
+     */
+    private static final int DEFAULT_ATTEMPTS = 100_000;
+
+    /**
+     * Runs the check and prints the result.
+     *
+     * @param args The number of threads and of attempts per thread (both optional, in that order).
+     *
+     * @throws Exception If the check fails to run.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int attempts = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_ATTEMPTS;
+
+        // the limits are read once, when the server's rate limiter is first made
+        System.setProperty("place.userBurst", Integer.toString(USER_BURST));
+        System.setProperty("place.userRate", Double.toString(RATE));
+        System.setProperty("place.hostBurst", Integer.toString(HOST_BURST));
+        System.setProperty("place.hostRate", Double.toString(RATE));
+        System.setProperty("place.ratePenaltyMillis", "0");
+
+        // the server logs as it starts; only the result is printed
+        PrintStream results = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        NetworkServer server = new NetworkServer(16, new PrintWriter(OutputStream.nullOutputStream(), true));
+
+        // every thread as the same user, on a host of its own
+        InetAddress userHost = InetAddress.getByAddress(new byte[]{ 10, 0, 0, 1 });
+        AtomicIntegerArray byUser = flood(server, threads, attempts, thread -> "flooder", userHost);
+        boolean passed = report(results, "one user, " + threads + " threads", total(byUser), USER_BURST);
+
+        // every thread as a user of its own, all of them on the same host
+        InetAddress sharedHost = InetAddress.getByAddress(new byte[]{ 10, 0, 0, 2 });
+        AtomicIntegerArray byThread = flood(server, threads, attempts, thread -> "user" + thread, sharedHost);
+        passed &= report(results, "one host, " + threads + " users", total(byThread),
+                Math.min(HOST_BURST, USER_BURST * threads));
+        for(int thread = 0; thread < threads; ++thread)
+        {
+            // a user refused by their host gets their own token back, but never more than their burst
+            if(byThread.get(thread) > USER_BURST)
+            {
+                results.println("FAILED: user" + thread + " was let through " + byThread.get(thread) +
+                        " times, more than their burst of " + USER_BURST);
+                passed = false;
+            }
+        }
+
+        server.close();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Has a number of threads ask the server for a tile as fast as they can, all starting at once.
+     *
+     * @param server The server.
+     * @param threads The number of threads.
+     * @param attempts The number of tiles every thread asks for.
+     * @param username Gives the username a thread asks as, by its number.
+     * @param location The host every thread asks from.
+     *
+     * @return The number of tiles every thread was let through, by its number.
+     *
+     * @throws InterruptedException If we are interrupted while waiting for the threads.
+     */
+    private static AtomicIntegerArray flood(NetworkServer server, int threads, int attempts,
+                                            IntFunction<String> username, InetAddress location)
+            throws InterruptedException
+    {
+        AtomicIntegerArray allowed = new AtomicIntegerArray(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> flooders = new ArrayList<>();
+        for(int t = 0; t < threads; ++t)
+        {
+            int thread = t;
+            Thread flooder = new Thread(() -> {
+                String name = username.apply(thread);
+                try
+                {
+                    start.await();
+                }
+                catch(InterruptedException e)
+                {
+                    return;
+                }
+                for(int i = 0; i < attempts; ++i)
+                {
+                    if(server.allowTile(name, location))
+                        allowed.incrementAndGet(thread);
+                }
+            }, "Flooder-" + thread);
+            flooder.start();
+            flooders.add(flooder);
+        }
+        start.countDown();
+        for(Thread flooder : flooders)
+            flooder.join();
+        return allowed;
+    }
+
+    /**
+     * Adds up the tiles let through.
+     *
+     * @param allowed The number of tiles every thread was let through.
+     *
+     * @return The total.
+     */
+    private static int total(AtomicIntegerArray allowed)
+    {
+        int total = 0;
+        for(int i = 0; i < allowed.length(); ++i)
+            total += allowed.get(i);
+        return total;
+    }
+
+    /**
+     * Prints how a flood went.
+     *
+     * @param results Where it is printed.
+     * @param name What was flooded.
+     * @param allowed The number of tiles let through.
+     * @param budget The number of tiles that should have been.
+     *
+     * @return A boolean. True if they are the same; false otherwise.
+     */
+    private static boolean report(PrintStream results, String name, int allowed, int budget)
+    {
+        boolean passed = (allowed == budget);
+        results.printf("%s: %s let through %d of a budget of %d%n", passed ? "OK" : "FAILED", name, allowed, budget);
+        return passed;
+    }
+}
@@ -0,0 +1,399 @@
+package place.bench;
+
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import place.PlaceBoard;
+import place.PlaceTile;
+import place.client.bot.BotStrategy;
+import place.network.BoardChunk;
+import place.network.BoardRegion;
+import place.network.PlaceCodec;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+/**
+ * One client of a load test: a non-blocking socket speaking the binary protocol, driven by a LoadLoop.
+ *
+ * It logs in like a NetworkClient would, reads the board, then places a tile from its BotStrategy every time its
+ * placement timer comes due, timing each one from the moment it is written to the moment its ACK comes back. It reads
+ * (and decodes) every change the server broadcasts, as a real client has to, and tells its strategy about them. A
+ * strategy that only cares about one region of the board (like ProtectionBot's) is subscribed to just that region.
+ *
+ * Only ever touched on the thread of its loop.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class SimulatedClient
+{
+    /**
+     * The size of the buffer frames are read into (grown when a bigger frame arrives).
+     */
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The generator the client reports to.
+     */
+    private final LoadGenerator generator;
+
+    /**
+     * The loop the client is driven by.
+     */
+    private final LoadLoop loop;
+
+    /**
+     * The address of the server.
+     */
+    private final InetSocketAddress address;
+
+    /**
+     * The username the client logs in as.
+     */
+    private final String username;
+
+    /**
+     * The codec of the connection (every connection needs its own).
+     */
+    private final PlaceCodec codec = new PlaceCodec();
+
+    /**
+     * The time every placement still waiting for its ACK was written, by its id.
+     */
+    private final Map<Long, Long> pending = new HashMap<>();
+
+    /**
+     * The socket of the connection.
+     */
+    private SocketChannel channel;
+
+    /**
+     * The key of the socket in the selector of the loop.
+     */
+    private SelectionKey key;
+
+    /**
+     * The bytes read but not yet handled.
+     */
+    private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * The bytes waiting for the socket to take them.
+     */
+    private ByteBuffer out = ByteBuffer.allocate(256);
+
+    /**
+     * What the client places, made once the board has told us its size.
+     */
+    private BotStrategy strategy;
+
+    /**
+     * The time the client started connecting, in System.nanoTime.
+     */
+    private long connectedAt;
+
+    /**
+     * The id of the next placement.
+     */
+    private long nextId = 1;
+
+    /**
+     * True once the client has been counted as logged in.
+     */
+    private boolean loggedIn;
+
+    /**
+     * True once the connection is closed.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a client (which does nothing until it is connected).
+     *
+     * @param generator The generator the client reports to.
+     * @param loop The loop the client is driven by.
+     * @param address The address of the server.
+     * @param username The username the client logs in as.
+     */
+    SimulatedClient(LoadGenerator generator, LoadLoop loop, InetSocketAddress address, String username)
+    {
+        this.generator = generator;
+        this.loop = loop;
+        this.address = address;
+        this.username = username;
+    }
+
+    /**
+     * Starts connecting to the server. Scheduled on the loop at the client's arrival time.
+     */
+    void connect()
+    {
+        this.connectedAt = System.nanoTime();
+        try
+        {
+            this.channel = SocketChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.socket().setTcpNoDelay(true);
+            int ops = this.channel.connect(this.address) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT;
+            this.key = this.channel.register(this.loop.getSelector(), ops, this);
+            if(ops == SelectionKey.OP_READ)
+                login();
+        }
+        catch(IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * Deals with whatever the socket is ready for.
+     *
+     * @param key The key of the socket.
+     */
+    void ready(SelectionKey key)
+    {
+        try
+        {
+            if(key.isValid() && key.isConnectable())
+            {
+                this.channel.finishConnect();
+                login();
+            }
+            if(key.isValid() && key.isReadable())
+                read();
+            if(key.isValid() && key.isWritable())
+                flush();
+        }
+        catch(IOException e)
+        {
+            fail(e);
+        }
+    }
+
+    /**
+     * Opens the binary protocol and asks to log in.
+     *
+     * @throws IOException If the socket fails.
+     */
+    private void login() throws IOException
+    {
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).putInt(PlaceCodec.MAGIC);
+        magic.flip();
+        write(magic);
+        write(this.codec.encode(new PlaceRequest<>(RequestType.LOGIN, this.username)));
+    }
+
+    /**
+     * Reads whatever the socket has for us and handles every whole frame.
+     *
+     * @throws IOException If the socket fails or the server sends something broken.
+     */
+    private void read() throws IOException
+    {
+        if(this.channel.read(this.in) < 0)
+            throw new IOException("Disconnected by the server");
+
+        this.in.flip();
+        while(!this.closed && this.in.remaining() >= PlaceCodec.HEADER_SIZE)
+        {
+            int type = this.in.get(this.in.position()) & 0xFF;
+            int length = this.in.getInt(this.in.position() + 1);
+            if(length < 0 || length > PlaceCodec.MAX_FRAME_SIZE)
+                throw new ProtocolException("Bad frame length " + length);
+
+            // not all here yet, make sure it will fit once it is
+            if(this.in.remaining() < PlaceCodec.HEADER_SIZE + length)
+            {
+                if(this.in.capacity() < PlaceCodec.HEADER_SIZE + length)
+                {
+                    ByteBuffer bigger = ByteBuffer.allocate(PlaceCodec.HEADER_SIZE + length);
+                    bigger.put(this.in);
+                    bigger.flip();
+                    this.in = bigger;
+                }
+                break;
+            }
+
+            this.in.position(this.in.position() + PlaceCodec.HEADER_SIZE);
+            ByteBuffer payload = this.in.slice();
+            payload.limit(length);
+            this.in.position(this.in.position() + length);
+
+            handle(this.codec.decode(type, payload));
+        }
+        this.in.compact();
+    }
+
+    /**
+     * Handles a request from the server.
+     *
+     * @param request The request.
+     *
+     * @throws IOException If the server refused us.
+     */
+    private void handle(PlaceRequest<?> request) throws IOException
+    {
+        switch(request.getType())
+        {
+            case BOARD:
+                boardArrived(((PlaceBoard) request.getData()).DIM);
+                break;
+            case BOARD_CHUNK:
+                BoardChunk chunk = (BoardChunk) request.getData();
+                if(chunk.isLast())
+                    boardArrived(chunk.getDim());
+                break;
+            case TILE_CHANGED:
+                this.generator.tilesReceived(1);
+                tileChanged((PlaceTile) request.getData());
+                break;
+            case TILE_CHANGES:
+                PlaceTile[] tiles = (PlaceTile[]) request.getData();
+                this.generator.tilesReceived(tiles.length);
+                for(PlaceTile tile : tiles)
+                    tileChanged(tile);
+                break;
+            case ACK:
+                Long sentAt = this.pending.remove(request.getId());
+                if(sentAt != null)
+                    this.generator.placementAcknowledged(System.nanoTime() - sentAt);
+                break;
+            case NACK:
+                this.pending.remove(request.getId());
+                this.generator.placementRejected();
+                break;
+            case ERROR:
+                throw new IOException("Refused by the server: " + request.getData());
+            default:
+                // LOGIN_SUCCESS needs nothing from us; the board follows it
+                break;
+        }
+    }
+
+    /**
+     * Starts placing tiles once the whole board is here (only the first time, a board never arrives twice).
+     *
+     * @param dim The dimension of the board.
+     *
+     * @throws IOException If the socket fails.
+     */
+    private void boardArrived(int dim) throws IOException
+    {
+        if(this.loggedIn)
+            return;
+        this.loggedIn = true;
+        this.generator.loggedIn(System.nanoTime() - this.connectedAt);
+        this.strategy = this.generator.newStrategy(this.username, dim);
+        // a strategy that only watches one region is only sent the changes in it
+        BoardRegion region = this.strategy.region();
+        if(region != null && this.codec.getVersion() >= PlaceCodec.SUBSCRIBE_VERSION)
+            write(this.codec.encode(new PlaceRequest<>(RequestType.SUBSCRIBE, new BoardRegion[] { region })));
+        this.loop.schedule(System.nanoTime() + this.generator.nextPlacementGap(), this::place);
+    }
+
+    /**
+     * Tells the strategy about a changed tile.
+     *
+     * @param tile The tile that changed.
+     */
+    private void tileChanged(PlaceTile tile)
+    {
+        // a reactive strategy (like ProtectionBot's) just remembers it has something to place; the tile goes out at
+        // the next placement, so no client places faster than its interval
+        if(this.strategy != null)
+            this.strategy.tileChanged(tile);
+    }
+
+    /**
+     * Places the next tile of the strategy (if it has one), then schedules the next placement.
+     */
+    private void place()
+    {
+        if(this.closed)
+            return;
+
+        PlaceTile tile = this.strategy.nextTile();
+        if(tile != null)
+        {
+            long id = this.nextId++;
+            this.pending.put(id, System.nanoTime());
+            try
+            {
+                write(this.codec.encode(new PlaceRequest<>(RequestType.CHANGE_TILE, tile, id)));
+            }
+            catch(IOException e)
+            {
+                fail(e);
+                return;
+            }
+            this.generator.placementSent();
+        }
+        this.loop.schedule(System.nanoTime() + this.generator.nextPlacementGap(), this::place);
+    }
+
+    /**
+     * Writes a frame, or as much of it as the socket takes and keeps the rest until it takes more.
+     *
+     * @param frame The frame. Copied, so it may be the codec's buffer.
+     *
+     * @throws IOException If the socket fails.
+     */
+    private void write(ByteBuffer frame) throws IOException
+    {
+        if(this.out.remaining() < frame.remaining())
+        {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(this.out.capacity() * 2,
+                    this.out.position() + frame.remaining()));
+            this.out.flip();
+            bigger.put(this.out);
+            this.out = bigger;
+        }
+        this.out.put(frame);
+        flush();
+    }
+
+    /**
+     * Writes as much of what is waiting as the socket takes, and waits for it to take more if anything is left.
+     *
+     * @throws IOException If the socket fails.
+     */
+    private void flush() throws IOException
+    {
+        // nothing can be written until the connection is made
+        if(!this.channel.isConnected())
+            return;
+        this.out.flip();
+        this.channel.write(this.out);
+        this.out.compact();
+        this.key.interestOps(this.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE :
+                SelectionKey.OP_READ);
+    }
+
+    /**
+     * Closes the connection after it failed, and tells the generator why.
+     *
+     * @param e What went wrong.
+     */
+    private void fail(IOException e)
+    {
+        if(this.closed)
+            return;
+        this.closed = true;
+        this.generator.clientFailed(this.username, e, this.loggedIn);
+        try
+        {
+            if(this.channel != null)
+                this.channel.close();
+        }
+        catch(IOException ignored)
+        {
+            // it's gone either way
+        }
+    }
+}
@@ -7,6 +7,7 @@ import place.network.NetworkClient;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * The BotApplication class is used to launch a Bot client which connects to a PlaceServer.
@@ -243,6 +244,32 @@ public abstract class BotApplication {
         System.out.println(manual);
     }
 
+    /**
+     * Waits until a Bot should make its next PlaceTile: at FULL_SPEED until the last one has left the send queue (it
+     * goes out as soon as the server allows), otherwise for the number of milliseconds the Bot was set to.
+     *
+     * @param serverConn The Bot's connection to the server.
+     * @param speed The number of milliseconds between each PlaceTile, or FULL_SPEED.
+     */
+    public static void waitToPlace(NetworkClient serverConn, int speed)
+    {
+        try
+        {
+            if(speed == BotProtocol.FULL_SPEED)
+            {
+                CountDownLatch sent = new CountDownLatch(1);
+                serverConn.whenReadyToSend(sent::countDown);
+                sent.await();
+            }
+            else
+                Thread.sleep(speed);
+        }
+        catch(InterruptedException ie)
+        {
+            // do nothing, the Bot just places its next tile sooner
+        }
+    }
+
     /**
      * Prints out a help manual to the screen so a user of a Bot can tell what the Bot does..
      *
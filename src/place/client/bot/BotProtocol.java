@@ -136,10 +136,16 @@ public interface BotProtocol {
      */
     int MAX_SPEED = 3600;
 
+    /**
+     * The speed at which a Bot places every PlaceTile as soon as the server will take it (its NetworkClient says
+     * when, so there is no waiting a guessed number of milliseconds).
+     */
+    int FULL_SPEED = 0;
+
     /**
      * The default number of milliseconds to wait between each place of a PlaceTile.
      */
-    int DEFAULT_SPEED = 1000;
+    int DEFAULT_SPEED = FULL_SPEED;
 
     /**
      * The maximum number of milliseconds to wait between each place of a PlaceTile.
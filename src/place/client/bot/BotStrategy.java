@@ -0,0 +1,43 @@
+package place.client.bot;
+
+import place.PlaceTile;
+import place.network.BoardRegion;
+
+/**
+ * What a Bot places, apart from how it is connected or controlled: every Bot asks its strategy for the next tile and
+ * tells it about the tiles that change, and sends whatever it gets back. A strategy knows nothing about the network
+ * or the terminal, so the same ones drive a single Bot and every client of a load test.
+ *
+ * A strategy is used by one client at a time.
+ */
+public interface BotStrategy {
+
+    /**
+     * Gets the next tile to place.
+     *
+     * @return The tile, or null if there is nothing to place right now.
+     */
+    PlaceTile nextTile();
+
+    /**
+     * Tells the strategy that a tile on the board has changed.
+     *
+     * @param tile The tile that changed.
+     *
+     * @return A boolean. True if the change gives the strategy a tile to place (nextTile returns it); false otherwise.
+     */
+    default boolean tileChanged(PlaceTile tile)
+    {
+        return false;
+    }
+
+    /**
+     * Gets the only part of the board the strategy needs to hear about, so its client can subscribe to just that.
+     *
+     * @return The region, or null if the strategy needs every change on the board.
+     */
+    default BoardRegion region()
+    {
+        return null;
+    }
+}
@@ -6,6 +6,7 @@ import place.PlaceTile;
 import place.network.NetworkClient;
 
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static java.lang.Thread.sleep;
 
@@ -33,7 +34,7 @@ public class FillBot extends BotApplication implements BotProtocol {
         "  pause : pauses the Bot at its current tile.\n" +
         "  resume : resumes filling at its current tile.\n"+
         "  speed [number] : sets the time in milliseconds between each tile the Bot places.\n" +
-        "  \t (note: number must be " + MIN_SPEED + "-" + MAX_SPEED + "; if none given, speed is set to 1000.)\n" +
+        "  \t (note: number must be " + MIN_SPEED + "-" + MAX_SPEED + "; if none given, the Bot places as fast as the server allows.)\n" +
         "  sticky [color] : keeps the Bot on a single color.\n" +
         "  \t (note: color must be " + MIN_COLOR + "-" + MAX_COLOR + "; if none given, color is set to the currently selected.)\n" +
         "  cycle : fills the board with a single color then goes to the next.\n" +
@@ -59,46 +60,15 @@ public class FillBot extends BotApplication implements BotProtocol {
     private PlaceBoardObservable model;
 
     /**
-     * The current row we are filling at.
+     * What the Bot places (and where it is filling, and in which color).
      */
-    private int currentRow;
-
-    /**
-     * The current column we are filling at.
-     */
-    private int currentCol;
-
-    /**
-     * The currently selected PlaceColor that will be used to send to the server to make a move.
-     */
-    private int currentColor = 0;
+    private Strategy strategy;
 
     /**
      * The number of milliseconds between the sending of each PlaceTile.
      */
     private int speed = DEFAULT_SPEED;
 
-    /**
-     * The boolean used to tell if we should stick with the same color or not.
-     *
-     * If the thread should be in sticky mode, this is true; false otherwise.
-     */
-    private boolean sticky;
-
-    /**
-     * The boolean used to tell if we are in rainbow mode or not.
-     *
-     * If the thread should be in rainbow mode this is true; false otherwise.
-     */
-    private boolean rainbow;
-
-    /**
-     * The boolean used to tell if we are in random mode or not.
-     *
-     * If the thread should be in random mode this is true; false otherwise.
-     */
-    private boolean random;
-
     /**
      * The indicator to the thread whether it should keep running or not.
      *
@@ -148,6 +118,7 @@ public class FillBot extends BotApplication implements BotProtocol {
         this.serverConn = serverConn;
         this.username = username;
         this.model = model;
+        this.strategy = new Strategy(username, model.getDIM());
 
         // logs that the setup is complete
         this.serverConn.log(SETUP_COMPLETE_MSG);
@@ -167,14 +138,6 @@ public class FillBot extends BotApplication implements BotProtocol {
      */
     private void run()
     {
-        // used to indicate the current row and column
-        this.currentRow = 0;
-        this.currentCol = 0;
-
-        // gets the highest row and column we can go to and subtracts
-        int rows = this.model.getDIM();
-        int cols = this.model.getDIM();
-
         // keeps going until the go boolean is set to false
         while(this.go())
         {
@@ -187,27 +150,10 @@ public class FillBot extends BotApplication implements BotProtocol {
             else
             {
                 // send a tile
-                this.serverConn.sendTile(
-                        new PlaceTile(currentRow, currentCol, this.username,
-                                PlaceColor.values()[this.currentColor], System.currentTimeMillis())
-                );
-                // adds one to row and mod by cols (this way it sets to 0 if needed)
-                currentCol = (++currentCol) % cols;
-
-                // if col was reset, add one to row and mod by total rows (this way it sets to 0 if needed)
-                if( currentCol == 0 )
-                    currentRow = (++currentRow) % rows;
-
-                // sets us to a new color if needed
-                if((currentRow == 0 && currentCol == 0 || this.rainbow || this.random)  && !sticky)
-                {
-                    // changes the color
-                    this.currentColor = (this.random) ? ((int)Math.floor((Math.random()) * PlaceColor.TOTAL_COLORS)) :
-                            ((currentColor + 1) % PlaceColor.TOTAL_COLORS);
-                }
-
-                // sleeps for however long speed is set to
-                try { sleep(this.speed); } catch(InterruptedException ie){/* do nothing we don't care */}
+                this.serverConn.sendTile(this.strategy.nextTile());
+
+                // waits for the tile to go out (or however long speed is set to) before making the next one
+                BotApplication.waitToPlace(this.serverConn, this.speed);
             }
         }
     }
@@ -321,13 +267,14 @@ public class FillBot extends BotApplication implements BotProtocol {
         this.serverConn.log("This is FillBot. It likes to fill the entire board with color.");
         this.serverConn.log("FillBot has four modes: cycle, sticky, rainbow, and random.");
         this.serverConn.log("It is currently set to " +
-                ((this.sticky) ? "sticky mode, which means it only places a single color, always." :
-                        ((this.rainbow) ? "rainbow mode, which means it changes to the next color for every tile." :
-                                ((this.random) ? "random mode, which means it chooses a random color for every tile.":
+                ((this.strategy.sticky) ? "sticky mode, which means it only places a single color, always." :
+                        ((this.strategy.rainbow) ? "rainbow mode, which means it changes to the next color for every tile." :
+                                ((this.strategy.random) ? "random mode, which means it chooses a random color for every tile.":
                                                  "cycle mode, which means it fills the board with one color, then moves to the next."))));
-        this.serverConn.log("FillBot is currently filling at " + this.currentRow + ", " + this.currentCol + ").");
-        this.serverConn.log("Its current color is " + PlaceColor.values()[this.currentColor].name());
-        this.serverConn.log("FillBot is placing a tile every " + this.speed + "ms.");
+        this.serverConn.log("FillBot is currently filling at " + this.strategy.row + ", " + this.strategy.col + ").");
+        this.serverConn.log("Its current color is " + PlaceColor.values()[this.strategy.color].name());
+        this.serverConn.log("FillBot is placing a tile " + ((this.speed == FULL_SPEED) ?
+                "as fast as the server allows." : "every " + this.speed + "ms."));
         this.serverConn.log("To see a list of commands, type \"help\" and hit enter.");
     }
 
@@ -354,12 +301,14 @@ public class FillBot extends BotApplication implements BotProtocol {
     }
 
     /**
-     * Sets the length of the wait to the default speed.
+     * Sets the Bot to place its tiles as fast as the server allows.
      */
     private void speed()
     {
-        // resets the speed to default
-        speed(DEFAULT_SPEED);
+        // logs we are changing speed
+        this.serverConn.log("Placing tiles as fast as the server allows.");
+        // no wait of our own between tiles
+        this.speed = FULL_SPEED;
     }
 
     /**
@@ -388,7 +337,7 @@ public class FillBot extends BotApplication implements BotProtocol {
     private void sticky()
     {
         // calls the sticky method with the current color
-        sticky(this.currentColor);
+        sticky(this.strategy.color);
     }
 
     /**
@@ -410,12 +359,12 @@ public class FillBot extends BotApplication implements BotProtocol {
         this.serverConn.log("Changing to sticky mode on " + PlaceColor.values()[color].name() + ".");
 
         // sets the current color
-        this.currentColor = color;
+        this.strategy.color = color;
 
         // sets us in sticky mode
-        this.sticky = true;
-        this.rainbow = false;
-        this.random = false;
+        this.strategy.sticky = true;
+        this.strategy.rainbow = false;
+        this.strategy.random = false;
     }
 
     /**
@@ -427,9 +376,9 @@ public class FillBot extends BotApplication implements BotProtocol {
         this.serverConn.log("Changing to cycle color mode.");
 
         // sets us in cycle mode
-        this.sticky = false;
-        this.rainbow = false;
-        this.random = false;
+        this.strategy.sticky = false;
+        this.strategy.rainbow = false;
+        this.strategy.random = false;
     }
 
     /**
@@ -441,9 +390,9 @@ public class FillBot extends BotApplication implements BotProtocol {
         this.serverConn.log("Get ready to see color!");
 
         // sets us in rainbow mode
-        this.sticky = false;
-        this.rainbow = true;
-        this.random = false;
+        this.strategy.sticky = false;
+        this.strategy.rainbow = true;
+        this.strategy.random = false;
     }
 
     /**
@@ -455,9 +404,9 @@ public class FillBot extends BotApplication implements BotProtocol {
         this.serverConn.log("Changing to random color mode.");
 
         // sets us in random mode
-        this.sticky = false;
-        this.rainbow = false;
-        this.random = true;
+        this.strategy.sticky = false;
+        this.strategy.rainbow = false;
+        this.strategy.random = true;
     }
 
     /**
@@ -505,6 +454,94 @@ public class FillBot extends BotApplication implements BotProtocol {
         this.serverConn.close();
     }
 
+    /**
+     * What FillBot places: a tile on every spot of the board, row by row, starting over at the top when it reaches the
+     * bottom, with the color cycling after every pass (or after every tile, in rainbow or random mode).
+     */
+    public static class Strategy implements BotStrategy {
+
+        /**
+         * The username the tiles are placed as.
+         */
+        private final String username;
+
+        /**
+         * The dimension of the board.
+         */
+        private final int dim;
+
+        /**
+         * The current row we are filling at.
+         */
+        volatile int row;
+
+        /**
+         * The current column we are filling at.
+         */
+        volatile int col;
+
+        /**
+         * The currently selected color.
+         */
+        volatile int color;
+
+        /**
+         * True if every tile is placed in the selected color.
+         */
+        volatile boolean sticky;
+
+        /**
+         * True if the color changes to the next one for every tile.
+         */
+        volatile boolean rainbow;
+
+        /**
+         * True if every tile gets a random color.
+         */
+        volatile boolean random;
+
+        /**
+         * Creates a strategy filling from the top left in cycle mode.
+         *
+         * @param username The username the tiles are placed as.
+         * @param dim The dimension of the board.
+         */
+        public Strategy(String username, int dim)
+        {
+            this.username = username;
+            this.dim = dim;
+        }
+
+        /**
+         * Gets the tile at the spot we are filling at, and moves on to the next.
+         *
+         * @return The tile.
+         */
+        @Override
+        public PlaceTile nextTile()
+        {
+            PlaceTile tile = new PlaceTile(this.row, this.col, this.username, PlaceColor.values()[this.color],
+                    System.currentTimeMillis());
+
+            // adds one to col and mod by the dimension (this way it sets to 0 if needed)
+            this.col = (this.col + 1) % this.dim;
+
+            // if col was reset, add one to row and mod by the dimension (this way it sets to 0 if needed)
+            if(this.col == 0)
+                this.row = (this.row + 1) % this.dim;
+
+            // sets us to a new color if needed
+            if((this.row == 0 && this.col == 0 || this.rainbow || this.random) && !this.sticky)
+            {
+                // changes the color
+                this.color = (this.random) ? ThreadLocalRandom.current().nextInt(PlaceColor.TOTAL_COLORS) :
+                        ((this.color + 1) % PlaceColor.TOTAL_COLORS);
+            }
+
+            return tile;
+        }
+    }
+
     /**
      * The main method which launches the FillBot.
      *
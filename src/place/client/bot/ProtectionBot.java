@@ -3,12 +3,14 @@ package place.client.bot;
 import place.PlaceBoardObservable;
 import place.PlaceColor;
 import place.PlaceTile;
+import place.network.BoardRegion;
 import place.network.NetworkClient;
 
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A multithreaded Bot client that connects to a PlaceServer and performs actions that FILL the screen with color.
@@ -43,11 +45,6 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
      */
     private final static String COL = "col";
 
-    /**
-     * This is used when we need to force a protect. It is used to "trick" the protectTile() method into protecting a tile.
-     */
-    private final static String NO_OWNER = "";
-
     /**
      * The manual that is printed at the start and when help is called.
      */
@@ -81,19 +78,9 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
     private PlaceBoardObservable model;
 
     /**
-     * The row on the board we want to protect.
-     */
-    private int protectedRow;
-
-    /**
-     * The column on the board we want to protect.
+     * What the Bot places (and the tile it is protecting).
      */
-    private int protectedCol;
-
-    /**
-     * The currently selected PlaceColor that will be used to send to the server to make a move.
-     */
-    private int protectedColor;
+    private Strategy strategy;
 
     /**
      * The indicator to the thread whether it should keep running or not.
@@ -145,6 +132,9 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         this.username = username;
         this.model = model;
 
+        // we only ever place one tile, so the latest of those waiting to be sent is the only one that matters
+        this.serverConn.setCoalescing(true);
+
         // sets go to true (might be changed later)
         this.go = true;
 
@@ -153,12 +143,9 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
 
         try
         {
-            // row
-            this.protectedRow = Integer.parseInt(arguments.get(3));
-            // column
-            this.protectedCol = Integer.parseInt(arguments.get(4));
-            // heck
-            this.protectedColor = Integer.parseInt(arguments.get(5));
+            // row, column and color
+            this.strategy = new Strategy(username, Integer.parseInt(arguments.get(3)),
+                    Integer.parseInt(arguments.get(4)), Integer.parseInt(arguments.get(5)));
         }
         catch(NumberFormatException | IndexOutOfBoundsException e)
         {
@@ -175,8 +162,11 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
             // add ourselves as an observable
             this.model.addObserver(this);
 
+            // only the changes of our own tile are worth hearing about
+            watch();
+
             // triggers the protect so it /actually/ is protecting that PlaceTile when it joins
-            protectTile(this.protectedRow, this.protectedCol, NO_OWNER);
+            protect();
 
             // starts the serverCon listening (not really used because the Bot doesn't display the board at all)
             this.serverConn.start();
@@ -194,32 +184,42 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         // checks to be double sure we're being updated by our Observable
         assert (this.model == o) : "Update called from non-observable.";
 
-        // if the Object is a tile (it should be) and we are not paused
+        // if the Object is a tile (it should be) and we are not paused, checks if we need to protect our tile
         if(!this.paused() && tile instanceof PlaceTile)
         {
-            // cast our tile as a tile
-            PlaceTile newTile = (PlaceTile) tile;
-
-            // checks if we need to protect our
-            protectTile(newTile.getRow(), newTile.getCol(), newTile.getOwner());
+            if(this.strategy.tileChanged((PlaceTile) tile))
+                protect();
+        }
+        // if it is a batch of tiles, we check every one of them (but protect only once)
+        else if(!this.paused() && tile instanceof PlaceTile[])
+        {
+            boolean stolen = false;
+            for(PlaceTile newTile : (PlaceTile[]) tile)
+                stolen |= this.strategy.tileChanged(newTile);
+            if(stolen)
+                protect();
         }
     }
 
     /**
-     * This is the main protect method. It requires a row, a column and an owner to make sure we should be placing a PlaceTile.
-     *
-     * @param row The row of the PlaceTile.
-     * @param col The column of the PlaceTile.
-     * @param owner The owner of the PlaceTile.
+     * Sends the protected tile, if the strategy says it needs to be placed.
      */
-    private void protectTile(int row, int col, String owner)
+    private void protect()
     {
         // sends a new tile back because we are selfish and want our name on the tile
         // (we're protecting it after all)
-        if(row == this.protectedRow && col == this.protectedCol
-                && !owner.equals(this.username))
-            this.serverConn.sendTile(new PlaceTile(this.protectedRow, this.protectedCol, this.username,
-                    PlaceColor.values()[this.protectedColor], System.currentTimeMillis()));
+        PlaceTile tile = this.strategy.nextTile();
+        if(tile != null)
+            this.serverConn.sendTile(tile);
+    }
+
+    /**
+     * Subscribes to the protected tile alone, so the server only tells us about it. When it moves, the server sends
+     * the new tile as it is right now, which protects it if someone else has it.
+     */
+    private void watch()
+    {
+        this.serverConn.subscribe(this.strategy.region());
     }
 
     /**
@@ -330,8 +330,8 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
     {
         // logs the current status of the Bot
         this.serverConn.log("This is ProtectionBot. It likes only a single tile. It protects that tile to keep it the same color.");
-        this.serverConn.log("ProtectionBot is currently protecting at (" + this.protectedRow + ", " + this.protectedCol + ").");
-        this.serverConn.log("It is keeping that tile the color " + PlaceColor.values()[this.protectedColor].name());
+        this.serverConn.log("ProtectionBot is currently protecting at (" + this.strategy.row + ", " + this.strategy.col + ").");
+        this.serverConn.log("It is keeping that tile the color " + PlaceColor.values()[this.strategy.color].name());
         this.serverConn.log("To see a list of commands, type \"help\" and hit enter.");
     }
 
@@ -354,7 +354,8 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         // logs that we will resume
         this.serverConn.log(RESUME_MSG);
         // triggers a protect automatically
-        protectTile(this.protectedRow, this.protectedCol, NO_OWNER);
+        this.strategy.reprotect();
+        protect();
         // resumes the fill
         this.pause = false;
     }
@@ -382,11 +383,13 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         );
 
         // changes our row
-        this.protectedRow = row;
+        this.strategy.row = row;
         // changes our column
-        this.protectedCol = col;
+        this.strategy.col = col;
         // changes our color
-        this.protectedColor = color;
+        this.strategy.color = color;
+        // and starts watching the new tile
+        watch();
     }
 
     /**
@@ -407,7 +410,9 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         // logs the change
         this.serverConn.log("Setting protected row to " + row);
         // sets protected row
-        this.protectedRow = row;
+        this.strategy.row = row;
+        // and starts watching the new tile
+        watch();
     }
 
     /**
@@ -427,7 +432,9 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         // logs the change
         this.serverConn.log("Setting protected column to " + col);
         // sets protected row
-        this.protectedCol = col;
+        this.strategy.col = col;
+        // and starts watching the new tile
+        watch();
     }
 
     /**
@@ -447,7 +454,7 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         // logs the change
         this.serverConn.log("Setting protected color to " + PlaceColor.values()[color].name());
         // sets protected row
-        this.protectedColor = color;
+        this.strategy.color = color;
     }
 
     /**
@@ -490,6 +497,103 @@ public class ProtectionBot extends BotApplication implements BotProtocol, Observ
         this.serverConn.close();
     }
 
+    /**
+     * What ProtectionBot places: a single tile, placed again whenever someone else takes its spot.
+     */
+    public static class Strategy implements BotStrategy {
+
+        /**
+         * The username the tile is placed as.
+         */
+        private final String username;
+
+        /**
+         * The row on the board we want to protect.
+         */
+        volatile int row;
+
+        /**
+         * The column on the board we want to protect.
+         */
+        volatile int col;
+
+        /**
+         * The color the protected tile is kept.
+         */
+        volatile int color;
+
+        /**
+         * True if the protected tile needs to be placed (again).
+         */
+        private final AtomicBoolean stolen = new AtomicBoolean(true);
+
+        /**
+         * Creates a strategy, which places its tile once before waiting for it to be taken.
+         *
+         * @param username The username the tile is placed as.
+         * @param row The row to protect.
+         * @param col The column to protect.
+         * @param color The color to keep it.
+         */
+        public Strategy(String username, int row, int col, int color)
+        {
+            this.username = username;
+            this.row = row;
+            this.col = col;
+            this.color = color;
+        }
+
+        /**
+         * Makes the protected tile be placed again, whoever owns it.
+         */
+        public void reprotect()
+        {
+            this.stolen.set(true);
+        }
+
+        /**
+         * Gets the protected tile if it needs to be placed.
+         *
+         * @return The tile, or null if it is still ours.
+         */
+        @Override
+        public PlaceTile nextTile()
+        {
+            // only one caller gets the tile for every time it was taken
+            if(!this.stolen.getAndSet(false))
+                return null;
+            return new PlaceTile(this.row, this.col, this.username, PlaceColor.values()[this.color],
+                    System.currentTimeMillis());
+        }
+
+        /**
+         * Checks whether the tile that changed is the protected one, taken by someone else.
+         *
+         * @param tile The tile that changed.
+         *
+         * @return A boolean. True if it has to be placed again; false otherwise.
+         */
+        @Override
+        public boolean tileChanged(PlaceTile tile)
+        {
+            if(tile.getRow() != this.row || tile.getCol() != this.col || tile.getOwner().equals(this.username))
+                return false;
+            this.stolen.set(true);
+            return true;
+        }
+
+        /**
+         * Gets the protected tile as a region, since it is all the strategy needs to hear about.
+         *
+         * @return The region of the one tile.
+         */
+        @Override
+        public BoardRegion region()
+        {
+            return new BoardRegion(this.row, this.col, 1, 1);
+        }
+    }
+
     /**
      * The main method which launches the FillBot.
      *
@@ -32,7 +32,7 @@ public class RandomBot extends BotApplication implements BotProtocol {
             "  pause : pauses the Bot at its current tile.\n" +
             "  resume : resumes placing tiles about the board.\n" +
             "  speed [number] : sets the time in milliseconds between each tile the Bot places.\n" +
-            "  \t (note: number must be " + MIN_SPEED + "-" + MAX_SPEED + "; if none given, speed is set to 1000.)\n" +
+            "  \t (note: number must be " + MIN_SPEED + "-" + MAX_SPEED + "; if none given, the Bot places as fast as the server allows.)\n" +
             "  sticky [color] : keeps the Bot on a single color.\n" +
             "  \t (note: color must be " + MIN_COLOR + "-" + MAX_COLOR + "; if none given, color is set to the currently selected.)\n" +
             "  random : change the color to a random color for every tile placed.\n" +
@@ -56,20 +56,15 @@ public class RandomBot extends BotApplication implements BotProtocol {
     private PlaceBoardObservable model;
 
     /**
-     * Our currently selected color.
+     * What the Bot places (and the color it is on).
      */
-    private int currentColor;
+    private Strategy strategy;
 
     /**
      * The number of milliseconds between the sending of each PlaceTile.
      */
     private int speed = DEFAULT_SPEED;
 
-    /**
-     * The sticky boolean that is used to tell if they Bot is sticking on a single color.
-     */
-    private boolean sticky;
-
     /**
      * The indicator to the thread whether it should keep running or not.
      *
@@ -119,6 +114,7 @@ public class RandomBot extends BotApplication implements BotProtocol {
         this.serverConn = serverConn;
         this.username = username;
         this.model = model;
+        this.strategy = new Strategy(username, model.getDIM(), new Random());
 
         // logs that the setup is complete
         this.serverConn.log(SETUP_COMPLETE_MSG);
@@ -138,12 +134,6 @@ public class RandomBot extends BotApplication implements BotProtocol {
      */
     private void run()
     {
-        // creates a new random number generator
-        Random rand = new Random();
-        // gets the highest row and column we can go to and subtracts
-        int rows = this.model.getDIM();
-        int cols = this.model.getDIM();
-
         // keeps going until the go boolean is set to false
         while(this.go())
         {
@@ -155,22 +145,11 @@ public class RandomBot extends BotApplication implements BotProtocol {
             // otherwise place the next tile
             else
             {
-                // gets a random row and col
-                int row = rand.nextInt(rows);
-                int col = rand.nextInt(cols);
-
-                // gets a random color if we're not sticky
-                if(!sticky)
-                    this.currentColor = rand.nextInt(PlaceColor.TOTAL_COLORS);
-
-                // send a tile at that location
-                this.serverConn.sendTile(
-                        new PlaceTile(row, col, this.username,
-                                PlaceColor.values()[this.currentColor], System.currentTimeMillis())
-                );
-
-                // sleeps for however long speed is set to
-                try { sleep(this.speed); } catch(InterruptedException ie){/* do nothing we don't care */}
+                // sends a tile at a random location
+                this.serverConn.sendTile(this.strategy.nextTile());
+
+                // waits for the tile to go out (or however long speed is set to) before making the next one
+                BotApplication.waitToPlace(this.serverConn, this.speed);
             }
         }
     }
@@ -273,10 +252,11 @@ public class RandomBot extends BotApplication implements BotProtocol {
         this.serverConn.log("This is RandomBot. It likes to jump around to different tiles placing colors.");
         this.serverConn.log("RandomBot doesn't like to say where it is, it moves around too quick for that.");
         this.serverConn.log("RandomBot has two modes: random and sticky.");
-        this.serverConn.log((this.sticky) ? "It is currently in sticky mode, which means it places the same color on every tile it visits." +
-                "It is playing the color " + PlaceColor.values()[this.currentColor].name() :
+        this.serverConn.log((this.strategy.sticky) ? "It is currently in sticky mode, which means it places the same color on every tile it visits." +
+                "It is playing the color " + PlaceColor.values()[this.strategy.color].name() :
                 "It is in random mode, which means it places random colors on every tile it visits.");
-        this.serverConn.log("RandomBot is placing a tile every " + this.speed + "ms.");
+        this.serverConn.log("RandomBot is placing a tile " + ((this.speed == FULL_SPEED) ?
+                "as fast as the server allows." : "every " + this.speed + "ms."));
         this.serverConn.log("To see a list of commands, type \"help\" and hit enter.");
     }
 
@@ -303,12 +283,14 @@ public class RandomBot extends BotApplication implements BotProtocol {
     }
 
     /**
-     * Sets the length of the wait to the default speed.
+     * Sets the Bot to place its tiles as fast as the server allows.
      */
     private void speed()
     {
-        // resets the speed to default
-        speed(DEFAULT_SPEED);
+        // logs we are changing speed
+        this.serverConn.log("Placing tiles as fast as the server allows.");
+        // no wait of our own between tiles
+        this.speed = FULL_SPEED;
     }
 
     /**
@@ -340,7 +322,7 @@ public class RandomBot extends BotApplication implements BotProtocol {
         this.serverConn.log("Changing to random color mode.");
 
         // sets us in random mode
-        this.sticky = false;
+        this.strategy.sticky = false;
     }
 
     /**
@@ -349,7 +331,7 @@ public class RandomBot extends BotApplication implements BotProtocol {
     private void sticky()
     {
         // runs sticky method with the current color
-        sticky(this.currentColor);
+        sticky(this.strategy.color);
     }
 
     /**
@@ -371,10 +353,10 @@ public class RandomBot extends BotApplication implements BotProtocol {
         this.serverConn.log("Changing to sticky mode on " + PlaceColor.values()[color].name() + ".");
 
         // sets the current color
-        this.currentColor = color;
+        this.strategy.color = color;
 
         // sets us in sticky mode
-        this.sticky = true;
+        this.strategy.sticky = true;
     }
 
     /**
@@ -422,6 +404,70 @@ public class RandomBot extends BotApplication implements BotProtocol {
         this.serverConn.close();
     }
 
+    /**
+     * What RandomBot places: a tile on a random spot of the board, in a random color unless it is sticky.
+     */
+    public static class Strategy implements BotStrategy {
+
+        /**
+         * The username the tiles are placed as.
+         */
+        private final String username;
+
+        /**
+         * The dimension of the board.
+         */
+        private final int dim;
+
+        /**
+         * The random number generator every spot and color is picked with.
+         */
+        private final Random random;
+
+        /**
+         * The currently selected color.
+         */
+        volatile int color;
+
+        /**
+         * True if every tile is placed in the selected color; false if each gets a random one.
+         */
+        volatile boolean sticky;
+
+        /**
+         * Creates a strategy in random color mode.
+         *
+         * @param username The username the tiles are placed as.
+         * @param dim The dimension of the board.
+         * @param random The random number generator every spot and color is picked with.
+         */
+        public Strategy(String username, int dim, Random random)
+        {
+            this.username = username;
+            this.dim = dim;
+            this.random = random;
+        }
+
+        /**
+         * Gets a tile on a random spot of the board.
+         *
+         * @return The tile.
+         */
+        @Override
+        public PlaceTile nextTile()
+        {
+            // gets a random row and col
+            int row = this.random.nextInt(this.dim);
+            int col = this.random.nextInt(this.dim);
+
+            // gets a random color if we're not sticky
+            if(!this.sticky)
+                this.color = this.random.nextInt(PlaceColor.TOTAL_COLORS);
+
+            return new PlaceTile(row, col, this.username, PlaceColor.values()[this.color], System.currentTimeMillis());
+        }
+    }
+
     /**
      * The main method which launches the FillBot.
      *
@@ -0,0 +1,599 @@
+package place.client.gui;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.network.BoardChunk;
+import place.network.BoardRegion;
+
+/**
+ * The board as the GUI draws it: a viewport onto the board that can be zoomed (with the scroll wheel, around the
+ * mouse) and panned (by dragging), laid out again at most once a frame.
+ *
+ * The board is kept as images with one pixel per tile, cut into square pages so a changed tile only dirties the one
+ * page the GPU has to be sent again, and only the pages in view are drawn. Above those are mipmaps: every level is
+ * half the size of the one below, each of its pixels the average of the four beneath it. Zoomed out, the view draws
+ * from the level closest to one pixel per tile on screen, so a board of 4096 tiles across is drawn from a few
+ * hundred thousand pixels rather than sixteen million.
+ *
+ * The pages in view are shown through a few ImageViews that are reused from frame to frame, scaled without smoothing
+ * when zoomed in (so every tile stays a crisp square) and with it when zoomed out.
+ *
+ * Every method is only called on the JavaFX application thread.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class BoardView extends Pane {
+
+    /**
+     * The width (and height) of a page of an image, in pixels.
+     */
+    private static final int PAGE = 256;
+
+    /**
+     * The largest a tile is drawn, in pixels on screen.
+     */
+    private static final double MAX_ZOOM = 64;
+
+    /**
+     * How much one notch of the scroll wheel zooms.
+     */
+    private static final double ZOOM_STEP = 1.25;
+
+    /**
+     * The change in scroll of one notch of the scroll wheel.
+     */
+    private static final double SCROLL_NOTCH = 40;
+
+    /**
+     * Every color as an opaque ARGB pixel, indexed by its color number.
+     */
+    private static final int[] ARGB = new int[PlaceColor.TOTAL_COLORS];
+
+    static
+    {
+        for(PlaceColor color : PlaceColor.values())
+            ARGB[color.getNumber()] = 0xFF000000 | (color.getRed() << 16) | (color.getGreen() << 8) | color.getBlue();
+    }
+
+    /**
+     * The square dimension of the board.
+     */
+    private final int dim;
+
+    /**
+     * The board and its mipmaps, the full board first.
+     */
+    private final Level[] levels;
+
+    /**
+     * The views the pages in view are shown through, reused from frame to frame (and made as more are needed).
+     */
+    private final List<ImageView> pageViews = new ArrayList<>();
+
+    /**
+     * The highlight laid over the tile under the mouse.
+     */
+    private final Rectangle hover = new Rectangle();
+
+    /**
+     * The width of the view, in pixels.
+     */
+    private final double width;
+
+    /**
+     * The height of the view, in pixels.
+     */
+    private final double height;
+
+    /**
+     * The zoom that fits the whole board in the view, which is as far out as it goes.
+     */
+    private final double fitZoom;
+
+    /**
+     * The row of pixels a page is drawn through, reused for every row.
+     */
+    private final int[] rowPixels = new int[PAGE];
+
+    /**
+     * The number of pixels on screen each tile is drawn as (less than one when zoomed out on a big board).
+     */
+    private double zoom;
+
+    /**
+     * The column at the left edge of the view (fractional, the view need not start at the edge of a tile).
+     */
+    private double left;
+
+    /**
+     * The row at the top edge of the view.
+     */
+    private double top;
+
+    /**
+     * Where the mouse was the last time a drag moved the view.
+     */
+    private double dragX, dragY;
+
+    /**
+     * The row and column of the highlighted tile (-1 if none is).
+     */
+    private int hoverRow = -1, hoverCol = -1;
+
+    /**
+     * True if something has changed since the view was last drawn.
+     */
+    private boolean stale = true;
+
+    /**
+     * Creates a view of a blank board, zoomed out to fit all of it.
+     *
+     * @param dim The square dimension of the board.
+     * @param width The width the view is shown at, in pixels.
+     * @param height The height the view is shown at, in pixels.
+     */
+    BoardView(int dim, double width, double height)
+    {
+        this.dim = dim;
+        this.width = width;
+        this.height = height;
+
+        // halves the board until a level is a single pixel
+        int count = 1;
+        while((dim - 1) >> (count - 1) > 0)
+            ++count;
+        this.levels = new Level[count];
+        for(int level = 0; level < count; ++level)
+            this.levels[level] = new Level((dim + (1 << level) - 1) >> level);
+
+        // the mouse goes straight through the highlight, and nothing is shown outside the view
+        this.hover.setMouseTransparent(true);
+        this.hover.setVisible(false);
+        getChildren().add(this.hover);
+        setClip(new Rectangle(width, height));
+        setStyle("-fx-background-color:#000;");
+        setPrefSize(width, height);
+        setMaxSize(width, height);
+
+        this.fitZoom = Math.min(width, height) / dim;
+        fit();
+
+        // the view moves itself; what a click or a hover means is up to whoever shows it
+        addEventHandler(ScrollEvent.SCROLL, this::scrolled);
+        addEventHandler(MouseEvent.MOUSE_PRESSED, this::pressed);
+        addEventHandler(MouseEvent.MOUSE_DRAGGED, this::dragged);
+    }
+
+    /**
+     * Draws a single tile.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     * @param color The color of the tile.
+     */
+    void draw(int row, int col, PlaceColor color)
+    {
+        this.levels[0].setArgb(col, row, ARGB[color.getNumber()]);
+        // every level above takes the new average of the block the tile is in
+        for(int level = 1; level < this.levels.length; ++level)
+        {
+            row >>= 1;
+            col >>= 1;
+            this.levels[level].setArgb(col, row, average(this.levels[level - 1], col << 1, row << 1));
+        }
+        this.stale = true;
+    }
+
+    /**
+     * Draws the whole board, a row of a page at a time, then builds every mipmap from it.
+     *
+     * @param board The board.
+     */
+    void drawAll(PlaceBoard board)
+    {
+        Level full = this.levels[0];
+        for(int row = 0; row < this.dim; ++row)
+        {
+            for(int start = 0; start < this.dim; start += PAGE)
+            {
+                int end = Math.min(this.dim, start + PAGE);
+                for(int col = start; col < end; ++col)
+                    this.rowPixels[col - start] = ARGB[board.getColor(row, col).getNumber()];
+                full.setRow(start, row, end - start, this.rowPixels);
+            }
+        }
+
+        for(int level = 1; level < this.levels.length; ++level)
+        {
+            Level below = this.levels[level - 1];
+            Level above = this.levels[level];
+            for(int row = 0; row < above.size; ++row)
+                for(int col = 0; col < above.size; ++col)
+                    above.setArgb(col, row, average(below, col << 1, row << 1));
+        }
+        this.stale = true;
+    }
+
+    /**
+     * Averages the (up to) four pixels of a level that make up one pixel of the level above.
+     *
+     * @param level The level.
+     * @param x The x of the top left of the block.
+     * @param y The y of the top left of the block.
+     *
+     * @return The average, as an opaque ARGB pixel.
+     */
+    private static int average(Level level, int x, int y)
+    {
+        int red = 0, green = 0, blue = 0, count = 0;
+        // a block on the far edge of a level of odd size only has what is there
+        for(int row = y; row < Math.min(y + 2, level.size); ++row)
+        {
+            for(int col = x; col < Math.min(x + 2, level.size); ++col)
+            {
+                int argb = level.getArgb(col, row);
+                red += (argb >> 16) & 0xFF;
+                green += (argb >> 8) & 0xFF;
+                blue += argb & 0xFF;
+                ++count;
+            }
+        }
+        return 0xFF000000 | ((red / count) << 16) | ((green / count) << 8) | (blue / count);
+    }
+
+    /**
+     * Lays out the view, if anything has changed since it was last laid out. Called once a frame.
+     */
+    void render()
+    {
+        if(!this.stale)
+            return;
+        this.stale = false;
+
+        // the level whose pixels are closest to (but not smaller than) half a pixel on screen
+        int level = 0;
+        while(level + 1 < this.levels.length && this.zoom * (1 << (level + 1)) <= 1)
+            ++level;
+        Level source = this.levels[level];
+        double scale = this.zoom * (1 << level);
+
+        // only the pages in view are shown
+        double leftPixel = this.left / (1 << level);
+        double topPixel = this.top / (1 << level);
+        int firstX = Math.max(0, (int) Math.floor(leftPixel / PAGE));
+        int firstY = Math.max(0, (int) Math.floor(topPixel / PAGE));
+        int lastX = Math.min(source.pages - 1, (int) Math.floor((leftPixel + this.width / scale) / PAGE));
+        int lastY = Math.min(source.pages - 1, (int) Math.floor((topPixel + this.height / scale) / PAGE));
+        int shown = 0;
+        for(int pageY = firstY; pageY <= lastY; ++pageY)
+        {
+            for(int pageX = firstX; pageX <= lastX; ++pageX)
+            {
+                // edges are rounded to whole pixels, so neighboring pages meet without a seam
+                double x = Math.floor((pageX * PAGE - leftPixel) * scale);
+                double y = Math.floor((pageY * PAGE - topPixel) * scale);
+                int pageWidth = Math.min(PAGE, source.size - pageX * PAGE);
+                int pageHeight = Math.min(PAGE, source.size - pageY * PAGE);
+                double right = Math.floor((pageX * PAGE + pageWidth - leftPixel) * scale);
+                double bottom = Math.floor((pageY * PAGE + pageHeight - topPixel) * scale);
+
+                ImageView view = pageView(shown++);
+                view.setImage(source.images[pageY * source.pages + pageX]);
+                // crisp squares when zoomed in, filtered when squeezing more than a pixel into one
+                view.setSmooth(scale < 1);
+                view.setFitWidth(Math.max(1, right - x));
+                view.setFitHeight(Math.max(1, bottom - y));
+                view.relocate(x, y);
+                view.setVisible(true);
+            }
+        }
+        // the views left over are put away until they are needed
+        for(int i = shown; i < this.pageViews.size(); ++i)
+        {
+            this.pageViews.get(i).setVisible(false);
+            this.pageViews.get(i).setImage(null);
+        }
+
+        // the highlight, over everything
+        this.hover.setVisible(this.hoverRow >= 0);
+        if(this.hoverRow >= 0)
+        {
+            this.hover.setX((this.hoverCol - this.left) * this.zoom);
+            this.hover.setY((this.hoverRow - this.top) * this.zoom);
+            this.hover.setWidth(Math.max(1, this.zoom));
+            this.hover.setHeight(Math.max(1, this.zoom));
+        }
+    }
+
+    /**
+     * Gets a view to show a page through, making it if there aren't that many yet.
+     *
+     * @param index The index of the view.
+     *
+     * @return The view.
+     */
+    private ImageView pageView(int index)
+    {
+        if(index == this.pageViews.size())
+        {
+            ImageView view = new ImageView();
+            // under the highlight
+            getChildren().add(getChildren().size() - 1, view);
+            this.pageViews.add(view);
+        }
+        return this.pageViews.get(index);
+    }
+
+    /**
+     * Zooms out to fit the whole board in the view, centered.
+     */
+    void fit()
+    {
+        this.zoom = this.fitZoom;
+        this.left = (this.dim - this.width / this.zoom) / 2;
+        this.top = (this.dim - this.height / this.zoom) / 2;
+        this.stale = true;
+    }
+
+    /**
+     * Zooms in or out, keeping the point under the mouse where it is.
+     *
+     * @param factor How much to zoom by (more than one zooms in).
+     * @param x The x of the point, relative to the view.
+     * @param y The y of the point, relative to the view.
+     */
+    void zoom(double factor, double x, double y)
+    {
+        double zoom = Math.max(this.fitZoom, Math.min(MAX_ZOOM, this.zoom * factor));
+        if(zoom == this.fitZoom)
+        {
+            fit();
+            return;
+        }
+        this.left += x / this.zoom - x / zoom;
+        this.top += y / this.zoom - y / zoom;
+        this.zoom = zoom;
+        keepInView();
+    }
+
+    /**
+     * Moves the view.
+     *
+     * @param dx How far to move the board right, in pixels.
+     * @param dy How far to move the board down, in pixels.
+     */
+    void pan(double dx, double dy)
+    {
+        this.left -= dx / this.zoom;
+        this.top -= dy / this.zoom;
+        keepInView();
+    }
+
+    /**
+     * Keeps at least half of the view on the board, so it can't be lost off the edge.
+     */
+    private void keepInView()
+    {
+        double across = this.width / this.zoom;
+        double down = this.height / this.zoom;
+        this.left = Math.max(-across / 2, Math.min(this.dim - across / 2, this.left));
+        this.top = Math.max(-down / 2, Math.min(this.dim - down / 2, this.top));
+        this.stale = true;
+    }
+
+    /**
+     * Zooms with the scroll wheel, around the mouse.
+     *
+     * @param event The scroll.
+     */
+    private void scrolled(ScrollEvent event)
+    {
+        zoom(Math.pow(ZOOM_STEP, event.getDeltaY() / SCROLL_NOTCH), event.getX(), event.getY());
+        event.consume();
+    }
+
+    /**
+     * Remembers where a drag starts.
+     *
+     * @param event The press.
+     */
+    private void pressed(MouseEvent event)
+    {
+        this.dragX = event.getX();
+        this.dragY = event.getY();
+    }
+
+    /**
+     * Pans with a drag.
+     *
+     * @param event The drag.
+     */
+    private void dragged(MouseEvent event)
+    {
+        pan(event.getX() - this.dragX, event.getY() - this.dragY);
+        this.dragX = event.getX();
+        this.dragY = event.getY();
+    }
+
+    /**
+     * Gets the part of the board in view, widened out to whole chunks so it only changes once the view moves into a
+     * chunk it couldn't see (and the server, which catches a client up a chunk at a time, sends nothing wasted).
+     *
+     * @return The region, or null if every chunk of the board is in view.
+     */
+    BoardRegion visibleRegion()
+    {
+        int top = chunkEdge(this.top, false);
+        int left = chunkEdge(this.left, false);
+        int bottom = chunkEdge(this.top + this.height / this.zoom, true);
+        int right = chunkEdge(this.left + this.width / this.zoom, true);
+        if(top == 0 && left == 0 && bottom == this.dim && right == this.dim)
+            return null;
+        return new BoardRegion(top, left, bottom - top, right - left);
+    }
+
+    /**
+     * Rounds a distance into the board out to the edge of a chunk, on the board.
+     *
+     * @param at The distance, in tiles.
+     * @param after True to round to the edge after it; false to the edge before it.
+     *
+     * @return The row or column of the edge.
+     */
+    private int chunkEdge(double at, boolean after)
+    {
+        double chunks = at / BoardChunk.SIZE;
+        int edge = (int) (after ? Math.ceil(chunks) : Math.floor(chunks)) * BoardChunk.SIZE;
+        return Math.max(0, Math.min(this.dim, edge));
+    }
+
+    /**
+     * Gets the row of the tile at a point of the view.
+     *
+     * @param y The y of the point, relative to the view.
+     *
+     * @return The row, or -1 if the point is off the board.
+     */
+    int rowAt(double y)
+    {
+        return indexAt(this.top + y / this.zoom);
+    }
+
+    /**
+     * Gets the column of the tile at a point of the view.
+     *
+     * @param x The x of the point, relative to the view.
+     *
+     * @return The column, or -1 if the point is off the board.
+     */
+    int colAt(double x)
+    {
+        return indexAt(this.left + x / this.zoom);
+    }
+
+    /**
+     * Gets the row or column of the tiles at a distance into the board.
+     *
+     * @param at The distance, in tiles.
+     *
+     * @return The row or column, or -1 if it is off the board.
+     */
+    private int indexAt(double at)
+    {
+        int index = (int) Math.floor(at);
+        return (index < 0 || index >= this.dim) ? -1 : index;
+    }
+
+    /**
+     * Highlights a tile in a color.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     * @param color The color it is highlighted in.
+     */
+    void hover(int row, int col, Color color)
+    {
+        this.hoverRow = row;
+        this.hoverCol = col;
+        this.hover.setFill(color);
+        this.stale = true;
+    }
+
+    /**
+     * Takes the highlight away.
+     */
+    void clearHover()
+    {
+        this.hoverRow = -1;
+        this.hoverCol = -1;
+        this.stale = true;
+    }
+
+    /**
+     * One level of the mipmaps: a square image cut into pages.
+     */
+    private static class Level
+    {
+        /**
+         * The width (and height) of the level, in pixels.
+         */
+        private final int size;
+
+        /**
+         * The number of pages across (and down).
+         */
+        private final int pages;
+
+        /**
+         * The pages, row by row.
+         */
+        private final WritableImage[] images;
+
+        /**
+         * Creates a level of black pixels.
+         *
+         * @param size The width (and height) of the level, in pixels.
+         */
+        private Level(int size)
+        {
+            this.size = size;
+            this.pages = (size + PAGE - 1) / PAGE;
+            this.images = new WritableImage[this.pages * this.pages];
+            for(int y = 0; y < this.pages; ++y)
+                for(int x = 0; x < this.pages; ++x)
+                    this.images[y * this.pages + x] = new WritableImage(Math.min(PAGE, size - x * PAGE),
+                            Math.min(PAGE, size - y * PAGE));
+        }
+
+        /**
+         * Gets a pixel.
+         *
+         * @param x The x of the pixel.
+         * @param y The y of the pixel.
+         *
+         * @return The pixel, as ARGB.
+         */
+        private int getArgb(int x, int y)
+        {
+            return this.images[(y / PAGE) * this.pages + x / PAGE].getPixelReader().getArgb(x % PAGE, y % PAGE);
+        }
+
+        /**
+         * Sets a pixel.
+         *
+         * @param x The x of the pixel.
+         * @param y The y of the pixel.
+         * @param argb The pixel, as ARGB.
+         */
+        private void setArgb(int x, int y, int argb)
+        {
+            this.images[(y / PAGE) * this.pages + x / PAGE].getPixelWriter().setArgb(x % PAGE, y % PAGE, argb);
+        }
+
+        /**
+         * Sets a run of pixels along a row, all on the same page.
+         *
+         * @param x The x of the first pixel (the start of a page).
+         * @param y The y of the row.
+         * @param length The number of pixels.
+         * @param argb The pixels, as ARGB.
+         */
+        private void setRow(int x, int y, int length, int[] argb)
+        {
+            this.images[(y / PAGE) * this.pages + x / PAGE].getPixelWriter()
+                    .setPixels(x % PAGE, y % PAGE, length, 1, PixelFormat.getIntArgbInstance(), argb, 0, length);
+        }
+    }
+}
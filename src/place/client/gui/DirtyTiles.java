@@ -0,0 +1,138 @@
+package place.client.gui;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import place.PlaceBoard;
+
+/**
+ * The tiles that have changed since the GUI last drew the board.
+ *
+ * The thread reading from the server marks tiles as they change; once a frame the JavaFX thread takes every marked
+ * tile and draws it as the board has it then. A tile changed many times between two frames is marked (and drawn) once,
+ * so however fast changes arrive the work of a frame is bounded by the size of the board, and nothing piles up in the
+ * JavaFX event queue.
+ *
+ * When more tiles are marked than it is worth keeping track of one by one, the whole board is marked instead.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class DirtyTiles {
+
+    /**
+     * The square dimension of the board.
+     */
+    private final int dim;
+
+    /**
+     * The most tiles tracked one by one before the whole board is marked instead.
+     */
+    private final int limit;
+
+    /**
+     * The tiles marked since the last frame, by index (row * dim + col).
+     */
+    private final BitSet marked;
+
+    /**
+     * The index of every marked tile, in the order they were marked (the first count of them).
+     */
+    private int[] pending = new int[256];
+
+    /**
+     * The indexes taken by the last frame (swapped with pending, so neither is made again).
+     */
+    private int[] taken = new int[256];
+
+    /**
+     * The number of marked tiles.
+     */
+    private int count;
+
+    /**
+     * True if the whole board has to be drawn.
+     */
+    private boolean all;
+
+    /**
+     * Creates a set with nothing marked.
+     *
+     * @param dim The square dimension of the board.
+     */
+    DirtyTiles(int dim)
+    {
+        this.dim = dim;
+        this.marked = new BitSet(dim * dim);
+        // past a quarter of the board, drawing all of it costs about the same as drawing the marked tiles
+        this.limit = Math.max(256, dim * dim / 4);
+    }
+
+    /**
+     * Marks a tile as changed. Called by any thread.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     */
+    synchronized void mark(int row, int col)
+    {
+        int index = row * this.dim + col;
+        if(this.all || this.marked.get(index))
+            return;
+        if(this.count == this.limit)
+        {
+            markAll();
+            return;
+        }
+        this.marked.set(index);
+        if(this.count == this.pending.length)
+            this.pending = Arrays.copyOf(this.pending, Math.min(this.limit, this.count * 2));
+        this.pending[this.count++] = index;
+    }
+
+    /**
+     * Marks the whole board as changed. Called by any thread.
+     */
+    synchronized void markAll()
+    {
+        this.all = true;
+        this.marked.clear();
+        this.count = 0;
+    }
+
+    /**
+     * Draws every marked tile as the board has it now, and unmarks them. Only called on the JavaFX thread.
+     *
+     * @param board The board the tiles are drawn from.
+     * @param view The view they are drawn to.
+     */
+    void drawTo(PlaceBoard board, BoardView view)
+    {
+        int taken;
+        boolean all;
+        // only the swap is done holding the lock, so marking never waits on drawing
+        synchronized(this)
+        {
+            all = this.all;
+            taken = this.count;
+            int[] swap = this.taken;
+            this.taken = this.pending;
+            this.pending = (swap.length >= this.pending.length) ? swap : new int[this.pending.length];
+            for(int i = 0; i < taken; ++i)
+                this.marked.clear(this.taken[i]);
+            this.count = 0;
+            this.all = false;
+        }
+
+        if(all)
+        {
+            view.drawAll(board);
+            return;
+        }
+        for(int i = 0; i < taken; ++i)
+        {
+            int row = this.taken[i] / this.dim;
+            int col = this.taken[i] % this.dim;
+            view.draw(row, col, board.getColor(row, col));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package place.client.gui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -7,6 +8,8 @@ import javafx.scene.Cursor;
 import javafx.scene.Scene;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
@@ -19,10 +22,13 @@ import java.util.Observer;
 import java.util.Observable;
 import java.util.List;
 import java.util.Date;
+import java.util.Objects;
 
+import place.PlaceBoard;
 import place.PlaceColor;
 import place.PlaceException;
 import place.PlaceTile;
+import place.network.BoardRegion;
 import place.network.NetworkClient;
 import place.PlaceBoardObservable;
 
@@ -52,7 +58,7 @@ public class PlaceGUI extends Application implements Observer {
     private static final int LEFT_VBOX_SPACING = 3;
 
     /**
-     * The minimum size of the GridPane.
+     * The width (and height) the board is shown at, in pixels.
      */
     private static final int MIN_GRID_SIZE = 850;
 
@@ -87,12 +93,18 @@ public class PlaceGUI extends Application implements Observer {
     private static final Insets MAIN_GRID_INSETS = new Insets(0, 10, 10, 10);
 
     /**
-     * The date formatter used when a tile is changed.
+     * The least time between two subscriptions to what is in view, in nanoseconds (so a drag across the board asks
+     * the server for a new region a few times a second, not every frame).
+     */
+    private static final long SUBSCRIBE_INTERVAL = 200_000_000L;
+
+    /**
+     * The date formatter used when a tile is shown (only ever used on the JavaFX thread).
      */
     private final static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/dd/yy");
 
     /**
-     * The time formatter used when a tile is changed.
+     * The time formatter used when a tile is shown (only ever used on the JavaFX thread).
      */
     private final static SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("HH:mm:ss");
 
@@ -129,9 +141,9 @@ public class PlaceGUI extends Application implements Observer {
     private Scene scene;
 
     /**
-     * The main GridPane of rectangles that represent all of the PlaceTiles in the game.
+     * The view of the board, a pixel for every PlaceTile in the game.
      */
-    private GridPane mainGrid;
+    private BoardView board;
 
     /**
      * The currently selected PlaceColor that will be used to send to the server if a PlaceTile is clicked on.
@@ -139,9 +151,44 @@ public class PlaceGUI extends Application implements Observer {
     private int currentColor = 0;
 
     /**
-     * The size that each rectangle should be on screen. It is set to 70px for 70px.
+     * The tiles changed since the board was last drawn.
+     */
+    private DirtyTiles dirtyTiles;
+
+    /**
+     * The most recently placed tile, set as changes arrive and shown once a frame.
+     */
+    private volatile PlaceTile mostRecent;
+
+    /**
+     * The most recently placed tile that is being shown.
+     */
+    private PlaceTile mostRecentShown;
+
+    /**
+     * The part of the board we are subscribed to (null while we are sent every change).
+     */
+    private BoardRegion subscribed;
+
+    /**
+     * The System.nanoTime() of the last subscription.
      */
-    private int rectSize;
+    private long subscribedAt;
+
+    /**
+     * Draws whatever changed once every frame.
+     */
+    private AnimationTimer renderer;
+
+    /**
+     * The row of the PlaceTile the mouse is over (-1 if it isn't over the board).
+     */
+    private int hoveredRow = -1;
+
+    /**
+     * The column of the PlaceTile the mouse is over (-1 if it isn't over the board).
+     */
+    private int hoveredCol = -1;
 
     // SELECTED COLOR =============================
 
@@ -245,10 +292,11 @@ public class PlaceGUI extends Application implements Observer {
             // tells the user about the issue we've run into
             throw e;
         }
+        // the changes that arrive before the board is first drawn are drawn with it
+        this.dirtyTiles = new DirtyTiles(this.model.getDIM());
+
         // add ourselves as an observer of the model
         this.model.addObserver(this);
-
-        this.rectSize = MIN_GRID_SIZE / this.model.getDIM();
     }
 
     /**
@@ -266,11 +314,22 @@ public class PlaceGUI extends Application implements Observer {
         root.setTop( buildColorBar() );
 
         // sets our mainGrid in place
-        root.setCenter( this.mainGrid = buildMainGrid() );
+        root.setCenter( buildMainGrid() );
 
         // sets the left VBox which houses the selected color, status, and
         root.setLeft( buildLeftVBox() );
 
+        // draws the changes once a frame, however many of them arrive in between
+        this.renderer = new AnimationTimer()
+        {
+            @Override
+            public void handle(long now)
+            {
+                renderFrame();
+            }
+        };
+        this.renderer.start();
+
         /*
         starts the thread that NetworkClient uses to listen to the server
         this allows the client to start up completely before any tile changes that occurred between launch(args) and
@@ -301,100 +360,104 @@ public class PlaceGUI extends Application implements Observer {
     }
 
     /**
-     * Builds a GridPane of Rectangle objects which are a visual representation of each PlaceTile.
+     * Builds the view of the board, drawn with every PlaceTile as it is now. The mouse is handled for the whole board
+     * at once, by finding the tile under it: the scroll wheel zooms, a drag pans, a click places a tile and a right
+     * click zooms back out to the whole board.
      *
-     * @return a GridPane which is DIM x DIM housing a visual representation of each PlaceTile.
+     * @return a StackPane housing the view of the board.
      */
-    private GridPane buildMainGrid()
+    private StackPane buildMainGrid()
     {
-        // creates a new GridPane that will house our board
-        GridPane mainGrid = new GridPane();
+        // creates the view and draws the board as we were sent it
+        this.board = new BoardView(this.model.getDIM(), MIN_GRID_SIZE, MIN_GRID_SIZE);
+        this.board.drawAll(this.model.getBoard());
+
+        // one handler of each kind for every tile
+        this.board.setOnMouseMoved(this::tileHovered);
+        this.board.setOnMouseExited(event -> tileExited());
+        this.board.setOnMouseClicked(this::tileClicked);
 
-        // sets the padding of the main GridPane so there is a border to it (makes it look nice)
+        // creates a new StackPane that will house our board
+        StackPane mainGrid = new StackPane(this.board);
+
+        // sets the padding of the main pane so there is a border to it (makes it look nice)
         mainGrid.setPadding(MAIN_GRID_INSETS);
 
         // sets the background color to black so we have a nice faux border around us
         mainGrid.setStyle("-fx-background-color:#000;");
 
-        // goes through each tile since we are setting up our board for the first time
-        for(int row = 0; row < this.model.getDIM(); ++row)
-        {
-            for (int col = 0; col < this.model.getDIM(); ++col)
-            {
-                // gets the tile we are interested in
-                PlaceTile tile = this.model.getTile(row, col);
-
-                // builds a rectangle based on the PlaceTile
-                Rectangle tileRectangle = buildSingleTile(tile);
-
-                // add our tile to the mainGrid ( USING JAVA'S STUPID COLUMN, ROW SYSTEM WHO THE HECK DOES THAT?!?!?! )
-                mainGrid.add(tileRectangle, col, row);
-            }
-        }
         // returns our constructed mainGrid
         return mainGrid;
     }
 
     /**
-     * Builds a Rectangle object that is a visual representation for a single PlaceTile.
+     * Previews the information of the PlaceTile under the mouse, and highlights it in the selected color.
      *
-     * @param tile The tile we want to represent.
-     *
-     * @return A Rectangle that represents the PlaceTile passed.
+     * @param event The mouse event.
      */
-    private Rectangle buildSingleTile(PlaceTile tile)
+    private void tileHovered(MouseEvent event)
     {
-        // gets our row and column
-        int row = tile.getRow();
-        int col = tile.getCol();
+        int row = this.board.rowAt(event.getY());
+        int col = this.board.colAt(event.getX());
+
+        // nothing to do until the mouse moves onto another tile
+        if(row == this.hoveredRow && col == this.hoveredCol)
+            return;
+        if(row < 0 || col < 0)
+        {
+            tileExited();
+            return;
+        }
+        this.hoveredRow = row;
+        this.hoveredCol = col;
 
-        // CREATING NEW TILE ==========================
-        // gets the color of our tile that we are currently setting
+        // gets the tile we are interested in
+        PlaceTile tile = this.model.getTile(row, col);
         PlaceColor tileColor = tile.getColor();
 
-        // generates our tile as a rectangle
-        Rectangle tileRectangle = new Rectangle(this.rectSize, this.rectSize,
-                Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()));
-
-
-        // CREATING EVENT LISTENERS ========================
-        // formats the DATE
-        String date = DATE_FORMAT.format(new Date(tile.getTime()));
-        // formats the TIME
-        String time = TIME_FORMAT.format(new Date(tile.getTime()));
-
-        // sets an event listener to change the information panel to preview the information of this tile
-        tileRectangle.setOnMouseEntered(
-                (ActionEvent) ->
-                        javafx.application.Platform.runLater(() ->
-                        {
-                            tileRectangle.setFill(getCurrentColor());
-                            this.tilePreview.setFill(
-                                    Color.rgb(tileColor.getRed(),tileColor.getGreen(),tileColor.getBlue())
-                            );
-                            this.tileLocationInfo.setText("(" + row +
-                                    "," + col + ")");
-                            this.tileOwnerInfo.setText(tile.getOwner());
-                            this.tileCreateDateInfo.setText(date);
-                            this.tileCreateTimeInfo.setText(time);
-                        })
-        );
+        this.board.hover(row, col, getCurrentColor());
+        this.tilePreview.setFill(Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()));
+        this.tileLocationInfo.setText("(" + row + "," + col + ")");
+        this.tileOwnerInfo.setText(tile.getOwner());
+        this.tileCreateDateInfo.setText(DATE_FORMAT.format(new Date(tile.getTime())));
+        this.tileCreateTimeInfo.setText(TIME_FORMAT.format(new Date(tile.getTime())));
+    }
 
-        tileRectangle.setOnMouseExited(
-                (ActionEvent) -> javafx.application.Platform.runLater(() ->
-                        tileRectangle.setFill(Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()))
-                )
-        );
+    /**
+     * Takes the highlight away when the mouse leaves the board.
+     */
+    private void tileExited()
+    {
+        this.hoveredRow = -1;
+        this.hoveredCol = -1;
+        this.board.clearHover();
+    }
 
-        // sets an event listener to our rectangle to listen for clicks on this tile
-        tileRectangle.setOnMouseClicked(
-                (ActionEvent) -> this.serverConn.sendTile(
-                        new PlaceTile(row, col, this.username, PlaceColor.values()[this.currentColor], System.currentTimeMillis())
-                )
-        );
+    /**
+     * Places a PlaceTile of the selected color where the board was clicked (or zooms out to the whole board on a right
+     * click).
+     *
+     * @param event The mouse event.
+     */
+    private void tileClicked(MouseEvent event)
+    {
+        // the end of a drag is not a click
+        if(!event.isStillSincePress())
+            return;
+        if(event.getButton() == MouseButton.SECONDARY)
+        {
+            this.board.fit();
+            return;
+        }
 
-        // returns the Rectangle that has been set up to reflect the PlaceTile on the board
-        return tileRectangle;
+        int row = this.board.rowAt(event.getY());
+        int col = this.board.colAt(event.getX());
+        if(row < 0 || col < 0)
+            return;
+
+        this.serverConn.sendTile(
+                new PlaceTile(row, col, this.username, PlaceColor.values()[this.currentColor], System.currentTimeMillis())
+        );
     }
 
     /**
@@ -622,6 +685,9 @@ public class PlaceGUI extends Application implements Observer {
     /**
      * The update method that is called by an Observable when it has a change it needs to report.
      *
+     * Called on the thread reading from the server, so it only marks what changed; the board is drawn on the next
+     * frame.
+     *
      * @param o The Observable (it attaches itself to make sure we are being updated from the correct model.
      * @param tile The tile that is being sent for update.
      */
@@ -637,52 +703,81 @@ public class PlaceGUI extends Application implements Observer {
             // if we're all set to do tile-update actions, we perform them now
             changeTile((PlaceTile) tile);
         }
+        // a batch of tiles is just as easy, one at a time
+        else if(tile instanceof PlaceTile[])
+        {
+            for(PlaceTile changed : (PlaceTile[]) tile)
+                changeTile(changed);
+        }
+        // if the server had to resync us, the whole board is new
+        else if(tile instanceof PlaceBoard)
+        {
+            this.dirtyTiles.markAll();
+        }
         else
         {
             // in the VERY unlikely event we're sent something weird from PlaceBoardObservable, we redraw the entire board.
             this.serverConn.logErr("Hmmm... Our board has sent us something unusual.\n" +
                     "We will now recreate our board to make sure everything is correct. It should only take a second");
-            redrawGrid();
+            this.dirtyTiles.markAll();
         }
     }
 
     /**
-     * When the update method is called, it is set a PlaceTile which is updated on the game board.
+     * When the update method is called, it is set a PlaceTile which is marked to be drawn on the next frame.
      *
      * @param tile The tile that was changed on the board.
      */
     private void changeTile(PlaceTile tile)
     {
-        // CHANGING THE TILE ON SCREEN ===========================
-        // using runLater to join this method with the JavaFX thread
-        // set our tile in its correct place
-        updateMostRecent(tile);
-        javafx.application.Platform.runLater(
-                () -> this.mainGrid.add(buildSingleTile(tile), tile.getCol(), tile.getRow())
-        );
+        this.dirtyTiles.mark(tile.getRow(), tile.getCol());
+        // only the latest one is ever shown (the old tiles of a part of the board that just came into view aren't)
+        PlaceTile recent = this.mostRecent;
+        if(recent == null || tile.getTime() >= recent.getTime())
+            this.mostRecent = tile;
     }
 
     /**
-     * This redraws the entire GridPane in the event the update method is sent something that isn't a PlaceTile.
+     * Draws every tile that changed since the last frame, and the most recently placed tile if it is new.
+     * Called by the renderer on the JavaFX thread once every frame.
      */
-    private void redrawGrid()
+    private void renderFrame()
     {
-        // goes through each tile since we are setting up our board for the first time
-        for (int row = 0; row < this.model.getDIM(); ++row)
+        this.dirtyTiles.drawTo(this.model.getBoard(), this.board);
+        // only redraws the view if anything in it (or the view itself) changed
+        this.board.render();
+        // and only listens to the changes it can show
+        subscribeToView();
+
+        PlaceTile tile = this.mostRecent;
+        if(tile != null && tile != this.mostRecentShown)
         {
-            for (int col = 0; col < this.model.getDIM(); ++col)
-            {
-                // gets the tile we are interested in
-                PlaceTile tile = this.model.getTile(row, col);
-
-                // add our tile to the mainGrid ( USING JAVA'S STUPID COLUMN, ROW SYSTEM WHO THE HECK DOES THAT?!?!?! )
-                javafx.application.Platform.runLater(() -> mainGrid.add(buildSingleTile(tile), tile.getCol(), tile.getRow()));
-            }
+            this.mostRecentShown = tile;
+            updateMostRecent(tile);
         }
     }
 
     /**
-     * Updates the most recently placed tile in the GUI left VBox.
+     * Subscribes to the part of the board in view once it has moved, so the server only sends us the changes we can
+     * show (every change once the whole board is in view again). Only called on the JavaFX thread.
+     */
+    private void subscribeToView()
+    {
+        BoardRegion visible = this.board.visibleRegion();
+        long now = System.nanoTime();
+        if(Objects.equals(visible, this.subscribed) || now - this.subscribedAt < SUBSCRIBE_INTERVAL ||
+                !this.serverConn.canSubscribe())
+            return;
+        this.subscribed = visible;
+        this.subscribedAt = now;
+        if(visible == null)
+            this.serverConn.subscribe();
+        else
+            this.serverConn.subscribe(visible);
+    }
+
+    /**
+     * Updates the most recently placed tile in the GUI left VBox. Only called on the JavaFX thread.
      *
      * @param tile The tile that was most recently placed.
      */
@@ -691,25 +786,12 @@ public class PlaceGUI extends Application implements Observer {
         // gets our color
         PlaceColor tileColor = tile.getColor();
 
-        // creates a formatter for the date so that it appears as MM/DD/YY on the tile information center
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yy");
-        // formats the actual information
-        String date = dateFormat.format(new Date(tile.getTime()));
-        // creates a formatter for the time so that it appears as HH:MM:SS in 24-hour time
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
-        // formats the actual time information
-        String time = timeFormat.format(new Date(tile.getTime()));
-
-        javafx.application.Platform.runLater(
-                () ->
-                {
-                    this.mostRecentTile.setFill(Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()));
-                    this.mostRecentLocationInfo.setText("(" + tile.getRow() + ", " + tile.getCol() + ")");
-                    this.mostRecentOwnerInfo.setText(tile.getOwner());
-                    this.mostRecentCreateDateInfo.setText(date);
-                    this.mostRecentCreateTimeInfo.setText(time);
-                }
-        );
+        this.mostRecentTile.setFill(Color.rgb(tileColor.getRed(), tileColor.getGreen(), tileColor.getBlue()));
+        this.mostRecentLocationInfo.setText("(" + tile.getRow() + ", " + tile.getCol() + ")");
+        this.mostRecentOwnerInfo.setText(tile.getOwner());
+        // formats the date as MM/DD/YY and the time as HH:MM:SS in 24-hour time
+        this.mostRecentCreateDateInfo.setText(DATE_FORMAT.format(new Date(tile.getTime())));
+        this.mostRecentCreateTimeInfo.setText(TIME_FORMAT.format(new Date(tile.getTime())));
     }
 
     /**
@@ -721,6 +803,9 @@ public class PlaceGUI extends Application implements Observer {
     {
         // when the program closes we close our NetworkClient so it knows to stop executing and log us out
         super.stop();
+        // no more frames to draw
+        if(this.renderer != null)
+            this.renderer.stop();
         // indicates to serverConn that it should close
         this.serverConn.close();
     }
@@ -4,8 +4,11 @@ import place.PlaceBoardObservable;
 import place.PlaceColor;
 import place.PlaceException;
 import place.PlaceTile;
+import place.network.BoardRegion;
 import place.network.NetworkClient;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.util.Observer;
 import java.util.Observable;
 import java.util.List;
@@ -18,6 +21,12 @@ import java.util.Scanner;
  *     <pre>$ java PlacePTUI host port username</pre>
  * to properly log in.
  *
+ * In a terminal the board is drawn in color at the top of the screen and kept up to date a few times a second, a cell
+ * at a time, with the prompt scrolling underneath it. Type "view row col" to move the part of the board shown (only
+ * the changes in view are sent to us). Run with -Dplace.ptui.ansi=false (or with the output not going to a terminal)
+ * to print the whole board as text on every change instead. The size of the terminal is read from the COLUMNS and
+ * LINES environment variables, or set with -Dplace.ptui.columns=N and -Dplace.ptui.lines=N.
+ *
  * @author Jason Streeter (jcs1738)
  * @author Kevin Becker (kjb2503)
  */
@@ -29,6 +38,18 @@ public class PlacePTUI extends ConsoleApplication implements Observer
      */
     private final static String PROMPT = "Enter a tile to color (row col color): ";
 
+    /**
+     * The command that moves the view of the board.
+     */
+    private final static String VIEW = "view";
+
+    /**
+     * Whether the board is drawn with ANSI escape codes. (Set with -Dplace.ptui.ansi=true|false; by default, only if
+     * we are running in a terminal.)
+     */
+    private final static boolean ANSI = Boolean.parseBoolean(
+            System.getProperty("place.ptui.ansi", String.valueOf(System.console() != null)));
+
     /**
      * The username of the user.
      */
@@ -44,6 +65,11 @@ public class PlacePTUI extends ConsoleApplication implements Observer
      */
     private NetworkClient serverConn;
 
+    /**
+     * Draws the board in the terminal (null if the board is printed as text instead).
+     */
+    private TerminalRenderer renderer;
+
     /**
      * The boolean that maintains if the application should keep running.
      */
@@ -98,6 +124,16 @@ public class PlacePTUI extends ConsoleApplication implements Observer
         // begins thread for NetworkClient to listen to server
         this.serverConn.start();
 
+        // draws the board in the terminal from here on, if we have one
+        if(ANSI)
+        {
+            this.renderer = new TerminalRenderer(this.model, new FileOutputStream(FileDescriptor.out),
+                    terminalSize("place.ptui.columns", "COLUMNS", 80), terminalSize("place.ptui.lines", "LINES", 24));
+            this.renderer.start();
+            // only what is in view is worth hearing about
+            subscribeToView();
+        }
+
         // make PTUI an observer of the board
         this.model.addObserver(this);
 
@@ -113,8 +149,9 @@ public class PlacePTUI extends ConsoleApplication implements Observer
     @Override
     public void start( Scanner in )
     {
-        // prints the board
-        printBoard();
+        // prints the board (the renderer draws it on its own)
+        if(this.renderer == null)
+            printBoard();
         // prompts the user to input
         this.serverConn.log(PROMPT);
 
@@ -128,6 +165,15 @@ public class PlacePTUI extends ConsoleApplication implements Observer
                 this.serverConn.log("Exit command has been read. Exiting PTUI.");
                 this.go = false;
             }
+            // Check if user moves the view
+            else if(playerInput[0].equals(VIEW) && playerInput.length == 3 && this.renderer != null) {
+                try {
+                    this.renderer.view(Integer.parseInt(playerInput[1]), Integer.parseInt(playerInput[2]));
+                    subscribeToView();
+                }
+                catch (NumberFormatException e) { this.serverConn.logErr("Please only enter numbers"); }
+                this.serverConn.log(PROMPT);
+            }
             // Check if user enters too much/little
             else if(playerInput.length != 3) {
                 this.serverConn.logErr("Please enter a valid command.");
@@ -146,6 +192,9 @@ public class PlacePTUI extends ConsoleApplication implements Observer
 
                         // sends tile placement to server
                         this.serverConn.sendTile(newTile);
+                        // the board isn't printed again under a renderer, so the prompt is
+                        if(this.renderer != null)
+                            this.serverConn.log(PROMPT);
                     } else {
                         this.serverConn.logErr("Please enter a color value between 0-15.");
                     }
@@ -163,6 +212,9 @@ public class PlacePTUI extends ConsoleApplication implements Observer
     public void stop() {
         // calls super stop method
         super.stop();
+        // gives the terminal back
+        if(this.renderer != null)
+            this.renderer.close();
         // closes our serverConn
         this.serverConn.close();
     }
@@ -189,8 +241,53 @@ public class PlacePTUI extends ConsoleApplication implements Observer
         // checks to make sure we are called from the correct model
         assert o == this.model: "Update message came from non-board";
 
-        // if we're good to go, we refresh
-        refreshBoard();
+        // without a renderer, we refresh
+        if(this.renderer == null)
+            refreshBoard();
+        // with one, we only mark what changed; it is drawn on the next frame
+        else if(arg instanceof PlaceTile)
+            this.renderer.mark(((PlaceTile) arg).getRow(), ((PlaceTile) arg).getCol());
+        else if(arg instanceof PlaceTile[])
+        {
+            for(PlaceTile tile : (PlaceTile[]) arg)
+                this.renderer.mark(tile.getRow(), tile.getCol());
+        }
+        // the whole board is new (or something we don't know changed it)
+        else
+            this.renderer.markAll();
+    }
+
+    /**
+     * Subscribes to the part of the board in view, so the server only sends us the changes we can show (if the whole
+     * board fits, we keep getting every change).
+     */
+    private void subscribeToView()
+    {
+        BoardRegion visible = this.renderer.visibleRegion();
+        if(visible != null)
+            this.serverConn.subscribe(visible);
+    }
+
+    /**
+     * Gets a size of the terminal.
+     *
+     * @param property The system property that sets it.
+     * @param variable The environment variable the shell may have exported it in.
+     * @param fallback The size if neither is set.
+     *
+     * @return The size.
+     */
+    private static int terminalSize(String property, String variable, int fallback)
+    {
+        try
+        {
+            String size = System.getProperty(property, System.getenv(variable));
+            return (size == null) ? fallback : Integer.parseInt(size.trim());
+        }
+        catch(NumberFormatException e)
+        {
+            return fallback;
+        }
     }
 
     /**
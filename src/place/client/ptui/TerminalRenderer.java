@@ -0,0 +1,474 @@
+package place.client.ptui;
+
+import place.PlaceBoard;
+import place.PlaceBoardObservable;
+import place.PlaceColor;
+import place.network.BoardRegion;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws the board in a terminal with ANSI escape codes, redrawing only the cells that changed.
+ *
+ * The top of the terminal holds a view of the board: every character cell is an upper half block, its foreground the
+ * color of one tile and its background the color of the tile below it, so a terminal line shows two rows of tiles.
+ * Everything under the view (the prompt, what the user types, the log) scrolls on its own, below the view, so nothing
+ * ever has to be drawn twice.
+ *
+ * Changes only mark the cells they touch. A few times a second the marked cells whose colors are not already on the
+ * screen are written out in a single write, moving the cursor only where the next cell isn't right after the last one
+ * and setting a color only when it differs from the one before. However fast the board changes, the terminal is sent
+ * at most one frame of bytes a tick, and never more than a cell for every cell of the view.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class TerminalRenderer
+{
+    /**
+     * The number of frames drawn a second, at most. (Set with -Dplace.ptui.fps=N.)
+     */
+    private static final int FRAME_RATE = Integer.getInteger("place.ptui.fps", 10);
+
+    /**
+     * The number of terminal lines kept under the view for the prompt and the log.
+     */
+    private static final int CONSOLE_LINES = 6;
+
+    /**
+     * The ANSI escape that starts every control sequence.
+     */
+    private static final String CSI = "\033[";
+
+    /**
+     * The bytes of an upper half block (U+2580) in UTF-8.
+     */
+    private static final byte[] HALF_BLOCK = "\u2580".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The escape that sets the foreground to each color, by color number.
+     */
+    private static final byte[][] FOREGROUND = colorEscapes("38;2;");
+
+    /**
+     * The escape that sets the background to each color, by color number.
+     */
+    private static final byte[][] BACKGROUND = colorEscapes("48;2;");
+
+    /**
+     * The escape that saves the cursor (and the colors), so the user's typing is left where it was.
+     */
+    private static final byte[] SAVE_CURSOR = ascii("\0337");
+
+    /**
+     * The escape that puts the cursor (and the colors) back where SAVE_CURSOR found them.
+     */
+    private static final byte[] RESTORE_CURSOR = ascii("\0338");
+
+    /**
+     * The escape that sets the background back to the terminal's own (under a tile with no tile below it).
+     */
+    private static final byte[] DEFAULT_BACKGROUND = ascii(CSI + "49m");
+
+    /**
+     * The start of the escape that moves the cursor, before its line.
+     */
+    private static final byte[] MOVE_CURSOR = ascii(CSI);
+
+    /**
+     * What goes between the line and the column of the escape that moves the cursor.
+     */
+    private static final byte[] SEPARATOR = ascii(";");
+
+    /**
+     * The end of the escape that moves the cursor, after its column.
+     */
+    private static final byte[] CURSOR_POSITION = ascii("H");
+
+    /**
+     * The escape that clears the line the cursor is on.
+     */
+    private static final byte[] CLEAR_LINE = ascii(CSI + "2K");
+
+    /**
+     * The model the board is read from.
+     */
+    private final PlaceBoardObservable model;
+
+    /**
+     * Where the frames are written.
+     */
+    private final OutputStream out;
+
+    /**
+     * The square dimension of the board.
+     */
+    private final int dim;
+
+    /**
+     * The number of terminal lines.
+     */
+    private final int lines;
+
+    /**
+     * The number of rows of tiles in the view (two to a terminal line).
+     */
+    private final int viewRows;
+
+    /**
+     * The number of columns of tiles in the view (one to a terminal column).
+     */
+    private final int viewCols;
+
+    /**
+     * The number of terminal lines the view takes up.
+     */
+    private final int viewLines;
+
+    /**
+     * The colors on the screen in every cell of the view (the top tile's color number times 16 plus the bottom's, or
+     * -1 if the cell isn't known to have been drawn). Only used on the ticker's thread.
+     */
+    private final int[] shown;
+
+    /**
+     * The cells of the view marked since the last frame, by cell (line * viewCols + column).
+     */
+    private BitSet marked;
+
+    /**
+     * The cells being drawn by the current frame (swapped with marked, so neither is made again).
+     */
+    private BitSet drawing;
+
+    /**
+     * True if every cell of the view has to be looked at (and the title line written) next frame.
+     */
+    private boolean all = true;
+
+    /**
+     * The row of the top of the view.
+     */
+    private int top;
+
+    /**
+     * The column of the left of the view.
+     */
+    private int left;
+
+    /**
+     * The frame being built, reused for every frame (and grown when a frame needs more).
+     */
+    private byte[] frame = new byte[16 * 1024];
+
+    /**
+     * The number of bytes of the frame built so far.
+     */
+    private int length;
+
+    /**
+     * The foreground color set last in the frame (-1 for none yet).
+     */
+    private int foreground;
+
+    /**
+     * The background color set last in the frame (-1 for none yet, -2 for the terminal's own).
+     */
+    private int background;
+
+    /**
+     * The cell the cursor is on while the frame is written (-1 if it hasn't been moved into the view yet).
+     */
+    private int cursor;
+
+    /**
+     * The thread frames are drawn on.
+     */
+    private ScheduledExecutorService ticker;
+
+    /**
+     * Creates a renderer for a terminal of a certain size, with the view at the top left of the board.
+     *
+     * @param model The model the board is read from (already initialized).
+     * @param out Where the frames are written.
+     * @param columns The number of columns of the terminal.
+     * @param lines The number of lines of the terminal.
+     */
+    TerminalRenderer(PlaceBoardObservable model, OutputStream out, int columns, int lines)
+    {
+        this.model = model;
+        this.out = out;
+        this.dim = model.getDIM();
+        this.lines = lines;
+        // one line is the title, the rest of what the console doesn't need is the board
+        this.viewRows = Math.min(this.dim, Math.max(1, lines - CONSOLE_LINES - 1) * 2);
+        this.viewCols = Math.min(this.dim, columns);
+        this.viewLines = (this.viewRows + 1) / 2;
+        this.shown = new int[this.viewLines * this.viewCols];
+        this.marked = new BitSet(this.shown.length);
+        this.drawing = new BitSet(this.shown.length);
+    }
+
+    /**
+     * Clears the terminal, makes room for the view above the console and starts drawing frames.
+     *
+     * @throws IOException If the terminal can't be written to.
+     */
+    void start() throws IOException
+    {
+        Arrays.fill(this.shown, -1);
+        // everything under the view scrolls on its own, and the cursor starts at the bottom of it
+        this.out.write(ascii(CSI + "2J" + CSI + (this.viewLines + 2) + ";" + this.lines + "r" +
+                CSI + this.lines + ";1H"));
+        this.out.flush();
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceRenderer");
+            // never keeps a closed client alive
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = TimeUnit.SECONDS.toNanos(1) / Math.max(1, FRAME_RATE);
+        this.ticker.scheduleAtFixedRate(this::frame, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops drawing frames and gives the terminal back the way it was (the whole of it scrolling).
+     */
+    void close()
+    {
+        if(this.ticker != null)
+            this.ticker.shutdownNow();
+        try
+        {
+            this.out.write(ascii(CSI + "0m" + CSI + "r" + CSI + this.lines + ";1H\n"));
+            this.out.flush();
+        }
+        catch(IOException e)
+        {
+            // the terminal is gone, there is nothing to give back
+        }
+    }
+
+    /**
+     * Marks a tile as changed, if it is in view. Called by any thread.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     */
+    synchronized void mark(int row, int col)
+    {
+        int line = (row - this.top) >> 1;
+        int column = col - this.left;
+        if(row >= this.top && line < this.viewLines && column >= 0 && column < this.viewCols)
+            this.marked.set(line * this.viewCols + column);
+    }
+
+    /**
+     * Marks every tile in view as changed (the whole board was replaced). Called by any thread.
+     */
+    synchronized void markAll()
+    {
+        this.all = true;
+    }
+
+    /**
+     * Moves the view, keeping it on the board. Called by any thread.
+     *
+     * @param top The row that should be at the top of the view.
+     * @param left The column that should be at the left of the view.
+     */
+    synchronized void view(int top, int left)
+    {
+        this.top = Math.max(0, Math.min(this.dim - this.viewRows, top));
+        this.left = Math.max(0, Math.min(this.dim - this.viewCols, left));
+        this.all = true;
+    }
+
+    /**
+     * Gets the part of the board in view.
+     *
+     * @return The region, or null if the whole board is in view.
+     */
+    synchronized BoardRegion visibleRegion()
+    {
+        if(this.viewRows == this.dim && this.viewCols == this.dim)
+            return null;
+        return new BoardRegion(this.top, this.left, this.viewRows, this.viewCols);
+    }
+
+    /**
+     * Draws the cells marked since the last frame that don't show their tiles' colors yet, all in one write. Run by
+     * the ticker.
+     */
+    private void frame()
+    {
+        boolean all;
+        int top, left;
+        // only the swap is done holding the lock, so marking never waits on the terminal
+        synchronized(this)
+        {
+            all = this.all;
+            top = this.top;
+            left = this.left;
+            BitSet swap = this.drawing;
+            this.drawing = this.marked;
+            this.marked = swap;
+            this.marked.clear();
+            this.all = false;
+        }
+
+        PlaceBoard board = this.model.getBoard();
+        this.length = 0;
+        this.foreground = -1;
+        this.background = -1;
+        this.cursor = -1;
+        append(SAVE_CURSOR);
+        if(all)
+            title(top, left);
+
+        int cells = 0;
+        int cell = all ? 0 : this.drawing.nextSetBit(0);
+        while(cell >= 0 && cell < this.shown.length)
+        {
+            int row = top + cell / this.viewCols * 2;
+            int col = left + cell % this.viewCols;
+            int upper = board.getColor(row, col).getNumber();
+            // the last line of an odd number of rows has nothing under its tiles
+            int lower = (row + 1 < top + this.viewRows) ? board.getColor(row + 1, col).getNumber() : -2;
+            int colors = upper * PlaceColor.TOTAL_COLORS + lower;
+            if(this.shown[cell] != colors)
+            {
+                this.shown[cell] = colors;
+                draw(cell, upper, lower);
+                ++cells;
+            }
+            cell = all ? cell + 1 : this.drawing.nextSetBit(cell + 1);
+        }
+
+        // nothing the screen didn't already show, nothing written
+        if(cells == 0 && !all)
+            return;
+        append(RESTORE_CURSOR);
+        try
+        {
+            this.out.write(this.frame, 0, this.length);
+            this.out.flush();
+        }
+        catch(IOException e)
+        {
+            // the terminal is gone; the client finds out for itself when it next reads
+        }
+    }
+
+    /**
+     * Writes the title line above the view, which says which part of the board is in it.
+     *
+     * @param top The row of the top of the view.
+     * @param left The column of the left of the view.
+     */
+    private void title(int top, int left)
+    {
+        append(ascii(CSI + "1;1H"));
+        append(CLEAR_LINE);
+        append(ascii(CSI + "0m k/Place  rows " + top + "-" + (top + this.viewRows - 1) + "  cols " + left + "-" +
+                (left + this.viewCols - 1) + "  of " + this.dim + "x" + this.dim));
+    }
+
+    /**
+     * Adds a cell to the frame, moving the cursor to it and setting its colors only if they aren't already.
+     *
+     * @param cell The cell of the view.
+     * @param upper The color number of its top tile.
+     * @param lower The color number of its bottom tile (-2 for none).
+     */
+    private void draw(int cell, int upper, int lower)
+    {
+        if(cell != this.cursor)
+        {
+            // the view starts on the line under the title
+            append(MOVE_CURSOR);
+            appendNumber(cell / this.viewCols + 2);
+            append(SEPARATOR);
+            appendNumber(cell % this.viewCols + 1);
+            append(CURSOR_POSITION);
+        }
+        if(upper != this.foreground)
+        {
+            append(FOREGROUND[upper]);
+            this.foreground = upper;
+        }
+        if(lower != this.background)
+        {
+            append(lower < 0 ? DEFAULT_BACKGROUND : BACKGROUND[lower]);
+            this.background = lower;
+        }
+        append(HALF_BLOCK);
+        // writing a cell leaves the cursor on the next one, unless it was the last of its line
+        this.cursor = (cell % this.viewCols == this.viewCols - 1) ? -1 : cell + 1;
+    }
+
+    /**
+     * Adds bytes to the frame, growing it if they don't fit.
+     *
+     * @param bytes The bytes.
+     */
+    private void append(byte[] bytes)
+    {
+        if(this.length + bytes.length > this.frame.length)
+            this.frame = Arrays.copyOf(this.frame, Math.max(this.frame.length * 2, this.length + bytes.length));
+        System.arraycopy(bytes, 0, this.frame, this.length, bytes.length);
+        this.length += bytes.length;
+    }
+
+    /**
+     * Adds a number to the frame as ASCII digits.
+     *
+     * @param number The number (never negative).
+     */
+    private void appendNumber(int number)
+    {
+        int digits = 1;
+        for(int rest = number / 10; rest > 0; rest /= 10)
+            ++digits;
+        if(this.length + digits > this.frame.length)
+            this.frame = Arrays.copyOf(this.frame, this.frame.length * 2 + digits);
+        for(int i = this.length + digits - 1; i >= this.length; --i, number /= 10)
+            this.frame[i] = (byte) ('0' + number % 10);
+        this.length += digits;
+    }
+
+    /**
+     * Makes the escape that sets a color for every color, by color number.
+     *
+     * @param select What selects the color that is set (the foreground or the background, as RGB).
+     *
+     * @return The escapes.
+     */
+    private static byte[][] colorEscapes(String select)
+    {
+        byte[][] escapes = new byte[PlaceColor.TOTAL_COLORS][];
+        for(PlaceColor color : PlaceColor.values())
+            escapes[color.getNumber()] = ascii(CSI + select + color.getRed() + ";" + color.getGreen() + ";" +
+                    color.getBlue() + "m");
+        return escapes;
+    }
+
+    /**
+     * Gets the bytes of text that is only ASCII.
+     *
+     * @param text The text.
+     *
+     * @return Its bytes.
+     */
+    private static byte[] ascii(String text)
+    {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,375 @@
+package place.network;
+
+import place.PlaceBoard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic checkpoints of the whole board, kept next to the PlaceJournal, so a server that starts again only has to
+ * replay the tail of the journal written since the latest checkpoint.
+ *
+ * A checkpoint is written from the SnapshotCache's current snapshot, which is a copy of the board that never changes;
+ * placing tiles never waits on a checkpoint. It goes to a temporary file that is memory mapped and filled in bulk,
+ * forced to the disk and only then renamed into place, so a checkpoint is either whole or not there at all. The two
+ * newest checkpoints are kept (if the newest turns out to be unreadable the older one still works, which is also
+ * why the journal is only trimmed up to the older one) and the rest are deleted.
+ *
+ * A checkpoint holds a header (MAGIC, the format version, DIM, the sequence number of the last tile in it, the number
+ * of owners and of chunks), the owner names (UTF-8, length first), the packed layout of the board (see
+ * PlaceBoard.writePacked), then the length of every chunk's BOARD_CHUNK frame followed by the frames themselves and
+ * MAGIC again to mark the end. On a cold start the board is read out of the mapped file in bulk and the frames are
+ * served to joining users straight out of the mapping, so nothing has to be encoded again.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class BoardCheckpoints
+{
+    /**
+     * The first (and last) four bytes of every checkpoint ("PLCP").
+     */
+    private static final int MAGIC = 0x504C4350;
+
+    /**
+     * The version of the checkpoint format. The frames are stored as encoded, so this goes up along with
+     * PlaceCodec.CHUNKED_BOARD_VERSION.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The size of the header.
+     */
+    private static final int HEADER_BYTES = Integer.BYTES * 3 + Long.BYTES + Integer.BYTES * 2;
+
+    /**
+     * The number of checkpoints kept.
+     */
+    private static final int KEEP = 2;
+
+    /**
+     * The directory the checkpoints are in.
+     */
+    private final File directory;
+
+    /**
+     * The thread the checkpoints are written on.
+     */
+    private ScheduledExecutorService writer;
+
+    /**
+     * The sequence number of the last tile in the newest checkpoint (a blank board is never written).
+     */
+    private volatile long lastSequence;
+
+    /**
+     * Opens the checkpoints kept in a directory, throwing away any that were cut short while being written.
+     *
+     * @param directory The directory (the journal's).
+     */
+    BoardCheckpoints(File directory)
+    {
+        this.directory = directory;
+        File[] partial = directory.listFiles((dir, name) -> name.startsWith("board-") && name.endsWith(".snap.tmp"));
+        if(partial != null)
+            for(File file : partial)
+                file.delete();
+    }
+
+    /**
+     * Loads the newest checkpoint that can be read, falling back on older ones.
+     *
+     * @param dim The square dimension of the board.
+     *
+     * @return The checkpoint, or null if there is none for a board of this size.
+     */
+    Checkpoint load(int dim)
+    {
+        List<File> files = checkpoints();
+        Collections.reverse(files);
+        for(File file : files)
+        {
+            try
+            {
+                Checkpoint checkpoint = read(file, dim);
+                if(checkpoint != null)
+                {
+                    this.lastSequence = checkpoint.sequence;
+                    return checkpoint;
+                }
+            }
+            catch(IOException | RuntimeException e)
+            {
+                System.err.println("[BoardCheckpoints]: Skipping " + file.getName() + ": " + e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts writing a checkpoint every so often.
+     *
+     * @param snapshots Where the snapshots the checkpoints are written from come from.
+     * @param journal The journal, which is trimmed once the checkpoints make part of it unneeded.
+     * @param seconds The number of seconds between checkpoints.
+     */
+    void start(SnapshotCache snapshots, PlaceJournal journal, int seconds)
+    {
+        this.writer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceCheckpoint");
+            // never keeps a stopped server alive
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer.scheduleWithFixedDelay(() -> checkpoint(snapshots, journal), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops writing checkpoints, waiting for one being written to finish.
+     */
+    void close()
+    {
+        if(this.writer == null)
+            return;
+        this.writer.shutdown();
+        try
+        {
+            this.writer.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the current snapshot if anything was committed since the last one, then deletes the
+     * checkpoints and journal segments that are no longer needed.
+     *
+     * @param snapshots Where the snapshot comes from.
+     * @param journal The journal.
+     */
+    private void checkpoint(SnapshotCache snapshots, PlaceJournal journal)
+    {
+        try
+        {
+            SnapshotCache.Snapshot snapshot = snapshots.current();
+            if(snapshot.sequence <= this.lastSequence)
+                return;
+            write(snapshot);
+            this.lastSequence = snapshot.sequence;
+
+            List<File> files = checkpoints();
+            for(int i = 0; i + KEEP < files.size(); ++i)
+                files.get(i).delete();
+            if(files.size() >= KEEP)
+                journal.deleteThrough(sequenceOf(files.get(files.size() - KEEP)));
+        }
+        catch(IOException | RuntimeException e)
+        {
+            // an exception would cancel every later checkpoint; the journal still has everything
+            System.err.println("[BoardCheckpoints]: Couldn't write a checkpoint: " + e);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a new checkpoint.
+     *
+     * @param snapshot The snapshot.
+     *
+     * @throws IOException If the checkpoint can't be written.
+     */
+    private void write(SnapshotCache.Snapshot snapshot) throws IOException
+    {
+        PlaceBoard board = snapshot.board;
+        List<byte[]> names = new ArrayList<>();
+        long size = HEADER_BYTES;
+        for(String owner : board.getOwnerNames())
+        {
+            byte[] name = owner.getBytes(StandardCharsets.UTF_8);
+            if(name.length > 0xFFFF)
+                name = Arrays.copyOf(name, 0xFFFF);
+            names.add(name);
+            size += Short.BYTES + name.length;
+        }
+        // the packed layout starts on a multiple of 8 so the ints and longs are read aligned
+        long packed = (size + 7) & ~7L;
+        List<ByteBuffer> frames = new ArrayList<>(snapshot.chunks.size());
+        size = packed + PlaceBoard.packedSize(board.DIM) + (long) Integer.BYTES * snapshot.chunks.size();
+        for(BoardChunk chunk : snapshot.chunks)
+        {
+            ByteBuffer frame = chunk.getFrame();
+            frames.add(frame);
+            size += frame.remaining();
+        }
+        size += Integer.BYTES;
+        if(size > Integer.MAX_VALUE)
+            throw new IOException("The board is too big for a checkpoint (" + size + " bytes)");
+
+        File file = new File(this.directory, String.format("board-%020d.snap", snapshot.sequence));
+        File temporary = new File(this.directory, file.getName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putInt(VERSION).putInt(board.DIM).putLong(snapshot.sequence);
+            out.putInt(names.size()).putInt(frames.size());
+            for(byte[] name : names)
+                out.putShort((short) name.length).put(name);
+            out.position((int) packed);
+            board.writePacked(out);
+            for(ByteBuffer frame : frames)
+                out.putInt(frame.remaining());
+            for(ByteBuffer frame : frames)
+                out.put(frame);
+            out.putInt(MAGIC);
+            out.force();
+        }
+        // only a checkpoint that is all there ever gets its real name
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a checkpoint by memory mapping it.
+     *
+     * @param file The checkpoint file.
+     * @param dim The square dimension of the board.
+     *
+     * @return The checkpoint, or null if it was kept for a board of another size.
+     *
+     * @throws IOException If the checkpoint can't be read or is broken.
+     */
+    private static Checkpoint read(File file, int dim) throws IOException
+    {
+        MappedByteBuffer in;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            if(channel.size() > Integer.MAX_VALUE || channel.size() < HEADER_BYTES + Integer.BYTES)
+                throw new IOException("Wrong size " + channel.size());
+            // the mapping stays valid once the channel is closed
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try
+        {
+            if(in.getInt() != MAGIC || in.getInt() != VERSION || in.getInt(in.limit() - Integer.BYTES) != MAGIC)
+                throw new IOException("Not a whole checkpoint");
+            if(in.getInt() != dim)
+                return null;
+            long sequence = in.getLong();
+            int ownerCount = in.getInt();
+            int chunkCount = in.getInt();
+            if(ownerCount < 1 || chunkCount != BoardChunk.count(dim))
+                throw new IOException("Wrong number of owners or chunks");
+
+            List<String> owners = new ArrayList<>(ownerCount);
+            byte[] name = new byte[0xFFFF];
+            for(int i = 0; i < ownerCount; ++i)
+            {
+                int length = in.getShort() & 0xFFFF;
+                in.get(name, 0, length);
+                owners.add(new String(name, 0, length, StandardCharsets.UTF_8));
+            }
+
+            int packed = (in.position() + 7) & ~7;
+            int packedSize = (int) PlaceBoard.packedSize(dim);
+            PlaceBoard board = new PlaceBoard(dim, in.slice(packed, packedSize), owners);
+
+            in.position(packed + packedSize);
+            int[] lengths = new int[chunkCount];
+            for(int i = 0; i < chunkCount; ++i)
+                lengths[i] = in.getInt();
+            List<ByteBuffer> frames = new ArrayList<>(chunkCount);
+            int at = in.position();
+            for(int length : lengths)
+            {
+                frames.add(in.slice(at, length));
+                at += length;
+            }
+            if(at != in.limit() - Integer.BYTES)
+                throw new IOException("The frames don't add up");
+            return new Checkpoint(board, sequence, frames);
+        }
+        catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+        {
+            throw new IOException("Cut short", e);
+        }
+    }
+
+    /**
+     * Gets the checkpoints in the directory, oldest first.
+     *
+     * @return The checkpoint files.
+     */
+    private List<File> checkpoints()
+    {
+        File[] files = this.directory.listFiles((dir, name) -> name.startsWith("board-") && name.endsWith(".snap"));
+        if(files == null)
+            return new ArrayList<>();
+        // the sequence numbers are zero padded, so the names sort in order
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Gets the sequence number of the last tile in a checkpoint out of its name.
+     *
+     * @param checkpoint The checkpoint file.
+     *
+     * @return The sequence number.
+     */
+    private static long sequenceOf(File checkpoint)
+    {
+        String name = checkpoint.getName();
+        return Long.parseLong(name.substring("board-".length(), name.length() - ".snap".length()));
+    }
+
+    /**
+     * A checkpoint read back in.
+     */
+    static class Checkpoint
+    {
+        /**
+         * The board as it was when the checkpoint was written.
+         */
+        final PlaceBoard board;
+
+        /**
+         * The sequence number of the last tile in the checkpoint.
+         */
+        final long sequence;
+
+        /**
+         * The BOARD_CHUNK frame of every chunk, in order (slices of the mapped file).
+         */
+        final List<ByteBuffer> frames;
+
+        /**
+         * Creates a checkpoint.
+         *
+         * @param board The board.
+         * @param sequence The sequence number of the last tile in the checkpoint.
+         * @param frames The frame of every chunk.
+         */
+        Checkpoint(PlaceBoard board, long sequence, List<ByteBuffer> frames)
+        {
+            this.board = board;
+            this.sequence = sequence;
+            this.frames = frames;
+        }
+    }
+}
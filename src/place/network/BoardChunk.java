@@ -0,0 +1,281 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceTile;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * One square region of a board, the unit a binary client is sent the board in when it joins (or falls behind).
+ *
+ * The board is cut into SIZE x SIZE regions numbered row by row; the last row and column of regions are smaller if
+ * the board's dimension isn't a multiple of SIZE. Every chunk carries the dimension of the board and the sequence
+ * number of the snapshot it was cut from (its region hasn't changed since), so a client can build its board from the
+ * first chunk and draw every chunk as soon as it arrives.
+ *
+ * On the server a chunk just points into a snapshot of the board (the codec encodes it straight from there); on the
+ * client it holds the decoded tiles. Only binary clients are sent chunks; it is Serializable because every
+ * PlaceRequest's data has to be.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class BoardChunk implements Serializable
+{
+    /**
+     * The version of the serialized form of a chunk.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The square dimension of a chunk, in tiles.
+     */
+    public static final int SIZE = 64;
+
+    /**
+     * The square dimension of the board the chunk is part of.
+     */
+    private final int dim;
+
+    /**
+     * The sequence number of the last tile committed before the snapshot the chunk was cut from.
+     */
+    private final long sequence;
+
+    /**
+     * The position of the chunk on the board, counting row by row.
+     */
+    private final int index;
+
+    /**
+     * The snapshot the chunk was cut from (server side only, until the chunk has been encoded ahead of time).
+     */
+    private transient PlaceBoard board;
+
+    /**
+     * The tiles of the chunk, row by row (client side only).
+     */
+    private final PlaceTile[] tiles;
+
+    /**
+     * The whole BOARD_CHUNK frame of the chunk, once it has been encoded for every connection to share (on the heap,
+     * or straight out of a memory mapped checkpoint).
+     */
+    private transient volatile ByteBuffer frame;
+
+    /**
+     * Creates a chunk pointing into a snapshot of the board.
+     *
+     * @param board The snapshot, which must never change afterwards.
+     * @param sequence The sequence number of the last tile committed before the snapshot.
+     * @param index The position of the chunk on the board.
+     */
+    BoardChunk(PlaceBoard board, long sequence, int index)
+    {
+        this.dim = board.DIM;
+        this.sequence = sequence;
+        this.index = index;
+        this.board = board;
+        this.tiles = null;
+    }
+
+    /**
+     * Creates a chunk out of tiles that were read off the wire.
+     *
+     * @param dim The square dimension of the board.
+     * @param sequence The sequence number of the snapshot the chunk was cut from.
+     * @param index The position of the chunk on the board.
+     * @param tiles The tiles of the chunk, row by row.
+     */
+    BoardChunk(int dim, long sequence, int index, PlaceTile[] tiles)
+    {
+        this.dim = dim;
+        this.sequence = sequence;
+        this.index = index;
+        this.board = null;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Gets the number of chunks a board is cut into.
+     *
+     * @param dim The square dimension of the board.
+     *
+     * @return The number of chunks.
+     */
+    public static int count(int dim)
+    {
+        int across = perRow(dim);
+        return across * across;
+    }
+
+    /**
+     * Gets the index of the chunk a tile is in.
+     *
+     * @param dim The square dimension of the board.
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     *
+     * @return The index of its chunk.
+     */
+    static int indexOf(int dim, int row, int col)
+    {
+        return row / SIZE * perRow(dim) + col / SIZE;
+    }
+
+    /**
+     * Gets the number of chunks across a board.
+     *
+     * @param dim The square dimension of the board.
+     *
+     * @return The number of chunks in every row of chunks.
+     */
+    private static int perRow(int dim)
+    {
+        return (dim + SIZE - 1) / SIZE;
+    }
+
+    /**
+     * Gets the square dimension of the board the chunk is part of.
+     *
+     * @return The dimension.
+     */
+    public int getDim()
+    {
+        return this.dim;
+    }
+
+    /**
+     * Gets the sequence number of the snapshot the chunk was cut from.
+     *
+     * @return The sequence number.
+     */
+    public long getSequence()
+    {
+        return this.sequence;
+    }
+
+    /**
+     * Gets the position of the chunk on the board, counting row by row.
+     *
+     * @return The index.
+     */
+    public int getIndex()
+    {
+        return this.index;
+    }
+
+    /**
+     * Tells if this is the last chunk of its board.
+     *
+     * @return A boolean. True if the whole board has been sent once this chunk has; false otherwise.
+     */
+    public boolean isLast()
+    {
+        return this.index == count(this.dim) - 1;
+    }
+
+    /**
+     * Gets the first row of the chunk.
+     *
+     * @return The row.
+     */
+    int getTop()
+    {
+        return this.index / perRow(this.dim) * SIZE;
+    }
+
+    /**
+     * Gets the first column of the chunk.
+     *
+     * @return The column.
+     */
+    int getLeft()
+    {
+        return this.index % perRow(this.dim) * SIZE;
+    }
+
+    /**
+     * Gets the number of rows in the chunk.
+     *
+     * @return The height.
+     */
+    int getHeight()
+    {
+        return Math.min(SIZE, this.dim - getTop());
+    }
+
+    /**
+     * Gets the number of columns in the chunk.
+     *
+     * @return The width.
+     */
+    int getWidth()
+    {
+        return Math.min(SIZE, this.dim - getLeft());
+    }
+
+    /**
+     * Gets the snapshot the chunk was cut from.
+     *
+     * @return The snapshot (null on the client).
+     */
+    PlaceBoard getBoard()
+    {
+        return this.board;
+    }
+
+    /**
+     * Gets the frame the chunk was encoded into ahead of time.
+     *
+     * @return A buffer of its own over the frame, or null if the chunk is encoded for each connection on its own.
+     */
+    ByteBuffer getFrame()
+    {
+        ByteBuffer frame = this.frame;
+        return (frame == null) ? null : frame.duplicate();
+    }
+
+    /**
+     * Keeps the frame the chunk was encoded into, so the codec of every connection can send it as is. A BOARD_CHUNK
+     * frame doesn't depend on anything else sent on a connection, which is what makes that possible.
+     *
+     * @param frame The frame, from its position to its limit (never changed afterwards).
+     */
+    void setFrame(ByteBuffer frame)
+    {
+        this.frame = frame;
+        // a chunk carried over from snapshot to snapshot mustn't keep every old copy of the board alive
+        this.board = null;
+    }
+
+    /**
+     * Gets the tiles of the chunk. On the server they are built from the snapshot on every call (which is only
+     * possible until the chunk has been encoded ahead of time).
+     *
+     * @return The tiles, row by row.
+     */
+    public PlaceTile[] getTiles()
+    {
+        if(this.tiles != null)
+            return this.tiles;
+
+        PlaceTile[] tiles = new PlaceTile[getHeight() * getWidth()];
+        int i = 0;
+        for(int row = getTop(); row < getTop() + getHeight(); ++row)
+            for(int col = getLeft(); col < getLeft() + getWidth(); ++col)
+                tiles[i++] = this.board.getTile(row, col);
+        return tiles;
+    }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the chunk as a string
+     */
+    @Override
+    public String toString()
+    {
+        return "BoardChunk{dim=" + this.dim + ", sequence=" + this.sequence + ", index=" + this.index + '}';
+    }
+}
@@ -0,0 +1,183 @@
+package place.network;
+
+import java.io.Serializable;
+
+/**
+ * A rectangle of tiles on a board, given by its top left tile and its size. A client sends the regions it can see in a
+ * SUBSCRIBE and from then on is only sent the changes inside them.
+ *
+ * Regions are immutable. They are Serializable because every PlaceRequest's data has to be.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public final class BoardRegion implements Serializable
+{
+    /**
+     * The version of the serialized form of a region.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The row of the top of the region.
+     */
+    private final int top;
+
+    /**
+     * The column of the left of the region.
+     */
+    private final int left;
+
+    /**
+     * The number of rows in the region.
+     */
+    private final int height;
+
+    /**
+     * The number of columns in the region.
+     */
+    private final int width;
+
+    /**
+     * Creates a region.
+     *
+     * @param top The row of the top of the region.
+     * @param left The column of the left of the region.
+     * @param height The number of rows in the region.
+     * @param width The number of columns in the region.
+     *
+     * @throws IllegalArgumentException If the region starts above or left of the board, or has no size.
+     */
+    public BoardRegion(int top, int left, int height, int width)
+    {
+        if(top < 0 || left < 0 || height <= 0 || width <= 0)
+            throw new IllegalArgumentException("Bad region " + height + "x" + width + " at " + top + "," + left);
+        this.top = top;
+        this.left = left;
+        this.height = height;
+        this.width = width;
+    }
+
+    /**
+     * Gets the row of the top of the region.
+     *
+     * @return The row.
+     */
+    public int getTop()
+    {
+        return this.top;
+    }
+
+    /**
+     * Gets the column of the left of the region.
+     *
+     * @return The column.
+     */
+    public int getLeft()
+    {
+        return this.left;
+    }
+
+    /**
+     * Gets the number of rows in the region.
+     *
+     * @return The height.
+     */
+    public int getHeight()
+    {
+        return this.height;
+    }
+
+    /**
+     * Gets the number of columns in the region.
+     *
+     * @return The width.
+     */
+    public int getWidth()
+    {
+        return this.width;
+    }
+
+    /**
+     * Gets the row just below the region.
+     *
+     * @return The row (which may be past the board).
+     */
+    public int getBottom()
+    {
+        return this.top + this.height;
+    }
+
+    /**
+     * Gets the column just right of the region.
+     *
+     * @return The column (which may be past the board).
+     */
+    public int getRight()
+    {
+        return this.left + this.width;
+    }
+
+    /**
+     * Tells if a tile is in the region.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     *
+     * @return A boolean. True if the tile is in the region; false otherwise.
+     */
+    public boolean contains(int row, int col)
+    {
+        return row >= this.top && row < getBottom() && col >= this.left && col < getRight();
+    }
+
+    /**
+     * Tells if the region covers a whole board.
+     *
+     * @param dim The square dimension of the board.
+     *
+     * @return A boolean. True if every tile of the board is in the region; false otherwise.
+     */
+    public boolean covers(int dim)
+    {
+        return this.top == 0 && this.left == 0 && getBottom() >= dim && getRight() >= dim;
+    }
+
+    /**
+     * Compares two regions.
+     *
+     * @param other The object to compare to.
+     *
+     * @return A boolean. True if other is a region of the same tiles; false otherwise.
+     */
+    @Override
+    public boolean equals(Object other)
+    {
+        if(!(other instanceof BoardRegion))
+            return false;
+        BoardRegion region = (BoardRegion) other;
+        return this.top == region.top && this.left == region.left && this.height == region.height &&
+                this.width == region.width;
+    }
+
+    /**
+     * Hashes the region.
+     *
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode()
+    {
+        return ((this.top * 31 + this.left) * 31 + this.height) * 31 + this.width;
+    }
+
+    /**
+     * Gets the region as text.
+     *
+     * @return The size and top left tile of the region.
+     */
+    @Override
+    public String toString()
+    {
+        return this.height + "x" + this.width + " at (" + this.top + ", " + this.left + ")";
+    }
+}
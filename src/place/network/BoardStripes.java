@@ -0,0 +1,110 @@
+package place.network;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The locks that let tiles in different parts of the board be placed at the same time.
+ *
+ * The board is cut into square regions and every region is guarded by one of a fixed number of locks (regions share
+ * locks round-robin). Placing a tile only takes the lock of its region; reading the whole board takes every lock.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class BoardStripes
+{
+    /**
+     * The square dimension of a region, in tiles.
+     */
+    private static final int REGION_SIZE = 32;
+
+    /**
+     * The locks, one per stripe.
+     */
+    private final ReentrantLock[] locks;
+
+    /**
+     * The number of regions across the board.
+     */
+    private final int regionsPerRow;
+
+    /**
+     * Creates the locks for a board.
+     *
+     * @param dim The square dimension of the board.
+     * @param stripes The number of locks (1 makes every placement take the same lock).
+     */
+    BoardStripes(int dim, int stripes)
+    {
+        this.regionsPerRow = (dim + REGION_SIZE - 1) / REGION_SIZE;
+        this.locks = new ReentrantLock[Math.max(1, stripes)];
+        for(int i = 0; i < this.locks.length; ++i)
+            this.locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * Gets the lock of the region a tile is in.
+     *
+     * @param row The row of the tile.
+     * @param col The column of the tile.
+     *
+     * @return The lock.
+     */
+    ReentrantLock lockFor(int row, int col)
+    {
+        int region = (row / REGION_SIZE) * this.regionsPerRow + col / REGION_SIZE;
+        return this.locks[region % this.locks.length];
+    }
+
+    /**
+     * Gets the locks of every region a rectangle of the board overlaps, in the order lockAll takes them (so taking
+     * them in turn can't deadlock with it).
+     *
+     * @param top The first row of the rectangle.
+     * @param left The first column of the rectangle.
+     * @param rows The number of rows of the rectangle.
+     * @param cols The number of columns of the rectangle.
+     *
+     * @return The locks.
+     */
+    ReentrantLock[] locksFor(int top, int left, int rows, int cols)
+    {
+        boolean[] used = new boolean[this.locks.length];
+        int count = 0;
+        for(int regionRow = top / REGION_SIZE; regionRow <= (top + rows - 1) / REGION_SIZE; ++regionRow)
+        {
+            for(int regionCol = left / REGION_SIZE; regionCol <= (left + cols - 1) / REGION_SIZE; ++regionCol)
+            {
+                int stripe = (regionRow * this.regionsPerRow + regionCol) % this.locks.length;
+                if(!used[stripe])
+                {
+                    used[stripe] = true;
+                    ++count;
+                }
+            }
+        }
+
+        ReentrantLock[] found = new ReentrantLock[count];
+        for(int stripe = 0, i = 0; stripe < used.length; ++stripe)
+            if(used[stripe])
+                found[i++] = this.locks[stripe];
+        return found;
+    }
+
+    /**
+     * Takes every lock (always in the same order, so two threads doing this can't deadlock).
+     */
+    void lockAll()
+    {
+        for(ReentrantLock lock : this.locks)
+            lock.lock();
+    }
+
+    /**
+     * Releases every lock taken by lockAll.
+     */
+    void unlockAll()
+    {
+        for(int i = this.locks.length - 1; i >= 0; --i)
+            this.locks[i].unlock();
+    }
+}
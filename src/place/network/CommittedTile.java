@@ -0,0 +1,93 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A tile the NetworkServer has committed, along with the sequence number it was committed with.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class CommittedTile
+{
+    /**
+     * The sequence number the tile was committed with.
+     */
+    final long sequence;
+
+    /**
+     * The tile.
+     */
+    final PlaceTile tile;
+
+    /**
+     * Pairs a tile with its sequence number.
+     *
+     * @param sequence The sequence number the tile was committed with.
+     * @param tile The tile.
+     */
+    CommittedTile(long sequence, PlaceTile tile)
+    {
+        this.sequence = sequence;
+        this.tile = tile;
+    }
+
+    /**
+     * Gets the key of the cell a tile is in.
+     *
+     * @return The tile's row and column packed into a long.
+     */
+    long cell()
+    {
+        return cellOf(this.tile);
+    }
+
+    /**
+     * Gets the key of the cell any tile is in.
+     *
+     * @param tile The tile.
+     *
+     * @return The tile's row and column packed into a long.
+     */
+    static long cellOf(PlaceTile tile)
+    {
+        return ((long) tile.getRow() << 32) | (tile.getCol() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Keeps the latest tile of every cell, in the order they were committed.
+     *
+     * @param tiles Committed tiles, in any order, possibly several of the same cell.
+     *
+     * @return The latest tile of every cell, oldest first.
+     */
+    static PlaceTile[] latest(Iterable<CommittedTile> tiles)
+    {
+        Map<Long, CommittedTile> cells = new HashMap<>();
+        for(CommittedTile tile : tiles)
+            cells.merge(tile.cell(), tile, (kept, other) -> (other.sequence > kept.sequence) ? other : kept);
+        return inOrder(cells.values());
+    }
+
+    /**
+     * Sorts committed tiles into the order they were committed.
+     *
+     * @param tiles Committed tiles, at most one per cell.
+     *
+     * @return The tiles, oldest first.
+     */
+    static PlaceTile[] inOrder(Collection<CommittedTile> tiles)
+    {
+        CommittedTile[] sorted = tiles.toArray(new CommittedTile[0]);
+        Arrays.sort(sorted, Comparator.comparingLong(tile -> tile.sequence));
+        PlaceTile[] inOrder = new PlaceTile[sorted.length];
+        for(int i = 0; i < sorted.length; ++i)
+            inOrder[i] = sorted[i].tile;
+        return inOrder;
+    }
+}
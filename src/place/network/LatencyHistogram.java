@@ -0,0 +1,208 @@
+package place.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, recorded without a lock from any number of threads.
+ *
+ * Every power of two of nanoseconds is split into eight buckets of the same width, so a latency lands in a bucket
+ * that is never more than an eighth wider than the latency itself, whether it is a microsecond or a minute; the whole
+ * range of a long fits in fewer than 500 counters. Recording is a couple of bit operations and one atomic increment.
+ * Percentiles are read back as the upper edge of the bucket they fall in, so they are never reported lower than they
+ * were.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class LatencyHistogram
+{
+    /**
+     * The number of bits of a latency, below its highest one, that pick its bucket within a power of two.
+     */
+    private static final int SUB_BITS = 3;
+
+    /**
+     * The number of buckets every power of two is split into.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The number of buckets, enough for every positive long.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * The number of latencies recorded in every bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The number of latencies recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of every latency recorded, in nanoseconds.
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * The longest latency recorded, in nanoseconds.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds (anything negative counts as 0).
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(bucketOf(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Gets the number of latencies recorded.
+     *
+     * @return The number of latencies.
+     */
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    /**
+     * Gets the longest latency recorded.
+     *
+     * @return The latency in nanoseconds (0 if none were recorded).
+     */
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    /**
+     * Gets the sum of every latency recorded.
+     *
+     * @return The sum in nanoseconds.
+     */
+    public long getTotal()
+    {
+        return this.total.get();
+    }
+
+    /**
+     * Gets the mean of the latencies recorded.
+     *
+     * @return The mean in nanoseconds (0 if none were recorded).
+     */
+    public double getMean()
+    {
+        long count = this.count.get();
+        return (count == 0) ? 0 : (double) this.total.get() / count;
+    }
+
+    /**
+     * Gets a percentile of the latencies recorded.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     *
+     * @return The upper edge of the bucket the percentile falls in, in nanoseconds (never more than the longest
+     *         latency recorded; 0 if none were recorded).
+     */
+    public long getPercentile(double percentile)
+    {
+        // the buckets are read one at a time, so the count is taken from them rather than from the total
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+            count += snapshot[i] = this.counts.get(i);
+        if(count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            seen += snapshot[i];
+            if(seen >= rank)
+                return Math.min(upperEdge(i), this.max.get());
+        }
+        return this.max.get();
+    }
+
+    /**
+     * Forgets every latency recorded so far. Latencies recorded while it is being reset may or may not be kept.
+     */
+    public void reset()
+    {
+        for(int i = 0; i < BUCKETS; ++i)
+            this.counts.set(i, 0);
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * Gets the bucket a latency falls in.
+     *
+     * @param value The latency in nanoseconds, not negative.
+     *
+     * @return The index of the bucket.
+     */
+    private static int bucketOf(long value)
+    {
+        // the smallest latencies get a bucket each
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the largest latency that falls in a bucket.
+     *
+     * @param bucket The index of the bucket.
+     *
+     * @return The latency in nanoseconds.
+     */
+    private static long upperEdge(int bucket)
+    {
+        if(bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+
+    /**
+     * Sums the histogram up in milliseconds.
+     *
+     * @return The summary.
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms", getCount(),
+                getMean() / 1_000_000.0, millis(getPercentile(50)),
+                millis(getPercentile(90)), millis(getPercentile(99)), millis(getMax()));
+    }
+
+    /**
+     * Turns nanoseconds into milliseconds.
+     *
+     * @param nanos The nanoseconds.
+     *
+     * @return The milliseconds.
+     */
+    private static double millis(long nanos)
+    {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,204 @@
+package place.network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The counters, gauges and latency histograms of a server, and the plain text they are scraped as.
+ *
+ * Every metric is registered once, up front, and whoever records to it keeps hold of it: a counter is a LongAdder, so
+ * counting is a striped add that threads never fight over, and a histogram is a LatencyHistogram, recorded without a
+ * lock. A gauge isn't recorded at all; it is read from wherever the value already lives when the metrics are scraped.
+ * Nothing is looked up by name while the server is running, so the metrics cost next to nothing to leave on.
+ *
+ * The metrics are scraped in the Prometheus text format: counters and gauges as they are, histograms as summaries
+ * with their 50th, 90th, 99th and 99.9th percentiles, count and sum (and a gauge of their max next to them), all in
+ * seconds.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class MetricsRegistry
+{
+    /**
+     * The percentiles every histogram is scraped with.
+     */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /**
+     * Every metric, in the order it was registered.
+     */
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers a counter.
+     *
+     * @param name The name of the counter.
+     * @param help What it counts.
+     *
+     * @return The counter, to be added to.
+     */
+    public LongAdder counter(String name, String help)
+    {
+        LongAdder counter = new LongAdder();
+        this.metrics.add(new Metric(name, help, "counter", (metric, out) -> metric.sample(out, "", counter.sum())));
+        return counter;
+    }
+
+    /**
+     * Registers a gauge, read whenever the metrics are scraped.
+     *
+     * @param name The name of the gauge.
+     * @param help What it measures.
+     * @param value Where the value is read from. Called by the scraping thread, so it mustn't take long.
+     */
+    public void gauge(String name, String help, LongSupplier value)
+    {
+        this.metrics.add(new Metric(name, help, "gauge", (metric, out) -> metric.sample(out, "", value.getAsLong())));
+    }
+
+    /**
+     * Registers a latency histogram.
+     *
+     * @param name The name of the histogram (its unit, seconds, should be the end of it).
+     * @param help What it times.
+     *
+     * @return The histogram, to be recorded to in nanoseconds.
+     */
+    public LatencyHistogram histogram(String name, String help)
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram(name, help, histogram);
+        return histogram;
+    }
+
+    /**
+     * Registers a latency histogram that something else already keeps.
+     *
+     * @param name The name of the histogram (its unit, seconds, should be the end of it).
+     * @param help What it times.
+     * @param histogram The histogram, recorded to in nanoseconds.
+     */
+    public void histogram(String name, String help, LatencyHistogram histogram)
+    {
+        this.metrics.add(new Metric(name, help, "summary", (metric, out) -> {
+            for(double quantile : QUANTILES)
+                metric.sample(out, "{quantile=\"" + quantile + "\"}", seconds(histogram.getPercentile(quantile * 100)));
+            metric.sample(out, "_sum", seconds(histogram.getTotal()));
+            metric.sample(out, "_count", histogram.getCount());
+        }));
+        // a summary has no max of its own, so it is a gauge next to it
+        this.metrics.add(new Metric(name + "_max", "The longest recorded in " + name + ".", "gauge",
+                (metric, out) -> metric.sample(out, "", seconds(histogram.getMax()))));
+    }
+
+    /**
+     * Writes out the current value of every metric.
+     *
+     * @return The metrics in the Prometheus text format.
+     */
+    public String scrape()
+    {
+        StringBuilder out = new StringBuilder(128 * this.metrics.size());
+        for(Metric metric : this.metrics)
+        {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+            metric.writer.write(metric, out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Turns nanoseconds into seconds.
+     *
+     * @param nanos The nanoseconds.
+     *
+     * @return The seconds.
+     */
+    private static double seconds(long nanos)
+    {
+        return nanos / 1_000_000_000.0;
+    }
+
+    /**
+     * How a metric writes out its samples.
+     */
+    private interface SampleWriter
+    {
+        /**
+         * Writes out the samples of a metric.
+         *
+         * @param metric The metric.
+         * @param out Where they are written.
+         */
+        void write(Metric metric, StringBuilder out);
+    }
+
+    /**
+     * A registered metric.
+     */
+    private static class Metric
+    {
+        /**
+         * The name of the metric.
+         */
+        private final String name;
+
+        /**
+         * What it measures.
+         */
+        private final String help;
+
+        /**
+         * The Prometheus type of the metric.
+         */
+        private final String type;
+
+        /**
+         * How it writes out its samples.
+         */
+        private final SampleWriter writer;
+
+        /**
+         * Creates a metric.
+         *
+         * @param name The name of the metric.
+         * @param help What it measures.
+         * @param type The Prometheus type of the metric.
+         * @param writer How it writes out its samples.
+         */
+        private Metric(String name, String help, String type, SampleWriter writer)
+        {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.writer = writer;
+        }
+
+        /**
+         * Writes out a sample of the metric.
+         *
+         * @param out Where it is written.
+         * @param suffix What follows the name (a suffix such as _count, or labels).
+         * @param value The value.
+         */
+        private void sample(StringBuilder out, String suffix, long value)
+        {
+            out.append(this.name).append(suffix).append(' ').append(value).append('\n');
+        }
+
+        /**
+         * Writes out a sample of the metric.
+         *
+         * @param out Where it is written.
+         * @param suffix What follows the name (a suffix such as _count, or labels).
+         * @param value The value.
+         */
+        private void sample(StringBuilder out, String suffix, double value)
+        {
+            out.append(this.name).append(suffix).append(' ').append(value).append('\n');
+        }
+    }
+}
@@ -6,10 +6,12 @@ import place.PlaceTile;
 import place.PlaceBoardObservable;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A network middle-man for a Place client.
@@ -20,9 +22,29 @@ import java.net.Socket;
 public class NetworkClient {
 
     /**
-     * The number of milliseconds a user must wait before they can send their next tile.
+     * The most tiles that may wait to be sent while the server's rate limit holds them back.
+     * (Set with -Dplace.sendQueue=N.)
      */
-    private final static int COOLDOWN_TIME = 500;
+    private final static int SEND_QUEUE_CAPACITY = Integer.getInteger("place.sendQueue", 64);
+
+    /**
+     * Whether a tile for a cell that already has one waiting to be sent replaces it, unless a client says otherwise.
+     * (Set with -Dplace.coalesceTiles=true.)
+     */
+    private final static boolean COALESCE_TILES = Boolean.getBoolean("place.coalesceTiles");
+
+    /**
+     * The most placements that may be waiting for the server to acknowledge them. A tile sent while this many are
+     * waiting goes out without an id and isn't timed, so a server that never answers can't make us hold on to every
+     * tile forever.
+     */
+    private final static int MAX_PENDING_PLACEMENTS = 1024;
+
+    /**
+     * Whether new clients speak the binary protocol. Start the JVM with -Dplace.protocol=object to fall back to Java
+     * serialization.
+     */
+    private final static boolean BINARY_PROTOCOL = !"object".equalsIgnoreCase(System.getProperty("place.protocol"));
 
     /**
      * Our observable PlaceBoard wrapper.
@@ -35,27 +57,51 @@ public class NetworkClient {
     private Socket serverConn;
 
     /**
-     * The ObjectInputStream that is used to read from the server.
+     * The PlaceExchange that is used to communicate with the server.
      */
-    private ObjectInputStream in;
+    private PlaceExchange exchange;
 
     /**
-     * The ObjectOutputStream taht is used to communicate to the server.
+     * A "header" of sorts that is printed before every log.
      */
-    private ObjectOutputStream out;
+    private String logHeader;
 
     /**
-     * A "header" of sorts that is printed before every log.
+     * The tiles waiting to be sent, each released as soon as the server's rate limit allows it. Nothing sent in
+     * between is dropped any more; a tile only waits its turn.
      */
-    private String logHeader;
+    private TileSendQueue sendQueue;
 
     /**
-     * A boolean that indicates if this client is cooling down after placing a tile.
-     *
-     * If it is, the client cannot send a new piece. If it is true, and a client tries to send a PlaceTile,
-     * it displays an error.
+     * True if the server acknowledges our placements (it speaks a new enough protocol).
      */
-    private boolean coolDown;
+    private boolean acknowledged;
+
+    /**
+     * True while we are subscribed to regions of the board, so chunks the server sends are the parts we just started
+     * looking at rather than a fresh board.
+     */
+    private volatile boolean subscribed;
+
+    /**
+     * The id the next placement is sent with. Ids start at 1; 0 means a placement doesn't want acknowledging.
+     */
+    private final AtomicLong nextPlacementId = new AtomicLong(1);
+
+    /**
+     * The placements sent that the server hasn't acknowledged yet, by id.
+     */
+    private final Map<Long, Placement> pendingPlacements = new ConcurrentHashMap<>();
+
+    /**
+     * The time from sending a placement until the server acknowledged it.
+     */
+    private final LatencyHistogram placementLatency = new LatencyHistogram();
+
+    /**
+     * The number of placements the server refused.
+     */
+    private final LongAdder rejectedPlacements = new LongAdder();
 
     /**
      * The indicator to the thread whether it should keep running or not.
@@ -108,19 +154,14 @@ public class NetworkClient {
 
 
             // COMMUNICATION BUILDING SEQUENCE ================================
-            // create the out stream
-            this.out = new ObjectOutputStream( serverConn.getOutputStream() );
-            // flushes out just in case
-            out.flush();
-
-            // creates the in stream
-            this.in = new ObjectInputStream( serverConn.getInputStream() );
+            // create the exchange (binary unless we've been told to fall back)
+            this.exchange = PlaceExchange.connect( serverConn, BINARY_PROTOCOL );
 
             // LOG IN SEQUENCE ================================
-            // write our login request with our username
-            out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username));
+            // write our login request with our username (in binary this also tells the server our protocol version)
+            this.exchange.write(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username));
             // wait for response from server to determine if we should continue starting or not
-            PlaceRequest<?> response = (PlaceRequest<?>) in.readUnshared();
+            PlaceRequest<?> response = this.exchange.read();
             // go through each case to determine what the response was
             // LOGIN_SUCCESS or ERROR (or unknown case)
             switch (response.getType())
@@ -144,15 +185,31 @@ public class NetworkClient {
 
             // BOARD READ-IN SEQUENCE ===============================
             // read in the object (should be a board)
-            PlaceRequest<?> boardResponse = ( PlaceRequest<?> ) in.readUnshared();
+            PlaceRequest<?> boardResponse = this.exchange.read();
 
             // check to make sure what we just read in was in fact a board
             if(boardResponse.getType() == PlaceRequest.RequestType.BOARD)
                 // initialize our board with the once we've been given
                 this.board.initializeBoard( (PlaceBoard) boardResponse.getData() );
+            // or the first piece of one; we start with that and the rest is filled in as it arrives
+            else if(boardResponse.getType() == PlaceRequest.RequestType.BOARD_CHUNK)
+            {
+                BoardChunk chunk = (BoardChunk) boardResponse.getData();
+                PlaceBoard firstChunk = new PlaceBoard(chunk.getDim());
+                for(PlaceTile tile : chunk.getTiles())
+                    firstChunk.setTile(tile);
+                this.board.initializeBoard(firstChunk);
+            }
             // if we weren't sent a board, we were given something bad, we need to escape now.
             else
                 throw new PlaceException("Board never sent.");
+            // a serialized request carries its id as it is; a binary one only from the version that added them
+            this.acknowledged = !this.exchange.isBinary() || this.exchange.getVersion() >= PlaceCodec.ACK_VERSION;
+            // every tile goes out through the send queue from here on, paced by the limit the server told us (or, if
+            // it didn't, by our best guess)
+            TileRateLimiter.Limit limit = this.exchange.getUserLimit();
+            this.sendQueue = new TileSendQueue(this::sendPlacement, SEND_QUEUE_CAPACITY, COALESCE_TILES,
+                    (limit != null) ? limit : TileRateLimiter.userLimit());
             // sets go to be true
             this.go = true;
         }
@@ -188,20 +245,35 @@ public class NetworkClient {
             try
             {
                 // reads the next request from the buffer
-                PlaceRequest<?> request = ( PlaceRequest<?> ) this.in.readUnshared();
+                PlaceRequest<?> request = this.exchange.read();
                 // determines which type of request was given
                 switch(request.getType())
                 {
                     case TILE_CHANGED:
                         tileChanged( (PlaceTile) request.getData() );
                         break;
+                    case TILE_CHANGES:
+                        tilesChanged( (PlaceTile[]) request.getData() );
+                        break;
                     case ERROR:
                         error( (String) request.getData() );
                         break;
-                    // should not ever get these, if we get here we have to stop our client
+                    // the server sends a fresh board if we've fallen too far behind to be sent every change
                     case BOARD:
-                        badResponse();
+                        resync( (PlaceBoard) request.getData() );
                         break;
+                    // the rest of the board we joined with (or, from the first chunk on, a fresh one)
+                    case BOARD_CHUNK:
+                        chunkArrived( (BoardChunk) request.getData() );
+                        break;
+                    // the server committed one of our tiles, or refused it
+                    case ACK:
+                        placementAcknowledged(request.getId());
+                        break;
+                    case NACK:
+                        placementRejected(request.getId(), (String) request.getData());
+                        break;
+                    // should not ever get these, if we get here we have to stop our client
                     case LOGIN:
                         badResponse();
                         break;
@@ -229,53 +301,152 @@ public class NetworkClient {
     }
 
     /**
-     * Used to send a tile to the server if the user has requested to change a tile.
+     * Used to send a tile to the server if the user has requested to change a tile. The tile is queued and sent as
+     * soon as the server's rate limit allows it.
      *
      * @param tile The tile that is being requested to change. (It contains all the necessary information).
+     *
+     * @return A boolean. True if the tile will be sent; false if too many tiles are already waiting.
+     */
+    public boolean sendTile(PlaceTile tile)
+    {
+        if(this.sendQueue.offer(tile))
+            return true;
+        logErr("Too many tiles are waiting to be sent. Slow down!");
+        return false;
+    }
+
+    /**
+     * Sets whether a tile for a cell that already has one waiting to be sent replaces it (the last one wins).
+     *
+     * @param coalescing True to replace waiting tiles of the same cell; false to send every tile.
      */
-    public synchronized void sendTile(PlaceTile tile)
+    public void setCoalescing(boolean coalescing)
     {
-        if(!this.coolDown)
+        this.sendQueue.setCoalescing(coalescing);
+    }
+
+    /**
+     * Calls back once every tile sent so far has left the send queue, so a producer of tiles can send the next one
+     * right when it will go out, without sleeping a guessed amount of time. The callback runs on the thread that
+     * sends the tiles and mustn't block; it runs right away if nothing is waiting.
+     *
+     * @param ready What to run.
+     */
+    public void whenReadyToSend(Runnable ready)
+    {
+        this.sendQueue.whenEmpty(ready);
+    }
+
+    /**
+     * Tells the server we only want the changes in some regions of the board (say, the part a user has zoomed in on).
+     * Any part we couldn't see until now is sent to us first, so the board is up to date wherever we look. Only a
+     * server speaking a new enough binary protocol can be asked; anything else goes on sending every change.
+     *
+     * @param regions The regions (at most PlaceCodec.MAX_REGIONS), or none at all to get every change again.
+     *
+     * @return A boolean. True if the server was asked; false if it can't be.
+     */
+    public boolean subscribe(BoardRegion... regions)
+    {
+        if(!canSubscribe())
+            return false;
+        try
         {
-            // writes the tile to the server
-            try
-            {
-                // write the tile to the output buffer
-                this.out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile));
-                // flushes the object written out
-                out.flush();
-            }
-            catch(IOException e)
-            {
-                // do nothing
-            }
-            // spawns a thread that exists for 500ms which forces the user to wait 500ms from one send to the next
-            new Thread(this::coolDown).start();
+            this.subscribed = (regions.length > 0);
+            this.exchange.write(new PlaceRequest<>(PlaceRequest.RequestType.SUBSCRIBE, regions));
+            return true;
         }
-        else
+        catch(IOException e)
         {
-            logErr("You must wait half a second between each tile place");
+            // the reading thread finds out the connection is gone and stops us
+            return false;
         }
     }
 
     /**
-     * A small sleeper thread class which makes it so a user cannot send any PlaceTile for 500ms. (A cool-down)
+     * Tells if the server can be asked for the changes in only some regions of the board.
+     *
+     * @return A boolean. True if subscribe will ask the server; false if it does nothing.
+     */
+    public boolean canSubscribe()
+    {
+        return this.exchange.isBinary() && this.exchange.getVersion() >= PlaceCodec.SUBSCRIBE_VERSION;
+    }
+
+    /**
+     * Gets the time it takes from sending a placement until the server acknowledges it. Only placements the server
+     * committed are counted, from the moment they left the send queue (the time they waited in it isn't).
+     *
+     * @return The histogram, which keeps filling in as placements are acknowledged.
+     */
+    public LatencyHistogram getPlacementLatency()
+    {
+        return this.placementLatency;
+    }
+
+    /**
+     * Gets the number of placements the server refused (each one was queued to be sent again).
+     *
+     * @return The number of placements.
      */
-    private void coolDown()
+    public long getRejectedPlacements()
     {
-        // sleeps
-        this.coolDown = true;
-        // sleeps for 500ms
+        return this.rejectedPlacements.sum();
+    }
+
+    /**
+     * Sends a tile to the server with an id of its own, remembering when it was sent. Run by the send queue's thread.
+     *
+     * @param tile The tile.
+     *
+     * @throws IOException If the connection is gone.
+     */
+    private void sendPlacement(PlaceTile tile) throws IOException
+    {
+        long id = 0;
+        if(this.acknowledged && this.pendingPlacements.size() < MAX_PENDING_PLACEMENTS)
+        {
+            id = this.nextPlacementId.getAndIncrement();
+            this.pendingPlacements.put(id, new Placement(tile, System.nanoTime()));
+        }
         try
         {
-            Thread.sleep(COOLDOWN_TIME);
+            this.exchange.write(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE, tile, id));
         }
-        catch(InterruptedException e)
+        catch(IOException e)
         {
-            /* do nothing */
+            this.pendingPlacements.remove(id);
+            throw e;
         }
-        // stops coolDown
-        this.coolDown = false;
+    }
+
+    /**
+     * Times a placement the server committed.
+     *
+     * @param id The id it was sent with.
+     */
+    private void placementAcknowledged(long id)
+    {
+        Placement placement = this.pendingPlacements.remove(id);
+        if(placement != null)
+            this.placementLatency.record(System.nanoTime() - placement.sentAt);
+    }
+
+    /**
+     * Counts a placement the server refused and queues it to be sent again, behind whatever is waiting already.
+     *
+     * @param id The id it was sent with.
+     * @param reason Why the server refused it.
+     */
+    private void placementRejected(long id, String reason)
+    {
+        this.rejectedPlacements.increment();
+        Placement placement = this.pendingPlacements.remove(id);
+        if(placement == null)
+            return;
+        logErr("The server refused a tile (" + reason + "). Sending it again.");
+        this.sendQueue.offer(placement.tile);
     }
 
     /**
@@ -289,6 +460,44 @@ public class NetworkClient {
         this.board.tileChanged(tile);
     }
 
+    /**
+     * Tells the board that a batch of tiles has changed (all of them at once).
+     *
+     * @param tiles The tiles that have been changed.
+     */
+    private void tilesChanged(PlaceTile[] tiles)
+    {
+        // update the model to reflect the whole batch (so it can alert users once)
+        this.board.tilesChanged(tiles);
+    }
+
+    /**
+     * Replaces our board with the fresh one the server sent because we fell behind.
+     *
+     * @param board The board the server sent.
+     */
+    private void resync(PlaceBoard board)
+    {
+        logErr("Fell behind the server. Catching up with a fresh board.");
+        // update the model to the new board (so it can alert users)
+        this.board.resync(board);
+    }
+
+    /**
+     * Fills in a piece of the board the server is sending us.
+     *
+     * @param chunk The piece of the board.
+     */
+    private void chunkArrived(BoardChunk chunk)
+    {
+        // we were sent the first chunk when we joined, so another one means we are being caught up
+        // (unless we are subscribed, and it is just part of the board we started looking at)
+        if(chunk.getIndex() == 0 && !this.subscribed)
+            logErr("Fell behind the server. Catching up with a fresh board.");
+        // a chunk is just a lot of tiles changing at once as far as the model is concerned
+        this.board.tilesChanged(chunk.getTiles());
+    }
+
     /**
      * Tell the user we've hit an error meaning the client will quit.
      *
@@ -342,12 +551,14 @@ public class NetworkClient {
      */
     public void close()
     {
+        // tiles still waiting to be sent have nowhere to go
+        if(this.sendQueue != null)
+            this.sendQueue.close();
         try
         {
-            // try to close our server connection and Object streams
+            // try to close our server connection and exchange
             this.serverConn.close();
-            this.in.close();
-            this.out.close();
+            this.exchange.close();
         }
         catch (IOException e)
         {
@@ -355,4 +566,32 @@ public class NetworkClient {
         }
     }
 
+    /**
+     * A placement waiting for the server to acknowledge it.
+     */
+    private static class Placement
+    {
+        /**
+         * The tile that was sent.
+         */
+        private final PlaceTile tile;
+
+        /**
+         * The System.nanoTime() it was sent at.
+         */
+        private final long sentAt;
+
+        /**
+         * Creates a placement.
+         *
+         * @param tile The tile that was sent.
+         * @param sentAt The System.nanoTime() it was sent at.
+         */
+        private Placement(PlaceTile tile, long sentAt)
+        {
+            this.tile = tile;
+            this.sentAt = sentAt;
+        }
+    }
+
 }
@@ -1,16 +1,28 @@
 package place.network;
 
 import place.PlaceBoard;
+import place.PlaceBoardExporter;
 import place.PlaceTile;
 import place.network.PlaceRequest.RequestType;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A network middle-man for a Place server.
@@ -26,25 +38,82 @@ public class NetworkServer
 
     /**
      * The maximum number of connections the server can have from any client.
+     * (Can be raised with -Dplace.maxConnections=N now that connections no longer cost a thread each.)
      */
-    private static final int MAX_TOTAL_CONNECTIONS = 100;
+    private static final int MAX_TOTAL_CONNECTIONS = Integer.getInteger("place.maxConnections", 100);
 
     /**
      * The maximum number of connections a single host can have to our server.
+     * (Can be raised with -Dplace.maxHostConnections=N, mostly useful for load testing from one machine.)
      */
-    private static final int MAX_CONNECTIONS_SINGLE_HOST = 10;
+    private static final int MAX_CONNECTIONS_SINGLE_HOST = Integer.getInteger("place.maxHostConnections", 10);
 
     /**
-     * The date formatter used when a tile is changed.
+     * What is done with a user who can't keep up with the tile changes: resync (the default), disconnect or coalesce.
+     * (Set with -Dplace.slowConsumer=POLICY.)
      */
-    private final static SimpleDateFormat TIME_STAMP_FORMAT = new SimpleDateFormat("MM-dd-yyyy 'at' HH:mm:ss");
+    private static final OutboundQueue.Policy SLOW_CONSUMER_POLICY = OutboundQueue.Policy.valueOf(
+            System.getProperty("place.slowConsumer", "resync").toUpperCase(Locale.ROOT));
+
+    /**
+     * The number of requests that may wait to be sent to a single user before they count as a slow consumer.
+     * (Set with -Dplace.outboundCapacity=N.)
+     */
+    private static final int OUTBOUND_CAPACITY = Integer.getInteger("place.outboundCapacity", 4096);
+
+    /**
+     * The number of writer threads draining the users' queues (one per core unless -Dplace.writers=N is given).
+     */
+    private static final int WRITER_THREADS =
+            Integer.getInteger("place.writers", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The number of times per second the tiles accepted since the last tick are sent out as one batch.
+     * (Set with -Dplace.tickRate=N.)
+     */
+    private static final int TICK_RATE = Integer.getInteger("place.tickRate", 30);
+
+    /**
+     * The number of locks the board is split between, so tiles in different regions are placed in parallel.
+     * (Set with -Dplace.boardStripes=N; 1 puts the whole board behind a single lock.)
+     */
+    private static final int BOARD_STRIPES = Integer.getInteger("place.boardStripes", 64);
+
+    /**
+     * The number of tiles committed since the cached snapshot of the board that gets a new one built.
+     * (Set with -Dplace.snapshotThreshold=N.)
+     */
+    private static final int SNAPSHOT_THRESHOLD = Integer.getInteger("place.snapshotThreshold", 1024);
+
+    /**
+     * The number of seconds between checkpoints of the board written next to the journal; 0 writes none.
+     * (Set with -Dplace.checkpointSeconds=N.)
+     */
+    private static final int CHECKPOINT_SECONDS = Integer.getInteger("place.checkpointSeconds", 60);
 
     /**
      * The Map that contains all of the currently connected users.
      * The key is a String that is the username
-     * The value is that user's ObjectOutputStream
+     * The value is the queue of everything waiting to be sent to that user
+     */
+    private Map<String, OutboundQueue> users;
+
+    /**
+     * The users who only want the changes in some regions of the board, by where those regions are.
+     */
+    private final SubscriptionGrid subscriptions;
+
+    /**
+     * The writer threads that drain the queues of users on the selector loops. Writes to them never block (a backed up
+     * client just gives its writer back), so a handful of writers is enough for all of them.
      */
-    private Map<String, ObjectOutputStream> users;
+    private ExecutorService writers;
+
+    /**
+     * The threads that drain the queues of users on blocking connections, one per queue that has something to write.
+     * A write to such a connection waits for the client to read, so it can't be done on one of the shared writers.
+     */
+    private ExecutorService blockingWriters;
 
     /**
      * The connections that are coming from each location (prevents IP spam/DOS attack).
@@ -56,16 +125,111 @@ public class NetworkServer
      */
     private int totalConnections;
 
+    /**
+     * Batches up the accepted tiles and hands them to broadcast once a tick.
+     */
+    private TileBroadcaster broadcaster;
+
     /**
      * The "master" PlaceBoard that is used to send to new users.
      */
     private PlaceBoard board;
 
     /**
-     * The PrintWriter that is used to log the status of the game.
+     * Guard the board. A tile is committed (written to the board and handed to the broadcaster) only while holding the
+     * lock of its region, and a board is copied only while holding all of them. Nothing else is ever done while
+     * holding them: no logging, no I/O.
      */
-    private PrintWriter log;
+    private final BoardStripes boardLocks;
 
+    /**
+     * The sequence number of the last tile committed. Every tile gets the next one, so all tiles are in one order
+     * no matter which region they were placed in.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * The encoded snapshot of the board every joining user is sent, and the changes made since.
+     */
+    private final SnapshotCache snapshots;
+
+    /**
+     * The journal every committed tile is written to (null if the server doesn't keep one).
+     */
+    private final PlaceJournal journal;
+
+    /**
+     * The checkpoints of the board written next to the journal (null if the server doesn't keep a journal).
+     */
+    private final BoardCheckpoints checkpoints;
+
+    /**
+     * The sequence number of the checkpoint the board was loaded from (0 if it wasn't).
+     */
+    private long checkpointSequence;
+
+    /**
+     * Limits how fast every user and every host may place tiles.
+     */
+    private final TileRateLimiter rateLimiter = new TileRateLimiter(MAX_CONNECTIONS_SINGLE_HOST);
+
+    /**
+     * The log of the status of the game, which is written to the log file (and the terminal) off the caller's thread.
+     */
+    private PlaceLogger log;
+
+    /**
+     * The metrics of the server, scraped by whoever wants to see what it is doing.
+     */
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    /**
+     * The number of tiles committed.
+     */
+    private final LongAdder placementsAccepted = this.metrics.counter("place_placements_accepted_total",
+            "Tiles committed to the board.");
+
+    /**
+     * The number of tiles refused for being off the board.
+     */
+    private final LongAdder placementsRejected = this.metrics.counter("place_placements_rejected_total",
+            "Tiles refused for being off the board.");
+
+    /**
+     * The number of tiles refused for going over a rate limit.
+     */
+    private final LongAdder placementsTooSoon = this.metrics.counter("place_placements_too_soon_total",
+            "Tiles refused for going over a user's or host's rate limit.");
+
+    /**
+     * The number of tiles left out of the batches of subscribed users.
+     */
+    private final LongAdder tilesFiltered = this.metrics.counter("place_tiles_filtered_total",
+            "Changed tiles not sent to a subscribed user because they were outside every region the user asked for.");
+
+    /**
+     * The time every tick's batch took to be queued for every user.
+     */
+    private final LatencyHistogram broadcastTimes = this.metrics.histogram("place_broadcast_seconds",
+            "Time taken to queue a tick's batch of tiles for every user.");
+
+    /**
+     * The time every login took to be handled.
+     */
+    private final LatencyHistogram loginTimes = this.metrics.histogram("place_login_seconds",
+            "Time taken to handle a login, up to the board being queued for the user.");
+
+
+    /**
+     * Constructs a new NetworkServer used to communicate to Place clients, which keeps no journal.
+     *
+     * @param dim the dimension of the board once it is set up.
+     * @param log the PrintWriter the status of the game is logged to.
+     */
+    public NetworkServer(int dim, PrintWriter log)
+    {
+        this(dim, log, null);
+    }
 
     /**
      * Constructs a new NetworkServer used to communicate to Place clients.
@@ -73,19 +237,146 @@ public class NetworkServer
      * THIS CONSTRUCTOR IS ONLY CALLED BY: PlaceServer
      *
      * @param dim the dimension of the board once it is set up.
+     * @param log the PrintWriter the status of the game is logged to.
+     * @param journal the journal the board is recovered from and every tile is written to (null for none).
+     *
+     * @throws UncheckedIOException If the journal can't be read or written.
      */
-    public NetworkServer(int dim, PrintWriter log)
+    public NetworkServer(int dim, PrintWriter log, PlaceJournal journal)
     {
-        // creates a new HashMap that will house all of the logged in users
-        this.users = new HashMap<>();
+        // creates a new ConcurrentHashMap that will house all of the logged in users
+        // (concurrent so a user can leave while a tile change is being queued for everyone)
+        this.users = new ConcurrentHashMap<>();
+
+        // the writer threads are daemons so they never keep a stopped server alive
+        AtomicInteger writerCount = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(Math.max(1, WRITER_THREADS), task -> {
+            Thread writer = new Thread(task, "PlaceWriter-" + writerCount.getAndIncrement());
+            writer.setDaemon(true);
+            return writer;
+        });
+        AtomicInteger blockingWriterCount = new AtomicInteger();
+        this.blockingWriters = Executors.newCachedThreadPool(task -> {
+            Thread writer = new Thread(task, "PlaceBlockingWriter-" + blockingWriterCount.getAndIncrement());
+            writer.setDaemon(true);
+            return writer;
+        });
 
         // creates a new HashMap that will house all of the internet locations for users
         this.connections = new HashMap<>();
 
+        this.boardLocks = new BoardStripes(dim, BOARD_STRIPES);
+        this.subscriptions = new SubscriptionGrid(dim);
+
         // this holds the "master" PlaceBoard that will be updated with every move and sent to new users
-        this.board = new PlaceBoard(dim);
+        // (the latest checkpoint of it, if there is one, then every tile committed after that is put back and the
+        // numbering carries on after them)
+        this.journal = journal;
+        BoardCheckpoints.Checkpoint checkpoint = null;
+        boolean[] changed = new boolean[BoardChunk.count(dim)];
+        if(journal != null)
+        {
+            this.checkpoints = new BoardCheckpoints(journal.getDirectory());
+            checkpoint = this.checkpoints.load(dim);
+            this.board = (checkpoint != null) ? checkpoint.board : new PlaceBoard(dim);
+            this.checkpointSequence = (checkpoint != null) ? checkpoint.sequence : 0;
+            try
+            {
+                this.sequence.set(journal.recover(dim, this.checkpointSequence, (sequence, tile) -> {
+                    this.board.setTile(tile.getRow(), tile.getCol(), tile.getColor(), tile.getOwner(), tile.getTime());
+                    changed[BoardChunk.indexOf(dim, tile.getRow(), tile.getCol())] = true;
+                }));
+                journal.start(dim);
+            }
+            catch(IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+        else
+        {
+            this.checkpoints = null;
+            this.board = new PlaceBoard(dim);
+        }
+
+        // the chunks of the checkpoint nothing was replayed onto are sent as they were written
+        this.snapshots = new SnapshotCache(this.board, this.sequence, this.boardLocks, SNAPSHOT_THRESHOLD,
+                checkpoint, changed);
+        if(this.checkpoints != null && CHECKPOINT_SECONDS > 0)
+            this.checkpoints.start(this.snapshots, journal, CHECKPOINT_SECONDS);
+
+        this.log = new PlaceLogger(log, LOG_HEADER);
+
+        // starts the ticks that send the accepted tiles out
+        this.broadcaster = new TileBroadcaster(TICK_RATE, this::broadcast);
+
+        // the rest of the metrics are read from where their values already are
+        this.metrics.histogram("place_snapshot_build_seconds", "Time taken to build a snapshot of the board.",
+                this.snapshots.getBuildTimes());
+        this.metrics.histogram("place_snapshot_copy_seconds",
+                "Longest time a snapshot held the locks of one chunk's regions (and their commits) to copy it.",
+                this.snapshots.getCopyTimes());
+        this.metrics.gauge("place_users", "Users logged in.", () -> this.users.size());
+        this.metrics.gauge("place_subscribed_users", "Users only sent the changes in the regions they asked for.",
+                () -> this.subscriptions.size());
+        this.metrics.gauge("place_tile_sequence", "Sequence number of the last tile committed.", this.sequence::get);
+        this.metrics.gauge("place_outbound_queue_depth_max",
+                "Tiles and requests waiting to be written to the user furthest behind.",
+                () -> outboundDepth(true));
+        this.metrics.gauge("place_outbound_queue_depth_total",
+                "Tiles and requests waiting to be written, over every user.", () -> outboundDepth(false));
+    }
+
+    /**
+     * Gets the metrics of the server.
+     *
+     * @return The metrics.
+     */
+    public MetricsRegistry getMetrics()
+    {
+        return this.metrics;
+    }
+
+    /**
+     * Writes the board out with an exporter. The board written is the cached snapshot with every change made since it
+     * laid over the top, so the locks are only held while that list of changes is read; the board itself is written
+     * while tiles go on being placed.
+     *
+     * @param exporter The exporter to write the board with.
+     * @param out The stream to write the board to (which is left open).
+     *
+     * @throws IOException If the board can't be written.
+     */
+    public void exportBoard(PlaceBoardExporter exporter, OutputStream out) throws IOException
+    {
+        SnapshotCache.Snapshot snapshot;
+        PlaceTile[] newer;
+        this.boardLocks.lockAll();
+        try
+        {
+            snapshot = this.snapshots.current();
+            newer = this.snapshots.since(snapshot);
+        }
+        finally
+        {
+            this.boardLocks.unlockAll();
+        }
+        exporter.export(snapshot.board, newer, out);
+    }
 
-        this.log = log;
+    /**
+     * Adds up how far behind the users are. Called when the metrics are scraped.
+     *
+     * @param max True for the depth of the user furthest behind; false for the depth of every user added up.
+     *
+     * @return The number of tiles and requests waiting.
+     */
+    private long outboundDepth(boolean max)
+    {
+        long depth = 0;
+        for(OutboundQueue queue : this.users.values())
+            depth = max ? Math.max(depth, queue.depth()) : depth + queue.depth();
+        return depth;
     }
 
     /**
@@ -95,18 +386,61 @@ public class NetworkServer
      */
     public void serverStarted(int port)
     {
+        if(this.checkpointSequence > 0)
+            log("Loaded the board as of tile placement " + this.checkpointSequence + " from a checkpoint.");
+        if(this.sequence.get() > this.checkpointSequence)
+            log("Recovered " + (this.sequence.get() - this.checkpointSequence) +
+                    " tile placements from the journal.");
         log("Server has started successfully. Accepting connections on port " + port + ".");
     }
 
+    /**
+     * Stops the server's checkpoints and its journal once everything committed so far is on the disk, and writes out
+     * whatever is left of the log.
+     */
+    public void close()
+    {
+        if(this.checkpoints != null)
+            this.checkpoints.close();
+        if(this.journal != null)
+            this.journal.close();
+        this.log.close();
+    }
+
     /**
      * Logs in a user. This is synchronized so we don't run into people requesting the same username at the same time.
      *
      * THIS METHOD IS ONLY CALLED BY: PlaceClientThread
      *
      * @param usernameRequest The requested username from a user.
-     * @param out The output stream for the user.
+     * @param location Where they are connecting from.
+     * @param out The connection to the user.
+     *
+     * @return A boolean. True if the user was logged in; false otherwise. (How long it took goes in the metrics.)
+     */
+    public synchronized boolean login(String usernameRequest, InetAddress location, PlaceConnection out)
+    {
+        long started = System.nanoTime();
+        try
+        {
+            return tryLogin(usernameRequest, location, out);
+        }
+        finally
+        {
+            this.loginTimes.record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Logs in a user, if there is room for them and their username isn't taken. Called while synchronized.
+     *
+     * @param usernameRequest The requested username from a user.
+     * @param location Where they are connecting from.
+     * @param out The connection to the user.
+     *
+     * @return A boolean. True if the user was logged in; false otherwise.
      */
-    public synchronized boolean login(String usernameRequest, InetAddress location, ObjectOutputStream out)
+    private boolean tryLogin(String usernameRequest, InetAddress location, PlaceConnection out)
     {
         // checks if the username is taken
         // if it's not, log ourselves in and return true so user can update
@@ -121,7 +455,7 @@ public class NetworkServer
             {
                 logSilent("");
                 // tell the user the username they requested is taken
-                out.writeUnshared(new PlaceRequest<>(RequestType.ERROR, "Username taken"));
+                out.write(new PlaceRequest<>(RequestType.ERROR, "Username taken"));
             }
             // else if the number of connections from their IP is at max
             else if (this.connections.get(location) >= MAX_CONNECTIONS_SINGLE_HOST)
@@ -130,7 +464,7 @@ public class NetworkServer
                 logSilent("A user has attempted to join the server from an IP address with max connections.");
                 logSilent("Requested username: " + usernameRequest + " [" + location + "]");
                 // tell the user there are too many connections from their IP
-                out.writeUnshared(new PlaceRequest<>(RequestType.ERROR, "Too many connections from your IP"));
+                out.write(new PlaceRequest<>(RequestType.ERROR, "Too many connections from your IP"));
             }
             // else if the number of connections is at max
             else if (this.totalConnections >= MAX_TOTAL_CONNECTIONS)
@@ -139,13 +473,33 @@ public class NetworkServer
                 logSilent(usernameRequest + " has attempted to join the server while full. Denying connection.");
                 logSilent("Requested username: " + usernameRequest + " [" + location + "]");
                 // tell the user the server is full
-                out.writeUnshared(new PlaceRequest<>(RequestType.ERROR, "Server full"));
+                out.write(new PlaceRequest<>(RequestType.ERROR, "Server full"));
             }
             // if we are able to accept another connection and the username isn't taken, we get to this point
             else
             {
-                // put our new user in the HashMap
-                this.users.put(usernameRequest, out);
+                // gives our new user a queue, led by the replies to their login, and puts it in the Map
+                // (a client who can block its writer gets a writer of its own, so it only ever holds up itself)
+                OutboundQueue queue = new OutboundQueue(out, SLOW_CONSUMER_POLICY, OUTBOUND_CAPACITY,
+                        out.isBlocking() ? this.blockingWriters : this.writers, () -> boardRequests(out));
+                // tell the user they were logged in successfully
+                queue.send(new PlaceRequest<>(RequestType.LOGIN_SUCCESS, usernameRequest));
+                // then immediately send the current board so they can begin setup immediately
+                // (the board is caught up and the user joins in one step between two ticks, so every tile is either
+                // in what they are sent now or in a batch they get later)
+                this.broadcaster.betweenTicks(() -> {
+                    this.boardLocks.lockAll();
+                    try
+                    {
+                        for(PlaceRequest<?> board : boardRequests(out))
+                            queue.send(board);
+                        this.users.put(usernameRequest, queue);
+                    }
+                    finally
+                    {
+                        this.boardLocks.unlockAll();
+                    }
+                });
 
                 // adds one to the number of connections from this host
                 this.connections.put(location, this.connections.get(location) + 1);
@@ -153,10 +507,6 @@ public class NetworkServer
                 // adds one to the total connections
                 ++this.totalConnections;
 
-                // tell the user they were logged in successfully
-                out.writeUnshared(new PlaceRequest<>(RequestType.LOGIN_SUCCESS, usernameRequest));
-                // then immediately send the current board so they can begin setup immediately
-                out.writeUnshared(new PlaceRequest<>(RequestType.BOARD, this.board));
                 // this is the only place we return true
                 log( usernameRequest + " has joined the server. [" + location + "]");
                 return true;
@@ -170,6 +520,76 @@ public class NetworkServer
         return false;
     }
 
+    /**
+     * Makes the requests that bring a user up to date with the board as it is right now: the cached snapshot, then
+     * every change made since it. The snapshot is read between two ticks and with every region locked, so nothing is
+     * missed and nothing older arrives after it; that takes next to no time, since nothing is copied or encoded here.
+     *
+     * A client that speaks a new enough binary format is sent the snapshot as BOARD_CHUNKs, which were encoded once
+     * for everybody and are written out as they are. Anyone else gets the snapshot as a single BOARD.
+     *
+     * @param out The connection to the user.
+     *
+     * @return The requests, in the order they have to be sent.
+     */
+    private List<PlaceRequest<?>> boardRequests(PlaceConnection out)
+    {
+        return boardRequests(out, null);
+    }
+
+    /**
+     * Makes the requests that bring some chunks of a user's board up to date, the same way boardRequests does for the
+     * whole board: the chunks from the cached snapshot, then every change made in them since. Anyone who can't be
+     * sent chunks gets the whole board instead.
+     *
+     * @param out The connection to the user.
+     * @param chunks The chunks to bring up to date, by chunk index (null for all of them).
+     *
+     * @return The requests, in the order they have to be sent.
+     */
+    private List<PlaceRequest<?>> boardRequests(PlaceConnection out, boolean[] chunks)
+    {
+        List<PlaceRequest<?>> requests = new ArrayList<>();
+        this.broadcaster.betweenTicks(() -> {
+            this.boardLocks.lockAll();
+            try
+            {
+                SnapshotCache.Snapshot snapshot = this.snapshots.current();
+                boolean whole = (chunks == null || out.getVersion() < PlaceCodec.CHUNKED_BOARD_VERSION);
+                if(out.getVersion() < PlaceCodec.CHUNKED_BOARD_VERSION)
+                    requests.add(new PlaceRequest<>(RequestType.BOARD, snapshot.board));
+                else
+                {
+                    for(BoardChunk chunk : snapshot.chunks)
+                    {
+                        if(whole || chunks[chunk.getIndex()])
+                            requests.add(new PlaceRequest<>(RequestType.BOARD_CHUNK, chunk));
+                    }
+                }
+
+                // replays what changed since the snapshot was taken (in the chunks that were sent)
+                PlaceTile[] replay = this.snapshots.since(snapshot);
+                if(!whole)
+                {
+                    List<PlaceTile> inChunks = new ArrayList<>();
+                    for(PlaceTile tile : replay)
+                    {
+                        if(chunks[BoardChunk.indexOf(this.board.DIM, tile.getRow(), tile.getCol())])
+                            inChunks.add(tile);
+                    }
+                    replay = inChunks.toArray(new PlaceTile[0]);
+                }
+                if(replay.length > 0)
+                    requests.add(new PlaceRequest<>(RequestType.TILE_CHANGES, replay));
+            }
+            finally
+            {
+                this.boardLocks.unlockAll();
+            }
+        });
+        return requests;
+    }
+
     /**
      * Checks to see if a requested username is valid from a player.
      *
@@ -198,91 +618,245 @@ public class NetworkServer
         logErr(username + " has sent a bad request. Request type: " + type);
         logErr("Terminating connection for " + username + ".");
 
-        // gets the ObjectOutputStream associated with the username
-        ObjectOutputStream out = this.users.get(username);
+        // gets the queue associated with the username (there is none if they never logged in)
+        OutboundQueue out = (username == null) ? null : this.users.get(username);
+        if(out == null)
+            return;
 
         // alerts the user they sent a bad request as well as the type (if somehow we get here, they are being naughty
         // and using a custom client.)
         // please don't be that person
-        out.writeObject(new PlaceRequest<>(
+        // (written straight to the connection, which is closed right after)
+        out.getConnection().write(new PlaceRequest<>(
                 PlaceRequest.RequestType.ERROR, "Bad request received: " + type + ". Terminating connection.")
         );
 
-        // flushes the stream so it sends
-        out.flush();
-
-
     }
 
     /**
-     * Logs a user out. Doesn't need to be synchronized since we won't have multiple people logged in with the same
-     * username trying to log out.
+     * Logs a user out. Synchronized since users log out from their own threads while others log in.
      *
      * THIS IS CALLED BY: PlaceClientThread
      *
      * @param username The username of the user wishing to log out.
      */
-    public void logout(String username, InetAddress location)
+    public synchronized void logout(String username, InetAddress location)
     {
         // removes one from their location
         this.connections.put(location, this.connections.get(location)-1);
 
         // clears it from the map for memory saving purposes
-        if(this.connections.get(location) <= 0)
+        boolean hostGone = this.connections.get(location) <= 0;
+        if(hostGone)
             this.connections.remove(location);
+        // along with their rate limits, once those have run out anyway
+        this.rateLimiter.forget(username, location, hostGone);
 
         // removes one from the total connections
         --this.totalConnections;
 
         // logs a user out (essentially logs just removes them from the map)
-        // since the ObjectOutputStream is just a pointer, this is all we have to do
+        // since the PlaceConnection is just a pointer, this is all we have to do
         users.remove(username);
+        // along with the regions they were subscribed to, if any
+        this.broadcaster.betweenTicks(() -> this.subscriptions.remove(username));
         // alert that user has disconnected
         log(username + " has left the server.");
     }
 
     /**
-     * Alerts all of the users who are logged in that a new tile change request has occurred. It is synchronized so that
-     * if multiple users send a move for the same tile at the same time we don't have mismatched boards.
+     * Subscribes a user to regions of the board: from the next tick on they are only sent the changes inside them. Any
+     * part of the board they couldn't see until now is sent to them first (the chunks it is in, then every change made
+     * in those since), so a user who pans over to somewhere new never draws it out of date.
+     *
+     * The regions replace whatever the user was subscribed to; no regions at all puts them back on every change.
+     *
+     * @param username The user.
+     * @param out The connection to the user.
+     * @param regions The regions the user wants the changes of (at most PlaceCodec.MAX_REGIONS).
+     *
+     * @return A boolean. True if the user was subscribed; false if the regions weren't a valid subscription.
+     */
+    public boolean subscribe(String username, PlaceConnection out, BoardRegion[] regions)
+    {
+        // a serialized request could hold anything, so it is checked like the codec checks a binary one
+        if(regions == null || regions.length > PlaceCodec.MAX_REGIONS || Arrays.asList(regions).contains(null))
+            return false;
+        OutboundQueue queue = this.users.get(username);
+        if(queue == null)
+            return true;
+
+        // between two ticks, so the next batch they get is already routed to the new regions
+        this.broadcaster.betweenTicks(() -> {
+            boolean[] needed = this.subscriptions.subscribe(username, queue, regions);
+            if(needed != null)
+            {
+                for(PlaceRequest<?> request : boardRequests(out, needed))
+                    queue.send(request);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Accepts a tile change request from a user. The tile is committed exactly once; everybody is told about it with
+     * the rest of the tick, so a slow user never holds up anyone's placement.
      *
-     * Synchronization is also used so that we update a single tile at a time.
+     * @param tile the PlaceTile request that was made.
+     */
+    public boolean tileChangeRequest(String username, PlaceTile tile)
+    {
+        return tileChangeRequest(username, tile, 0);
+    }
+
+    /**
+     * Accepts a tile change request from a user and acknowledges it. Once the tile is committed the user is sent an
+     * ACK with the id they gave the request and the sequence number the tile was committed as, so they can tell how
+     * long the round trip took.
      *
+     * @param username The user who sent the request.
      * @param tile the PlaceTile request that was made.
+     * @param id The id the user gave the request (0 if they don't want it acknowledged).
+     *
+     * @return A boolean. True if the tile was valid and committed; false otherwise.
      */
-    public synchronized boolean tileChangeRequest(String username, PlaceTile tile)
+    public boolean tileChangeRequest(String username, PlaceTile tile, long id)
     {
-        // logs silently username's request to change a tile
-        logSilent(username + " requested to change a tile: " + tile);
+        // logs silently username's request to change a tile (the line itself is put together by the log's writer)
+        this.log.tileRequested(username, tile);
 
         // checks if a tile is invalid, if it is returns false while we still can
         if(!isValid(tile))
+        {
+            this.placementsRejected.increment();
             return false;
-        // creates our changedTile request to send to all users
-        PlaceRequest<PlaceTile> changedTile = new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, tile);
-        // loops through each user that is currently connected
-        for (ObjectOutputStream out : users.values()) {
-            try
-            {
-                // writes out our changed tile
-                out.writeUnshared(changedTile);
-                // sets the place in the board that was just changed
-                this.board.setTile(tile);
-            }
-            catch (IOException e) { /* oops*/ }
         }
-        // once we've gone through every user we can return true
+        long sequence = commit(tile);
+        this.placementsAccepted.increment();
+        // the ACK goes out ahead of the tick's batch that has the tile in it
+        if(id != 0)
+            reply(username, new PlaceRequest<>(RequestType.ACK, sequence, id));
         return true;
     }
 
     /**
-     * If a user sends a tile within the cool-down period, we note that here and ignore their request.
+     * Commits an accepted tile: gives it the next sequence number, writes it to the board and adds it to the batch of
+     * this tick, as one step. The tile's region is locked so that if multiple users send a move for the same tile at
+     * the same time, the board and the batches agree on which one came last; tiles in other regions don't wait.
+     *
+     * @param tile The accepted tile.
+     *
+     * @return The sequence number the tile was committed as.
+     */
+    private long commit(PlaceTile tile)
+    {
+        ReentrantLock lock = this.boardLocks.lockFor(tile.getRow(), tile.getCol());
+        lock.lock();
+        try
+        {
+            // numbered while locked, so the later of two tiles in the same cell always has the higher number
+            long sequence = this.sequence.incrementAndGet();
+            // sets the place in the board that was just changed
+            this.board.setTile(tile);
+            // and adds it to the batch of this tick
+            this.broadcaster.add(sequence, tile);
+            // and to the changes joining users are sent after the cached snapshot
+            this.snapshots.record(sequence, tile);
+            // and to the journal (which only queues it, the disk is never waited on here)
+            if(this.journal != null)
+                this.journal.append(sequence, tile);
+            return sequence;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a reply to a single user, if they are still logged in.
+     *
+     * @param username The user.
+     * @param request The reply.
+     */
+    private void reply(String username, PlaceRequest<?> request)
+    {
+        OutboundQueue out = this.users.get(username);
+        if(out != null)
+            out.send(request);
+    }
+
+    /**
+     * Alerts all of the users who are logged in that a tick's worth of tiles have changed. Called by the broadcaster
+     * once every tick that had changes.
+     *
+     * @param tiles The tiles that changed (at most one per position).
+     */
+    private void broadcast(PlaceTile[] tiles)
+    {
+        long started = System.nanoTime();
+        // creates our changedTiles request to send to all users
+        PlaceRequest<PlaceTile[]> changedTiles = new PlaceRequest<>(RequestType.TILE_CHANGES, tiles);
+        // loops through each user that is currently connected
+        for (Map.Entry<String, OutboundQueue> user : users.entrySet()) {
+            // anyone subscribed to regions gets their own batch below
+            if(this.subscriptions.isSubscribed(user.getKey()))
+                continue;
+            // queues our changed tiles
+            if(!user.getValue().tilesChanged(changedTiles))
+                logErr(user.getKey() + " couldn't keep up with the tile changes. Disconnecting them.");
+        }
+        // everyone subscribed gets only the tiles inside their regions (and nothing at all in a tick with none)
+        long routed = 0;
+        for(SubscriptionGrid.Subscriber subscriber : this.subscriptions.route(tiles))
+        {
+            PlaceTile[] theirs = subscriber.takeTiles();
+            routed += theirs.length;
+            if(!subscriber.queue.tilesChanged(new PlaceRequest<>(RequestType.TILE_CHANGES, theirs)))
+                logErr(subscriber.username + " couldn't keep up with the tile changes. Disconnecting them.");
+        }
+        this.tilesFiltered.add((long) tiles.length * this.subscriptions.size() - routed);
+        this.broadcastTimes.record(System.nanoTime() - started);
+    }
+
+    /**
+     * Checks that a user (and the host they connect from) may place a tile right now, without going over their rate
+     * limits. Takes no lock; a flood of requests from one user never holds up anyone else.
+     *
+     * @param username The user placing a tile.
+     * @param location Where they are connecting from.
+     *
+     * @return A boolean. True if the tile may be placed (and counts against the limits); false if it is too soon.
+     */
+    public boolean allowTile(String username, InetAddress location)
+    {
+        return this.rateLimiter.tryAcquire(username, location);
+    }
+
+    /**
+     * If a user sends a tile faster than their rate limit allows, we note that here and ignore their request.
+     *
+     * @param username The username of the user that sent a request too quickly.
+     */
+    public void fastRequest(String username)
+    {
+        fastRequest(username, 0);
+    }
+
+    /**
+     * If a user sends a tile faster than their rate limit allows, we note that here, ignore their request and send
+     * them a NACK with the id they gave it, so they know it was never placed.
      *
      * @param username The username of the user that sent a request too quickly.
+     * @param id The id the user gave the request (0 if they don't want it acknowledged).
      */
-    public synchronized void fastRequest(String username)
+    public void fastRequest(String username, long id)
     {
         // logs the error
+        this.placementsTooSoon.increment();
         logErr(username + " has sent a tile too quickly. Ignoring it.");
+        if(id != 0)
+            reply(username, new PlaceRequest<>(RequestType.NACK, "TOO SOON", id));
     }
 
     /**
@@ -304,10 +878,7 @@ public class NetworkServer
      */
     private void log(String msg)
     {
-        System.out.println(LOG_HEADER + msg);
-        // logs the msg to the log file
-        // auto flush is enabled, no need to flush()
-        this.log.println("[" + now() + "]: " + msg);
+        this.log.info(msg);
     }
 
     /**
@@ -317,10 +888,7 @@ public class NetworkServer
      */
     private void logErr(String msg)
     {
-        System.err.println(LOG_HEADER + msg);
-        // logs we have hit an error
-        // auto flush is enabled, no need to flush()
-        this.log.println("[" + now() + "]: ALERT! " + msg);
+        this.log.alert(msg);
     }
 
     /**
@@ -330,17 +898,7 @@ public class NetworkServer
      */
     private void logSilent(String msg)
     {
-        this.log.println("[" + now() + "]: " + msg);
-    }
-
-    /**
-     * Returns a time stamp for the current system time.
-     *
-     * @return A string of the format: MM/dd/YY at HH:MM:SS
-     */
-    private String now()
-    {
-        return TIME_STAMP_FORMAT.format(System.currentTimeMillis());
+        this.log.silent(msg);
     }
 
     /**
@@ -357,17 +915,10 @@ public class NetworkServer
         PlaceRequest<String> error = new PlaceRequest<>(PlaceRequest.RequestType.ERROR,
                 "The server has hit an unrecoverable error. Terminating all connections.");
         // loops through each user that is currently connected
-        for( ObjectOutputStream out : users.values() )
+        for( OutboundQueue out : users.values() )
         {
-            try
-            {
-                // write out our error to all clients
-                out.writeObject(error);
-            }
-            catch(IOException e)
-            {
-                // oops
-            }
+            // queue our error for all clients
+            out.send(error);
         }
     }
 }
@@ -0,0 +1,347 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The bounded queue of everything waiting to be sent to a single logged in user.
+ *
+ * The NetworkServer only ever adds to the queue, which never blocks, so a tile is accepted just as fast no matter how
+ * slowly the users read. A queue is drained by one of the NetworkServer's writer threads at a time. Once it holds
+ * more than its capacity, the user is a slow consumer and the queue's Policy decides what happens to them.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class OutboundQueue
+{
+    /**
+     * What is done with a user who can't keep up with the tile changes.
+     */
+    enum Policy
+    {
+        /**
+         * Throw away everything queued and send the user a fresh copy of the board instead.
+         */
+        RESYNC,
+        /**
+         * Close the user's connection.
+         */
+        DISCONNECT,
+        /**
+         * Merge the waiting batches, keeping only the latest change of every tile; if even that is too much, resync.
+         */
+        COALESCE
+    }
+
+    /**
+     * The connection the queue is written to.
+     */
+    private final PlaceConnection connection;
+
+    /**
+     * What happens when the queue is full.
+     */
+    private final Policy policy;
+
+    /**
+     * The most tiles that may wait in the queue (with COALESCE, the most cells).
+     */
+    private final int capacity;
+
+    /**
+     * The writer threads the queue is drained by.
+     */
+    private final Executor writers;
+
+    /**
+     * Makes the up-to-date board (a BOARD or a run of BOARD_CHUNKs) sent when the user is resynced.
+     */
+    private final Supplier<List<PlaceRequest<?>>> resync;
+
+    /**
+     * The marker queued (with COALESCE) in place of the batches that were merged into coalesced.
+     */
+    private static final PlaceRequest<PlaceTile[]> COALESCED =
+            new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGES, new PlaceTile[0]);
+
+    /**
+     * The requests waiting to be written.
+     */
+    private final Queue<PlaceRequest<?>> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of tiles (plus one for every other request) in queue. Kept on the side since
+     * ConcurrentLinkedQueue.size() walks the whole queue.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The latest tile of every cell that changed since the last batch was written (COALESCE only).
+     */
+    private final ConcurrentHashMap<Long, PlaceTile> coalesced = new ConcurrentHashMap<>();
+
+    /**
+     * True while the COALESCED marker is in the queue.
+     */
+    private final AtomicBoolean coalescedQueued = new AtomicBoolean();
+
+    /**
+     * True while a writer is draining (or about to drain) the queue, so only one ever does.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * True once the queue overflowed and the user needs a fresh board.
+     */
+    private final AtomicBoolean resyncNeeded = new AtomicBoolean();
+
+    /**
+     * True once the user has been disconnected for being too slow.
+     */
+    private volatile boolean dropped;
+
+    /**
+     * Creates the queue of a newly logged in user.
+     *
+     * @param connection The connection to the user.
+     * @param policy What happens when the queue is full.
+     * @param capacity The most tiles that may wait in the queue.
+     * @param writers The writer threads the queue is drained by.
+     * @param resync Makes the up-to-date board sent when the user is resynced.
+     */
+    OutboundQueue(PlaceConnection connection, Policy policy, int capacity, Executor writers,
+                  Supplier<List<PlaceRequest<?>>> resync)
+    {
+        this.connection = connection;
+        this.policy = policy;
+        this.capacity = capacity;
+        this.writers = writers;
+        this.resync = resync;
+    }
+
+    /**
+     * Gets the connection the queue is written to.
+     *
+     * @return The connection.
+     */
+    PlaceConnection getConnection()
+    {
+        return this.connection;
+    }
+
+    /**
+     * Gets how far behind the user is: the number of tiles waiting to be written to them (plus one for every other
+     * request).
+     *
+     * @return The number of tiles and requests waiting.
+     */
+    int depth()
+    {
+        return this.size.get() + this.coalesced.size();
+    }
+
+    /**
+     * Queues a request that has to reach the user (login replies and errors). These are never dropped or counted
+     * against the capacity.
+     *
+     * @param request The request.
+     */
+    void send(PlaceRequest<?> request)
+    {
+        this.queue.add(request);
+        this.size.incrementAndGet();
+        schedule();
+    }
+
+    /**
+     * Queues a batch of tile changes. If the user is too far behind the queue's Policy is applied instead.
+     *
+     * @param batch The TILE_CHANGES request of the batch, shared between every user's queue.
+     *
+     * @return A boolean. False if the user was just disconnected for being too slow; true otherwise.
+     */
+    boolean tilesChanged(PlaceRequest<PlaceTile[]> batch)
+    {
+        // nobody is listening anymore
+        if(this.dropped)
+            return true;
+
+        PlaceTile[] tiles = batch.getData();
+
+        if(this.policy == Policy.COALESCE)
+        {
+            // a cell already waiting just gets its tile replaced, so the backlog is never bigger than the board
+            for(PlaceTile tile : tiles)
+                this.coalesced.put(cell(tile), tile);
+
+            if(this.coalesced.size() > this.capacity)
+            {
+                this.resyncNeeded.set(true);
+                schedule();
+            }
+            // one marker in the queue stands for everything in coalesced
+            else if(this.coalescedQueued.compareAndSet(false, true))
+                send(COALESCED);
+            return true;
+        }
+
+        if(this.size.get() >= this.capacity)
+        {
+            if(this.policy == Policy.DISCONNECT)
+            {
+                this.dropped = true;
+                // closing logs the user out, which waits for the NetworkServer; this may be the tick thread, which
+                // a login holding the NetworkServer is waiting for, so the close is left to a writer
+                this.writers.execute(this::disconnect);
+                return false;
+            }
+            // anything we don't queue now is in the board the writer will send
+            this.resyncNeeded.set(true);
+            schedule();
+            return true;
+        }
+
+        this.queue.add(batch);
+        this.size.addAndGet(tiles.length);
+        schedule();
+        return true;
+    }
+
+    /**
+     * Gets the writers to drain the queue unless one already is.
+     */
+    private void schedule()
+    {
+        if(this.scheduled.compareAndSet(false, true))
+            this.writers.execute(this::drain);
+    }
+
+    /**
+     * Writes everything in the queue to the connection. Only ever run by one writer at a time.
+     */
+    private void drain()
+    {
+        try
+        {
+            while(true)
+            {
+                if(this.resyncNeeded.getAndSet(false))
+                {
+                    // throws away the backlog (except what has to reach the user), then catches up in one go
+                    PlaceRequest<?> request;
+                    while(this.size.get() > 0 && (request = this.queue.poll()) != null)
+                    {
+                        this.size.addAndGet(-weight(request));
+                        if(request == COALESCED)
+                            this.coalescedQueued.set(false);
+                        else if(request.getType() != PlaceRequest.RequestType.TILE_CHANGES)
+                            this.connection.write(request);
+                    }
+                    this.coalesced.clear();
+                    // the board goes ahead of anything queued from here on, chunks and all
+                    for(PlaceRequest<?> board : this.resync.get())
+                        this.connection.write(board);
+                }
+
+                // the connection is backed up, it will hand us back to the writers once it has caught up
+                if(this.connection.deferWhileBacklogged(this::resume))
+                    return;
+
+                PlaceRequest<?> request = this.queue.poll();
+                if(request == null)
+                {
+                    // nothing left; let the next request schedule us again, unless one slipped in just now
+                    this.scheduled.set(false);
+                    if((this.queue.isEmpty() && !this.resyncNeeded.get()) || !this.scheduled.compareAndSet(false, true))
+                        return;
+                    continue;
+                }
+                this.size.addAndGet(-weight(request));
+
+                if(request == COALESCED)
+                {
+                    // takes every cell that is waiting by now (anything added after this is queued behind a new marker)
+                    this.coalescedQueued.set(false);
+                    List<PlaceTile> tiles = new ArrayList<>();
+                    for(Long cell : this.coalesced.keySet())
+                    {
+                        PlaceTile tile = this.coalesced.remove(cell);
+                        if(tile != null)
+                            tiles.add(tile);
+                    }
+                    if(tiles.isEmpty())
+                        continue;
+                    request = new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGES,
+                            tiles.toArray(new PlaceTile[0]));
+                }
+                this.connection.write(request);
+            }
+        }
+        catch(IOException e)
+        {
+            // the connection is gone; whoever reads from it will log the user out, we just stop writing
+            this.dropped = true;
+            this.queue.clear();
+            this.size.set(0);
+        }
+    }
+
+    /**
+     * Gets how much a queued request counts against the capacity: a batch counts its tiles, anything else one.
+     *
+     * @param request The request.
+     *
+     * @return Its weight.
+     */
+    private static int weight(PlaceRequest<?> request)
+    {
+        if(request.getType() == PlaceRequest.RequestType.TILE_CHANGES && request != COALESCED)
+            return ((PlaceTile[]) request.getData()).length;
+        return 1;
+    }
+
+    /**
+     * Closes the connection of a user who was too slow. Run on a writer, never on the thread queueing the batches.
+     */
+    private void disconnect()
+    {
+        try
+        {
+            this.connection.close();
+        }
+        catch(IOException e)
+        {
+            // it is going away either way
+        }
+    }
+
+    /**
+     * Gives the queue back to the writers once its backed up connection has caught up.
+     */
+    private void resume()
+    {
+        this.writers.execute(this::drain);
+    }
+
+    /**
+     * Gets the key a tile's cell is coalesced under.
+     *
+     * @param tile The tile.
+     *
+     * @return Its row and column packed into a long.
+     */
+    private static Long cell(PlaceTile tile)
+    {
+        return ((long) tile.getRow() << 32) | (tile.getCol() & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,832 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.network.PlaceRequest.RequestType;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compact binary wire format for PlaceRequests.
+ *
+ * A binary connection starts with MAGIC, then every request is a frame: a fixed five byte header (the request type
+ * and the payload length) followed by the payload. Numbers in a payload are unsigned varints and strings are a varint
+ * length followed by UTF-8 bytes.
+ *
+ *     LOGIN / LOGIN_SUCCESS: version byte, username
+ *     LOGIN_SUCCESS: then the burst and the rate (a double) of the user's rate limit (version 6)
+ *     ERROR: message
+ *     CHANGE_TILE: row, col, owner id and color nibble, time, then the request's id (version 4)
+ *     TILE_CHANGED: row, col, owner id and color nibble, time
+ *     TILE_CHANGES: tile count, then row, col, owner id and color nibble and time delta of every tile (version 2)
+ *     BOARD: DIM, owner names, then the owner id and color nibble and the time delta of every tile
+ *     BOARD_CHUNK: DIM, sequence, chunk index, then deflated: owner names, then the owner id and color nibble and
+ *                  the time delta of every tile of the chunk (version 3)
+ *     ACK: id, sequence number (version 4)
+ *     NACK: id, reason (version 4)
+ *     SUBSCRIBE: region count, then top, left, height, width of every region (version 5)
+ *
+ * Owners are sent as ids into a dictionary that is built as the connection goes: the first time an owner is sent,
+ * its name directly follows its id. That makes a PlaceCodec stateful, so every connection needs its own.
+ *
+ * Owners in a BOARD or BOARD_CHUNK are ids into the frame's own list of names instead, so those frames don't depend
+ * on anything sent before them.
+ *
+ * A peer that only speaks version 1 is sent a TILE_CHANGES as a run of TILE_CHANGED frames instead. A peer that
+ * speaks less than version 3 is never sent a BOARD_CHUNK; the server sends it a BOARD. A peer that speaks less than
+ * version 4 sends no ids with its CHANGE_TILEs, so it is never sent an ACK or NACK. A peer that speaks less than
+ * version 5 never subscribes, so it is sent every change. A peer that speaks less than version 6 isn't told its rate
+ * limit; it has to guess it.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class PlaceCodec
+{
+    /**
+     * The first four bytes a binary client sends ("PLAC"). Java serialization streams start with 0xACED instead,
+     * which is how the server tells the two apart.
+     */
+    public static final int MAGIC = 0x504C4143;
+
+    /**
+     * The newest version of the format this codec speaks (2 added TILE_CHANGES, 3 added BOARD_CHUNK, 4 added ACK and
+     * NACK, 5 added SUBSCRIBE, 6 added the rate limit to LOGIN_SUCCESS).
+     */
+    public static final int VERSION = 6;
+
+    /**
+     * The first version that can be sent the board in BOARD_CHUNKs.
+     */
+    public static final int CHUNKED_BOARD_VERSION = 3;
+
+    /**
+     * The first version whose CHANGE_TILEs carry an id to be acknowledged.
+     */
+    public static final int ACK_VERSION = 4;
+
+    /**
+     * The first version that may SUBSCRIBE to regions of the board.
+     */
+    public static final int SUBSCRIBE_VERSION = 5;
+
+    /**
+     * The first version whose LOGIN_SUCCESS tells the user their rate limit.
+     */
+    public static final int RATE_LIMIT_VERSION = 6;
+
+    /**
+     * The most regions a SUBSCRIBE may have.
+     */
+    public static final int MAX_REGIONS = 16;
+
+    /**
+     * The size of the header in front of every frame: one byte of type, four bytes of payload length.
+     */
+    public static final int HEADER_SIZE = 5;
+
+    /**
+     * The largest payload we are willing to read (anything bigger is a broken or malicious peer).
+     */
+    public static final int MAX_FRAME_SIZE = 1 << 28;
+
+    /**
+     * The largest encode buffer kept around between frames. A board frame can grow the buffer to megabytes; we don't
+     * want every connection to hold on to that after login.
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    /**
+     * Every request type, indexed by the type byte in a frame header.
+     */
+    private static final RequestType[] TYPES = RequestType.values();
+
+    /**
+     * Every color, indexed by its color number.
+     */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    /**
+     * The owner ids we have already sent on this connection.
+     */
+    private final Map<String, Integer> sentOwners = new HashMap<>();
+
+    /**
+     * The owners we have been sent on this connection, indexed by owner id.
+     */
+    private final List<String> receivedOwners = new ArrayList<>();
+
+    /**
+     * The buffer frames are encoded into. It is reused (and grown when needed) for every frame.
+     */
+    private ByteBuffer frame = ByteBuffer.allocate(256);
+
+    /**
+     * The version of the format agreed on at login.
+     */
+    private int version = VERSION;
+
+    /**
+     * The rate limit the server told us it holds us to at login (null until it has).
+     */
+    private TileRateLimiter.Limit userLimit;
+
+    /**
+     * Compresses BOARD_CHUNKs (made the first time one is sent).
+     */
+    private Deflater deflater;
+
+    /**
+     * Decompresses BOARD_CHUNKs (made the first time one is read).
+     */
+    private Inflater inflater;
+
+    /**
+     * Gets the version of the format agreed on at login.
+     *
+     * @return The negotiated version.
+     */
+    public int getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * Gets the rate limit the server told us at login that it holds us to, without any penalty.
+     *
+     * @return The limit, or null if the server didn't say (or speaks a version that can't).
+     */
+    TileRateLimiter.Limit getUserLimit()
+    {
+        return this.userLimit;
+    }
+
+    /**
+     * Encodes a request into a frame.
+     *
+     * @param request The request to encode.
+     *
+     * @return A buffer holding the whole frame from its position to its limit, ready to be written. It is only valid
+     *         until the next call to encode, and must not be written to (it may be shared with other connections, and
+     *         need not be backed by an array).
+     */
+    public ByteBuffer encode(PlaceRequest<?> request)
+    {
+        if(this.frame.capacity() > MAX_RETAINED_BUFFER)
+            this.frame = ByteBuffer.allocate(256);
+        this.frame.clear();
+
+        // a chunk of a cached snapshot was encoded once for everybody
+        if(request.getType() == RequestType.BOARD_CHUNK && ((BoardChunk) request.getData()).getFrame() != null)
+            return ((BoardChunk) request.getData()).getFrame();
+
+        // a version 1 peer doesn't know batches, so it gets one frame per tile (all in the same buffer)
+        if(request.getType() == RequestType.TILE_CHANGES && this.version < 2)
+        {
+            for(PlaceTile tile : (PlaceTile[]) request.getData())
+            {
+                int start = beginFrame(RequestType.TILE_CHANGED);
+                putTile(tile);
+                endFrame(start);
+            }
+            this.frame.flip();
+            return this.frame;
+        }
+
+        int start = beginFrame(request.getType());
+        switch(request.getType())
+        {
+            case LOGIN:
+            case LOGIN_SUCCESS:
+                ensure(1);
+                this.frame.put((byte) this.version);
+                putString((String) request.getData());
+                // only the server sends a LOGIN_SUCCESS, so the limit is the one it enforces
+                if(request.getType() == RequestType.LOGIN_SUCCESS && this.version >= RATE_LIMIT_VERSION)
+                {
+                    putVarLong(TileRateLimiter.userBurst());
+                    ensure(Double.BYTES);
+                    this.frame.putDouble(TileRateLimiter.userRate());
+                }
+                break;
+            case ERROR:
+                putString((String) request.getData());
+                break;
+            case CHANGE_TILE:
+                putTile((PlaceTile) request.getData());
+                if(this.version >= ACK_VERSION)
+                    putVarLong(request.getId());
+                break;
+            case TILE_CHANGED:
+                putTile((PlaceTile) request.getData());
+                break;
+            case TILE_CHANGES:
+                putTiles((PlaceTile[]) request.getData());
+                break;
+            case BOARD:
+                putBoard((PlaceBoard) request.getData());
+                break;
+            case BOARD_CHUNK:
+                putChunk((BoardChunk) request.getData());
+                break;
+            case ACK:
+                putVarLong(request.getId());
+                putVarLong((Long) request.getData());
+                break;
+            case NACK:
+                putVarLong(request.getId());
+                putString((String) request.getData());
+                break;
+            case SUBSCRIBE:
+                putRegions((BoardRegion[]) request.getData());
+                break;
+        }
+        endFrame(start);
+
+        this.frame.flip();
+        return this.frame;
+    }
+
+    /**
+     * Writes the header of a frame, leaving room for the length.
+     *
+     * @param type The type of the frame.
+     *
+     * @return Where the frame starts, for endFrame.
+     */
+    private int beginFrame(RequestType type)
+    {
+        ensure(HEADER_SIZE);
+        int start = this.frame.position();
+        this.frame.put((byte) type.ordinal());
+        // leaves room for the length, which is filled in once the payload is written
+        this.frame.putInt(0);
+        return start;
+    }
+
+    /**
+     * Fills in the length of a frame once its payload has been written.
+     *
+     * @param start Where the frame starts.
+     */
+    private void endFrame(int start)
+    {
+        this.frame.putInt(start + 1, this.frame.position() - start - HEADER_SIZE);
+    }
+
+    /**
+     * Decodes the payload of a frame back into a request.
+     *
+     * @param type The type byte from the frame header.
+     * @param payload The payload of the frame.
+     *
+     * @return The request.
+     *
+     * @throws ProtocolException If the frame is not a valid frame.
+     */
+    public PlaceRequest<?> decode(int type, ByteBuffer payload) throws ProtocolException
+    {
+        if(type < 0 || type >= TYPES.length)
+            throw new ProtocolException("Unknown request type " + type);
+
+        try
+        {
+            switch(TYPES[type])
+            {
+                case LOGIN:
+                    // the client tells us the newest version it speaks, we settle on the newest we both speak
+                    this.version = Math.min(payload.get() & 0xFF, VERSION);
+                    if(this.version < 1)
+                        throw new ProtocolException("Unsupported protocol version " + this.version);
+                    return new PlaceRequest<>(RequestType.LOGIN, getString(payload));
+                case LOGIN_SUCCESS:
+                    this.version = payload.get() & 0xFF;
+                    String username = getString(payload);
+                    if(this.version >= RATE_LIMIT_VERSION)
+                    {
+                        long burst = getVarLong(payload);
+                        double rate = payload.getDouble();
+                        if(burst < 1 || burst > Integer.MAX_VALUE || !(rate > 0) || Double.isInfinite(rate))
+                            throw new ProtocolException("Bad rate limit of " + burst + " at " + rate);
+                        this.userLimit = new TileRateLimiter.Limit((int) burst, rate, 0);
+                    }
+                    return new PlaceRequest<>(RequestType.LOGIN_SUCCESS, username);
+                case ERROR:
+                    return new PlaceRequest<>(RequestType.ERROR, getString(payload));
+                case CHANGE_TILE:
+                    PlaceTile tile = getTile(payload);
+                    return new PlaceRequest<>(RequestType.CHANGE_TILE, tile,
+                            (this.version >= ACK_VERSION) ? getVarLong(payload) : 0);
+                case TILE_CHANGED:
+                    return new PlaceRequest<>(RequestType.TILE_CHANGED, getTile(payload));
+                case TILE_CHANGES:
+                    return new PlaceRequest<>(RequestType.TILE_CHANGES, getTiles(payload));
+                case BOARD:
+                    return new PlaceRequest<>(RequestType.BOARD, getBoard(payload));
+                case BOARD_CHUNK:
+                    return new PlaceRequest<>(RequestType.BOARD_CHUNK, getChunk(payload));
+                case ACK:
+                    long acknowledged = getVarLong(payload);
+                    return new PlaceRequest<>(RequestType.ACK, getVarLong(payload), acknowledged);
+                case NACK:
+                    long refused = getVarLong(payload);
+                    return new PlaceRequest<>(RequestType.NACK, getString(payload), refused);
+                case SUBSCRIBE:
+                    return new PlaceRequest<>(RequestType.SUBSCRIBE, getRegions(payload));
+                default:
+                    throw new ProtocolException("Unknown request type " + type);
+            }
+        }
+        catch(RuntimeException e)
+        {
+            // a truncated buffer or an index out of range means the frame itself is broken
+            throw new ProtocolException("Malformed " + TYPES[type] + " frame");
+        }
+    }
+
+    /**
+     * Writes regions: the number of them, then the top, left, height and width of every one.
+     *
+     * @param regions The regions to write.
+     */
+    private void putRegions(BoardRegion[] regions)
+    {
+        putVarLong(regions.length);
+        for(BoardRegion region : regions)
+        {
+            putVarLong(region.getTop());
+            putVarLong(region.getLeft());
+            putVarLong(region.getHeight());
+            putVarLong(region.getWidth());
+        }
+    }
+
+    /**
+     * Reads regions written by putRegions.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The regions.
+     *
+     * @throws ProtocolException If there are more regions than a SUBSCRIBE may have.
+     */
+    private static BoardRegion[] getRegions(ByteBuffer in) throws ProtocolException
+    {
+        long count = getVarLong(in);
+        if(count > MAX_REGIONS)
+            throw new ProtocolException("Too many regions " + count);
+        BoardRegion[] regions = new BoardRegion[(int) count];
+        for(int i = 0; i < regions.length; ++i)
+            regions[i] = new BoardRegion(Math.toIntExact(getVarLong(in)), Math.toIntExact(getVarLong(in)),
+                    Math.toIntExact(getVarLong(in)), Math.toIntExact(getVarLong(in)));
+        return regions;
+    }
+
+    /**
+     * Writes a tile: row, column, owner id and color nibble, time.
+     *
+     * @param tile The tile to write.
+     */
+    private void putTile(PlaceTile tile)
+    {
+        putVarLong(tile.getRow());
+        putVarLong(tile.getCol());
+        putOwner(tile.getOwner(), tile.getColor());
+        putVarLong(tile.getTime());
+    }
+
+    /**
+     * Reads a tile written by putTile.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The tile.
+     *
+     * @throws ProtocolException If the owner id is not one we know.
+     */
+    private PlaceTile getTile(ByteBuffer in) throws ProtocolException
+    {
+        int row = (int) getVarLong(in);
+        int col = (int) getVarLong(in);
+        int owner = (int) getVarLong(in);
+        String name = getOwner(in, owner >>> 4);
+        return new PlaceTile(row, col, name, COLORS[owner & 0xF], getVarLong(in));
+    }
+
+    /**
+     * Writes a batch of tiles: the count, then each tile like putTile but with its time as a delta from the tile
+     * before it (a batch is one tick's worth, so the deltas are tiny).
+     *
+     * @param tiles The tiles to write.
+     */
+    private void putTiles(PlaceTile[] tiles)
+    {
+        putVarLong(tiles.length);
+        long lastTime = 0;
+        for(PlaceTile tile : tiles)
+        {
+            putVarLong(tile.getRow());
+            putVarLong(tile.getCol());
+            putOwner(tile.getOwner(), tile.getColor());
+            putVarLong(zigZag(tile.getTime() - lastTime));
+            lastTime = tile.getTime();
+        }
+    }
+
+    /**
+     * Reads a batch of tiles written by putTiles.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The tiles.
+     *
+     * @throws ProtocolException If an owner id is not one we know, or the count can't be right.
+     */
+    private PlaceTile[] getTiles(ByteBuffer in) throws ProtocolException
+    {
+        long count = getVarLong(in);
+        // every tile takes at least four bytes, which keeps a bad count from allocating a huge array
+        if(count < 0 || count > in.remaining() / 4)
+            throw new ProtocolException("Bad tile count " + count);
+
+        PlaceTile[] tiles = new PlaceTile[(int) count];
+        long time = 0;
+        for(int i = 0; i < tiles.length; ++i)
+        {
+            int row = (int) getVarLong(in);
+            int col = (int) getVarLong(in);
+            int owner = (int) getVarLong(in);
+            String name = getOwner(in, owner >>> 4);
+            time += unZigZag(getVarLong(in));
+            tiles[i] = new PlaceTile(row, col, name, COLORS[owner & 0xF], time);
+        }
+        return tiles;
+    }
+
+    /**
+     * Writes an owner id and a color packed into one varint, followed by the owner name the first time the owner is
+     * sent on this connection.
+     *
+     * @param owner The owner.
+     * @param color The color.
+     */
+    private void putOwner(String owner, PlaceColor color)
+    {
+        if(owner == null)
+            owner = "";
+
+        Integer id = this.sentOwners.get(owner);
+        boolean firstTime = (id == null);
+        if(firstTime)
+        {
+            id = this.sentOwners.size();
+            this.sentOwners.put(owner, id);
+        }
+
+        putVarLong((long) id << 4 | color.getNumber());
+        if(firstTime)
+            putString(owner);
+    }
+
+    /**
+     * Reads an owner name, adding it to the dictionary if this is the first time it was sent.
+     *
+     * @param in The payload to read from.
+     * @param id The owner id that was read.
+     *
+     * @return The owner name.
+     *
+     * @throws ProtocolException If the owner id is not one we know.
+     */
+    private String getOwner(ByteBuffer in, int id) throws ProtocolException
+    {
+        if(id == this.receivedOwners.size())
+            this.receivedOwners.add(getString(in));
+        else if(id > this.receivedOwners.size())
+            throw new ProtocolException("Unknown owner id " + id);
+        return this.receivedOwners.get(id);
+    }
+
+    /**
+     * Writes a whole board. The board carries its own owner names, so it doesn't touch the connection dictionary.
+     *
+     * @param board The board to write.
+     */
+    private void putBoard(PlaceBoard board)
+    {
+        putVarLong(board.DIM);
+        putVarLong(board.getOwnerCount());
+        for(int id = 0; id < board.getOwnerCount(); ++id)
+            putString(board.getOwnerName(id));
+
+        long lastTime = 0;
+        for(int row = 0; row < board.DIM; ++row)
+        {
+            for(int col = 0; col < board.DIM; ++col)
+            {
+                putVarLong((long) board.getOwnerId(row, col) << 4 | board.getColor(row, col).getNumber());
+                // neighbouring tiles tend to be placed around the same time, so the deltas stay short
+                long time = board.getTime(row, col);
+                putVarLong(zigZag(time - lastTime));
+                lastTime = time;
+            }
+        }
+    }
+
+    /**
+     * Reads a board written by putBoard.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The board.
+     *
+     * @throws ProtocolException If the board is bigger than the frame could possibly hold.
+     */
+    private PlaceBoard getBoard(ByteBuffer in) throws ProtocolException
+    {
+        // every tile takes at least two bytes (its owner and its time) and every owner at least one, so anything
+        // claiming more than the frame holds is checked before the board is allocated
+        long dim = getVarLong(in);
+        if(dim < 0 || dim > PlaceBoard.MAX_DIM || dim * dim * 2 > in.remaining())
+            throw new ProtocolException("Bad board of " + dim);
+        String[] owners = new String[ownerCount(in)];
+        for(int id = 0; id < owners.length; ++id)
+            owners[id] = getString(in);
+
+        PlaceBoard board = new PlaceBoard((int) dim);
+        long time = 0;
+        for(int row = 0; row < dim; ++row)
+        {
+            for(int col = 0; col < dim; ++col)
+            {
+                int owner = (int) getVarLong(in);
+                time += unZigZag(getVarLong(in));
+                board.setTile(row, col, COLORS[owner & 0xF], owners[owner >>> 4], time);
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Writes a chunk of a board: the board's DIM, the snapshot's sequence number and the chunk's index, then the
+     * deflated tiles of the chunk along with their owner names.
+     *
+     * @param chunk The chunk to write.
+     */
+    private void putChunk(BoardChunk chunk)
+    {
+        PlaceBoard board = chunk.getBoard();
+        putVarLong(chunk.getDim());
+        putVarLong(chunk.getSequence());
+        putVarLong(chunk.getIndex());
+
+        // numbers the owners of the chunk from 1, in the order they first appear (0 is "not numbered yet")
+        int[] owners = new int[board.getOwnerCount()];
+        List<String> names = new ArrayList<>();
+        for(int row = chunk.getTop(); row < chunk.getTop() + chunk.getHeight(); ++row)
+        {
+            for(int col = chunk.getLeft(); col < chunk.getLeft() + chunk.getWidth(); ++col)
+            {
+                int owner = board.getOwnerId(row, col);
+                if(owners[owner] == 0)
+                {
+                    names.add(board.getOwnerName(owner));
+                    owners[owner] = names.size();
+                }
+            }
+        }
+
+        // the tiles are written out plain first, then squeezed in place
+        int body = this.frame.position();
+        putVarLong(names.size());
+        for(String name : names)
+            putString(name);
+        long lastTime = 0;
+        for(int row = chunk.getTop(); row < chunk.getTop() + chunk.getHeight(); ++row)
+        {
+            for(int col = chunk.getLeft(); col < chunk.getLeft() + chunk.getWidth(); ++col)
+            {
+                putVarLong((long) (owners[board.getOwnerId(row, col)] - 1) << 4 | board.getColor(row, col).getNumber());
+                long time = board.getTime(row, col);
+                putVarLong(zigZag(time - lastTime));
+                lastTime = time;
+            }
+        }
+
+        // the fastest level; the varints are already tight, and a join waits on this
+        if(this.deflater == null)
+            this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.deflater.reset();
+        this.deflater.setInput(this.frame.array(), body, this.frame.position() - body);
+        this.deflater.finish();
+        // deflate only grows data it can't squeeze by a few bytes per block
+        byte[] deflated = new byte[this.frame.position() - body + 64];
+        int length = 0;
+        while(!this.deflater.finished())
+        {
+            if(length == deflated.length)
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            length += this.deflater.deflate(deflated, length, deflated.length - length);
+        }
+        this.frame.position(body);
+        ensure(length);
+        this.frame.put(deflated, 0, length);
+    }
+
+    /**
+     * Reads a chunk of a board written by putChunk.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The chunk, holding its tiles.
+     *
+     * @throws ProtocolException If the chunk doesn't fit its board or its tiles can't be inflated.
+     */
+    private BoardChunk getChunk(ByteBuffer in) throws ProtocolException
+    {
+        int dim = (int) getVarLong(in);
+        long sequence = getVarLong(in);
+        int index = (int) getVarLong(in);
+        if(dim <= 0 || dim > PlaceBoard.MAX_DIM || index < 0 || index >= BoardChunk.count(dim))
+            throw new ProtocolException("Bad chunk " + index + " of a board of " + dim);
+        BoardChunk chunk = new BoardChunk(dim, sequence, index, null);
+
+        if(this.inflater == null)
+            this.inflater = new Inflater();
+        this.inflater.reset();
+        this.inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
+        byte[] inflated = new byte[Math.max(256, in.remaining() * 4)];
+        int length = 0;
+        try
+        {
+            while(!this.inflater.finished())
+            {
+                if(length == inflated.length)
+                {
+                    // nothing a chunk holds is anywhere near a frame's worth, so this is a broken (or hostile) peer
+                    if(inflated.length >= MAX_FRAME_SIZE)
+                        throw new ProtocolException("Chunk " + index + " inflates too far");
+                    inflated = Arrays.copyOf(inflated, inflated.length * 2);
+                }
+                int read = this.inflater.inflate(inflated, length, inflated.length - length);
+                if(read == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary()))
+                    throw new ProtocolException("Chunk " + index + " is truncated");
+                length += read;
+            }
+        }
+        catch(DataFormatException e)
+        {
+            throw new ProtocolException("Chunk " + index + " is corrupt");
+        }
+
+        ByteBuffer tilesIn = ByteBuffer.wrap(inflated, 0, length);
+        String[] owners = new String[ownerCount(tilesIn)];
+        for(int id = 0; id < owners.length; ++id)
+            owners[id] = getString(tilesIn);
+
+        PlaceTile[] tiles = new PlaceTile[chunk.getHeight() * chunk.getWidth()];
+        long time = 0;
+        int i = 0;
+        for(int row = chunk.getTop(); row < chunk.getTop() + chunk.getHeight(); ++row)
+        {
+            for(int col = chunk.getLeft(); col < chunk.getLeft() + chunk.getWidth(); ++col)
+            {
+                int owner = (int) getVarLong(tilesIn);
+                time += unZigZag(getVarLong(tilesIn));
+                tiles[i++] = new PlaceTile(row, col, owners[owner >>> 4], COLORS[owner & 0xF], time);
+            }
+        }
+        return new BoardChunk(dim, sequence, index, tiles);
+    }
+
+    /**
+     * Reads the number of owner names in front of a board or a chunk.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The number of owners.
+     *
+     * @throws ProtocolException If there are more owners than bytes left to hold them.
+     */
+    private static int ownerCount(ByteBuffer in) throws ProtocolException
+    {
+        long count = getVarLong(in);
+        if(count < 0 || count > in.remaining())
+            throw new ProtocolException("Bad owner count " + count);
+        return (int) count;
+    }
+
+    /**
+     * Writes a string as a varint length and UTF-8 bytes.
+     *
+     * @param string The string to write.
+     */
+    private void putString(String string)
+    {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        putVarLong(bytes.length);
+        ensure(bytes.length);
+        this.frame.put(bytes);
+    }
+
+    /**
+     * Reads a string written by putString.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The string.
+     */
+    private static String getString(ByteBuffer in)
+    {
+        int length = (int) getVarLong(in);
+        String string = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return string;
+    }
+
+    /**
+     * Writes an unsigned varint: seven bits per byte, high bit set on every byte but the last.
+     *
+     * @param value The value to write (must not be negative).
+     */
+    private void putVarLong(long value)
+    {
+        ensure(10);
+        while((value & ~0x7FL) != 0)
+        {
+            this.frame.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.frame.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint written by putVarLong.
+     *
+     * @param in The payload to read from.
+     *
+     * @return The value.
+     */
+    private static long getVarLong(ByteBuffer in)
+    {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("Varint too long");
+    }
+
+    /**
+     * Maps a signed value onto an unsigned one so small negative numbers stay short as varints.
+     *
+     * @param value The signed value.
+     *
+     * @return The zig-zag encoded value.
+     */
+    private static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Undoes zigZag.
+     *
+     * @param value The zig-zag encoded value.
+     *
+     * @return The signed value.
+     */
+    private static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Makes sure the frame buffer has room for a number of bytes, growing it if it doesn't.
+     *
+     * @param bytes The number of bytes about to be written.
+     */
+    private void ensure(int bytes)
+    {
+        if(this.frame.remaining() < bytes)
+        {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(this.frame.capacity() * 2, this.frame.position() + bytes));
+            this.frame.flip();
+            bigger.put(this.frame);
+            this.frame = bigger;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package place.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The server's view of a single client: something a PlaceRequest can be written to. It is implemented by the
+ * blocking PlaceExchange as well as the non-blocking connections of the server's selector loops.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public interface PlaceConnection extends Closeable
+{
+    /**
+     * Writes a request to the client.
+     *
+     * @param request The request to send.
+     *
+     * @throws IOException If the connection is lost.
+     */
+    void write(PlaceRequest<?> request) throws IOException;
+
+    /**
+     * Gets the version of the binary format agreed on with the client, which decides how the board is sent to it.
+     *
+     * @return The version, or 0 if the client speaks Java serialization.
+     */
+    default int getVersion()
+    {
+        return 0;
+    }
+
+    /**
+     * Tells if a write to the connection can block until the client reads. Such a connection is drained on a thread
+     * of its own, so a client who stops reading never holds up anybody else's writes.
+     *
+     * @return A boolean. True if writes block; false if they never do (the connection backs up instead).
+     */
+    default boolean isBlocking()
+    {
+        return true;
+    }
+
+    /**
+     * Tells a writer to back off while the connection still has a lot waiting to go out. Blocking connections never
+     * back up (their writes just take longer), so by default this never defers.
+     *
+     * @param resume What to run once the connection has caught up, if it is backed up.
+     *
+     * @return A boolean. True if the connection is backed up and will run resume later; false if it can be written to
+     *         right now (resume is not run).
+     */
+    default boolean deferWhileBacklogged(Runnable resume)
+    {
+        return false;
+    }
+}
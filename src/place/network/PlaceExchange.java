@@ -0,0 +1,280 @@
+package place.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * A PlaceExchange sends and receives PlaceRequests over a socket. There are two formats on the wire: the compact
+ * binary format of PlaceCodec, and plain Java serialization which is kept around so older clients can still connect.
+ *
+ * The client picks the format; the server tells which one it was given by looking at the first four bytes.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public abstract class PlaceExchange implements PlaceConnection
+{
+    /**
+     * Opens the client side of an exchange.
+     *
+     * @param socket The connection to the server.
+     * @param binary True to use the binary format; false to use Java serialization.
+     *
+     * @return The exchange.
+     *
+     * @throws IOException If the streams can't be set up.
+     */
+    public static PlaceExchange connect(Socket socket, boolean binary) throws IOException
+    {
+        // requests are tiny and each one is flushed on its own; don't let Nagle hold them back
+        socket.setTcpNoDelay(true);
+
+        if(binary)
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // announce ourselves so the server knows not to expect a serialization stream
+            out.writeInt(PlaceCodec.MAGIC);
+            out.flush();
+            return new BinaryExchange(socket.getInputStream(), out);
+        }
+
+        // output first; the server won't answer until it has seen the stream header
+        ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+        out.flush();
+        return new ObjectExchange(new ObjectInputStream(socket.getInputStream()), out);
+    }
+
+    /**
+     * Opens the server side of an exchange, using whichever format the client opened with.
+     *
+     * @param socket The connection to the client.
+     *
+     * @return The exchange.
+     *
+     * @throws IOException If the streams can't be set up.
+     */
+    public static PlaceExchange accept(Socket socket) throws IOException
+    {
+        return accept(socket.getInputStream(), socket.getOutputStream());
+    }
+
+    /**
+     * Opens the server side of an exchange over a pair of streams, using whichever format the client opened with.
+     *
+     * @param input The stream from the client.
+     * @param output The stream to the client.
+     *
+     * @return The exchange.
+     *
+     * @throws IOException If the streams can't be set up.
+     */
+    public static PlaceExchange accept(InputStream input, OutputStream output) throws IOException
+    {
+        BufferedInputStream in = new BufferedInputStream(input);
+        // peeks at the first four bytes
+        in.mark(Integer.BYTES);
+        int magic = new DataInputStream(in).readInt();
+
+        if(magic == PlaceCodec.MAGIC)
+            return new BinaryExchange(in, new DataOutputStream(new BufferedOutputStream(output)));
+
+        // not ours, so it is the start of a serialization stream; put it back for the ObjectInputStream
+        in.reset();
+        ObjectOutputStream out = new ObjectOutputStream(output);
+        out.flush();
+        return new ObjectExchange(new ObjectInputStream(in), out);
+    }
+
+    /**
+     * Reads the next request (blocks until one arrives).
+     *
+     * @return The request.
+     *
+     * @throws IOException If the connection is lost or the request is malformed.
+     * @throws ClassNotFoundException If a serialized request is of an unknown class.
+     */
+    public abstract PlaceRequest<?> read() throws IOException, ClassNotFoundException;
+
+    /**
+     * Writes a request and flushes it out.
+     *
+     * @param request The request to send.
+     *
+     * @throws IOException If the connection is lost.
+     */
+    @Override
+    public abstract void write(PlaceRequest<?> request) throws IOException;
+
+    /**
+     * Tells if this exchange is using the binary format.
+     *
+     * @return True if binary; false if Java serialization.
+     */
+    public abstract boolean isBinary();
+
+    /**
+     * Gets the rate limit the server told us at login that it holds us to.
+     *
+     * @return The limit, or null if the server didn't say.
+     */
+    TileRateLimiter.Limit getUserLimit()
+    {
+        // only a new enough binary server says
+        return null;
+    }
+
+    /**
+     * An exchange in the binary format of PlaceCodec.
+     */
+    private static class BinaryExchange extends PlaceExchange
+    {
+        /**
+         * The stream frames are read from.
+         */
+        private final DataInputStream in;
+
+        /**
+         * The stream frames are written to.
+         */
+        private final DataOutputStream out;
+
+        /**
+         * The codec which holds the owner dictionaries of this connection.
+         */
+        private final PlaceCodec codec = new PlaceCodec();
+
+        /**
+         * The buffer payloads are read into; reused as long as payloads fit.
+         */
+        private byte[] payload = new byte[256];
+
+        /**
+         * Creates a binary exchange over a pair of streams.
+         *
+         * @param in The stream to read from.
+         * @param out The stream to write to.
+         */
+        BinaryExchange(InputStream in, DataOutputStream out)
+        {
+            this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+            this.out = out;
+        }
+
+        @Override
+        public PlaceRequest<?> read() throws IOException
+        {
+            int type = this.in.readUnsignedByte();
+            int length = this.in.readInt();
+            if(length < 0 || length > PlaceCodec.MAX_FRAME_SIZE)
+                throw new ProtocolException("Bad frame length " + length);
+
+            byte[] payload = (length <= this.payload.length) ? this.payload : new byte[length];
+            this.in.readFully(payload, 0, length);
+            return this.codec.decode(type, ByteBuffer.wrap(payload, 0, length));
+        }
+
+        @Override
+        public synchronized void write(PlaceRequest<?> request) throws IOException
+        {
+            ByteBuffer frame = this.codec.encode(request);
+            if(frame.hasArray())
+                this.out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            else
+            {
+                // a frame straight out of a memory mapped checkpoint
+                byte[] bytes = new byte[frame.remaining()];
+                frame.get(bytes);
+                this.out.write(bytes);
+            }
+            this.out.flush();
+        }
+
+        @Override
+        public boolean isBinary()
+        {
+            return true;
+        }
+
+        @Override
+        public int getVersion()
+        {
+            return this.codec.getVersion();
+        }
+
+        @Override
+        TileRateLimiter.Limit getUserLimit()
+        {
+            return this.codec.getUserLimit();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.in.close();
+            this.out.close();
+        }
+    }
+
+    /**
+     * An exchange in plain Java serialization.
+     */
+    private static class ObjectExchange extends PlaceExchange
+    {
+        /**
+         * The stream requests are read from.
+         */
+        private final ObjectInputStream in;
+
+        /**
+         * The stream requests are written to.
+         */
+        private final ObjectOutputStream out;
+
+        /**
+         * Creates a serialization exchange over a pair of streams.
+         *
+         * @param in The stream to read from.
+         * @param out The stream to write to.
+         */
+        ObjectExchange(ObjectInputStream in, ObjectOutputStream out)
+        {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public PlaceRequest<?> read() throws IOException, ClassNotFoundException
+        {
+            return (PlaceRequest<?>) this.in.readUnshared();
+        }
+
+        @Override
+        public synchronized void write(PlaceRequest<?> request) throws IOException
+        {
+            this.out.writeUnshared(request);
+            this.out.flush();
+        }
+
+        @Override
+        public boolean isBinary()
+        {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.in.close();
+            this.out.close();
+        }
+    }
+}
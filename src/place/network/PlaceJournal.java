@@ -0,0 +1,446 @@
+package place.network;
+
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of every tile the NetworkServer commits, which the board is rebuilt from when the server
+ * starts again.
+ *
+ * Committing a tile only queues it; a thread of its own writes whatever has been queued as one group and forces it
+ * to the disk once SYNC_TILES tiles or SYNC_MILLIS milliseconds have gone by without a force. Placement never waits
+ * on the disk, at the price of losing the last few moments of tiles if the machine (not just the server) goes down.
+ *
+ * The journal is a directory of segments, each named after a sequence number past every tile written before it was
+ * started. Tiles are queued in the order of their region, not in the order of their sequence numbers, so a segment
+ * may still get a few tiles numbered below its name; the journal keeps the highest sequence number in every segment
+ * instead, and that is what decides whether a segment can go. Every start of the server begins a new segment, so a
+ * segment that was cut short by a crash is never written to again. A segment is a header (MAGIC, the format version and the board's DIM) followed by records:
+ *
+ *     length, then sequence, row, col, color number, time, owner (UTF-8, length first), then the CRC32 of all that
+ *
+ * Reading stops at the first record that is cut short or fails its CRC. Segments whose tiles are all in a board
+ * checkpoint (see BoardCheckpoints) are deleted, so only the tail after the latest checkpoints is ever replayed. If
+ * the journal can't be written the writer gives up, and from then on committed tiles are no longer queued.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+public class PlaceJournal
+{
+    /**
+     * The number of tiles written since the last force that has the writer force the journal to the disk.
+     * (Set with -Dplace.journalSyncTiles=N.)
+     */
+    private static final int SYNC_TILES = Integer.getInteger("place.journalSyncTiles", 1024);
+
+    /**
+     * The longest the writer lets written tiles go without forcing them to the disk, in milliseconds; 0 forces after
+     * every group. (Set with -Dplace.journalSyncMillis=N.)
+     */
+    private static final int SYNC_MILLIS = Integer.getInteger("place.journalSyncMillis", 50);
+
+    /**
+     * The size a segment grows to before the writer starts a new one. (Set with -Dplace.journalSegmentBytes=N.)
+     */
+    private static final long SEGMENT_BYTES = Long.getLong("place.journalSegmentBytes", 64L << 20);
+
+    /**
+     * The first four bytes of every segment ("PLWJ").
+     */
+    private static final int MAGIC = 0x504C574A;
+
+    /**
+     * The version of the segment format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The largest record we are willing to read (anything bigger is a broken segment).
+     */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    /**
+     * The most tiles written as one group.
+     */
+    private static final int MAX_GROUP = 4096;
+
+    /**
+     * Every color, indexed by its color number.
+     */
+    private static final PlaceColor[] COLORS = PlaceColor.values();
+
+    /**
+     * The directory the segments are in.
+     */
+    private final File directory;
+
+    /**
+     * The tiles committed but not yet written.
+     */
+    private final BlockingQueue<CommittedTile> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * The thread that writes the queue to the disk.
+     */
+    private Thread writer;
+
+    /**
+     * The segment being written.
+     */
+    private FileChannel segment;
+
+    /**
+     * The file of the segment being written.
+     */
+    private File segmentFile;
+
+    /**
+     * The highest sequence number of every segment that is no longer written to, by its file (concurrent since the
+     * checkpoints delete segments from a thread of their own). The segment being written is never in it.
+     */
+    private final Map<File, Long> segmentLastSequences = new ConcurrentHashMap<>();
+
+    /**
+     * The square dimension of the board the journal is kept for.
+     */
+    private int dim;
+
+    /**
+     * The highest sequence number in the journal.
+     */
+    private long lastSequence;
+
+    /**
+     * The highest sequence number written to the segment being written (0 if none has been).
+     */
+    private long segmentLastSequence;
+
+    /**
+     * True once the writer has given up; nothing is queued anymore.
+     */
+    private volatile boolean failed;
+
+    /**
+     * True once the journal has been closed; the writer empties the queue and stops.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Opens the journal kept in a directory, making the directory if it has to.
+     *
+     * @param directory The directory.
+     *
+     * @throws IOException If the directory can't be made.
+     */
+    public PlaceJournal(File directory) throws IOException
+    {
+        this.directory = directory;
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't make the journal directory " + directory);
+    }
+
+    /**
+     * Replays every tile in the journal committed after a sequence number, in the order they were written (which is
+     * the order they were committed in for any one cell). Tiles that don't fit the board (the journal was kept for a
+     * bigger one) are skipped.
+     *
+     * @param dim The square dimension of the board.
+     * @param after The sequence number the board is already up to date with (a checkpoint's, or 0).
+     * @param replay What every tile is handed to, along with its sequence number.
+     *
+     * @return The sequence number of the last tile in the journal (after, if there are none past it).
+     *
+     * @throws IOException If a segment can't be read.
+     */
+    long recover(int dim, long after, BiConsumer<Long, PlaceTile> replay) throws IOException
+    {
+        long last = after;
+        for(File file : segments())
+        {
+            long fileLast = 0;
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+            {
+                // (a segment we can't read is never deleted either, since nobody knows what is in it)
+                if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                    continue;
+                in.readInt();
+
+                byte[] record = new byte[256];
+                CRC32 crc = new CRC32();
+                while(true)
+                {
+                    int length = in.readInt();
+                    if(length < 0 || length > MAX_RECORD_SIZE)
+                        break;
+                    if(length > record.length)
+                        record = new byte[length];
+                    in.readFully(record, 0, length);
+                    crc.reset();
+                    crc.update(record, 0, length);
+                    if((int) crc.getValue() != in.readInt())
+                        break;
+
+                    ByteBuffer tile = ByteBuffer.wrap(record, 0, length);
+                    long sequence = tile.getLong();
+                    int row = tile.getInt();
+                    int col = tile.getInt();
+                    int color = tile.get();
+                    long time = tile.getLong();
+                    int ownerLength = tile.getShort() & 0xFFFF;
+                    String owner = new String(record, tile.position(), ownerLength, StandardCharsets.UTF_8);
+
+                    if(sequence > after && row >= 0 && row < dim && col >= 0 && col < dim)
+                        replay.accept(sequence, new PlaceTile(row, col, owner, COLORS[color & 0xF], time));
+                    fileLast = Math.max(fileLast, sequence);
+                }
+            }
+            catch(EOFException e)
+            {
+                // the segment was cut short (the server went down mid-write); everything before that counts
+            }
+            this.segmentLastSequences.put(file, fileLast);
+            last = Math.max(last, fileLast);
+        }
+        this.lastSequence = last;
+        return last;
+    }
+
+    /**
+     * Gets the directory the journal is kept in.
+     *
+     * @return The directory.
+     */
+    File getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * Starts a new segment and the thread that writes to it. Called once the board has been recovered.
+     *
+     * @param dim The square dimension of the board.
+     *
+     * @throws IOException If the segment can't be created.
+     */
+    void start(int dim) throws IOException
+    {
+        this.dim = dim;
+        openSegment(this.lastSequence + 1);
+        this.writer = new Thread(this::write, "PlaceJournal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a committed tile to be written. Called while holding the lock of the tile's region, so the tiles of a
+     * cell are always queued in the order they were committed.
+     *
+     * @param sequence The sequence number the tile was committed with.
+     * @param tile The tile.
+     */
+    void append(long sequence, PlaceTile tile)
+    {
+        // nobody would ever take it off the queue
+        if(this.failed)
+            return;
+        this.queue.add(new CommittedTile(sequence, tile));
+    }
+
+    /**
+     * Deletes the segments holding nothing past a sequence number, because a checkpoint of the board already has all
+     * of it. The segment being written is never deleted.
+     *
+     * @param sequence The sequence number of the checkpoint.
+     */
+    void deleteThrough(long sequence)
+    {
+        // a segment is only done with once its highest tile is in the checkpoint, whatever its neighbours hold
+        for(Map.Entry<File, Long> segment : this.segmentLastSequences.entrySet())
+        {
+            if(segment.getValue() <= sequence && segment.getKey().delete())
+                this.segmentLastSequences.remove(segment.getKey());
+        }
+    }
+
+    /**
+     * Writes out everything queued, forces it to the disk and stops the writer.
+     */
+    public void close()
+    {
+        if(this.closed)
+            return;
+        this.closed = true;
+        if(this.writer == null)
+            return;
+        try
+        {
+            this.writer.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queue to the disk, a group at a time, until the journal is closed. Run by the writer thread.
+     */
+    private void write()
+    {
+        List<CommittedTile> group = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        CRC32 crc = new CRC32();
+        int unsynced = 0;
+        long lastSync = System.nanoTime();
+        try
+        {
+            while(!this.closed || !this.queue.isEmpty())
+            {
+                // waits for the next tile, but not past when the tiles already written have to be forced
+                long wait = (unsynced == 0) ? 100 : Math.max(0, SYNC_MILLIS - (System.nanoTime() - lastSync) / 1_000_000);
+                CommittedTile first = this.queue.poll(wait, TimeUnit.MILLISECONDS);
+                if(first != null)
+                {
+                    // everything that queued up while we were busy goes out together
+                    group.add(first);
+                    this.queue.drainTo(group, MAX_GROUP - 1);
+                    for(CommittedTile tile : group)
+                        buffer = putRecord(buffer, tile, crc);
+                    buffer.flip();
+                    while(buffer.hasRemaining())
+                        this.segment.write(buffer);
+                    buffer.clear();
+                    unsynced += group.size();
+                    // the group is in the order of the regions, so its last tile isn't always its highest
+                    for(CommittedTile tile : group)
+                        this.segmentLastSequence = Math.max(this.segmentLastSequence, tile.sequence);
+                    this.lastSequence = Math.max(this.lastSequence, this.segmentLastSequence);
+                    group.clear();
+                }
+
+                if(unsynced > 0 && (unsynced >= SYNC_TILES || SYNC_MILLIS == 0 ||
+                        System.nanoTime() - lastSync >= SYNC_MILLIS * 1_000_000L))
+                {
+                    this.segment.force(false);
+                    unsynced = 0;
+                    lastSync = System.nanoTime();
+                }
+
+                if(unsynced == 0 && this.segment.size() >= SEGMENT_BYTES)
+                {
+                    this.segment.close();
+                    this.segmentLastSequences.put(this.segmentFile, this.segmentLastSequence);
+                    openSegment(this.lastSequence + 1);
+                }
+            }
+            this.segment.force(false);
+            this.segment.close();
+        }
+        catch(IOException | InterruptedException e)
+        {
+            // the journal can't go on; the server keeps running on the board in memory
+            System.err.println("[PlaceJournal]: Stopped writing the journal: " + e);
+            this.failed = true;
+            this.queue.clear();
+        }
+    }
+
+    /**
+     * Adds the record of a tile to a buffer, growing the buffer if it has to.
+     *
+     * @param buffer The buffer.
+     * @param tile The tile.
+     * @param crc The checksum to use.
+     *
+     * @return The buffer (a bigger one if it had to grow).
+     */
+    private static ByteBuffer putRecord(ByteBuffer buffer, CommittedTile tile, CRC32 crc)
+    {
+        String name = (tile.tile.getOwner() == null) ? "" : tile.tile.getOwner();
+        byte[] owner = name.getBytes(StandardCharsets.UTF_8);
+        if(owner.length > 0xFFFF)
+            owner = Arrays.copyOf(owner, 0xFFFF);
+        int length = Long.BYTES + Integer.BYTES * 2 + 1 + Long.BYTES + Short.BYTES + owner.length;
+
+        if(buffer.remaining() < Integer.BYTES * 2 + length)
+        {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length + 8));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+
+        buffer.putInt(length);
+        int start = buffer.position();
+        buffer.putLong(tile.sequence);
+        buffer.putInt(tile.tile.getRow());
+        buffer.putInt(tile.tile.getCol());
+        buffer.put((byte) tile.tile.getColor().getNumber());
+        buffer.putLong(tile.tile.getTime());
+        buffer.putShort((short) owner.length);
+        buffer.put(owner);
+        crc.reset();
+        crc.update(buffer.array(), start, length);
+        buffer.putInt((int) crc.getValue());
+        return buffer;
+    }
+
+    /**
+     * Creates a new segment and writes its header.
+     *
+     * @param firstSequence A sequence number past every tile written so far, which the segment is named after.
+     *
+     * @throws IOException If the segment can't be created.
+     */
+    private void openSegment(long firstSequence) throws IOException
+    {
+        File file = new File(this.directory, String.format("journal-%020d.wal", firstSequence));
+        this.segmentFile = file;
+        this.segmentLastSequence = 0;
+        // an empty segment left by an earlier start may have the same name, and it is about to be written again
+        this.segmentLastSequences.remove(file);
+        this.segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 3);
+        header.putInt(MAGIC).putInt(VERSION).putInt(this.dim).flip();
+        while(header.hasRemaining())
+            this.segment.write(header);
+        this.segment.force(true);
+    }
+
+    /**
+     * Gets the segments of the journal, oldest first.
+     *
+     * @return The segment files.
+     */
+    private File[] segments()
+    {
+        File[] files = this.directory.listFiles((dir, name) -> name.startsWith("journal-") && name.endsWith(".wal"));
+        if(files == null)
+            return new File[0];
+        // the sequence numbers are zero padded, so the names sort in order
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,352 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The NetworkServer's log, written by a thread of its own so that logging never waits on the disk or the terminal.
+ *
+ * Events go into a ring buffer of slots that are all made up front. Logging claims the next slot without a lock,
+ * fills in its fields (the message, or for a tile request just the user and the tile) and publishes it; that is all
+ * the logging thread ever does, so it costs no more than a few field writes. The writer thread turns whatever has been
+ * published into lines and writes them as one batch, formatting the time stamp only once per second. If the writer
+ * falls a whole buffer behind, events are dropped (and counted) rather than making anyone wait.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class PlaceLogger
+{
+    /**
+     * The number of slots in the ring buffer, rounded up to a power of two. (Set with -Dplace.logBuffer=N.)
+     */
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2,
+            Integer.getInteger("place.logBuffer", 16384) - 1)) << 1;
+
+    /**
+     * The longest the writer sleeps when there is nothing to write, in nanoseconds.
+     */
+    private static final long IDLE_NANOS = 1_000_000;
+
+    /**
+     * A message logged to the log file and standard output.
+     */
+    private static final int INFO = 0;
+
+    /**
+     * A message logged to the log file and standard error, as an alert.
+     */
+    private static final int ALERT = 1;
+
+    /**
+     * A message logged to the log file only.
+     */
+    private static final int SILENT = 2;
+
+    /**
+     * A tile change request, logged to the log file only.
+     */
+    private static final int TILE_REQUEST = 3;
+
+    /**
+     * The log file.
+     */
+    private final PrintWriter log;
+
+    /**
+     * The header printed before every message shown in the terminal.
+     */
+    private final String header;
+
+    /**
+     * The slots of the ring buffer, the one for sequence number n at n % CAPACITY.
+     */
+    private final Event[] ring = new Event[CAPACITY];
+
+    /**
+     * The sequence number of the next slot to be claimed.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * The sequence number of the next slot the writer will read; every slot before it is free again.
+     */
+    private volatile long consumed;
+
+    /**
+     * The number of events dropped because the buffer was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * The thread that writes the events out.
+     */
+    private final Thread writer;
+
+    /**
+     * True once the logger has been closed; the writer writes what is left and stops.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates a logger and starts its writer.
+     *
+     * @param log The log file.
+     * @param header The header printed before every message shown in the terminal.
+     */
+    PlaceLogger(PrintWriter log, String header)
+    {
+        this.log = log;
+        this.header = header;
+        for(int i = 0; i < CAPACITY; ++i)
+            this.ring[i] = new Event(i - CAPACITY);
+        this.writer = new Thread(this::write, "PlaceLogger");
+        // never keeps a stopped server alive
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Logs a message to the log file and standard output.
+     *
+     * @param message The message.
+     */
+    void info(String message)
+    {
+        publish(INFO, message, null, null);
+    }
+
+    /**
+     * Logs a message to the log file and standard error, as an alert.
+     *
+     * @param message The message.
+     */
+    void alert(String message)
+    {
+        publish(ALERT, message, null, null);
+    }
+
+    /**
+     * Logs a message to the log file only.
+     *
+     * @param message The message.
+     */
+    void silent(String message)
+    {
+        publish(SILENT, message, null, null);
+    }
+
+    /**
+     * Logs a tile change request to the log file only. The line is only put together by the writer.
+     *
+     * @param username The user who sent the request.
+     * @param tile The tile they asked for.
+     */
+    void tileRequested(String username, PlaceTile tile)
+    {
+        publish(TILE_REQUEST, null, username, tile);
+    }
+
+    /**
+     * Writes out everything logged so far and stops the writer.
+     */
+    void close()
+    {
+        if(this.closed)
+            return;
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        try
+        {
+            this.writer.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Claims the next slot, fills it in and hands it to the writer.
+     *
+     * @param kind What kind of event it is.
+     * @param message The message (null for a tile request).
+     * @param username The user of a tile request.
+     * @param tile The tile of a tile request.
+     */
+    private void publish(int kind, String message, String username, PlaceTile tile)
+    {
+        long sequence;
+        do
+        {
+            sequence = this.claimed.get();
+            // the writer is a whole buffer behind, and logging never waits
+            if(sequence - this.consumed >= CAPACITY)
+            {
+                this.dropped.increment();
+                return;
+            }
+        }
+        while(!this.claimed.compareAndSet(sequence, sequence + 1));
+
+        Event event = this.ring[(int) sequence & (CAPACITY - 1)];
+        event.time = System.currentTimeMillis();
+        event.kind = kind;
+        event.message = message;
+        event.username = username;
+        event.tile = tile;
+        // the volatile write makes every field above visible to the writer along with it
+        event.sequence = sequence;
+    }
+
+    /**
+     * Writes the published events out a batch at a time until the logger is closed. Run by the writer thread.
+     */
+    private void write()
+    {
+        // only this thread ever formats, so neither the format nor the cached stamp needs a lock
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd-yyyy 'at' HH:mm:ss");
+        long stampSecond = Long.MIN_VALUE;
+        String stamp = "";
+        StringBuilder file = new StringBuilder();
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        String newLine = System.lineSeparator();
+        long next = 0;
+        long reportedDrops = 0;
+
+        while(true)
+        {
+            boolean closing = this.closed;
+            Event event = this.ring[(int) next & (CAPACITY - 1)];
+            if(event.sequence == next)
+            {
+                // the time stamp only changes once a second, so it is only formatted once a second
+                long second = event.time / 1000;
+                if(second != stampSecond)
+                {
+                    stampSecond = second;
+                    stamp = "[" + format.format(event.time) + "]: ";
+                }
+
+                file.append(stamp);
+                switch(event.kind)
+                {
+                    case INFO:
+                        out.append(this.header).append(event.message).append(newLine);
+                        file.append(event.message);
+                        break;
+                    case ALERT:
+                        err.append(this.header).append(event.message).append(newLine);
+                        file.append("ALERT! ").append(event.message);
+                        break;
+                    case SILENT:
+                        file.append(event.message);
+                        break;
+                    default:
+                        file.append(event.username).append(" requested to change a tile: ").append(event.tile);
+                        break;
+                }
+                file.append(newLine);
+
+                // lets go of the references and frees the slot
+                event.message = null;
+                event.username = null;
+                event.tile = null;
+                this.consumed = ++next;
+
+                // keeps batching until the buffer runs dry (or the batch gets big)
+                if(file.length() < 64 * 1024)
+                    continue;
+            }
+
+            long drops = this.dropped.sum();
+            if(drops != reportedDrops)
+            {
+                file.append(stamp).append("ALERT! ").append(drops - reportedDrops)
+                        .append(" log events were dropped; the log couldn't keep up.").append(newLine);
+                reportedDrops = drops;
+            }
+
+            if(file.length() > 0)
+            {
+                flush(out, System.out);
+                flush(err, System.err);
+                this.log.write(file.toString());
+                this.log.flush();
+                file.setLength(0);
+            }
+            else if(closing && this.claimed.get() == next)
+                return;
+            else
+                LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    /**
+     * Prints what has built up for a terminal stream in one go.
+     *
+     * @param lines The lines.
+     * @param stream The stream.
+     */
+    private static void flush(StringBuilder lines, PrintStream stream)
+    {
+        if(lines.length() == 0)
+            return;
+        stream.print(lines);
+        stream.flush();
+        lines.setLength(0);
+    }
+
+    /**
+     * A slot of the ring buffer.
+     */
+    private static class Event
+    {
+        /**
+         * The sequence number of the event in the slot; the slot is only read once this is the one the writer is
+         * waiting for.
+         */
+        volatile long sequence;
+
+        /**
+         * When the event was logged, in milliseconds.
+         */
+        long time;
+
+        /**
+         * What kind of event it is.
+         */
+        int kind;
+
+        /**
+         * The message (null for a tile request).
+         */
+        String message;
+
+        /**
+         * The user of a tile request.
+         */
+        String username;
+
+        /**
+         * The tile of a tile request.
+         */
+        PlaceTile tile;
+
+        /**
+         * Creates an empty slot.
+         *
+         * @param sequence A sequence number no event will ever have in this slot.
+         */
+        Event(long sequence)
+        {
+            this.sequence = sequence;
+        }
+    }
+}
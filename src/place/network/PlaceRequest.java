@@ -14,6 +14,11 @@ import java.io.Serializable;
  *      LOGIN: String<br>
  *      LOGIN_SUCCESS: String<br>
  *      TILE_CHANGED: Tile object<br>
+ *      TILE_CHANGES: Tile array<br>
+ *      BOARD_CHUNK: BoardChunk object<br>
+ *      ACK: Long (the sequence number the tile was committed with)<br>
+ *      NACK: String (why the tile was refused)<br>
+ *      SUBSCRIBE: BoardRegion array<br>
  *
  * @author Sean Strout @ RIT CS
  */
@@ -61,13 +66,55 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          * The clients should update their view of the board each time
          * a tile change arrives.
          */
-        TILE_CHANGED
+        TILE_CHANGED,
+
+        /**
+         * Used by the place.server to send every tile that changed during one
+         * tick at once.  It will contain an array of Tile objects, at most one
+         * per position.  The clients should apply the whole batch before
+         * updating their view.  (New types go at the end: the binary format
+         * sends a type as its position in this list.)
+         */
+        TILE_CHANGES,
+
+        /**
+         * Used by the place.server to send a binary place.client the board one
+         * region at a time, in place of a BOARD.  It will contain a BoardChunk.
+         * The clients can draw every chunk as soon as it arrives.
+         */
+        BOARD_CHUNK,
+
+        /**
+         * Used by the place.server to tell a place.client that the CHANGE_TILE
+         * with the request's id was accepted.  It will contain the sequence
+         * number the tile was committed with.  Only sent when the CHANGE_TILE
+         * had an id.
+         */
+        ACK,
+
+        /**
+         * Used by the place.server to tell a place.client that the CHANGE_TILE
+         * with the request's id was refused (it came too soon).  It will contain
+         * the reason.  Only sent when the CHANGE_TILE had an id.
+         */
+        NACK,
+
+        /**
+         * Used by the place.client to tell the place.server which parts of the
+         * board it can see.  It will contain an array of BoardRegions; from then
+         * on the place.client is only sent the tile changes inside them (after
+         * the board of any part it couldn't see before).  An empty array goes
+         * back to every tile change.
+         */
+        SUBSCRIBE
     }
 
     /** The request type */
     private RequestType type;
     /** The data associated with the request */
     private E data;
+    /** The id a place.client gave a CHANGE_TILE, echoed back in its ACK or NACK (0 for none) */
+    private long id;
 
     /**
      * Create a new request.
@@ -76,8 +123,21 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
      * @param data the data
      */
     public PlaceRequest(RequestType type, E data) {
+        this(type, data, 0);
+    }
+
+    /**
+     * Create a new request with an id, for a CHANGE_TILE that wants an ACK or
+     * NACK, or for the ACK or NACK itself.
+     *
+     * @param type request type
+     * @param data the data
+     * @param id the id (0 for none)
+     */
+    public PlaceRequest(RequestType type, E data, long id) {
         this.type = type;
         this.data = data;
+        this.id = id;
     }
 
     /**
@@ -94,6 +154,13 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
      */
     public E getData() { return data; }
 
+    /**
+     * Get the id of the request.
+     *
+     * @return the id, or 0 if it has none
+     */
+    public long getId() { return id; }
+
     /**
      * Utility method for debugging only.
      *
@@ -104,6 +171,7 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
         return "PlaceRequest{" +
                 "type=" + type +
                 ", data=" + data +
+                ((id != 0) ? ", id=" + id : "") +
                 '}';
     }
 }
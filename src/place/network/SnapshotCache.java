@@ -0,0 +1,387 @@
+package place.network;
+
+import place.PlaceBoard;
+import place.PlaceTile;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A recent snapshot of the board, already encoded, that every joining user is sent instead of a board of their own.
+ *
+ * The snapshot is a copy of the board as of some sequence number, cut into BoardChunks that are encoded (and
+ * compressed) once and then written as is to every binary user who joins. Everything committed since the snapshot is
+ * kept in a change log; a joining user is sent the snapshot followed by the latest of those changes. Once the log
+ * holds more than a threshold of changes, a fresh snapshot is built on a thread of its own and the log is trimmed.
+ * Only the chunks that changed since the last snapshot are encoded again; the rest are carried over as they were.
+ *
+ * The NetworkServer's board locks keep it all consistent: changes are recorded while holding the lock of their
+ * region, and the snapshot is read, replaced and trimmed only while holding every lock. A new snapshot starts as a
+ * copy of the last one (which never changes, so no lock is needed) and only the chunks that changed since are copied
+ * over from the board, each holding just the locks of its own regions. Such a copy is not a cut of the board at one
+ * sequence number: a chunk copied late may hold tiles committed after the snapshot's. Those tiles are still in the
+ * change log, so the snapshot followed by its changes always comes out as the board.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class SnapshotCache
+{
+    /**
+     * The board the snapshots are copies of.
+     */
+    private final PlaceBoard board;
+
+    /**
+     * The NetworkServer's sequence number of the last tile committed.
+     */
+    private final AtomicLong sequence;
+
+    /**
+     * The locks that guard the board.
+     */
+    private final BoardStripes boardLocks;
+
+    /**
+     * The number of changes recorded since the snapshot that makes it worth building a new one.
+     */
+    private final int threshold;
+
+    /**
+     * The thread the snapshots are built on.
+     */
+    private final ExecutorService builder;
+
+    /**
+     * The latest snapshot.
+     */
+    private volatile Snapshot current;
+
+    /**
+     * Every tile committed since the snapshot (possibly a few from before it, which are skipped).
+     */
+    private final Queue<CommittedTile> changes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of tiles in changes. Kept on the side since ConcurrentLinkedQueue.size() walks the whole queue.
+     */
+    private final AtomicInteger changeCount = new AtomicInteger();
+
+    /**
+     * Which chunks had a tile committed since they were last copied. Only set while holding the lock of the tile's
+     * region and only read and cleared while holding the locks of every region of the chunk, which is what makes a
+     * plain array safe.
+     */
+    private final boolean[] dirty;
+
+    /**
+     * True while a new snapshot is being built.
+     */
+    private final AtomicBoolean building = new AtomicBoolean();
+
+    /**
+     * The time every snapshot took to build, copying and encoding included.
+     */
+    private final LatencyHistogram buildTimes = new LatencyHistogram();
+
+    /**
+     * The longest time every snapshot held board locks to copy (part of) the board, which is how long it held up the
+     * commits in those regions.
+     */
+    private final LatencyHistogram copyTimes = new LatencyHistogram();
+
+    /**
+     * Creates the cache, with a snapshot of the board as it is now.
+     *
+     * @param board The board the snapshots are copies of.
+     * @param sequence The NetworkServer's sequence number of the last tile committed.
+     * @param boardLocks The locks that guard the board.
+     * @param threshold The number of changes since the snapshot that makes it worth building a new one.
+     */
+    SnapshotCache(PlaceBoard board, AtomicLong sequence, BoardStripes boardLocks, int threshold)
+    {
+        this(board, sequence, boardLocks, threshold, null, null);
+    }
+
+    /**
+     * Creates the cache, with a snapshot of the board as it is now that reuses the frames of a checkpoint wherever
+     * the board hasn't changed since it was written.
+     *
+     * @param board The board the snapshots are copies of.
+     * @param sequence The NetworkServer's sequence number of the last tile committed.
+     * @param boardLocks The locks that guard the board.
+     * @param threshold The number of changes since the snapshot that makes it worth building a new one.
+     * @param checkpoint The checkpoint the board was loaded from (null to encode every chunk).
+     * @param changed Which chunks had a tile replayed on top of the checkpoint (null if there is no checkpoint).
+     */
+    SnapshotCache(PlaceBoard board, AtomicLong sequence, BoardStripes boardLocks, int threshold,
+                  BoardCheckpoints.Checkpoint checkpoint, boolean[] changed)
+    {
+        this.board = board;
+        this.sequence = sequence;
+        this.boardLocks = boardLocks;
+        this.threshold = Math.max(1, threshold);
+        this.dirty = new boolean[BoardChunk.count(board.DIM)];
+        this.builder = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceSnapshot");
+            // never keeps a stopped server alive
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<BoardChunk> restored = null;
+        if(checkpoint != null)
+        {
+            // the checkpoint's frames are served as they are (straight out of the mapped file)
+            restored = new ArrayList<>(checkpoint.frames.size());
+            for(int index = 0; index < checkpoint.frames.size(); ++index)
+            {
+                BoardChunk chunk = new BoardChunk(board, checkpoint.sequence, index);
+                chunk.setFrame(checkpoint.frames.get(index));
+                restored.add(chunk);
+            }
+            System.arraycopy(changed, 0, this.dirty, 0, this.dirty.length);
+        }
+        rebuild(restored);
+    }
+
+    /**
+     * Records a committed tile. Called while holding the lock of the tile's region.
+     *
+     * @param sequence The sequence number the tile was committed with.
+     * @param tile The tile.
+     */
+    void record(long sequence, PlaceTile tile)
+    {
+        this.changes.add(new CommittedTile(sequence, tile));
+        this.dirty[BoardChunk.indexOf(this.board.DIM, tile.getRow(), tile.getCol())] = true;
+        // one rebuild at a time; the next commit after it tries again if the log is still too long
+        if(this.changeCount.incrementAndGet() >= this.threshold && this.building.compareAndSet(false, true))
+            this.builder.execute(this::rebuildInBackground);
+    }
+
+    /**
+     * Gets the latest snapshot. Must be called while holding every board lock when it goes along with since; the
+     * snapshot itself never changes, so a checkpoint can take it without any lock.
+     *
+     * @return The snapshot.
+     */
+    Snapshot current()
+    {
+        return this.current;
+    }
+
+    /**
+     * Gets the time every snapshot took to build.
+     *
+     * @return The histogram of the build times.
+     */
+    LatencyHistogram getBuildTimes()
+    {
+        return this.buildTimes;
+    }
+
+    /**
+     * Gets the longest time every snapshot held board locks to copy (part of) the board.
+     *
+     * @return The histogram of the copy times.
+     */
+    LatencyHistogram getCopyTimes()
+    {
+        return this.copyTimes;
+    }
+
+    /**
+     * Gets the latest of every change made after a snapshot. Must be called while holding every board lock, so no
+     * commit is halfway done and the log isn't being trimmed.
+     *
+     * @param snapshot The snapshot.
+     *
+     * @return The latest tile of every cell that changed since the snapshot, oldest first.
+     */
+    PlaceTile[] since(Snapshot snapshot)
+    {
+        List<CommittedTile> newer = new ArrayList<>(this.changeCount.get());
+        for(CommittedTile change : this.changes)
+            if(change.sequence > snapshot.sequence)
+                newer.add(change);
+        return CommittedTile.latest(newer);
+    }
+
+    /**
+     * Builds a new snapshot off the commit path, letting the next one be started once it is done.
+     */
+    private void rebuildInBackground()
+    {
+        try
+        {
+            rebuild(this.current.chunks);
+        }
+        catch(RuntimeException e)
+        {
+            // the old snapshot and a longer log still work; the next commit will try again
+            e.printStackTrace();
+        }
+        finally
+        {
+            this.building.set(false);
+        }
+    }
+
+    /**
+     * Builds a snapshot of the board as it is now and makes it the current one.
+     *
+     * @param previous The chunks of the snapshot before it, which are carried over unless they changed (null to
+     *                 encode every chunk).
+     */
+    private void rebuild(List<BoardChunk> previous)
+    {
+        // only the copy is made holding the locks; the encoding, which is most of the work, is not
+        long started = System.nanoTime();
+        Snapshot last = this.current;
+        PlaceBoard copy;
+        long copied;
+        boolean[] changed;
+        if(last == null)
+        {
+            // the first snapshot is made before anyone can place a tile, so copying all of it holds nobody up
+            this.boardLocks.lockAll();
+            long locked = System.nanoTime();
+            try
+            {
+                copy = new PlaceBoard(this.board);
+                copied = this.sequence.get();
+                changed = this.dirty.clone();
+                Arrays.fill(this.dirty, false);
+            }
+            finally
+            {
+                this.boardLocks.unlockAll();
+            }
+            this.copyTimes.record(System.nanoTime() - locked);
+        }
+        else
+        {
+            // the last snapshot never changes, so it is copied without a lock
+            copy = new PlaceBoard(last.board);
+            // every tile numbered up to here is on the board by the time we get the locks of its region below
+            copied = this.sequence.get();
+            changed = new boolean[this.dirty.length];
+            long longest = 0;
+            for(int index = 0; index < changed.length; ++index)
+                longest = Math.max(longest, copyChunk(copy, index, changed));
+            this.copyTimes.record(longest);
+        }
+
+        List<BoardChunk> chunks = new ArrayList<>(changed.length);
+        PlaceCodec codec = new PlaceCodec();
+        for(int index = 0; index < changed.length; ++index)
+        {
+            // a chunk nobody touched encodes to what it did last time
+            if(previous != null && !changed[index])
+            {
+                chunks.add(previous.get(index));
+                continue;
+            }
+            BoardChunk chunk = new BoardChunk(copy, copied, index);
+            ByteBuffer frame = codec.encode(new PlaceRequest<>(PlaceRequest.RequestType.BOARD_CHUNK, chunk));
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            chunk.setFrame(ByteBuffer.wrap(bytes));
+            chunks.add(chunk);
+        }
+        Snapshot snapshot = new Snapshot(copy, copied, chunks);
+
+        this.boardLocks.lockAll();
+        try
+        {
+            this.current = snapshot;
+            // everything up to the snapshot is in it now
+            this.changes.removeIf(change -> change.sequence <= copied);
+            this.changeCount.set(this.changes.size());
+        }
+        finally
+        {
+            this.boardLocks.unlockAll();
+        }
+        this.buildTimes.record(System.nanoTime() - started);
+    }
+
+    /**
+     * Copies a chunk of the board onto a snapshot's copy if a tile was committed in it since it was last copied,
+     * holding only the locks of the chunk's regions.
+     *
+     * @param copy The snapshot's copy of the board.
+     * @param index The index of the chunk.
+     * @param changed Where it is noted that the chunk was copied.
+     *
+     * @return The time the locks were held.
+     */
+    private long copyChunk(PlaceBoard copy, int index, boolean[] changed)
+    {
+        BoardChunk chunk = new BoardChunk(copy, 0, index);
+        ReentrantLock[] locks = this.boardLocks.locksFor(chunk.getTop(), chunk.getLeft(), chunk.getHeight(),
+                chunk.getWidth());
+        for(ReentrantLock lock : locks)
+            lock.lock();
+        long locked = System.nanoTime();
+        try
+        {
+            if(!this.dirty[index])
+                return 0;
+            copy.copyTiles(this.board, chunk.getTop(), chunk.getLeft(), chunk.getHeight(), chunk.getWidth());
+            this.dirty[index] = false;
+            changed[index] = true;
+            return System.nanoTime() - locked;
+        }
+        finally
+        {
+            for(int i = locks.length - 1; i >= 0; --i)
+                locks[i].unlock();
+        }
+    }
+
+    /**
+     * A copy of the board as of a sequence number, along with its encoded chunks.
+     */
+    static class Snapshot
+    {
+        /**
+         * The copy of the board (never changed once the snapshot is made).
+         */
+        final PlaceBoard board;
+
+        /**
+         * The sequence number of the last tile committed before the copy was made.
+         */
+        final long sequence;
+
+        /**
+         * The chunks of the copy, each already encoded.
+         */
+        final List<BoardChunk> chunks;
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param board The copy of the board.
+         * @param sequence The sequence number of the last tile committed before the copy was made.
+         * @param chunks The chunks of the copy.
+         */
+        Snapshot(PlaceBoard board, long sequence, List<BoardChunk> chunks)
+        {
+            this.board = board;
+            this.sequence = sequence;
+            this.chunks = chunks;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The users who only want the changes in some regions of the board, indexed by where those regions are.
+ *
+ * The board is cut into the same cells as its BoardChunks, and every cell keeps the users with a region touching it.
+ * Routing a tick's batch then costs a look at the users of each tile's cell, instead of every region of every user;
+ * a user zoomed in on one corner is never even looked at for tiles anywhere else.
+ *
+ * Users who never subscribed (or went back to everything) aren't in the grid at all; they are sent every batch as it
+ * is. Only changed and routed between ticks (see TileBroadcaster.betweenTicks), so it needs no lock of its own.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class SubscriptionGrid
+{
+    /**
+     * The square dimension of the board.
+     */
+    private final int dim;
+
+    /**
+     * The subscribers with a region touching each cell, indexed like the board's chunks.
+     */
+    private final List<List<Subscriber>> cells;
+
+    /**
+     * Every subscriber, by username (concurrent so the metrics can count them from anywhere).
+     */
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * The subscribers routed at least one tile by the last call to route (reused every tick).
+     */
+    private final List<Subscriber> routed = new ArrayList<>();
+
+    /**
+     * Creates a grid with nobody subscribed.
+     *
+     * @param dim The square dimension of the board.
+     */
+    SubscriptionGrid(int dim)
+    {
+        this.dim = dim;
+        this.cells = new ArrayList<>(BoardChunk.count(dim));
+        for(int i = 0; i < BoardChunk.count(dim); ++i)
+            this.cells.add(new ArrayList<>());
+    }
+
+    /**
+     * Gets the number of users subscribed to regions.
+     *
+     * @return The number of users.
+     */
+    int size()
+    {
+        return this.subscribers.size();
+    }
+
+    /**
+     * Tells if a user is subscribed to regions (and so isn't sent every batch).
+     *
+     * @param username The user.
+     *
+     * @return A boolean. True if the user only gets the changes in their regions; false if they get all of them.
+     */
+    boolean isSubscribed(String username)
+    {
+        return this.subscribers.containsKey(username);
+    }
+
+    /**
+     * Replaces the regions a user is subscribed to. Regions are cut down to the board first; no regions at all (or
+     * one covering the whole board) puts the user back on every batch.
+     *
+     * @param username The user.
+     * @param queue The queue of the user, which routed batches are sent to.
+     * @param regions The regions the user wants the changes of.
+     *
+     * @return The chunks the user couldn't see until now and has to be sent to catch up (by chunk index), or null
+     *         if they already have all of it.
+     */
+    boolean[] subscribe(String username, OutboundQueue queue, BoardRegion[] regions)
+    {
+        List<BoardRegion> clipped = new ArrayList<>();
+        boolean everything = (regions.length == 0);
+        for(BoardRegion region : regions)
+        {
+            if(region.covers(this.dim))
+                everything = true;
+            BoardRegion inside = clip(region);
+            if(inside != null)
+                clipped.add(inside);
+        }
+
+        Subscriber old = remove(username);
+        BoardRegion[] now = everything ? null : clipped.toArray(new BoardRegion[0]);
+        if(now != null)
+        {
+            Subscriber subscriber = new Subscriber(username, queue, now);
+            this.subscribers.put(username, subscriber);
+            for(int cell = 0; cell < this.cells.size(); ++cell)
+            {
+                if(touches(now, cell))
+                    this.cells.get(cell).add(subscriber);
+            }
+        }
+
+        // anyone who could see everything already has every chunk
+        if(old == null)
+            return null;
+        boolean[] needed = new boolean[this.cells.size()];
+        boolean any = false;
+        for(int cell = 0; cell < needed.length; ++cell)
+        {
+            // a chunk they could only see some of is sent whole; the client just draws it again
+            needed[cell] = (now == null || touches(now, cell)) && !covered(old.regions, cell);
+            any |= needed[cell];
+        }
+        return any ? needed : null;
+    }
+
+    /**
+     * Takes a user out of the grid, so they are sent every batch again (or none, once they've logged out).
+     *
+     * @param username The user.
+     *
+     * @return What the user was subscribed to, or null if they weren't.
+     */
+    Subscriber remove(String username)
+    {
+        Subscriber subscriber = this.subscribers.remove(username);
+        if(subscriber == null)
+            return null;
+        for(int cell = 0; cell < this.cells.size(); ++cell)
+        {
+            if(touches(subscriber.regions, cell))
+                this.cells.get(cell).remove(subscriber);
+        }
+        return subscriber;
+    }
+
+    /**
+     * Hands each tile of a tick's batch to every subscriber with a region it is in.
+     *
+     * @param tiles The batch (at most one tile per position).
+     *
+     * @return The subscribers that were routed at least one tile, each holding its tiles until takeTiles is called.
+     *         The list is reused by the next call.
+     */
+    List<Subscriber> route(PlaceTile[] tiles)
+    {
+        this.routed.clear();
+        for(PlaceTile tile : tiles)
+        {
+            for(Subscriber subscriber : this.cells.get(BoardChunk.indexOf(this.dim, tile.getRow(), tile.getCol())))
+            {
+                if(!subscriber.wants(tile))
+                    continue;
+                if(subscriber.tiles.isEmpty())
+                    this.routed.add(subscriber);
+                subscriber.tiles.add(tile);
+            }
+        }
+        return this.routed;
+    }
+
+    /**
+     * Cuts a region down to the part of it on the board.
+     *
+     * @param region The region.
+     *
+     * @return The part on the board, or null if none of it is.
+     */
+    private BoardRegion clip(BoardRegion region)
+    {
+        int bottom = Math.min(region.getBottom(), this.dim);
+        int right = Math.min(region.getRight(), this.dim);
+        // a region sent with Java serialization never went through the checks of its constructor
+        int top = Math.max(region.getTop(), 0);
+        int left = Math.max(region.getLeft(), 0);
+        if(top >= bottom || left >= right)
+            return null;
+        return new BoardRegion(top, left, bottom - top, right - left);
+    }
+
+    /**
+     * Tells if any of some regions has a tile in a cell.
+     *
+     * @param regions The regions.
+     * @param cell The index of the cell.
+     *
+     * @return A boolean. True if a region touches the cell; false otherwise.
+     */
+    private boolean touches(BoardRegion[] regions, int cell)
+    {
+        BoardRegion bounds = bounds(cell);
+        for(BoardRegion region : regions)
+        {
+            if(region.getTop() < bounds.getBottom() && bounds.getTop() < region.getBottom() &&
+                    region.getLeft() < bounds.getRight() && bounds.getLeft() < region.getRight())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells if one of some regions has every tile of a cell.
+     *
+     * @param regions The regions.
+     * @param cell The index of the cell.
+     *
+     * @return A boolean. True if a single region covers the whole cell; false otherwise.
+     */
+    private boolean covered(BoardRegion[] regions, int cell)
+    {
+        BoardRegion bounds = bounds(cell);
+        for(BoardRegion region : regions)
+        {
+            if(region.getTop() <= bounds.getTop() && region.getLeft() <= bounds.getLeft() &&
+                    region.getBottom() >= bounds.getBottom() && region.getRight() >= bounds.getRight())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the tiles of a cell as a region.
+     *
+     * @param cell The index of the cell.
+     *
+     * @return The region (cut down to the board at its edges).
+     */
+    private BoardRegion bounds(int cell)
+    {
+        int across = (this.dim + BoardChunk.SIZE - 1) / BoardChunk.SIZE;
+        int top = cell / across * BoardChunk.SIZE;
+        int left = cell % across * BoardChunk.SIZE;
+        return new BoardRegion(top, left, Math.min(BoardChunk.SIZE, this.dim - top),
+                Math.min(BoardChunk.SIZE, this.dim - left));
+    }
+
+    /**
+     * A user subscribed to regions of the board.
+     */
+    static class Subscriber
+    {
+        /**
+         * The username of the user.
+         */
+        final String username;
+
+        /**
+         * The queue routed batches are sent to.
+         */
+        final OutboundQueue queue;
+
+        /**
+         * The regions the user wants the changes of (all of them on the board).
+         */
+        private final BoardRegion[] regions;
+
+        /**
+         * The tiles routed to the user this tick.
+         */
+        private final List<PlaceTile> tiles = new ArrayList<>();
+
+        /**
+         * Creates a subscriber.
+         *
+         * @param username The username of the user.
+         * @param queue The queue routed batches are sent to.
+         * @param regions The regions the user wants the changes of.
+         */
+        private Subscriber(String username, OutboundQueue queue, BoardRegion[] regions)
+        {
+            this.username = username;
+            this.queue = queue;
+            this.regions = regions;
+        }
+
+        /**
+         * Tells if the user wants a tile.
+         *
+         * @param tile The tile.
+         *
+         * @return A boolean. True if the tile is in one of the user's regions; false otherwise.
+         */
+        private boolean wants(PlaceTile tile)
+        {
+            for(BoardRegion region : this.regions)
+            {
+                if(region.contains(tile.getRow(), tile.getCol()))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Takes the tiles routed to the user this tick, leaving none.
+         *
+         * @return The tiles.
+         */
+        PlaceTile[] takeTiles()
+        {
+            PlaceTile[] taken = this.tiles.toArray(new PlaceTile[0]);
+            this.tiles.clear();
+            return taken;
+        }
+    }
+}
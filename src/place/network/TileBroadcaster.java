@@ -0,0 +1,137 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects the tiles the NetworkServer accepts and hands them out a tick at a time.
+ *
+ * Every tick, the tiles accepted since the last one become a single batch with at most one tile per cell (the
+ * latest). A bot hammering one spot costs everybody one tile per tick instead of one frame per placement.
+ *
+ * Tiles are added from many threads at once without any shared lock; the sequence number every tile was committed
+ * with decides which tile of a cell is the latest and the order of the batch.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class TileBroadcaster
+{
+    /**
+     * The tiles accepted since the last tick, the latest one of every cell (keyed by its row and column).
+     */
+    private final Map<Long, CommittedTile> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Held while a tick's batch is taken and handed to the sink, so nothing run by betweenTicks ever sees half a tick.
+     */
+    private final Object tickLock = new Object();
+
+    /**
+     * Where each tick's batch goes.
+     */
+    private final Consumer<PlaceTile[]> sink;
+
+    /**
+     * The thread the ticks run on.
+     */
+    private final ScheduledExecutorService ticker;
+
+    /**
+     * Creates a broadcaster and starts ticking.
+     *
+     * @param tickRate The number of ticks per second.
+     * @param sink Where each tick's batch goes (only called when the batch isn't empty).
+     */
+    TileBroadcaster(int tickRate, Consumer<PlaceTile[]> sink)
+    {
+        this.sink = sink;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceBroadcaster");
+            // never keeps a stopped server alive
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = TimeUnit.SECONDS.toNanos(1) / Math.max(1, tickRate);
+        this.ticker.scheduleAtFixedRate(this::tick, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Adds an accepted tile to the current tick, replacing any earlier tile of the same cell.
+     *
+     * @param sequence The sequence number the tile was committed with.
+     * @param tile The tile.
+     */
+    void add(long sequence, PlaceTile tile)
+    {
+        // keeps whichever of the two was committed last
+        CommittedTile committed = new CommittedTile(sequence, tile);
+        this.pending.merge(committed.cell(), committed,
+                (waiting, added) -> (added.sequence > waiting.sequence) ? added : waiting);
+    }
+
+    /**
+     * Takes the tiles of the current tick, starting the next one.
+     *
+     * @return The tiles in the order they were committed, or null if there are none.
+     */
+    private PlaceTile[] take()
+    {
+        if(this.pending.isEmpty())
+            return null;
+        // every cell is taken out on its own; a tile added meanwhile lands in this tick or the next, never in neither
+        List<CommittedTile> changes = new ArrayList<>(this.pending.size());
+        for(Long cell : this.pending.keySet())
+        {
+            CommittedTile change = this.pending.remove(cell);
+            if(change != null)
+                changes.add(change);
+        }
+        return CommittedTile.inOrder(changes);
+    }
+
+    /**
+     * Runs a task between two ticks: no batch is taken from the moment it starts until it is done, and the last batch
+     * taken before it has been handed to the sink in full.
+     *
+     * A user who joins (or is resynced) here can be sent the board as it is right now and then every later batch,
+     * without an earlier batch that was already on its way slipping in behind their board.
+     *
+     * @param task The task.
+     */
+    void betweenTicks(Runnable task)
+    {
+        synchronized(this.tickLock)
+        {
+            task.run();
+        }
+    }
+
+    /**
+     * Ends the current tick and passes its batch on.
+     */
+    private void tick()
+    {
+        try
+        {
+            synchronized(this.tickLock)
+            {
+                PlaceTile[] tiles = take();
+                if(tiles != null)
+                    this.sink.accept(tiles);
+            }
+        }
+        catch(RuntimeException e)
+        {
+            // an exception would cancel every later tick; losing one batch is the lesser evil
+            e.printStackTrace();
+        }
+    }
+}
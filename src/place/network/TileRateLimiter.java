@@ -0,0 +1,365 @@
+package place.network;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how fast tiles may be placed, by every user and by every host, with a token bucket each.
+ *
+ * A bucket holds up to a burst of tokens and refills at a steady rate; every tile takes a token from the bucket of
+ * its user and from the bucket of its host, and is refused if either is empty. A bucket is kept as a single number,
+ * the System.nanoTime() at which it will be full again, so taking a token is one compare-and-set: there are no timers,
+ * no threads and no locks, and two tiles racing for the last token can never both get it.
+ *
+ * A refused tile can also cost a penalty, pushing the bucket that refused it further into the future, so a client
+ * flooding the server stays locked out for as long as it keeps flooding.
+ *
+ * A full bucket is no different from a new one, so buckets that have been full for a while are swept away, every so
+ * often, by whichever tile happens to come along when a sweep is due. A swept bucket is marked as such before it is
+ * removed, so a tile that was about to take from it looks up a new one instead of taking a token nobody counts.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class TileRateLimiter
+{
+    /**
+     * The number of tiles a user may place in a row before they have to wait for the bucket to refill.
+     * (Set with -Dplace.userBurst=N.)
+     */
+    private static final int USER_BURST = Integer.getInteger("place.userBurst", 1);
+
+    /**
+     * The number of tokens a user's bucket refills by every second. (Set with -Dplace.userRate=N; the default is the
+     * old cool down of one tile every 500ms.)
+     */
+    private static final double USER_RATE = Double.parseDouble(System.getProperty("place.userRate", "2"));
+
+    /**
+     * The number of tiles all of the users of one host may place in a row. (Set with -Dplace.hostBurst=N; by default
+     * it is what every connection a host may have could place in a row.)
+     */
+    private static final Integer HOST_BURST = Integer.getInteger("place.hostBurst");
+
+    /**
+     * The number of tokens a host's bucket refills by every second. (Set with -Dplace.hostRate=N; by default it is
+     * what every connection a host may have could place in a second.)
+     */
+    private static final String HOST_RATE = System.getProperty("place.hostRate");
+
+    /**
+     * The time a refused tile adds to the wait of the bucket that refused it, in milliseconds.
+     * (Set with -Dplace.ratePenaltyMillis=N.)
+     */
+    private static final long PENALTY_MILLIS = Long.getLong("place.ratePenaltyMillis", 0);
+
+    /**
+     * The time between sweeps, and how long a bucket has to have been full to be swept, in milliseconds.
+     * (Set with -Dplace.rateSweepMillis=N.)
+     */
+    private static final long SWEEP_MILLIS = Long.getLong("place.rateSweepMillis", 60_000);
+
+    /**
+     * The limits of a user.
+     */
+    private final Limit userLimit;
+
+    /**
+     * The limits of a host.
+     */
+    private final Limit hostLimit;
+
+    /**
+     * The bucket of every user who placed a tile recently.
+     */
+    private final Map<String, AtomicLong> users = new ConcurrentHashMap<>();
+
+    /**
+     * The bucket of every host that placed a tile recently.
+     */
+    private final Map<InetAddress, AtomicLong> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * The System.nanoTime() at which the next sweep is due.
+     */
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_MILLIS * 1_000_000L);
+
+    /**
+     * Creates a rate limiter with the limits set on the command line.
+     *
+     * @param hostConnections The most connections a single host may have (what the host limits default to).
+     */
+    TileRateLimiter(int hostConnections)
+    {
+        this(new Limit(USER_BURST, USER_RATE, PENALTY_MILLIS),
+                new Limit((HOST_BURST != null) ? HOST_BURST : USER_BURST * hostConnections,
+                        (HOST_RATE != null) ? Double.parseDouble(HOST_RATE) : USER_RATE * hostConnections,
+                        PENALTY_MILLIS));
+    }
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param userLimit The limits of a user.
+     * @param hostLimit The limits of a host.
+     */
+    TileRateLimiter(Limit userLimit, Limit hostLimit)
+    {
+        this.userLimit = userLimit;
+        this.hostLimit = hostLimit;
+    }
+
+    /**
+     * Gets the limit of a single user, as set on the command line, without any penalty. A client uses it to predict
+     * when the server will take its next tile if the server never told it what the limit is.
+     *
+     * @return The limit.
+     */
+    static Limit userLimit()
+    {
+        return new Limit(USER_BURST, USER_RATE, 0);
+    }
+
+    /**
+     * Gets the number of tiles a user may place in a row, as set on the command line. The server tells every user at
+     * login.
+     *
+     * @return The burst.
+     */
+    static int userBurst()
+    {
+        return USER_BURST;
+    }
+
+    /**
+     * Gets the number of tokens a user's bucket refills by every second, as set on the command line. The server tells
+     * every user at login.
+     *
+     * @return The rate.
+     */
+    static double userRate()
+    {
+        return USER_RATE;
+    }
+
+    /**
+     * Takes a token from the bucket of a user and of their host.
+     *
+     * @param username The user placing a tile.
+     * @param location Where they are connecting from.
+     *
+     * @return A boolean. True if the tile may be placed; false if either bucket is empty (and neither was taken from).
+     */
+    boolean tryAcquire(String username, InetAddress location)
+    {
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        AtomicLong user = take(this.users, username, this.userLimit, now);
+        if(user == null)
+            return false;
+        if(take(this.hosts, location, this.hostLimit, now) == null)
+        {
+            // the user's token goes back, the tile was never placed
+            this.userLimit.giveBack(user);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the buckets of a user who left (and their host, if it has no one else connected) if they are full
+     * again, since a full bucket is no different from a new one. Leaving and coming back can't get anyone a token
+     * sooner; buckets that aren't full yet are left for a sweep.
+     *
+     * @param username The user who left.
+     * @param location Where they were connecting from.
+     * @param hostGone True if nobody else is connected from the same host.
+     */
+    void forget(String username, InetAddress location, boolean hostGone)
+    {
+        long now = System.nanoTime();
+        remove(this.users, username, now, 0);
+        if(hostGone)
+            remove(this.hosts, location, now, 0);
+    }
+
+    /**
+     * Takes a token from a bucket, making the bucket if there is none (or if the one there was just swept).
+     *
+     * @param buckets The buckets to take from.
+     * @param key Whose bucket it is.
+     * @param limit The limits of the bucket.
+     * @param now The current System.nanoTime().
+     * @param <K> The type of key of the buckets.
+     *
+     * @return The bucket the token was taken from, or null if it had none to give.
+     */
+    private static <K> AtomicLong take(Map<K, AtomicLong> buckets, K key, Limit limit, long now)
+    {
+        while(true)
+        {
+            AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+            if(limit.take(bucket, now))
+                return bucket;
+            if(!Limit.isSwept(bucket))
+                return null;
+            // swept away while we were looking at it, a new one (just as full) takes its place
+            buckets.remove(key, bucket);
+        }
+    }
+
+    /**
+     * Sweeps away every bucket that has been full for a while, if a sweep is due. Only one tile does the sweep.
+     *
+     * @param now The current System.nanoTime().
+     */
+    private void sweepIfDue(long now)
+    {
+        long due = this.nextSweep.get();
+        if(now - due < 0 || !this.nextSweep.compareAndSet(due, now + SWEEP_MILLIS * 1_000_000L))
+            return;
+        for(String username : this.users.keySet())
+            remove(this.users, username, now, SWEEP_MILLIS * 1_000_000L);
+        for(InetAddress location : this.hosts.keySet())
+            remove(this.hosts, location, now, SWEEP_MILLIS * 1_000_000L);
+    }
+
+    /**
+     * Removes a bucket if it has been full for long enough, marking it as swept first.
+     *
+     * @param buckets The buckets to remove it from.
+     * @param key Whose bucket it is.
+     * @param now The current System.nanoTime().
+     * @param idle How long the bucket has to have been full, in nanoseconds.
+     * @param <K> The type of key of the buckets.
+     */
+    private static <K> void remove(Map<K, AtomicLong> buckets, K key, long now, long idle)
+    {
+        AtomicLong bucket = buckets.get(key);
+        if(bucket != null && Limit.sweep(bucket, now, idle))
+            buckets.remove(key, bucket);
+    }
+
+    /**
+     * The burst, refill rate and penalty of a kind of bucket.
+     *
+     * A bucket is the time it will be full again. Each token is worth interval nanoseconds of that time, so a bucket
+     * has a token to give as long as it is no more than (burst - 1) intervals from full.
+     */
+    static class Limit
+    {
+        /**
+         * What a bucket is set to once it has been swept away. Nothing can be taken from it or given back to it.
+         */
+        private static final long SWEPT = Long.MIN_VALUE;
+
+        /**
+         * The time it takes to refill one token, in nanoseconds.
+         */
+        private final long interval;
+
+        /**
+         * How far in the future the time a bucket is full may be, while it still has a token to give.
+         */
+        private final long tolerance;
+
+        /**
+         * The time a refused tile adds to its bucket, in nanoseconds.
+         */
+        private final long penalty;
+
+        /**
+         * Creates a limit.
+         *
+         * @param burst The most tokens a bucket holds.
+         * @param rate The number of tokens a bucket refills by every second.
+         * @param penaltyMillis The time a refused tile adds to its bucket, in milliseconds.
+         */
+        Limit(int burst, double rate, long penaltyMillis)
+        {
+            this.interval = Math.max(1, (long) (1_000_000_000L / rate));
+            this.tolerance = this.interval * (Math.max(1, burst) - 1);
+            this.penalty = penaltyMillis * 1_000_000L;
+        }
+
+        /**
+         * Takes a token from a bucket, if it has one.
+         *
+         * @param bucket The bucket.
+         * @param now The current System.nanoTime().
+         *
+         * @return A boolean. True if a token was taken; false if the bucket is empty.
+         */
+        boolean take(AtomicLong bucket, long now)
+        {
+            while(true)
+            {
+                long full = bucket.get();
+                if(full == SWEPT)
+                    return false;
+                // compared as differences so they stay right even if nanoTime wraps around
+                if(full - now > this.tolerance)
+                {
+                    if(this.penalty > 0)
+                        bucket.getAndUpdate(later -> (later == SWEPT) ? later : later + this.penalty);
+                    return false;
+                }
+                // a bucket that has been full for a while is only full from now on
+                long next = ((full - now < 0) ? now : full) + this.interval;
+                if(bucket.compareAndSet(full, next))
+                    return true;
+            }
+        }
+
+        /**
+         * Gets how long it will be until a bucket has a token to give.
+         *
+         * @param bucket The bucket.
+         * @param now The current System.nanoTime().
+         *
+         * @return The wait in nanoseconds (0 if it has one now).
+         */
+        long waitFor(AtomicLong bucket, long now)
+        {
+            return Math.max(0, bucket.get() - now - this.tolerance);
+        }
+
+        /**
+         * Puts back a token that was taken but not used.
+         *
+         * @param bucket The bucket.
+         */
+        void giveBack(AtomicLong bucket)
+        {
+            bucket.getAndUpdate(full -> (full == SWEPT) ? full : full - this.interval);
+        }
+
+        /**
+         * Marks a bucket as swept if it has been full for long enough. Once marked, nothing can take a token from it.
+         *
+         * @param bucket The bucket.
+         * @param now The current System.nanoTime().
+         * @param idle How long the bucket has to have been full, in nanoseconds.
+         *
+         * @return A boolean. True if the bucket was swept; false otherwise.
+         */
+        static boolean sweep(AtomicLong bucket, long now, long idle)
+        {
+            long full = bucket.get();
+            return full != SWEPT && now - full >= idle && bucket.compareAndSet(full, SWEPT);
+        }
+
+        /**
+         * Tells if a bucket has been swept away.
+         *
+         * @param bucket The bucket.
+         *
+         * @return A boolean. True if the bucket was swept; false otherwise.
+         */
+        static boolean isSwept(AtomicLong bucket)
+        {
+            return bucket.get() == SWEPT;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package place.network;
+
+import place.PlaceTile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The tiles a NetworkClient wants to place, sent to the server by a thread of its own as soon as the server's rate
+ * limit will take them.
+ *
+ * The queue keeps a copy of the token bucket the server keeps for the user and only sends a tile once that bucket has
+ * a token for it (plus a small margin for the network), so no tile is sent just to be refused and none is dropped
+ * because it came too soon. With coalescing on, a tile for a cell that already has one waiting replaces it in place:
+ * the last one wins, and it goes out when the first one would have.
+ *
+ * The queue holds at most a capacity of tiles; offering more is refused. Whoever is producing tiles can instead ask to
+ * be called back once the queue has emptied (see whenEmpty), so they never have to guess how long to sleep.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class TileSendQueue
+{
+    /**
+     * The time added to every wait the bucket predicts, so a tile that happens to reach the server a little sooner
+     * than the one before it is still not too soon. (Set with -Dplace.sendMarginMillis=N.)
+     */
+    private static final long MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("place.sendMarginMillis", 10));
+
+    /**
+     * Where the tiles are sent.
+     */
+    interface Sender
+    {
+        /**
+         * Sends a tile to the server.
+         *
+         * @param tile The tile.
+         *
+         * @throws IOException If the connection is gone.
+         */
+        void send(PlaceTile tile) throws IOException;
+    }
+
+    /**
+     * Where the tiles are sent.
+     */
+    private final Sender sender;
+
+    /**
+     * The most tiles that may wait in the queue.
+     */
+    private final int capacity;
+
+    /**
+     * The limit the server holds the user to.
+     */
+    private final TileRateLimiter.Limit limit;
+
+    /**
+     * Our copy of the user's bucket on the server.
+     */
+    private final AtomicLong bucket = new AtomicLong(System.nanoTime());
+
+    /**
+     * The tiles waiting to be sent, oldest first. Keyed by cell when coalescing, otherwise by a number of their own.
+     */
+    private final LinkedHashMap<Long, PlaceTile> waiting = new LinkedHashMap<>();
+
+    /**
+     * The number the next tile is keyed by when not coalescing (negative, so it never clashes with a valid cell).
+     */
+    private long nextKey = -1;
+
+    /**
+     * Guards everything above.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a tile is added or the queue is closed.
+     */
+    private final Condition changed = this.lock.newCondition();
+
+    /**
+     * What to run once the queue is empty.
+     */
+    private final List<Runnable> onEmpty = new ArrayList<>();
+
+    /**
+     * True if a tile for a cell that already has one waiting replaces it.
+     */
+    private volatile boolean coalescing;
+
+    /**
+     * True once the queue is closed.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a queue and starts its sender thread.
+     *
+     * @param sender Where the tiles are sent.
+     * @param capacity The most tiles that may wait.
+     * @param coalescing True if a tile for a cell that already has one waiting replaces it.
+     * @param limit The limit the server holds the user to.
+     */
+    TileSendQueue(Sender sender, int capacity, boolean coalescing, TileRateLimiter.Limit limit)
+    {
+        this.sender = sender;
+        this.capacity = Math.max(1, capacity);
+        this.coalescing = coalescing;
+        this.limit = limit;
+        Thread thread = new Thread(this::run, "PlaceSender");
+        // never keeps a closed client alive
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Turns coalescing on or off (tiles already waiting stay as they are).
+     *
+     * @param coalescing True if a tile for a cell that already has one waiting replaces it.
+     */
+    void setCoalescing(boolean coalescing)
+    {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Adds a tile to the queue.
+     *
+     * @param tile The tile.
+     *
+     * @return A boolean. True if the tile will be sent; false if the queue is full (or closed).
+     */
+    boolean offer(PlaceTile tile)
+    {
+        this.lock.lock();
+        try
+        {
+            if(this.closed)
+                return false;
+            if(this.coalescing)
+            {
+                long cell = CommittedTile.cellOf(tile);
+                // the tile keeps the place of the one it replaces
+                if(this.waiting.containsKey(cell))
+                {
+                    this.waiting.put(cell, tile);
+                    return true;
+                }
+                if(this.waiting.size() >= this.capacity)
+                    return false;
+                this.waiting.put(cell, tile);
+            }
+            else
+            {
+                if(this.waiting.size() >= this.capacity)
+                    return false;
+                this.waiting.put(this.nextKey--, tile);
+            }
+            this.changed.signal();
+            return true;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a task once no tile is waiting in the queue (right away if none is). The task is run by the sender thread,
+     * so it mustn't block.
+     *
+     * @param task The task.
+     */
+    void whenEmpty(Runnable task)
+    {
+        this.lock.lock();
+        try
+        {
+            if(!this.waiting.isEmpty())
+            {
+                this.onEmpty.add(task);
+                return;
+            }
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+        task.run();
+    }
+
+    /**
+     * Gets the number of tiles waiting.
+     *
+     * @return The number of tiles.
+     */
+    int size()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.waiting.size();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the sender; tiles still waiting are thrown away, and whoever waits for the queue to empty is let go.
+     */
+    void close()
+    {
+        List<Runnable> emptied;
+        this.lock.lock();
+        try
+        {
+            this.closed = true;
+            this.waiting.clear();
+            this.changed.signal();
+            emptied = new ArrayList<>(this.onEmpty);
+            this.onEmpty.clear();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+        for(Runnable task : emptied)
+            task.run();
+    }
+
+    /**
+     * Sends every tile as soon as the bucket has a token for it, until the queue is closed. Run by the sender thread.
+     */
+    private void run()
+    {
+        try
+        {
+            while(true)
+            {
+                PlaceTile tile;
+                List<Runnable> emptied = null;
+                this.lock.lock();
+                try
+                {
+                    while(true)
+                    {
+                        if(this.closed)
+                            return;
+                        long wait = this.waiting.isEmpty() ? Long.MAX_VALUE :
+                                this.limit.waitFor(this.bucket, System.nanoTime());
+                        if(wait == 0)
+                            break;
+                        this.changed.awaitNanos(wait);
+                    }
+
+                    Iterator<PlaceTile> next = this.waiting.values().iterator();
+                    tile = next.next();
+                    next.remove();
+                    this.limit.take(this.bucket, System.nanoTime());
+                    // the next tile waits the margin on top of what the server's bucket needs
+                    this.bucket.addAndGet(MARGIN_NANOS);
+                    if(this.waiting.isEmpty() && !this.onEmpty.isEmpty())
+                    {
+                        emptied = new ArrayList<>(this.onEmpty);
+                        this.onEmpty.clear();
+                    }
+                }
+                finally
+                {
+                    this.lock.unlock();
+                }
+
+                this.sender.send(tile);
+                if(emptied != null)
+                    for(Runnable task : emptied)
+                        task.run();
+            }
+        }
+        catch(IOException | InterruptedException e)
+        {
+            // the connection is gone; the client notices on its own
+            close();
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package place.server;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+
+import place.network.NetworkServer;
+import place.network.PlaceCodec;
+import place.network.PlaceConnection;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+/**
+ * A non-blocking connection to a binary client, owned by a single SelectorLoop.
+ *
+ * Reads only ever happen on the selector thread. Writes can come from any thread: a frame is written straight to the
+ * socket when nothing is queued in front of it, and whatever the socket doesn't take is queued and written by the
+ * selector thread once the socket can take more.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class ChannelConnection implements PlaceConnection
+{
+    /**
+     * The size of the read buffer every connection starts with.
+     */
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    /**
+     * The largest frame a client may send us. Clients only ever send logins and tiles, so this is generous.
+     */
+    private static final int MAX_CLIENT_FRAME = 64 * 1024;
+
+    /**
+     * The types of request a client may send us. Anything else (boards, chunks, replies) is never decoded.
+     */
+    private static final EnumSet<RequestType> CLIENT_TYPES =
+            EnumSet.of(RequestType.LOGIN, RequestType.CHANGE_TILE, RequestType.SUBSCRIBE);
+
+    /**
+     * Every type of request, by the number the codec gives it.
+     */
+    private static final RequestType[] TYPES = RequestType.values();
+
+    /**
+     * The number of queued bytes past which writers are asked to back off until the socket has caught up.
+     */
+    private static final int HIGH_WATER = 64 * 1024;
+
+    /**
+     * The socket.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The loop that owns this connection.
+     */
+    private final SelectorLoop loop;
+
+    /**
+     * The NetworkServer the session talks to.
+     */
+    private final NetworkServer networkServer;
+
+    /**
+     * The codec which holds the owner dictionaries of this connection.
+     */
+    private final PlaceCodec codec = new PlaceCodec();
+
+    /**
+     * The frames (or the rest of a frame) that the socket hasn't taken yet.
+     */
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+    /**
+     * The number of bytes left in pending.
+     */
+    private int pendingBytes;
+
+    /**
+     * What to run once pending has been written out (set by a writer that was told to back off).
+     */
+    private Runnable resume;
+
+    /**
+     * Where the client is connecting from.
+     */
+    private final InetAddress location;
+
+    /**
+     * The key of this connection in the loop's selector.
+     */
+    private SelectionKey key;
+
+    /**
+     * The bytes read from the client that don't make up a whole frame yet. Always left in write mode.
+     */
+    private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * The session which handles requests; null until the client has sent the binary MAGIC.
+     */
+    private ClientSession session;
+
+    /**
+     * True once the connection should close as soon as everything pending has been written.
+     */
+    private boolean closing;
+
+    /**
+     * True once the connection has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a connection for a newly accepted socket.
+     *
+     * @param channel The socket (already non-blocking).
+     * @param loop The loop that owns the connection.
+     * @param networkServer The NetworkServer the session talks to.
+     */
+    ChannelConnection(SocketChannel channel, SelectorLoop loop, NetworkServer networkServer)
+    {
+        this.channel = channel;
+        this.loop = loop;
+        this.networkServer = networkServer;
+        this.location = channel.socket().getInetAddress();
+    }
+
+    /**
+     * Gets the socket.
+     *
+     * @return The socket.
+     */
+    SocketChannel getChannel()
+    {
+        return this.channel;
+    }
+
+    /**
+     * Gets where the client is connecting from.
+     *
+     * @return The client's address.
+     */
+    InetAddress getLocation()
+    {
+        return this.location;
+    }
+
+    /**
+     * Sets the key once the connection has been registered with its loop.
+     *
+     * @param key The key.
+     */
+    void setKey(SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    /**
+     * Takes the bytes that have been read but not handled yet. Used when the connection is handed off to a
+     * PlaceClientThread.
+     *
+     * @return The bytes.
+     */
+    byte[] takeUnread()
+    {
+        this.in.flip();
+        byte[] unread = new byte[this.in.remaining()];
+        this.in.get(unread);
+        this.in.clear();
+        return unread;
+    }
+
+    /**
+     * Reads whatever the socket has for us and handles every whole frame. Only called on the selector thread.
+     */
+    void read()
+    {
+        try
+        {
+            if(this.channel.read(this.in) < 0)
+            {
+                close();
+                return;
+            }
+
+            this.in.flip();
+
+            // the first four bytes tell us what the client speaks
+            if(this.session == null)
+            {
+                if(this.in.remaining() < Integer.BYTES)
+                {
+                    this.in.compact();
+                    return;
+                }
+                if(this.in.getInt(0) != PlaceCodec.MAGIC)
+                {
+                    // a Java serialization client, it needs a thread of its own
+                    this.in.compact();
+                    this.loop.handOff(this);
+                    return;
+                }
+                this.in.position(Integer.BYTES);
+                this.session = new ClientSession(this.networkServer, this, this.location);
+            }
+
+            while(!this.closing && this.in.remaining() >= PlaceCodec.HEADER_SIZE)
+            {
+                int type = this.in.get(this.in.position()) & 0xFF;
+                int length = this.in.getInt(this.in.position() + 1);
+                if(length < 0 || length > MAX_CLIENT_FRAME)
+                    throw new ProtocolException("Bad frame length " + length);
+                // a client has no business sending us what only the server sends, so we don't even decode it
+                if(type >= TYPES.length || !CLIENT_TYPES.contains(TYPES[type]))
+                    throw new ProtocolException("Clients don't send frames of type " + type);
+
+                // not all here yet, make sure it will fit once it is
+                if(this.in.remaining() < PlaceCodec.HEADER_SIZE + length)
+                {
+                    if(this.in.capacity() < PlaceCodec.HEADER_SIZE + length)
+                    {
+                        ByteBuffer bigger = ByteBuffer.allocate(PlaceCodec.HEADER_SIZE + length);
+                        bigger.put(this.in);
+                        bigger.flip();
+                        this.in = bigger;
+                    }
+                    break;
+                }
+
+                this.in.position(this.in.position() + PlaceCodec.HEADER_SIZE);
+                ByteBuffer payload = this.in.slice();
+                payload.limit(length);
+                this.in.position(this.in.position() + length);
+
+                // lets the session handle it, it tells us if we have to disconnect
+                if(!this.session.handle(this.codec.decode(type, payload)))
+                    closeWhenFlushed();
+            }
+
+            this.in.compact();
+        }
+        catch(IOException e)
+        {
+            // if we hit a IOException the client disconnected or sent us garbage
+            close();
+        }
+    }
+
+    /**
+     * Encodes a request and writes it to the client, queueing whatever the socket won't take right now.
+     *
+     * @param request The request to send.
+     *
+     * @throws IOException If the connection is closed.
+     */
+    @Override
+    public synchronized void write(PlaceRequest<?> request) throws IOException
+    {
+        if(this.closed)
+            throw new IOException("Connection closed");
+
+        ByteBuffer frame = this.codec.encode(request);
+
+        // nothing in front of us, try to get it out right now
+        if(this.pending.isEmpty())
+        {
+            this.channel.write(frame);
+            if(!frame.hasRemaining())
+                return;
+        }
+
+        // the codec reuses its buffer, so we keep a copy of what is left
+        ByteBuffer rest = ByteBuffer.allocate(frame.remaining());
+        rest.put(frame);
+        rest.flip();
+        this.pending.add(rest);
+        this.pendingBytes += rest.remaining();
+
+        if(this.pending.size() == 1)
+            this.loop.interestedInWrite(this.key);
+    }
+
+    /**
+     * Gets the version of the binary format agreed on with the client when it logged in.
+     *
+     * @return The version.
+     */
+    @Override
+    public int getVersion()
+    {
+        return this.codec.getVersion();
+    }
+
+    /**
+     * Tells if a write to the connection can block. It never does; writes are queued for the selector thread.
+     *
+     * @return False.
+     */
+    @Override
+    public boolean isBlocking()
+    {
+        return false;
+    }
+
+    /**
+     * Tells a writer to back off while more than HIGH_WATER bytes are still waiting for the socket.
+     *
+     * @param resume What to run once everything pending has been written.
+     *
+     * @return A boolean. True if the connection is backed up and will run resume later; false otherwise.
+     */
+    @Override
+    public synchronized boolean deferWhileBacklogged(Runnable resume)
+    {
+        if(this.closed || this.pendingBytes <= HIGH_WATER)
+            return false;
+        this.resume = resume;
+        return true;
+    }
+
+    /**
+     * Writes as much of the queue as the socket will take. Only called on the selector thread.
+     */
+    void flush()
+    {
+        boolean done;
+        Runnable resume;
+        try
+        {
+            synchronized(this)
+            {
+                while(!this.pending.isEmpty())
+                {
+                    ByteBuffer next = this.pending.peek();
+                    this.pendingBytes -= this.channel.write(next);
+                    if(next.hasRemaining())
+                        return;
+                    this.pending.poll();
+                }
+
+                // all caught up
+                this.key.interestOps(SelectionKey.OP_READ);
+                done = this.closing;
+                resume = this.resume;
+                this.resume = null;
+            }
+        }
+        catch(IOException e)
+        {
+            done = true;
+            resume = null;
+        }
+
+        // the writer that backed off can carry on (outside the lock, it will write to us again)
+        if(resume != null)
+            resume.run();
+
+        // closing logs the user out, which we don't do while holding on to the connection
+        if(done)
+            close();
+    }
+
+    /**
+     * Closes the connection once everything queued so far has been written (so error messages make it out).
+     */
+    private void closeWhenFlushed()
+    {
+        boolean done;
+        synchronized(this)
+        {
+            this.closing = true;
+            done = this.pending.isEmpty();
+        }
+        if(done)
+            close();
+    }
+
+    /**
+     * Closes the connection and logs the user out.
+     */
+    @Override
+    public void close()
+    {
+        synchronized(this)
+        {
+            if(this.closed)
+                return;
+            this.closed = true;
+            this.pending.clear();
+            this.pendingBytes = 0;
+            this.resume = null;
+        }
+
+        // logs user out from the server if they were allowed logged in
+        if(this.session != null)
+            this.session.close();
+
+        try
+        {
+            if(this.key != null)
+                this.key.cancel();
+            this.channel.close();
+        }
+        catch(IOException e)
+        {
+            // nothing more we can do
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package place.server;
+
+import java.io.IOException;
+
+import java.net.InetAddress;
+
+import place.PlaceTile;
+
+import place.network.BoardRegion;
+import place.network.NetworkServer;
+import place.network.PlaceConnection;
+import place.network.PlaceRequest;
+import place.network.PlaceRequest.RequestType;
+
+/**
+ * The server-side state of a single client: the LOGIN / CHANGE_TILE / SUBSCRIBE state machine that turns the client's requests
+ * into calls on the NetworkServer. It doesn't do any reading itself, so it is driven both by the selector loops and by
+ * the PlaceClientThreads of clients that speak Java serialization.
+ *
+ * @author Kevin Becker (kjb2503)
+ * @author Jason Streeter (jcs1738)
+ */
+class ClientSession
+{
+    /**
+     * Where the client is connecting from.
+     */
+    private final InetAddress location;
+
+    /**
+     * The connection requests are sent back to the client on.
+     */
+    private final PlaceConnection connection;
+
+    /**
+     * A link to the NetworkServer.
+     */
+    private final NetworkServer networkServer;
+
+    /**
+     * The String that is our username (null until the client has logged in).
+     */
+    private String username;
+
+    /**
+     * Creates the session of a newly connected client.
+     *
+     * @param networkServer The NetworkServer so we can communicate with it.
+     * @param connection The connection to the client.
+     * @param location Where the client is connecting from.
+     */
+    ClientSession(NetworkServer networkServer, PlaceConnection connection, InetAddress location)
+    {
+        this.networkServer = networkServer;
+        this.connection = connection;
+        this.location = location;
+    }
+
+    /**
+     * Handles a single request from the client.
+     *
+     * @param request The request the client sent.
+     *
+     * @return A boolean. True if the connection should be kept; false if it should be closed.
+     *
+     * @throws IOException If we can't reply to the client.
+     */
+    boolean handle(PlaceRequest<?> request) throws IOException
+    {
+        // determines the type of request we were sent
+        switch(request.getType())
+        {
+            case LOGIN:
+                // we should only receive this once, so we make sure username is still null (as it is in at start)
+                // so we don't make a mistake later on.
+                if(this.username == null)
+                {
+                    // set our username
+                    String usernameRequest = (String) request.getData();
+
+                    // attempts to login here, if valid, sets our username
+                    if(login(usernameRequest))
+                        this.username = usernameRequest;
+                    return true;
+                }
+                // log we have had a bad request from the user
+                return badRequest(RequestType.LOGIN.toString());
+            case CHANGE_TILE:
+                // a tile from someone who never logged in has no rate limits to count against
+                if(this.username == null)
+                    return badRequest(RequestType.CHANGE_TILE.toString());
+                PlaceTile tile = (PlaceTile) request.getData();
+                // tries to make a tileChange request
+                // if this client (and its host) are within their rate limits and the move requested is valid
+                // it gets sent
+                if(allowTile())
+                {
+                    if (tileChangeRequest(tile, request.getId()))
+                        return true;
+                    // sends a tile not valid request
+                    return badRequest("INVALID TILE");
+                }
+                // log our quick user (and tell them the tile was refused)
+                fastRequest(request.getId());
+                return true;
+            case SUBSCRIBE:
+                // only someone logged in is sent anything to subscribe to
+                if(this.username == null)
+                    return badRequest(RequestType.SUBSCRIBE.toString());
+                // a subscription that doesn't even look like one is a bad request
+                if(!subscribe(request.getData()))
+                    return badRequest("INVALID SUBSCRIPTION");
+                return true;
+            // we shouldn't ever receive these from the player... they are bad requests
+            case BOARD:
+                return badRequest(RequestType.BOARD.toString());
+            case ERROR:
+                return badRequest(RequestType.ERROR.toString());
+            case TILE_CHANGED:
+                return badRequest(RequestType.TILE_CHANGED.toString());
+            case LOGIN_SUCCESS:
+                return badRequest(RequestType.LOGIN_SUCCESS.toString());
+            default:
+                // if we get an unknown request send an error reporting it
+                return badRequest("UNKNOWN");
+        }
+    }
+
+    /**
+     * Requests the NetworkServer to log us in.
+     *
+     * @param usernameRequest The username that we want to have.
+     *
+     * @return A boolean. True if login was successful; false otherwise.
+     */
+    private boolean login(String usernameRequest)
+    {
+        // attempts to login to the server
+        return this.networkServer.login(usernameRequest, this.location, this.connection);
+    }
+
+    /**
+     * Asks the NetworkServer whether the user may place a tile now, taking it off their rate limits if so.
+     *
+     * @return A boolean. True if the user may send a PlaceTile; false if it is too soon.
+     */
+    private boolean allowTile()
+    {
+        return this.networkServer.allowTile(this.username, this.location);
+    }
+
+    /**
+     * If we receive a bad request from a client, we send a similar message for each of those, which we handle here.
+     *
+     * @param type The type of error that is run into for alerting user.
+     *
+     * @return Always false, the connection has to be closed.
+     *
+     * @throws IOException If somehow we manage to get an IOException.
+     */
+    private boolean badRequest(String type) throws IOException
+    {
+        // alert the user that they have sent us a bad request and that their connection is being terminated
+        this.networkServer.badRequest(this.username, type);
+
+        // terminate connection
+        return false;
+    }
+
+    /**
+     * Requests the NetworkServer change the tile that user wants to change.
+     *
+     * @param tile The PlaceTile that is being requested to change.
+     * @param id The id the client gave the request, to be acknowledged (0 for none).
+     */
+    private boolean tileChangeRequest(PlaceTile tile, long id)
+    {
+        // tells the networkServer we want to change a tile
+        return this.networkServer.tileChangeRequest(this.username, tile, id);
+    }
+
+    /**
+     * Requests the NetworkServer only send us the changes in the regions we asked for.
+     *
+     * @param regions The data of the SUBSCRIBE, which should be an array of BoardRegions.
+     *
+     * @return A boolean. True if we were subscribed; false if the request wasn't a valid subscription.
+     */
+    private boolean subscribe(Object regions)
+    {
+        return (regions instanceof BoardRegion[]) &&
+                this.networkServer.subscribe(this.username, this.connection, (BoardRegion[]) regions);
+    }
+
+    /**
+     * If a user sends a request too fast, we tell networkServer so it may perform appropriately.
+     *
+     * @param id The id the client gave the request, to be refused (0 for none).
+     */
+    private void fastRequest(long id)
+    {
+        this.networkServer.fastRequest(this.username, id);
+    }
+
+    /**
+     * Logs the user out of the NetworkServer if they were allowed to log in. Called once the connection is gone.
+     */
+    void close()
+    {
+        // logs user out from the server if they were allowed logged in
+        if(this.username != null)
+            this.networkServer.logout(this.username, this.location);
+        this.username = null;
+    }
+}
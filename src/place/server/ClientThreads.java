@@ -0,0 +1,47 @@
+package place.server;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks the kind of thread the PlaceClientThreads run on.
+ *
+ * Start the server with -Dplace.virtualThreads=true to run them on virtual threads.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+final class ClientThreads
+{
+    /**
+     * Whether virtual threads were asked for.
+     */
+    static final boolean VIRTUAL_REQUESTED = Boolean.getBoolean("place.virtualThreads");
+
+    /**
+     * No instances; this is just a home for factory().
+     */
+    private ClientThreads() {}
+
+    /**
+     * Gets the factory client threads should be made with.
+     *
+     * @return A virtual thread factory if one was asked for; a platform thread factory otherwise.
+     */
+    static ThreadFactory factory()
+    {
+        if(VIRTUAL_REQUESTED)
+            return Thread.ofVirtual().name("PlaceClient-", 0).factory();
+        return Thread::new;
+    }
+
+    /**
+     * Tells if the factory hands out virtual threads.
+     *
+     * @param factory A factory from factory().
+     *
+     * @return True if its threads are virtual.
+     */
+    static boolean isVirtual(ThreadFactory factory)
+    {
+        return factory.newThread(() -> {}).isVirtual();
+    }
+}
@@ -0,0 +1,222 @@
+package place.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import place.PlaceBoardExporter;
+import place.network.MetricsRegistry;
+import place.network.NetworkServer;
+
+/**
+ * A small HTTP endpoint the metrics of the server are scraped from, at /metrics, in the Prometheus text format. The
+ * board can be fetched from it too, as /board.txt (hex digits), /board.rgb (raw 8 bit RGB) or /board.png, which is
+ * cheap enough to be taken every few seconds for a timelapse.
+ *
+ * It only listens on the loopback address, so the metrics are only seen by whoever runs the server (or whatever they
+ * put in front of it), and it answers on a thread of its own, so a scrape never takes anything from the clients. The
+ * board is written out on another thread, so a slow download of a big board never holds up a scrape.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class MetricsEndpoint
+{
+    /**
+     * The content type of the Prometheus text format.
+     */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The number of boards that may be written out at once; one slow download only holds up the ones behind it.
+     */
+    private static final int EXPORT_THREADS = 2;
+
+    /**
+     * The HTTP server the endpoint runs on.
+     */
+    private final HttpServer server;
+
+    /**
+     * The thread the scrapes are answered on.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The threads the board is written out on.
+     */
+    private final ExecutorService exports;
+
+    /**
+     * Opens the endpoint and starts answering scrapes.
+     *
+     * @param port The port to listen on (on the loopback address).
+     * @param networkServer The network server whose metrics are scraped and whose board is exported.
+     *
+     * @throws IOException If the port can't be listened on.
+     */
+    MetricsEndpoint(int port, NetworkServer networkServer) throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/metrics", exchange -> scrape(exchange, networkServer.getMetrics()));
+        // the threads are daemons so they never keep a stopped server alive
+        this.executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "PlaceMetrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger exportCount = new AtomicInteger();
+        this.exports = Executors.newFixedThreadPool(EXPORT_THREADS, task -> {
+            Thread thread = new Thread(task, "PlaceExport-" + exportCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // every export thread keeps an exporter per format, so their buffers are reused every request
+        ThreadLocal<PlaceBoardExporter> hex = exporter(PlaceBoardExporter.Format.HEX);
+        ThreadLocal<PlaceBoardExporter> rgb = exporter(PlaceBoardExporter.Format.RGB);
+        ThreadLocal<PlaceBoardExporter> png = exporter(PlaceBoardExporter.Format.PNG);
+        this.server.createContext("/board.txt", exchange -> handOff(exchange, networkServer, hex));
+        this.server.createContext("/board.rgb", exchange -> handOff(exchange, networkServer, rgb));
+        this.server.createContext("/board.png", exchange -> handOff(exchange, networkServer, png));
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * Gets the port the endpoint listens on.
+     *
+     * @return The port.
+     */
+    int getPort()
+    {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Answers a scrape with the current value of every metric.
+     *
+     * @param exchange The scrape.
+     * @param metrics The metrics.
+     *
+     * @throws IOException If the answer can't be written.
+     */
+    private static void scrape(HttpExchange exchange, MetricsRegistry metrics) throws IOException
+    {
+        try
+        {
+            // the metrics are only read, anything else is turned away
+            if(!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if("HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Makes the exporters of a format, one for every export thread.
+     *
+     * @param format The format.
+     *
+     * @return The exporter of each thread.
+     */
+    private static ThreadLocal<PlaceBoardExporter> exporter(PlaceBoardExporter.Format format)
+    {
+        return ThreadLocal.withInitial(() -> new PlaceBoardExporter(format));
+    }
+
+    /**
+     * Hands a request for the board to the export threads, leaving the scrape thread free straight away.
+     *
+     * @param exchange The request.
+     * @param networkServer The network server whose board is written.
+     * @param exporters The exporters of the format asked for.
+     */
+    private void handOff(HttpExchange exchange, NetworkServer networkServer,
+                         ThreadLocal<PlaceBoardExporter> exporters)
+    {
+        this.exports.execute(() -> {
+            try
+            {
+                export(exchange, networkServer, exporters.get());
+            }
+            catch(IOException e)
+            {
+                // whoever asked for the board went away before it was written; nobody else is waiting on it
+            }
+        });
+    }
+
+    /**
+     * Answers a request for the board by writing it out as it is right now. The length of the board isn't known until
+     * it is written, so it is sent chunked.
+     *
+     * @param exchange The request.
+     * @param networkServer The network server whose board is written.
+     * @param exporter The exporter of the format asked for.
+     *
+     * @throws IOException If the answer can't be written.
+     */
+    private static void export(HttpExchange exchange, NetworkServer networkServer, PlaceBoardExporter exporter)
+            throws IOException
+    {
+        try
+        {
+            // the board is only read, anything else is turned away
+            if(!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", exporter.getFormat().getContentType());
+            if("HEAD".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, 0);
+            try(OutputStream out = exchange.getResponseBody())
+            {
+                networkServer.exportBoard(exporter, out);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stops answering scrapes.
+     */
+    void close()
+    {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+        this.exports.shutdownNow();
+    }
+}
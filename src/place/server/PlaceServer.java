@@ -6,16 +6,24 @@ import java.io.PrintWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ThreadFactory;
 
 import place.PlaceException;
 import place.network.NetworkServer;
+import place.network.PlaceJournal;
 
 /**
  * A PlaceServer is a location that PlaceClients can connect and create cool tile drawings.
  *
+ * Accepted connections are dealt out to a small pool of SelectorLoops, so a connection doesn't cost a thread.
+ *
+ * Start the server with -Dplace.journal=true to keep the board in a journal (in ./journal) so it survives a restart.
+ * By default the board starts out blank every time, as it always did.
+ *
  * This class implements closeable so its "close()" method is called automatically upon exit.
  *
  * @author Kevin Becker (kjb2503)
@@ -29,15 +37,48 @@ public class PlaceServer implements Closeable, AutoCloseable {
     private final static SimpleDateFormat TIME_STAMP_FORMAT = new SimpleDateFormat("MM-dd-yyyy HH.mm.ss");
 
     /**
-     * The ServerSocket which is used to connect to clients.
+     * The number of selector loops connections are spread over (one per core unless -Dplace.selectors=N is given).
+     */
+    private final static int SELECTOR_LOOPS =
+            Integer.getInteger("place.selectors", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * True if the board is kept in a journal in ./journal, so it survives a restart (-Dplace.journal=true turns it on;
+     * without it every run starts with a blank board and nothing is written to the disk).
+     */
+    private final static boolean JOURNAL = Boolean.getBoolean("place.journal");
+
+    /**
+     * The port the metrics are scraped from on the loopback address (-Dplace.metricsPort=N; -1 turns the endpoint
+     * off). By default it is the port after the server's.
+     */
+    private final static Integer METRICS_PORT = Integer.getInteger("place.metricsPort");
+
+    /**
+     * The ServerSocketChannel which is used to connect to clients.
+     */
+    private ServerSocketChannel server;
+
+    /**
+     * The selector loops which serve the connected clients.
+     */
+    private SelectorLoop[] loops;
+
+    /**
+     * The loop the next accepted connection is given to.
      */
-    private ServerSocket server;
+    private int nextLoop;
 
     /**
      * The NetworkServer which is the brains of the communication operation.
      */
     private NetworkServer networkServer;
 
+    /**
+     * The endpoint the metrics of the server are scraped from (null if it is turned off or couldn't be opened).
+     */
+    private MetricsEndpoint metrics;
+
     /**
      * The boolean which tells the listener thread if it should keep listening.
      */
@@ -98,14 +139,60 @@ public class PlaceServer implements Closeable, AutoCloseable {
 
             // makes a new server socket broadcasting on port
             log.print("= Opening PlaceServer on port " + port + "...");
-            this.server = new ServerSocket(port);
+            this.server = ServerSocketChannel.open();
+            this.server.bind(new InetSocketAddress(port));
             log.println("success.");
 
+            // opens the journal the board is recovered from (and kept in from now on)
+            PlaceJournal journal = null;
+            if(JOURNAL)
+            {
+                log.print("= Opening the journal...");
+                journal = new PlaceJournal(new File("journal"));
+                log.println("success.");
+            }
+
             // makes a new NetworkServer (the major brains of the program)
             log.print("= Building main communications...");
-            this.networkServer = new NetworkServer(dim, log);
+            this.networkServer = new NetworkServer(dim, log, journal);
+            log.println("success.");
+
+            // whatever way we go down, what has been committed makes it to the journal
+            Runtime.getRuntime().addShutdownHook(new Thread(this.networkServer::close, "PlaceShutdown"));
+
+            // picks the threads Java serialization clients run on (-Dplace.virtualThreads=true for virtual threads)
+            ThreadFactory clientThreads = ClientThreads.factory();
+            log.println("= Serialization clients run on " +
+                    (ClientThreads.isVirtual(clientThreads) ? "virtual" : "platform") + " threads.");
+
+            // starts the selector loops that will serve our clients
+            log.print("= Starting " + Math.max(1, SELECTOR_LOOPS) + " selector loop(s)...");
+            this.loops = new SelectorLoop[Math.max(1, SELECTOR_LOOPS)];
+            for(int i = 0; i < this.loops.length; ++i)
+            {
+                this.loops[i] = new SelectorLoop("PlaceSelector-" + i, this.networkServer, clientThreads);
+                this.loops[i].start();
+            }
             log.println("success.");
 
+            // opens the endpoint the metrics are scraped from; the server runs just as well without it
+            int metricsPort = (METRICS_PORT != null) ? METRICS_PORT : port + 1;
+            if(metricsPort >= 0)
+            {
+                log.print("= Opening the metrics endpoint on port " + metricsPort + "...");
+                try
+                {
+                    this.metrics = new MetricsEndpoint(metricsPort, this.networkServer);
+                    log.println("success.");
+                }
+                catch(IOException e)
+                {
+                    log.println("failed (" + e.getMessage() + ").");
+                    System.err.println("Couldn't open the metrics endpoint on port " + metricsPort + ": " +
+                            e.getMessage());
+                }
+            }
+
             log.println("= Startup sequence complete.");
             log.println("=============================================================================");
         }
@@ -123,7 +210,8 @@ public class PlaceServer implements Closeable, AutoCloseable {
     }
 
     /**
-     * Runs the server which essentially just accepts connections and spawns PlaceClientThreads until it is shut down.
+     * Runs the server which essentially just accepts connections and deals them out to the selector loops until it is
+     * shut down.
      *
      * @throws PlaceException if any sort of exception is run into, it is wrapped in a PlaceException.
      */
@@ -134,8 +222,9 @@ public class PlaceServer implements Closeable, AutoCloseable {
         {
             try
             {
-                // gather a new client and start it
-                new PlaceClientThread(server.accept(), this.networkServer).start();
+                // gather a new client and give it to the next loop
+                this.loops[this.nextLoop].register(this.server.accept());
+                this.nextLoop = (this.nextLoop + 1) % this.loops.length;
             }
             catch(Exception e)
             {
@@ -147,19 +236,27 @@ public class PlaceServer implements Closeable, AutoCloseable {
     }
 
     /**
-     * Closes the ServerSocket so that no more connections can be created.
+     * Closes the ServerSocketChannel so that no more connections can be created, then stops the selector loops.
      */
     public void close()
     {
+        // nobody scrapes a server that is going away
+        if(this.metrics != null)
+            this.metrics.close();
+        // stops the loops (and with them every connection)
+        for(SelectorLoop loop : this.loops)
+            loop.close();
         try
         {
-            // closes the ServerSocket (we're done with it if we're closing)
+            // closes the ServerSocketChannel (we're done with it if we're closing)
             this.server.close();
         }
         catch(IOException ioe)
         {
             // if this happens... well. :)
         }
+        // and makes sure every tile committed is in the journal
+        this.networkServer.close();
     }
 
     /**
@@ -0,0 +1,271 @@
+package place.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+
+import place.PlaceException;
+import place.network.NetworkServer;
+
+/**
+ * A single thread that serves many binary clients at once through a Selector. The PlaceServer runs a small pool of
+ * these and deals accepted sockets out to them.
+ *
+ * Clients that open with a Java serialization stream can't be read without blocking, so they are handed off to a
+ * PlaceClientThread of their own.
+ *
+ * @author Kevin Becker (kjb2503)
+ */
+class SelectorLoop
+{
+    /**
+     * The selector every connection of this loop is registered with.
+     */
+    private final Selector selector;
+
+    /**
+     * The NetworkServer the connections talk to.
+     */
+    private final NetworkServer networkServer;
+
+    /**
+     * Sockets that have been accepted but not registered with the selector yet (registration has to happen on the
+     * selector thread).
+     */
+    private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Keys that want OP_WRITE added, queued by threads other than the selector thread.
+     */
+    private final Queue<SelectionKey> writeInterest = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Connections that turned out to speak Java serialization and are waiting to be handed off.
+     */
+    private final List<ChannelConnection> handOffs = new ArrayList<>();
+
+    /**
+     * The factory the PlaceClientThreads of handed off connections are made with.
+     */
+    private final ThreadFactory clientThreads;
+
+    /**
+     * The name of the loop's thread.
+     */
+    private final String name;
+
+    /**
+     * The boolean which tells the loop if it should keep going.
+     */
+    private volatile boolean go;
+
+    /**
+     * Creates a new loop.
+     *
+     * @param name The name of the loop's thread.
+     * @param networkServer The NetworkServer the connections talk to.
+     * @param clientThreads The factory the PlaceClientThreads of handed off connections are made with.
+     *
+     * @throws IOException If the selector can't be opened.
+     */
+    SelectorLoop(String name, NetworkServer networkServer, ThreadFactory clientThreads) throws IOException
+    {
+        this.name = name;
+        this.networkServer = networkServer;
+        this.clientThreads = clientThreads;
+        this.selector = Selector.open();
+        this.go = true;
+    }
+
+    /**
+     * Starts the loop's thread.
+     */
+    void start()
+    {
+        new Thread(this::run, this.name).start();
+    }
+
+    /**
+     * Gives the loop a newly accepted socket to serve.
+     *
+     * @param channel The socket.
+     */
+    void register(SocketChannel channel)
+    {
+        this.accepted.add(channel);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to tell a connection when its socket can take more bytes. Safe to call from any thread.
+     *
+     * @param key The key of the connection.
+     */
+    void interestedInWrite(SelectionKey key)
+    {
+        this.writeInterest.add(key);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Marks a connection to be handed off to a PlaceClientThread once the current round of events is done.
+     * Only called on the selector thread.
+     *
+     * @param connection The connection.
+     */
+    void handOff(ChannelConnection connection)
+    {
+        this.handOffs.add(connection);
+    }
+
+    /**
+     * Runs the loop: waits for sockets to have something for us, then lets their connections deal with it.
+     */
+    private void run()
+    {
+        while(this.go)
+        {
+            try
+            {
+                this.selector.select();
+
+                registerAccepted();
+                addWriteInterest();
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while(keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    ChannelConnection connection = (ChannelConnection) key.attachment();
+                    try
+                    {
+                        if(key.isValid() && key.isReadable())
+                            connection.read();
+                        if(key.isValid() && key.isWritable())
+                            connection.flush();
+                    }
+                    catch(RuntimeException | OutOfMemoryError | StackOverflowError e)
+                    {
+                        // whatever one client did to us, it only costs that client its connection, never the loop
+                        // (and every other connection on it)
+                        connection.close();
+                    }
+                }
+
+                handOffAll();
+            }
+            catch(IOException e)
+            {
+                // the selector itself has failed; nothing left to do but stop
+                this.go = false;
+            }
+        }
+    }
+
+    /**
+     * Registers every socket that has been accepted since the last round.
+     */
+    private void registerAccepted()
+    {
+        SocketChannel channel;
+        while((channel = this.accepted.poll()) != null)
+        {
+            try
+            {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                ChannelConnection connection = new ChannelConnection(channel, this, this.networkServer);
+                connection.setKey(channel.register(this.selector, SelectionKey.OP_READ, connection));
+            }
+            catch(IOException e)
+            {
+                try { channel.close(); } catch(IOException ignored) { /* it's gone either way */ }
+            }
+        }
+    }
+
+    /**
+     * Adds OP_WRITE for every connection that asked for it since the last round.
+     */
+    private void addWriteInterest()
+    {
+        SelectionKey key;
+        while((key = this.writeInterest.poll()) != null)
+        {
+            if(key.isValid())
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Takes the connections that speak Java serialization out of the selector, switches their sockets back to
+     * blocking and gives each one a PlaceClientThread.
+     *
+     * @throws IOException If the selector fails.
+     */
+    private void handOffAll() throws IOException
+    {
+        if(this.handOffs.isEmpty())
+            return;
+
+        for(ChannelConnection connection : this.handOffs)
+            connection.getChannel().keyFor(this.selector).cancel();
+        // a cancelled key is only removed from the selector on the next select
+        this.selector.selectNow();
+
+        for(ChannelConnection connection : this.handOffs)
+        {
+            SocketChannel channel = connection.getChannel();
+            try
+            {
+                channel.configureBlocking(true);
+                Socket socket = channel.socket();
+                // the bytes we already read are put back in front of the rest of the stream
+                new PlaceClientThread(
+                        new SequenceInputStream(new ByteArrayInputStream(connection.takeUnread()),
+                                socket.getInputStream()),
+                        socket.getOutputStream(), connection.getLocation(), this.networkServer
+                ).start(this.clientThreads);
+            }
+            catch(IOException | PlaceException e)
+            {
+                try { channel.close(); } catch(IOException ignored) { /* it's gone either way */ }
+            }
+        }
+        this.handOffs.clear();
+    }
+
+    /**
+     * Stops the loop and closes every connection it serves.
+     */
+    void close()
+    {
+        this.go = false;
+        for(SelectionKey key : this.selector.keys())
+        {
+            if(key.attachment() instanceof ChannelConnection)
+                ((ChannelConnection) key.attachment()).close();
+        }
+        try
+        {
+            this.selector.close();
+        }
+        catch(IOException e)
+        {
+            // if this happens... well. :)
+        }
+    }
+}